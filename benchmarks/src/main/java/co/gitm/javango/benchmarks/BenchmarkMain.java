@@ -0,0 +1,61 @@
+package co.gitm.javango.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks (all of them, or those matching the given patterns) with
+ * JMH's usual command line options, e.g.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar -f 1 -wi 3 -i 5 ResultSetConversion
+ * </pre>
+ *
+ * Unless told otherwise, it adds the GC profiler (so that the bytes allocated
+ * per operation, gc.alloc.rate.norm, are reported next to the throughput) and
+ * writes the results as JSON to target/jmh-result.json, which CompareResults
+ * compares between two runs (e.g. of two commits).
+ *
+ */
+public class BenchmarkMain {
+	public static final String DEFAULT_RESULT = "target/jmh-result.json";
+
+	public static void main(String[] args) throws RunnerException,
+			CommandLineOptionException, IOException {
+		CommandLineOptions cmdOptions = new CommandLineOptions(args);
+		if (cmdOptions.shouldHelp() || cmdOptions.shouldList()
+				|| cmdOptions.shouldListProfilers()
+				|| cmdOptions.shouldListResultFormats()
+				|| cmdOptions.shouldListWithParams()) {
+			// Let JMH's own main handle the options which only print.
+			Main.main(args);
+			return;
+		}
+		ChainedOptionsBuilder options = new OptionsBuilder()
+				.parent(cmdOptions);
+		if (cmdOptions.getProfilers().isEmpty()) {
+			options.addProfiler(GCProfiler.class);
+		}
+		if (!cmdOptions.getResultFormat().hasValue()) {
+			options.resultFormat(ResultFormatType.JSON);
+		}
+		if (!cmdOptions.getResult().hasValue()) {
+			File result = new File(DEFAULT_RESULT);
+			if (result.getParentFile() != null) {
+				result.getParentFile().mkdirs();
+			}
+			options.result(result.getPath());
+		}
+		new Runner(options.build()).run();
+	}
+}
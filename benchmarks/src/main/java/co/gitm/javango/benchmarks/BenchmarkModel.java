@@ -0,0 +1,76 @@
+package co.gitm.javango.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+import co.gitm.javango.data.DataObject;
+import co.gitm.javango.data.DataSource;
+import co.gitm.javango.model.Field;
+import co.gitm.javango.model.FieldType;
+import co.gitm.javango.model.Model;
+import co.gitm.javango.model.UnindexedFilterPolicy;
+
+/**
+ * A model with the fields of the books example's BookModel, so that the
+ * benchmarks work on objects of a realistic shape.
+ *
+ */
+public class BenchmarkModel extends Model {
+	public static final String NAME = "books_books";
+
+	private final DataSource db;
+
+	public BenchmarkModel(DataSource db) {
+		this.db = db;
+	}
+
+	/**
+	 * @return a new book which passes validation.
+	 */
+	public static DataObject newBook() {
+		DataObject book = new DataObject(NAME);
+		book.put("isbn", "978-0-452-28423-4");
+		book.put("title", "Nineteen Eighty-Four");
+		book.put("authors", "George Orwell");
+		book.put("rrp", new BigDecimal("9.99"));
+		book.put("description", "A dystopian novel about surveillance,"
+				+ " propaganda and the rewriting of history.");
+		book.put("edition", "Centennial");
+		book.put("format", "Paperback");
+		return book;
+	}
+
+	@Override
+	protected DataSource getDataSource() {
+		return db;
+	}
+
+	/**
+	 * So that filters are checked for an index, as they are in most
+	 * applications.
+	 */
+	@Override
+	protected UnindexedFilterPolicy getUnindexedFilterPolicy() {
+		return UnindexedFilterPolicy.REJECT;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	protected List<Field> defineFields() {
+		return Arrays.asList(
+				Field.generated("id", FieldType.INTEGER),
+				Field.required("isbn", FieldType.STRING, 17).indexed(),
+				Field.required("title", FieldType.STRING, 255),
+				Field.required("authors", FieldType.STRING, 255).indexed(),
+				Field.optional("image", FieldType.STRING, 255),
+				Field.optional("rrp", FieldType.DECIMAL),
+				Field.optional("description", FieldType.STRING),
+				Field.optional("edition", FieldType.STRING, 255),
+				Field.optional("format", FieldType.STRING, 255));
+	}
+}
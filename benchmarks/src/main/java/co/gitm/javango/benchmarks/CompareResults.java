@@ -0,0 +1,150 @@
+package co.gitm.javango.benchmarks;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Compares two JSON result files written by BenchmarkMain (e.g. one from before
+ * a change and one from after it), printing for each benchmark (and set of
+ * parameters) run in both the change in throughput and in bytes allocated per
+ * operation:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar co.gitm.javango.benchmarks.CompareResults before.json after.json
+ * </pre>
+ *
+ * Changes smaller than the scores' errors are marked with a "~", as they are
+ * likely to be noise.
+ *
+ */
+public class CompareResults {
+	private static final String ALLOCATION = "gc.alloc.rate.norm";
+
+	private static final class Score {
+		final double score;
+		final double error;
+
+		Score(JSONObject metric) {
+			this.score = number(metric.get("score"));
+			this.error = number(metric.get("scoreError"));
+		}
+	}
+
+	private static final class Result {
+		Score primary;
+		Score allocation;
+	}
+
+	public static void main(String[] args) throws IOException, ParseException {
+		if (args.length != 2) {
+			System.err.println("Usage: CompareResults before.json after.json");
+			System.exit(2);
+		}
+		Map<String, Result> before = read(args[0]);
+		Map<String, Result> after = read(args[1]);
+		System.out.println(String.format("%-70s %14s %14s %9s %12s %12s %9s",
+				"Benchmark", "Before", "After", "Change", "Before B/op",
+				"After B/op", "Change"));
+		for (Map.Entry<String, Result> entry : before.entrySet()) {
+			Result next = after.get(entry.getKey());
+			if (next == null) {
+				continue;
+			}
+			Result previous = entry.getValue();
+			StringBuilder line = new StringBuilder(String.format(
+					"%-70s %14.2f %14.2f %9s", entry.getKey(),
+					previous.primary.score, next.primary.score,
+					change(previous.primary, next.primary)));
+			if (previous.allocation != null && next.allocation != null) {
+				line.append(String.format(" %12.1f %12.1f %9s",
+						previous.allocation.score, next.allocation.score,
+						change(previous.allocation, next.allocation)));
+			}
+			System.out.println(line);
+		}
+		for (String benchmark : after.keySet()) {
+			if (!before.containsKey(benchmark)) {
+				System.out.println(String.format("%-70s %14s", benchmark,
+						"(new)"));
+			}
+		}
+	}
+
+	/**
+	 * @return the results in file, keyed by benchmark name and parameters.
+	 */
+	private static Map<String, Result> read(String file) throws IOException,
+			ParseException {
+		Reader reader = new InputStreamReader(new FileInputStream(file),
+				"UTF-8");
+		JSONArray runs;
+		try {
+			runs = (JSONArray) new JSONParser().parse(reader);
+		} finally {
+			reader.close();
+		}
+		Map<String, Result> results = new LinkedHashMap<String, Result>();
+		for (Object element : runs) {
+			JSONObject run = (JSONObject) element;
+			Result result = new Result();
+			result.primary = new Score((JSONObject) run.get("primaryMetric"));
+			JSONObject secondary = (JSONObject) run.get("secondaryMetrics");
+			if (secondary != null && secondary.get(ALLOCATION) != null) {
+				result.allocation = new Score(
+						(JSONObject) secondary.get(ALLOCATION));
+			}
+			results.put(key(run), result);
+		}
+		return results;
+	}
+
+	private static String key(JSONObject run) {
+		String benchmark = (String) run.get("benchmark");
+		String key = benchmark.substring(benchmark.lastIndexOf('.',
+				benchmark.lastIndexOf('.') - 1) + 1);
+		JSONObject params = (JSONObject) run.get("params");
+		if (params != null && !params.isEmpty()) {
+			// Sorted, so that the key does not depend on the file's order.
+			Map<Object, Object> sorted = new TreeMap<Object, Object>(params);
+			key += sorted.toString();
+		}
+		return key;
+	}
+
+	/**
+	 * @return the change from previous to next as a percentage, prefixed with
+	 *         "~" if it is within their errors.
+	 */
+	private static String change(Score previous, Score next) {
+		if (previous.score == 0) {
+			return next.score == 0 ? "0%" : "n/a";
+		}
+		double percent = (next.score - previous.score) / previous.score * 100;
+		boolean noise = Math.abs(next.score - previous.score) <= errorOf(previous)
+				+ errorOf(next);
+		return String.format("%s%+.1f%%", noise ? "~" : "", percent);
+	}
+
+	private static double errorOf(Score score) {
+		// NaN when there were too few iterations to estimate the error.
+		return Double.isNaN(score.error) ? 0 : score.error;
+	}
+
+	private static double number(Object value) {
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		}
+		// JMH writes "NaN" for scores it cannot compute.
+		return Double.NaN;
+	}
+}
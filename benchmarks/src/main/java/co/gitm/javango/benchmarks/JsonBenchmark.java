@@ -0,0 +1,64 @@
+package co.gitm.javango.benchmarks;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import co.gitm.javango.data.DataObject;
+import co.gitm.javango.data.DataObjectArray;
+import co.gitm.javango.data.mysql.ResultSetToDataObjectArray;
+
+/**
+ * Measures reading a posted object (DataObject.instanceFromJson) and
+ * serializing a set of results (DataObjectArray.toString) of the given number
+ * of rows, as read from a StubResultSet.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class JsonBenchmark {
+	/**
+	 * The results to serialize, so that only serialize is run for each
+	 * number of rows.
+	 */
+	@State(Scope.Thread)
+	public static class Results {
+		@Param({ "10", "1000" })
+		public int rows;
+
+		DataObjectArray results;
+
+		@Setup
+		public void setUp() throws SQLException {
+			results = ResultSetToDataObjectArray.convert(new StubResultSet(8,
+					rows));
+		}
+	}
+
+	private String bookJson;
+
+	@Setup
+	public void setUp() {
+		bookJson = BenchmarkModel.newBook().toString();
+	}
+
+	@Benchmark
+	public DataObject instanceFromJson() throws ParseException {
+		return DataObject.instanceFromJson(bookJson);
+	}
+
+	@Benchmark
+	public String serialize(Results results) {
+		return results.results.toString();
+	}
+}
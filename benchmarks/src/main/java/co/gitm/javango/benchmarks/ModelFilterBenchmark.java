@@ -0,0 +1,64 @@
+package co.gitm.javango.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import co.gitm.javango.data.DataObject;
+import co.gitm.javango.data.DataObjectArray;
+import co.gitm.javango.data.InMemoryDataSource;
+import co.gitm.javango.data.exceptions.RetrieveException;
+import co.gitm.javango.data.exceptions.ValidationException;
+
+/**
+ * Measures the checks a Model makes before going to its datasource:
+ * getWithFilter checks the filter's fields (and that one of them is indexed),
+ * validate checks a new object against the model's fields. The datasource is an
+ * empty InMemoryDataSource, so that its cost is negligible next to the checks'.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ModelFilterBenchmark {
+	private InMemoryDataSource db;
+	private BenchmarkModel model;
+	private Map<String, String> filter;
+	private DataObject book;
+
+	@Setup
+	public void setUp() {
+		db = new InMemoryDataSource();
+		model = new BenchmarkModel(db);
+		filter = new HashMap<String, String>();
+		filter.put("authors", "George Orwell");
+		filter.put("format", "Paperback");
+		book = BenchmarkModel.newBook();
+	}
+
+	@TearDown
+	public void tearDown() {
+		db.close();
+	}
+
+	@Benchmark
+	public DataObjectArray getWithFilter() throws NoSuchFieldException,
+			RetrieveException {
+		return model.getWithFilter(filter);
+	}
+
+	@Benchmark
+	public DataObject validate() throws ValidationException {
+		model.validate(book);
+		return book;
+	}
+}
@@ -0,0 +1,79 @@
+package co.gitm.javango.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import co.gitm.javango.data.DataObject;
+import co.gitm.javango.data.Query;
+import co.gitm.javango.data.mysql.CompiledStatement;
+import co.gitm.javango.data.mysql.QueryCompiler;
+
+/**
+ * Measures the SQL generation done by MySqlDataSource for every query and
+ * insert. The compiler caches the SQL of each query shape, so the *Cached
+ * benchmarks (which share one compiler, like MySqlDataSource) measure the usual
+ * case and the *Uncached ones (which use a new compiler each time) measure the
+ * first query of each shape.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class QueryCompilerBenchmark {
+	private QueryCompiler compiler;
+	private Query filtered;
+	private Query paged;
+	private DataObject book;
+
+	@Setup
+	public void setUp() {
+		compiler = new QueryCompiler();
+		Map<String, String> filter = new HashMap<String, String>();
+		filter.put("authors", "George Orwell");
+		filter.put("format", "Paperback");
+		filtered = new Query(BenchmarkModel.NAME);
+		filtered.setFilter(filter);
+		filtered.setKeyField("id");
+		paged = new Query(BenchmarkModel.NAME);
+		paged.setFilter(filter);
+		paged.setKeyField("id");
+		paged.setOrder("title");
+		paged.setLimit(50);
+		paged.setSeekAfter("Animal Farm", Integer.valueOf(1234));
+		book = BenchmarkModel.newBook();
+	}
+
+	@Benchmark
+	public CompiledStatement selectCached() {
+		return compiler.compileSelect(filtered);
+	}
+
+	@Benchmark
+	public CompiledStatement selectUncached() {
+		return new QueryCompiler().compileSelect(filtered);
+	}
+
+	@Benchmark
+	public CompiledStatement pagedSelectCached() {
+		return compiler.compileSelect(paged);
+	}
+
+	@Benchmark
+	public CompiledStatement insertCached() {
+		return compiler.compileInsert(book);
+	}
+
+	@Benchmark
+	public CompiledStatement insertUncached() {
+		return new QueryCompiler().compileInsert(book);
+	}
+}
@@ -0,0 +1,55 @@
+package co.gitm.javango.benchmarks;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import co.gitm.javango.data.DataObjectArray;
+import co.gitm.javango.data.mysql.ResultSetToDataObjectArray;
+
+/**
+ * Measures ResultSetToDataObjectArray.convert, which every
+ * MySqlDataSource.retrieve goes through, over a StubResultSet of columns by
+ * rows. convertWithShape reuses the RowMapper cached for a query shape (as
+ * MySqlDataSource does), convert compiles a new one each time.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ResultSetConversionBenchmark {
+	@Param({ "4", "16" })
+	public int columns;
+
+	@Param({ "10", "1000" })
+	public int rows;
+
+	private StubResultSet resultSet;
+	private String shape;
+
+	@Setup
+	public void setUp() {
+		resultSet = new StubResultSet(columns, rows);
+		shape = "benchmark_" + columns;
+	}
+
+	@Benchmark
+	public DataObjectArray convert() throws SQLException {
+		resultSet.reset();
+		return ResultSetToDataObjectArray.convert(resultSet);
+	}
+
+	@Benchmark
+	public DataObjectArray convertWithShape() throws SQLException {
+		resultSet.reset();
+		return ResultSetToDataObjectArray.convert(resultSet, shape);
+	}
+}
@@ -0,0 +1,180 @@
+package co.gitm.javango.benchmarks;
+
+import java.math.BigDecimal;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An in-process ResultSet over a table of a given number of columns (width) and
+ * rows (height), so that the cost of reading a result set (e.g.
+ * ResultSetToDataObjectArray.convert) can be measured without a database.
+ * Columns cycle through the types of a typical table (INTEGER, VARCHAR, BIGINT,
+ * DOUBLE, VARCHAR, DECIMAL, TIMESTAMP, VARCHAR) and every row holds the same
+ * values: only the cursor moves, so the time measured is spent in the code
+ * reading the result set. Call reset to read it again.
+ *
+ */
+public class StubResultSet extends AbstractResultSet {
+	private static final int[] TYPES = { Types.INTEGER, Types.VARCHAR,
+			Types.BIGINT, Types.DOUBLE, Types.VARCHAR, Types.DECIMAL,
+			Types.TIMESTAMP, Types.VARCHAR };
+
+	private final int rows;
+	private final String[] names;
+	private final int[] types;
+	private final Object[] values;
+	private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+	private final ResultSetMetaData metaData;
+	private int row = 0;
+	private boolean lastWasNull = false;
+
+	/**
+	 * @param columns
+	 *            width of the table.
+	 * @param rows
+	 *            height of the table.
+	 */
+	public StubResultSet(int columns, int rows) {
+		this.rows = rows;
+		this.names = new String[columns];
+		this.types = new int[columns];
+		this.values = new Object[columns];
+		for (int i = 0; i < columns; i++) {
+			names[i] = "column_" + i;
+			types[i] = TYPES[i % TYPES.length];
+			values[i] = sampleValue(types[i], i);
+			indexes.put(names[i], i + 1);
+		}
+		this.metaData = new StubResultSetMetaData(names, types);
+	}
+
+	/**
+	 * Moves the cursor back before the first row.
+	 */
+	public void reset() {
+		row = 0;
+	}
+
+	private static Object sampleValue(int type, int column) {
+		switch (type) {
+		case Types.INTEGER:
+			return Integer.valueOf(column * 7);
+		case Types.BIGINT:
+			return Long.valueOf(5000000000L + column);
+		case Types.DOUBLE:
+			return Double.valueOf(column * 1.5);
+		case Types.DECIMAL:
+			return new BigDecimal("19.95");
+		case Types.TIMESTAMP:
+			return new Timestamp(1400000000000L);
+		default:
+			return "Value of column " + column + ", with a \"quote\"";
+		}
+	}
+
+	private Object value(int columnIndex) throws SQLException {
+		if (row < 1 || row > rows) {
+			throw new SQLException("The cursor is not on a row.");
+		}
+		Object value = values[columnIndex - 1];
+		lastWasNull = value == null;
+		return value;
+	}
+
+	@Override
+	public boolean next() {
+		return ++row <= rows;
+	}
+
+	@Override
+	public ResultSetMetaData getMetaData() {
+		return metaData;
+	}
+
+	@Override
+	public int findColumn(String columnLabel) throws SQLException {
+		Integer index = indexes.get(columnLabel);
+		if (index == null) {
+			throw new SQLException("No such column: " + columnLabel);
+		}
+		return index;
+	}
+
+	@Override
+	public boolean wasNull() {
+		return lastWasNull;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public boolean isClosed() {
+		return false;
+	}
+
+	@Override
+	public Object getObject(int columnIndex) throws SQLException {
+		return this.value(columnIndex);
+	}
+
+	@Override
+	public Object getObject(String columnLabel) throws SQLException {
+		return this.getObject(this.findColumn(columnLabel));
+	}
+
+	@Override
+	public String getString(int columnIndex) throws SQLException {
+		Object value = this.value(columnIndex);
+		return value == null ? null : value.toString();
+	}
+
+	@Override
+	public String getString(String columnLabel) throws SQLException {
+		return this.getString(this.findColumn(columnLabel));
+	}
+
+	@Override
+	public String getNString(int columnIndex) throws SQLException {
+		return this.getString(columnIndex);
+	}
+
+	@Override
+	public int getInt(int columnIndex) throws SQLException {
+		Object value = this.value(columnIndex);
+		return value == null ? 0 : ((Number) value).intValue();
+	}
+
+	@Override
+	public long getLong(int columnIndex) throws SQLException {
+		Object value = this.value(columnIndex);
+		return value == null ? 0 : ((Number) value).longValue();
+	}
+
+	@Override
+	public float getFloat(int columnIndex) throws SQLException {
+		Object value = this.value(columnIndex);
+		return value == null ? 0 : ((Number) value).floatValue();
+	}
+
+	@Override
+	public double getDouble(int columnIndex) throws SQLException {
+		Object value = this.value(columnIndex);
+		return value == null ? 0 : ((Number) value).doubleValue();
+	}
+
+	@Override
+	public BigDecimal getBigDecimal(int columnIndex) throws SQLException {
+		return (BigDecimal) this.value(columnIndex);
+	}
+
+	@Override
+	public Timestamp getTimestamp(int columnIndex) throws SQLException {
+		return (Timestamp) this.value(columnIndex);
+	}
+}
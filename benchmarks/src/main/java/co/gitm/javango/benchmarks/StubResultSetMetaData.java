@@ -0,0 +1,174 @@
+package co.gitm.javango.benchmarks;
+
+import java.math.BigDecimal;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+/**
+ * The metadata of a StubResultSet: column names (which are also their labels)
+ * and JDBC types. Columns belong to no table, schema or catalog.
+ *
+ */
+public class StubResultSetMetaData implements ResultSetMetaData {
+	private final String[] names;
+	private final int[] types;
+
+	StubResultSetMetaData(String[] names, int[] types) {
+		this.names = names;
+		this.types = types;
+	}
+
+	@Override
+	public int getColumnCount() {
+		return names.length;
+	}
+
+	@Override
+	public String getColumnLabel(int column) {
+		return names[column - 1];
+	}
+
+	@Override
+	public String getColumnName(int column) {
+		return names[column - 1];
+	}
+
+	@Override
+	public int getColumnType(int column) {
+		return types[column - 1];
+	}
+
+	@Override
+	public String getColumnTypeName(int column) {
+		switch (types[column - 1]) {
+		case Types.INTEGER:
+			return "INT";
+		case Types.BIGINT:
+			return "BIGINT";
+		case Types.DOUBLE:
+			return "DOUBLE";
+		case Types.DECIMAL:
+			return "DECIMAL";
+		case Types.TIMESTAMP:
+			return "TIMESTAMP";
+		default:
+			return "VARCHAR";
+		}
+	}
+
+	@Override
+	public String getColumnClassName(int column) {
+		switch (types[column - 1]) {
+		case Types.INTEGER:
+			return Integer.class.getName();
+		case Types.BIGINT:
+			return Long.class.getName();
+		case Types.DOUBLE:
+			return Double.class.getName();
+		case Types.DECIMAL:
+			return BigDecimal.class.getName();
+		case Types.TIMESTAMP:
+			return Timestamp.class.getName();
+		default:
+			return String.class.getName();
+		}
+	}
+
+	@Override
+	public boolean isSigned(int column) {
+		switch (types[column - 1]) {
+		case Types.INTEGER:
+		case Types.BIGINT:
+		case Types.DOUBLE:
+		case Types.DECIMAL:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	@Override
+	public int getColumnDisplaySize(int column) {
+		return 255;
+	}
+
+	@Override
+	public int getPrecision(int column) {
+		return 0;
+	}
+
+	@Override
+	public int getScale(int column) {
+		return types[column - 1] == Types.DECIMAL ? 2 : 0;
+	}
+
+	@Override
+	public String getTableName(int column) {
+		return "";
+	}
+
+	@Override
+	public String getSchemaName(int column) {
+		return "";
+	}
+
+	@Override
+	public String getCatalogName(int column) {
+		return "";
+	}
+
+	@Override
+	public boolean isAutoIncrement(int column) {
+		return false;
+	}
+
+	@Override
+	public boolean isCaseSensitive(int column) {
+		return types[column - 1] == Types.VARCHAR;
+	}
+
+	@Override
+	public boolean isCurrency(int column) {
+		return false;
+	}
+
+	@Override
+	public int isNullable(int column) {
+		return columnNoNulls;
+	}
+
+	@Override
+	public boolean isSearchable(int column) {
+		return true;
+	}
+
+	@Override
+	public boolean isReadOnly(int column) {
+		return true;
+	}
+
+	@Override
+	public boolean isWritable(int column) {
+		return false;
+	}
+
+	@Override
+	public boolean isDefinitelyWritable(int column) {
+		return false;
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) {
+		return iface.isInstance(this);
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (!iface.isInstance(this)) {
+			throw new SQLException("Not a wrapper for " + iface.getName());
+		}
+		return iface.cast(this);
+	}
+}
@@ -0,0 +1,280 @@
+package co.gitm.javango.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import co.gitm.javango.loadtest.Workload.Operation;
+import co.gitm.javango.loadtest.Workload.Request;
+
+/**
+ * Sends the requests of a Workload to an application at a fixed rate from a
+ * number of concurrent clients (threads, each with its own keep-alive
+ * connection).
+ *
+ * The load is open: request n is due rate * n seconds after the start, whether
+ * or not earlier requests have been answered. Each client takes the next due
+ * request, waits until it is due (if it is not already late) and sends it. When
+ * the application slows down and every client is busy, requests are sent late
+ * rather than not at all, and their latency is measured from when they were due
+ * (see OperationStats), so that the report is not flattered by the load
+ * generator backing off.
+ *
+ * Requests due in the warm-up are sent but not recorded. Requests still unsent
+ * once the run is over by more than the timeout are counted as missed: if there
+ * are any, the application could not keep up with the rate (or there are too
+ * few clients for it). Missed requests are recorded as errors with the latency
+ * they had reached by then, so that the percentiles are not flattered by
+ * leaving out the requests which waited longest.
+ *
+ */
+public class LoadGenerator {
+	/**
+	 * A response, which has been read in full.
+	 */
+	public static final class Response {
+		private final int status;
+		private final long bytes;
+
+		Response(int status, long bytes) {
+			this.status = status;
+			this.bytes = bytes;
+		}
+
+		public int getStatus() {
+			return status;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * @return whether the status is 2xx or 304 Not Modified.
+		 */
+		public boolean isSuccess() {
+			return (status >= 200 && status < 300) || status == 304;
+		}
+	}
+
+	private final String baseUrl;
+	private final Workload workload;
+	private final int clients;
+	private final double rate;
+	private final int timeoutMillis;
+	private final boolean gzip;
+	private final Map<Operation, OperationStats> stats = new EnumMap<Operation, OperationStats>(
+			Operation.class);
+	private final OperationStats total = new OperationStats("total");
+	private final AtomicLong nextSlot = new AtomicLong();
+	private long scheduled = 0;
+
+	/**
+	 * @param baseUrl
+	 *            of the application, e.g. http://localhost:8080.
+	 * @param rate
+	 *            requests per second, sent by all of the clients together.
+	 * @param timeoutMillis
+	 *            to connect, and to wait for each response.
+	 * @param gzip
+	 *            whether to accept gzip compressed responses.
+	 */
+	public LoadGenerator(String baseUrl, Workload workload, int clients,
+			double rate, int timeoutMillis, boolean gzip) {
+		if (clients < 1 || rate <= 0) {
+			throw new IllegalArgumentException(
+					"There must be at least one client, and a positive rate.");
+		}
+		this.baseUrl = baseUrl;
+		this.workload = workload;
+		this.clients = clients;
+		this.rate = rate;
+		this.timeoutMillis = timeoutMillis;
+		this.gzip = gzip;
+		for (Operation operation : workload.getOperations()) {
+			stats.put(operation, new OperationStats(operation.getName()));
+		}
+	}
+
+	/**
+	 * Sends the workload's requests for warmupSeconds and then
+	 * durationSeconds, and waits for their responses.
+	 */
+	public void run(int warmupSeconds, int durationSeconds)
+			throws InterruptedException {
+		final double intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+		final long start = System.nanoTime();
+		final long measureFrom = start
+				+ TimeUnit.SECONDS.toNanos(warmupSeconds);
+		final long end = measureFrom
+				+ TimeUnit.SECONDS.toNanos(durationSeconds);
+		final long deadline = end
+				+ TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		scheduled = (long) Math.ceil((end - start) / intervalNanos)
+				- (long) Math.ceil((measureFrom - start) / intervalNanos);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < clients; i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					LoadGenerator.this.sendUntil(start, intervalNanos,
+							measureFrom, end, deadline);
+				}
+			}, "loadtest-client-" + i);
+			thread.setDaemon(true);
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+	/**
+	 * Run by each client: sends the next due request until none are due
+	 * before end. Once it is past deadline, the remaining requests are
+	 * recorded as missed instead of being sent.
+	 */
+	private void sendUntil(long start, double intervalNanos,
+			long measureFrom, long end, long deadline) {
+		Random random = new Random();
+		while (true) {
+			long slot = nextSlot.getAndIncrement();
+			long due = start + (long) (slot * intervalNanos);
+			if (due >= end) {
+				return;
+			}
+			if (System.nanoTime() > deadline) {
+				if (due >= measureFrom) {
+					Request request = workload.next(random, slot);
+					stats.get(request.getOperation()).recordMissed(
+							deadline - due);
+					total.recordMissed(deadline - due);
+				}
+				continue;
+			}
+			long wait;
+			while ((wait = due - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			Request request = workload.next(random, slot);
+			long sent = System.nanoTime();
+			String failure = null;
+			long bytes = 0;
+			try {
+				Response response = this.send(request);
+				bytes = response.getBytes();
+				if (!response.isSuccess()) {
+					failure = String.valueOf(response.getStatus());
+				}
+			} catch (IOException e) {
+				failure = e.getClass().getSimpleName();
+			}
+			long done = System.nanoTime();
+			if (due >= measureFrom) {
+				stats.get(request.getOperation()).record(done - due,
+						done - sent, bytes, failure);
+				total.record(done - due, done - sent, bytes, failure);
+			}
+		}
+	}
+
+	/**
+	 * Sends request, and reads the whole response (so that the connection
+	 * can be reused).
+	 *
+	 * @throws IOException
+	 *             if the request could not be sent, or the response could not
+	 *             be read (e.g. timed out).
+	 */
+	public Response send(Request request) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl
+				+ request.getPath()).openConnection();
+		connection.setConnectTimeout(timeoutMillis);
+		connection.setReadTimeout(timeoutMillis);
+		connection.setRequestMethod(request.getMethod());
+		connection.setRequestProperty("Accept", "application/json");
+		if (gzip) {
+			connection.setRequestProperty("Accept-Encoding", "gzip");
+		}
+		if (request.getBody() != null) {
+			byte[] body = request.getBody().getBytes("UTF-8");
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(body.length);
+			connection.setRequestProperty("Content-Type",
+					"application/json; charset=UTF-8");
+			OutputStream out = connection.getOutputStream();
+			try {
+				out.write(body);
+			} finally {
+				out.close();
+			}
+		}
+		int status = connection.getResponseCode();
+		InputStream in = status >= 400 ? connection.getErrorStream()
+				: connection.getInputStream();
+		long bytes = 0;
+		if (in != null) {
+			try {
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					bytes += read;
+				}
+			} finally {
+				in.close();
+			}
+		}
+		return new Response(status, bytes);
+	}
+
+	/**
+	 * @return the stats of each operation of the workload.
+	 */
+	public Map<Operation, OperationStats> getStats() {
+		return Collections.unmodifiableMap(stats);
+	}
+
+	/**
+	 * @return the stats of all of the operations together.
+	 */
+	public OperationStats getTotal() {
+		return total;
+	}
+
+	/**
+	 * @return number of requests due after the warm-up.
+	 */
+	public long getScheduledCount() {
+		return scheduled;
+	}
+
+	/**
+	 * @return number of requests due after the warm-up which were never
+	 *         sent, because the run was over.
+	 */
+	public long getMissedCount() {
+		return total.getMissedCount();
+	}
+
+	public double getRate() {
+		return rate;
+	}
+
+	public int getClients() {
+		return clients;
+	}
+}
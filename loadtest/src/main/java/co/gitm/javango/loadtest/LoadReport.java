@@ -0,0 +1,163 @@
+package co.gitm.javango.loadtest;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import co.gitm.javango.metrics.Histogram;
+
+/**
+ * The results of a LoadGenerator run: for each operation (and for all of them),
+ * the throughput, the error rate (and the errors by status code), and latency
+ * percentiles corrected for coordinated omission (see OperationStats), next to
+ * the uncorrected service time.
+ *
+ * It is printed as a table, and can also be written as JSON, so that runs of
+ * different commits (or instance sizes) can be compared. Percentiles are read
+ * from a metrics Histogram, so are within 12.5% of the true value.
+ *
+ */
+public class LoadReport {
+	private static final double[] PERCENTILES = { 0.5, 0.9, 0.99, 0.999 };
+	private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99",
+			"p99.9" };
+	private static final double NANOS_PER_MILLI = 1000000.0;
+
+	private final LoadGenerator generator;
+	private final int durationSeconds;
+
+	/**
+	 * @param durationSeconds
+	 *            measured (i.e. not counting the warm-up).
+	 */
+	public LoadReport(LoadGenerator generator, int durationSeconds) {
+		this.generator = generator;
+		this.durationSeconds = durationSeconds;
+	}
+
+	/**
+	 * Prints the report as a table.
+	 */
+	public void print(PrintStream out) {
+		out.println(String.format(
+				"Target rate %.1f requests/s from %d clients, measured for %d s.",
+				generator.getRate(), generator.getClients(), durationSeconds));
+		out.println(String.format("%-8s %9s %10s %8s %9s %9s %9s %9s %9s %9s %9s",
+				"", "requests", "req/s", "errors", "p50 ms", "p90 ms",
+				"p99 ms", "p99.9 ms", "max ms", "svc p50", "svc p99"));
+		for (OperationStats stats : this.getAllStats()) {
+			Histogram latency = stats.getLatency();
+			StringBuilder line = new StringBuilder(String.format(
+					"%-8s %9d %10.1f %7.2f%%", stats.getName(),
+					stats.getCount(), this.getThroughput(stats),
+					stats.getErrorRate() * 100));
+			for (double percentile : PERCENTILES) {
+				line.append(String.format(" %9.2f",
+						millis(latency.getPercentile(percentile))));
+			}
+			line.append(String.format(" %9.2f", millis(latency.getMax())));
+			line.append(String.format(" %9.2f %9.2f",
+					millis(stats.getServiceTime().getPercentile(0.5)),
+					millis(stats.getServiceTime().getPercentile(0.99))));
+			out.println(line);
+		}
+		for (OperationStats stats : this.getAllStats()) {
+			Map<String, Long> errors = stats.getErrorsByCause();
+			if (stats != generator.getTotal() && !errors.isEmpty()) {
+				out.println(String.format("%s errors: %s", stats.getName(),
+						errors));
+			}
+		}
+		long missed = generator.getMissedCount();
+		if (missed > 0) {
+			out.println(String.format(
+					"%d of %d requests were never sent: the application (or"
+							+ " the clients) could not keep up with the rate."
+							+ " They are counted as errors, and the latency"
+							+ " percentiles are only lower bounds.", missed,
+					generator.getScheduledCount()));
+		}
+	}
+
+	/**
+	 * Writes the report as JSON to file.
+	 */
+	@SuppressWarnings("unchecked")
+	public void writeJson(String file) throws IOException {
+		JSONObject report = new JSONObject();
+		report.put("rate", generator.getRate());
+		report.put("clients", generator.getClients());
+		report.put("durationSeconds", durationSeconds);
+		report.put("scheduled", generator.getScheduledCount());
+		report.put("missed", generator.getMissedCount());
+		// Missed requests are recorded with the latency they had reached when
+		// the run ended, so the percentiles may be higher still.
+		report.put("latencyIsLowerBound", generator.getMissedCount() > 0);
+		JSONArray operations = new JSONArray();
+		for (OperationStats stats : this.getAllStats()) {
+			operations.add(this.toJson(stats));
+		}
+		report.put("operations", operations);
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+				"UTF-8");
+		try {
+			report.writeJSONString(writer);
+		} finally {
+			writer.close();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private JSONObject toJson(OperationStats stats) {
+		JSONObject json = new JSONObject();
+		json.put("operation", stats.getName());
+		json.put("requests", stats.getCount());
+		json.put("throughput", this.getThroughput(stats));
+		json.put("errors", stats.getErrorCount());
+		json.put("errorRate", stats.getErrorRate());
+		json.put("errorsByCause", new JSONObject(stats.getErrorsByCause()));
+		json.put("bytes", stats.getBytes());
+		json.put("latencyMillis", percentiles(stats.getLatency()));
+		json.put("serviceTimeMillis", percentiles(stats.getServiceTime()));
+		return json;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static JSONObject percentiles(Histogram histogram) {
+		JSONObject json = new JSONObject();
+		for (int i = 0; i < PERCENTILES.length; i++) {
+			json.put(PERCENTILE_NAMES[i],
+					millis(histogram.getPercentile(PERCENTILES[i])));
+		}
+		json.put("max", millis(histogram.getMax()));
+		json.put("mean", histogram.getCount() == 0 ? 0 : millis(histogram
+				.getSum() / histogram.getCount()));
+		return json;
+	}
+
+	/**
+	 * @return the operations' stats, followed by the total.
+	 */
+	private List<OperationStats> getAllStats() {
+		List<OperationStats> all = new ArrayList<OperationStats>(generator
+				.getStats().values());
+		all.add(generator.getTotal());
+		return all;
+	}
+
+	private double getThroughput(OperationStats stats) {
+		return (double) stats.getCount() / durationSeconds;
+	}
+
+	private static double millis(long nanos) {
+		return nanos / NANOS_PER_MILLI;
+	}
+}
@@ -0,0 +1,173 @@
+package co.gitm.javango.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.restlet.Component;
+import org.restlet.Server;
+import org.restlet.data.Protocol;
+
+import co.gitm.books.application.BooksApplication;
+import co.gitm.javango.loadtest.LoadGenerator.Response;
+import co.gitm.javango.loadtest.Workload.Request;
+
+/**
+ * Load tests the books example end to end: starts a database (see
+ * LoadTestDatabase) and the BooksApplication on an embedded Restlet HTTP
+ * server, seeds books through the API, drives a mix of requests at it (see
+ * Workload and LoadGenerator) and prints a LoadReport, e.g.
+ *
+ * <pre>
+ * java -jar target/loadtest.jar --books=10000 --clients=32 --rate=500 --duration=60
+ * </pre>
+ *
+ * Given a url, it drives an application which is already running (e.g. a
+ * deployed instance, to size it) instead of starting one.
+ *
+ */
+public class LoadTest {
+	private static final int SEED_BATCH_SIZE = 500;
+
+	// Options, with their defaults, in the order they are listed by usage.
+	private static final String[][] OPTIONS = {
+			{ "database", "embedded",
+					"embedded (MariaDB) or external (database.xml or RDS_*)" },
+			{ "url", "", "drive this running application instead of starting one" },
+			{ "port", "0", "port of the embedded server (0 picks a free one)" },
+			{ "serverthreads", "64", "worker threads of the embedded server" },
+			{ "books", "10000", "books seeded before the run" },
+			{ "mix", "isbn:70,page:20,post:10",
+					"operation:weight pairs (operations isbn, page and post)" },
+			{ "clients", "32", "concurrent clients" },
+			{ "rate", "200", "requests per second, from all clients" },
+			{ "warmup", "10", "seconds sent before measuring" },
+			{ "duration", "60", "seconds measured" },
+			{ "timeout", "10000", "milliseconds to wait for each response" },
+			{ "gzip", "true", "whether to accept gzip responses" },
+			{ "report", "", "file to write the report to as JSON" } };
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 1 && args[0].equals("--help")) {
+			usage();
+			return;
+		}
+		Map<String, String> options;
+		try {
+			options = parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			usage();
+			System.exit(2);
+			return;
+		}
+		int clients = Integer.parseInt(options.get("clients"));
+		// Keep a connection open for every client, rather than the default 5.
+		System.setProperty("http.maxConnections", String.valueOf(clients));
+
+		String url = options.get("url");
+		LoadTestDatabase database = null;
+		Component component = null;
+		try {
+			if (url.length() == 0) {
+				database = options.get("database").equals("external") ? LoadTestDatabase
+						.external() : LoadTestDatabase.embedded();
+				database.createSchema();
+				component = new Component();
+				// Logging every request would cost more than serving it.
+				component.getLogService().setEnabled(false);
+				Server server = component.getServers().add(Protocol.HTTP,
+						Integer.parseInt(options.get("port")));
+				server.getContext().getParameters()
+						.add("maxThreads", options.get("serverthreads"));
+				component.getDefaultHost().attach(new BooksApplication());
+				component.start();
+				url = "http://localhost:" + server.getActualPort();
+				System.out.println("BooksApplication started at " + url);
+			}
+			int books = Integer.parseInt(options.get("books"));
+			Workload workload = new Workload(options.get("mix"), books);
+			LoadGenerator generator = new LoadGenerator(url, workload,
+					clients, Double.parseDouble(options.get("rate")),
+					Integer.parseInt(options.get("timeout")),
+					Boolean.parseBoolean(options.get("gzip")));
+			seed(generator, workload, books);
+
+			int duration = Integer.parseInt(options.get("duration"));
+			System.out.println(String.format(
+					"Warming up for %s s, then measuring for %d s.",
+					options.get("warmup"), duration));
+			generator.run(Integer.parseInt(options.get("warmup")), duration);
+			LoadReport report = new LoadReport(generator, duration);
+			report.print(System.out);
+			if (options.get("report").length() > 0) {
+				report.writeJson(options.get("report"));
+			}
+		} finally {
+			if (component != null) {
+				component.stop();
+			}
+			if (database != null) {
+				database.stop();
+			}
+		}
+	}
+
+	/**
+	 * Creates the books which the GETs ask for, in batches.
+	 *
+	 * @throws IllegalStateException
+	 *             if a batch is not created.
+	 */
+	private static void seed(LoadGenerator generator, Workload workload,
+			int books) throws Exception {
+		List<Request> batches = workload.seed(SEED_BATCH_SIZE);
+		long start = System.nanoTime();
+		for (Request batch : batches) {
+			Response response = generator.send(batch);
+			if (response.getStatus() != 201) {
+				throw new IllegalStateException(String.format(
+						"Seeding failed: POST /books returned %d.",
+						response.getStatus()));
+			}
+		}
+		System.out.println(String.format("Seeded %d books in %.1f s.", books,
+				(System.nanoTime() - start) / 1e9));
+	}
+
+	/**
+	 * @return the value of every option, given (as --name=value) or default.
+	 * @throws IllegalArgumentException
+	 *             if an argument is not a known option, or the database is
+	 *             not embedded or external.
+	 */
+	private static Map<String, String> parse(String[] args) {
+		Map<String, String> options = new LinkedHashMap<String, String>();
+		for (String[] option : OPTIONS) {
+			options.put(option[0], option[1]);
+		}
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			String name = arg.startsWith("--") && equals > 2 ? arg.substring(
+					2, equals).toLowerCase() : null;
+			if (name == null || !options.containsKey(name)) {
+				throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+			options.put(name, arg.substring(equals + 1));
+		}
+		String database = options.get("database");
+		if (!database.equals("embedded") && !database.equals("external")) {
+			throw new IllegalArgumentException("Unknown database: " + database);
+		}
+		return options;
+	}
+
+	private static void usage() {
+		System.err.println("Usage: java -jar loadtest.jar [--option=value ...]");
+		for (String[] option : OPTIONS) {
+			System.err.println(String.format("  --%-14s %s (default: %s)",
+					option[0], option[2], option[1].length() == 0 ? "none"
+							: option[1]));
+		}
+	}
+}
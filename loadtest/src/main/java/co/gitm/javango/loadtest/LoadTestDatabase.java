@@ -0,0 +1,130 @@
+package co.gitm.javango.loadtest;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import ch.vorburger.exec.ManagedProcessException;
+import ch.vorburger.mariadb4j.DB;
+import ch.vorburger.mariadb4j.DBConfigurationBuilder;
+import co.gitm.books.model.BookModel;
+import co.gitm.javango.config.Config;
+import co.gitm.javango.config.Settings;
+
+/**
+ * The MySQL database which the BooksApplication under test uses. Either an
+ * embedded MariaDB server (see embedded), which is started on a free port in a
+ * temporary directory and deleted when it is stopped, or the database described
+ * by database.xml or the RDS_* system properties/environment variables (see
+ * external), e.g. a local mysqld.
+ *
+ * The books table is created if it does not exist. Its columns match
+ * BookModel.defineFields, and its only index (apart from the primary key) is on
+ * isbn, as BookModel expects.
+ *
+ */
+public class LoadTestDatabase {
+	public static final String EMBEDDED_NAME = "javango_loadtest";
+
+	private static final String BOOKS_TABLE = "CREATE TABLE IF NOT EXISTS %s ("
+			+ " id INT NOT NULL AUTO_INCREMENT PRIMARY KEY,"
+			+ " isbn VARCHAR(17) NOT NULL,"
+			+ " title VARCHAR(255) NOT NULL,"
+			+ " authors VARCHAR(255) NOT NULL,"
+			+ " image VARCHAR(255) NULL,"
+			+ " rrp DECIMAL(10,2) NULL,"
+			+ " description TEXT NULL,"
+			+ " edition VARCHAR(255) NULL,"
+			+ " format VARCHAR(255) NULL,"
+			+ " INDEX %s_isbn (isbn))";
+
+	// The embedded server, or null if the database is external.
+	private final DB embedded;
+
+	private LoadTestDatabase(DB embedded) {
+		this.embedded = embedded;
+	}
+
+	/**
+	 * Starts an embedded MariaDB server, creates an empty database in it, and
+	 * points the application's configuration at it (through the RDS_* system
+	 * properties). Must be called before the configuration is first read.
+	 */
+	public static LoadTestDatabase embedded() throws ManagedProcessException,
+			SQLException {
+		DBConfigurationBuilder config = DBConfigurationBuilder.newBuilder();
+		// 0 picks a free port.
+		config.setPort(0);
+		config.setDeletingTemporaryBaseAndDataDirsOnShutdown(true);
+		// mysqld refuses to run as root (e.g. in a container) unless told to.
+		if ("root".equals(System.getProperty("user.name"))) {
+			config.addArg("--user=root");
+		}
+		DB db = DB.newEmbeddedDB(config.build());
+		// The builder does not keep the free port build picked.
+		int port = db.getConfiguration().getPort();
+		db.start();
+		try {
+			// Over JDBC rather than DB.createDB, which needs the mysql client
+			// (and its shared libraries) to run.
+			execute(String.format("jdbc:mysql://localhost:%d/", port),
+					"root", "",
+					"CREATE DATABASE IF NOT EXISTS " + EMBEDDED_NAME);
+		} catch (SQLException e) {
+			db.stop();
+			throw e;
+		}
+		System.setProperty("RDS_HOSTNAME", "localhost");
+		System.setProperty("RDS_PORT", String.valueOf(port));
+		System.setProperty("RDS_DB_NAME", EMBEDDED_NAME);
+		System.setProperty("RDS_USERNAME", "root");
+		System.setProperty("RDS_PASSWORD", "");
+		return new LoadTestDatabase(db);
+	}
+
+	/**
+	 * @return the database in the application's configuration.
+	 */
+	public static LoadTestDatabase external() {
+		return new LoadTestDatabase(null);
+	}
+
+	/**
+	 * Creates the books table, if it does not exist.
+	 */
+	public void createSchema() throws SQLException {
+		Settings.Database settings = Config.get().getDatabase();
+		String url = String.format("jdbc:mysql://%s:%d/%s",
+				settings.getServerName(), settings.getPort(),
+				settings.getName());
+		String table = new BookModel(null).getName();
+		execute(url, settings.getUser(), settings.getPassword(),
+				String.format(BOOKS_TABLE, table, table));
+	}
+
+	private static void execute(String url, String user, String password,
+			String sql) throws SQLException {
+		Connection connection = DriverManager.getConnection(url, user,
+				password);
+		try {
+			Statement statement = connection.createStatement();
+			try {
+				statement.executeUpdate(sql);
+			} finally {
+				statement.close();
+			}
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Stops (and deletes) the embedded server, if there is one.
+	 */
+	public void stop() throws ManagedProcessException {
+		if (embedded != null) {
+			embedded.stop();
+		}
+	}
+}
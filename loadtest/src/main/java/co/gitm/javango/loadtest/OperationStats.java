@@ -0,0 +1,147 @@
+package co.gitm.javango.loadtest;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import co.gitm.javango.metrics.Histogram;
+
+/**
+ * What was measured for one operation (or for all of them): how many requests
+ * completed, which of them failed and why, and two latency histograms (in
+ * nanoseconds):
+ *
+ * latency is measured from when the request was due to be sent (by the
+ * schedule, see LoadGenerator) until its response had been read. It includes
+ * any time the request spent waiting for a client to be free, so a stall of the
+ * server is seen in the latency of every request it held up, not just the one
+ * which was being served (i.e. it is corrected for coordinated omission).
+ *
+ * serviceTime is measured from when the request was actually sent, as a
+ * closed-loop client would measure it. The gap between the two shows how far
+ * behind its schedule the load generator fell.
+ *
+ * Requests which were never sent (see recordMissed) count as errors, and are
+ * recorded in latency (but not serviceTime) with the latency they had reached
+ * when the run ended. That is a lower bound, so while any requests were missed
+ * the high percentiles are too.
+ *
+ */
+public class OperationStats {
+	/**
+	 * The cause requests which were never sent are counted under.
+	 */
+	public static final String MISSED = "not sent";
+
+	private final String name;
+	private final Histogram latency = new Histogram();
+	private final Histogram serviceTime = new Histogram();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong missed = new AtomicLong();
+	// Number of failures by status code (or exception), e.g. "503".
+	private final ConcurrentHashMap<String, AtomicLong> errorsByCause = new ConcurrentHashMap<String, AtomicLong>();
+
+	public OperationStats(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Records a request whose response was read.
+	 *
+	 * @param failure
+	 *            what went wrong (e.g. the status code), or null if the
+	 *            request succeeded.
+	 */
+	public void record(long latencyNanos, long serviceNanos,
+			long responseBytes, String failure) {
+		latency.record(latencyNanos);
+		serviceTime.record(serviceNanos);
+		bytes.addAndGet(responseBytes);
+		if (failure != null) {
+			this.recordError(failure);
+		}
+	}
+
+	/**
+	 * Records a request which was never sent, because the run ended first.
+	 *
+	 * @param latencyNanos
+	 *            from when it was due until the run ended.
+	 */
+	public void recordMissed(long latencyNanos) {
+		latency.record(latencyNanos);
+		missed.incrementAndGet();
+		this.recordError(MISSED);
+	}
+
+	private void recordError(String failure) {
+		errors.incrementAndGet();
+		AtomicLong count = errorsByCause.get(failure);
+		if (count == null) {
+			AtomicLong newCount = new AtomicLong();
+			count = errorsByCause.putIfAbsent(failure, newCount);
+			if (count == null) {
+				count = newCount;
+			}
+		}
+		count.incrementAndGet();
+	}
+
+	public long getCount() {
+		return latency.getCount();
+	}
+
+	/**
+	 * @return number of requests which were never sent.
+	 */
+	public long getMissedCount() {
+		return missed.get();
+	}
+
+	public long getErrorCount() {
+		return errors.get();
+	}
+
+	/**
+	 * @return errors per request, from 0 to 1.
+	 */
+	public double getErrorRate() {
+		long count = this.getCount();
+		return count == 0 ? 0 : (double) errors.get() / count;
+	}
+
+	/**
+	 * @return number of failures by cause, sorted by cause.
+	 */
+	public Map<String, Long> getErrorsByCause() {
+		Map<String, Long> copy = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : errorsByCause.entrySet()) {
+			copy.put(entry.getKey(), entry.getValue().get());
+		}
+		return copy;
+	}
+
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * @return latency from the scheduled send time (see class comment).
+	 */
+	public Histogram getLatency() {
+		return latency;
+	}
+
+	/**
+	 * @return latency from the actual send time (see class comment).
+	 */
+	public Histogram getServiceTime() {
+		return serviceTime;
+	}
+}
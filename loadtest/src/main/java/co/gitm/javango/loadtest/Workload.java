@@ -0,0 +1,235 @@
+package co.gitm.javango.loadtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * The requests sent to the BooksApplication: a weighted mix of operations (see
+ * Operation), over books whose ISBNs start with a prefix unique to the run, so
+ * that runs against the same database do not see each other's books.
+ *
+ * A mix is written as operation:weight pairs, e.g. "isbn:70,page:20,post:10".
+ *
+ */
+public class Workload {
+	/**
+	 * The operations a client can send.
+	 */
+	public enum Operation {
+		/**
+		 * GET /books filtered on the (indexed) isbn of a seeded book.
+		 */
+		ISBN,
+		/**
+		 * GET a page of 50 books ordered by id, at a random offset into the
+		 * seeded books.
+		 */
+		PAGE,
+		/**
+		 * POST a new book.
+		 */
+		POST;
+
+		public String getName() {
+			return this.name().toLowerCase();
+		}
+	}
+
+	/**
+	 * A request to send.
+	 */
+	public static final class Request {
+		private final Operation operation;
+		private final String method;
+		private final String path;
+		private final String body;
+
+		Request(Operation operation, String method, String path, String body) {
+			this.operation = operation;
+			this.method = method;
+			this.path = path;
+			this.body = body;
+		}
+
+		public Operation getOperation() {
+			return operation;
+		}
+
+		public String getMethod() {
+			return method;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * @return the JSON to send, or null if there is none.
+		 */
+		public String getBody() {
+			return body;
+		}
+	}
+
+	private static final int PAGE_SIZE = 50;
+
+	private static final String[] AUTHORS = { "George Orwell",
+			"Aldous Huxley", "Ray Bradbury", "Margaret Atwood",
+			"Ursula K. Le Guin", "Philip K. Dick", "Octavia E. Butler",
+			"Isaac Asimov" };
+	private static final String[] FORMATS = { "Paperback", "Hardback",
+			"Ebook" };
+
+	private final Operation[] operations;
+	private final int[] cumulativeWeights;
+	private final int totalWeight;
+	private final String isbnPrefix;
+	private final int seededBooks;
+
+	/**
+	 * @param mix
+	 *            operation:weight pairs, e.g. "isbn:70,page:20,post:10".
+	 * @param seededBooks
+	 *            number of books seeded before the run (see seed).
+	 * @throws IllegalArgumentException
+	 *             if mix names an unknown operation, or has no positive
+	 *             weight.
+	 */
+	public Workload(String mix, int seededBooks) {
+		List<Operation> mixOperations = new ArrayList<Operation>();
+		List<Integer> weights = new ArrayList<Integer>();
+		int total = 0;
+		for (String entry : mix.split(",")) {
+			String[] parts = entry.trim().split(":");
+			if (parts.length != 2) {
+				throw new IllegalArgumentException(String.format(
+						"\"%s\" is not an operation:weight pair.", entry));
+			}
+			Operation operation;
+			int weight;
+			try {
+				operation = Operation.valueOf(parts[0].trim().toUpperCase());
+				weight = Integer.parseInt(parts[1].trim());
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException(String.format(
+						"\"%s\" is not an operation:weight pair.", entry));
+			}
+			if (weight < 0) {
+				throw new IllegalArgumentException(String.format(
+						"The weight of %s must not be negative.", parts[0]));
+			}
+			if (weight > 0) {
+				total += weight;
+				mixOperations.add(operation);
+				weights.add(total);
+			}
+		}
+		if (total == 0) {
+			throw new IllegalArgumentException(
+					"The mix must give at least one operation a weight.");
+		}
+		if (seededBooks == 0
+				&& (mixOperations.contains(Operation.ISBN) || mixOperations
+						.contains(Operation.PAGE))) {
+			throw new IllegalArgumentException(
+					"GETs need seeded books, set books to more than 0.");
+		}
+		this.operations = mixOperations.toArray(new Operation[0]);
+		this.cumulativeWeights = new int[weights.size()];
+		for (int i = 0; i < cumulativeWeights.length; i++) {
+			cumulativeWeights[i] = weights.get(i);
+		}
+		this.totalWeight = total;
+		this.isbnPrefix = String.format("%03d", new Random().nextInt(1000));
+		this.seededBooks = seededBooks;
+	}
+
+	/**
+	 * @return the operations of the mix.
+	 */
+	public List<Operation> getOperations() {
+		List<Operation> list = new ArrayList<Operation>();
+		Collections.addAll(list, operations);
+		return list;
+	}
+
+	/**
+	 * @return the requests which seed the books (JSON arrays of up to
+	 *         batchSize books each).
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Request> seed(int batchSize) {
+		List<Request> requests = new ArrayList<Request>();
+		Random random = new Random(seededBooks);
+		for (int first = 0; first < seededBooks; first += batchSize) {
+			JSONArray batch = new JSONArray();
+			int last = Math.min(seededBooks, first + batchSize);
+			for (int i = first; i < last; i++) {
+				batch.add(this.newBook(i, random));
+			}
+			requests.add(new Request(Operation.POST, "POST", "/books",
+					batch.toJSONString()));
+		}
+		return requests;
+	}
+
+	/**
+	 * @param random
+	 *            the client's own Random, so that clients do not contend for
+	 *            one.
+	 * @param sequence
+	 *            a number unique to the request, used to give new books
+	 *            unique ISBNs.
+	 * @return the next request of the mix.
+	 */
+	public Request next(Random random, long sequence) {
+		int pick = random.nextInt(totalWeight);
+		Operation operation = operations[operations.length - 1];
+		for (int i = 0; i < cumulativeWeights.length; i++) {
+			if (pick < cumulativeWeights[i]) {
+				operation = operations[i];
+				break;
+			}
+		}
+		switch (operation) {
+		case ISBN:
+			return new Request(operation, "GET", "/books?isbn="
+					+ this.isbn(random.nextInt(seededBooks)), null);
+		case PAGE:
+			int pages = Math.max(1, seededBooks / PAGE_SIZE);
+			return new Request(operation, "GET", "/books?order=id&limit="
+					+ PAGE_SIZE + "&offset=" + random.nextInt(pages)
+					* PAGE_SIZE, null);
+		default:
+			// After the seeded books, so that ISBNs do not clash.
+			return new Request(operation, "POST", "/books", this.newBook(
+					seededBooks + sequence, random).toJSONString());
+		}
+	}
+
+	/**
+	 * @return the ISBN of the index'th book of the run (at most 17
+	 *         characters, as BookModel requires).
+	 */
+	private String isbn(long index) {
+		return String.format("978-%s-%09d", isbnPrefix, index % 1000000000L);
+	}
+
+	@SuppressWarnings("unchecked")
+	private JSONObject newBook(long index, Random random) {
+		JSONObject book = new JSONObject();
+		book.put("isbn", this.isbn(index));
+		book.put("title", "Load test book " + index);
+		book.put("authors", AUTHORS[random.nextInt(AUTHORS.length)]);
+		book.put("rrp", Double.valueOf(5 + random.nextInt(30) + 0.99));
+		book.put("description", "A book written by the load test, number "
+				+ index + ", to give the table realistic rows.");
+		book.put("format", FORMATS[random.nextInt(FORMATS.length)]);
+		return book;
+	}
+}
@@ -1,10 +1,17 @@
 package co.gitm.books.application;
 
-import org.restlet.Application;
-import org.restlet.Restlet;
-import org.restlet.routing.Router;
+import java.util.Arrays;
+import java.util.List;
 
+import co.gitm.books.model.BookModel;
 import co.gitm.books.view.BooksView;
+import co.gitm.javango.application.JavangoApplication;
+import co.gitm.javango.data.mysql.MySqlDataSource;
+import co.gitm.javango.data.mysql.MySqlVersionStore;
+import co.gitm.javango.routing.Route;
+import co.gitm.javango.view.DiagnosticsView;
+import co.gitm.javango.view.MetricsView;
+import co.gitm.javango.view.View;
 
 /**
  * @author Alex McLeod
@@ -13,20 +20,40 @@ import co.gitm.books.view.BooksView;
  *         incoming requests from Tomcat. Tomcat knows to send all incoming
  *         requests to this class because it is specified as the main servlet in
  *         WebContent/WEB-INF/web.xml.
+ * 
+ *         The BookModel, and the MySqlDataSource which holds its objects, are
+ *         created once when the application starts and shared by all views.
  */
-public class BooksApplication extends Application {
+public class BooksApplication extends JavangoApplication {
+
+	/**
+	 * Build the models (and their datasources) used by the application's
+	 * views. Details for accessing the database are specified in the
+	 * co/gitm/books/config/database.xml file (or by the RDS_* system
+	 * properties, which take precedence).
+	 * 
+	 * @see co.gitm.javango.application.JavangoApplication#createModels()
+	 */
+	@Override
+	protected void createModels() {
+		MySqlDataSource db = this.addDataSource(new MySqlDataSource());
+		// Keep the BookModel's version (which its ETags are made from) in
+		// MySQL, so that every server behind the load balancer agrees on it.
+		this.setVersionStore(new MySqlVersionStore(db));
+		this.addModel(new BookModel(db));
+	}
 
 	/**
-	 * Handle all incoming requests. 
-	 * @return a basic router which sends /books URL to the BooksView class.
+	 * @return the application's URLs: /books goes to the BooksView class,
+	 *         /metrics to the MetricsView class and /diagnostics to the
+	 *         DiagnosticsView class.
 	 * 
-	 * @see org.restlet.Application#createInboundRoot()
+	 * @see co.gitm.javango.application.JavangoApplication#defineUrls()
 	 */
 	@Override
-	public synchronized Restlet createInboundRoot() {
-		System.out.println("Called Application ");
-		Router router = new Router();
-		router.attach("/books", BooksView.class);
-		return router;
+	protected List<Route<Class<? extends View>>> defineUrls() {
+		return Arrays.asList(path("books", BooksView.class, "books"),
+				path("metrics", MetricsView.class, "metrics"),
+				path("diagnostics", DiagnosticsView.class, "diagnostics"));
 	}
 }
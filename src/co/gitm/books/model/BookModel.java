@@ -1,10 +1,11 @@
 package co.gitm.books.model;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import co.gitm.javango.data.DataSource;
-import co.gitm.javango.data.mysql.MySqlDataSource;
+import co.gitm.javango.model.Field;
+import co.gitm.javango.model.FieldType;
 import co.gitm.javango.model.Model;
 
 /**
@@ -19,10 +20,18 @@ import co.gitm.javango.model.Model;
  * 
  */
 public class BookModel extends Model {
-	// This MySqlDataSource instance will hold all BookModel objects. Details for accessing
-	// the database are specified in the co/gitm/books/config/database.xml file. NOTE This 
-	// is currently not the case, check notes in sample_database.xml. 
-	DataSource db = new MySqlDataSource();
+	// This DataSource (a MySqlDataSource, see BooksApplication) will hold all BookModel
+	// objects. It is shared by every request, so is given to the model when the
+	// application starts.
+	private final DataSource db;
+
+	/**
+	 * @param db
+	 *            DataSource which holds all BookModel objects.
+	 */
+	public BookModel(DataSource db) {
+		this.db = db;
+	}
 
 	/**
 	 * @return a DataSource object which holds all BookModel objects.
@@ -35,6 +44,17 @@ public class BookModel extends Model {
 		return db;
 	}
 
+	/**
+	 * Books are only added through this model, and are read far more often
+	 * than they are added, so cache the results of queries (those small
+	 * enough, see Model.getCacheMaxRows).
+	 * @see co.gitm.javango.model.Model#isCached()
+	 */
+	@Override
+	protected boolean isCached() {
+		return true;
+	}
+
 	/**
 	 * @return the name of the table in the DataSource (i.e. MySql database) which holds
 	 * BookModel objects. Used by parent class.  
@@ -45,24 +65,24 @@ public class BookModel extends Model {
 	}
 
 	/**
-	 * @return a list of BookModel object fields: I.e. return
-	 * a list of the column names in the "books_books" table in the MySQL database 
-	 * asociated with this application.  
-	 * This method is mostly used by the parent class. 
-	 * @see co.gitm.javango.model.Model#getFields()
+	 * @return the BookModel object fields: I.e. the columns of the
+	 * "books_books" table in the MySQL database asociated with this
+	 * application, with their types. New books are checked against these
+	 * before they are inserted.
+	 * This method is only used by the parent class.
+	 * @see co.gitm.javango.model.Model#defineFields()
 	 */
 	@Override
-	public List<String> getFields() {
-		List<String> fields = new ArrayList<String>();
-		fields.add("id");
-		fields.add("isbn");
-		fields.add("title");
-		fields.add("authors");
-		fields.add("image");
-		fields.add("rrp");
-		fields.add("description");
-		fields.add("edition");
-		fields.add("format");
-		return fields;
+	protected List<Field> defineFields() {
+		return Arrays.asList(
+				Field.generated("id", FieldType.INTEGER),
+				Field.required("isbn", FieldType.STRING, 17).indexed(),
+				Field.required("title", FieldType.STRING, 255),
+				Field.required("authors", FieldType.STRING, 255),
+				Field.optional("image", FieldType.STRING, 255),
+				Field.optional("rrp", FieldType.DECIMAL),
+				Field.optional("description", FieldType.STRING),
+				Field.optional("edition", FieldType.STRING, 255),
+				Field.optional("format", FieldType.STRING, 255));
 	}
 }
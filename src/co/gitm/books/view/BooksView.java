@@ -1,6 +1,6 @@
 package co.gitm.books.view;
 
-import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.restlet.resource.Get;
 import org.restlet.resource.Post;
@@ -9,14 +9,21 @@ import org.restlet.representation.Representation;
 import org.restlet.representation.StringRepresentation;
 import org.restlet.data.MediaType;
 import org.restlet.data.Status;
+import org.restlet.data.Tag;
 
 import co.gitm.books.model.BookModel;
+import co.gitm.javango.data.DataCursor;
 import co.gitm.javango.data.DataObject;
 import co.gitm.javango.data.DataObjectArray;
+import co.gitm.javango.data.Query;
 import co.gitm.javango.data.exceptions.CreateException;
+import co.gitm.javango.data.exceptions.RetrieveException;
+import co.gitm.javango.data.exceptions.UnindexedFilterException;
+import co.gitm.javango.data.exceptions.ValidationException;
 import co.gitm.javango.view.View;
 
-import org.json.simple.parser.ParseException;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
 
 /**
  * @author Alex McLeod
@@ -26,7 +33,17 @@ import org.json.simple.parser.ParseException;
  *         This view handles GET requests via the getBooks method. This methods
  *         returns all BookModel objects in the database as JSON, or a subset of
  *         these if filters are specified by the user in the GET request query
- *         string.
+ *         string. Books can be fetched a page at a time using the limit,
+ *         order and after (or offset) parameters, e.g.
+ *         /books?order=title&limit=50, followed by
+ *         /books?order=title&limit=50&after=<next token of previous page>.
+ *         Only some fields of each book can be returned using the fields
+ *         parameter, e.g. /books?fields=id,title,image. Results carry an
+ *         ETag, and a request which sends it back in If-None-Match is
+ *         answered with REDIRECTION_NOT_MODIFIED (304), without querying
+ *         MySQL, until a book is written. Results are compressed for clients
+ *         which accept it, and the compressed results of each query are kept
+ *         for the next client which asks, until a book is written.
  * 
  *         Incoming POST requests are also handled by this view via the
  *         createBook method. The 'Content-Type' of the request must be
@@ -34,9 +51,18 @@ import org.json.simple.parser.ParseException;
  *         malformed, an error message will be sent back to the user explaining
  *         this. If the JSON is correctly formatted, then this view will attempt
  *         to create a new BookModel object and insert it into the database. If
- *         MySQL returns an error, then this error is passed back to the user.
+ *         the book is invalid (e.g. a required field is missing), or MySQL
+ *         returns an error, then this error is passed back to the user.
  *         Otherwise, the server status is set to SUCCESS_CREATED (201) and a
- *         success method is returned to the user.
+ *         success method is returned to the user. If the POST data is a JSON
+ *         array of books, they are all created in one batch and the result
+ *         for each book is returned as a JSON array. How many inserts (and
+ *         queries) MySQL is given at once is limited by the size of the
+ *         connection pool (see ConnectionPool). If the BookModel is
+ *         write-behind (see
+ *         Model.isWriteBehind), a single book is only queued, so the status
+ *         is set to SUCCESS_ACCEPTED (202) instead, or
+ *         SERVER_ERROR_SERVICE_UNAVAILABLE (503) if the queue is full.
  * 
  */
 public class BooksView extends View {
@@ -49,11 +75,14 @@ public class BooksView extends View {
 	 */
 	@Get("json")
 	public Representation getBooks() {
-		// Load the BookModel.
-		BookModel books = new BookModel();
-		// Load a DataObjectArray to hold any DataObjects which
-		// may be returned by the BookModel.
-		DataObjectArray doa = new DataObjectArray();
+		// Get the BookModel shared by all requests.
+		BookModel books = this.getModel(BookModel.class);
+		// Load a DataCursor over any DataObjects which may be returned by
+		// the BookModel. Books are read from the database as they are written
+		// to the user, so they never all have to be held in memory.
+		DataCursor bookCursor;
+		Query query;
+		Tag tag;
 		// Try to get books from the database using
 		// the get request query string as a filter. Throw an exception if the
 		// query string contains
@@ -61,8 +90,28 @@ public class BooksView extends View {
 		// the query string contains an "authr=Alex" entry then an
 		// exception will be thrown because there is no authr field
 		// in the BookModel, just an 'authors' field).
+		// The limit, offset, order and after parameters select a page of
+		// books (see View.applyPaging) rather than filtering them, and the
+		// fields parameter selects which fields of each book to return.
 		try {
-			doa = books.getWithFilter(this.getQueryAsMap());
+			query = books.newQuery(this.getFilterFromQuery());
+			this.applyPaging(query);
+			this.applyFields(query);
+			// Clients which already have the current results of this query
+			// (i.e. send the same ETag back, and no book has been written
+			// since) are told so without querying MySQL at all.
+			tag = this.getTag(books, query);
+			Representation notModified = this.notModified(tag);
+			if (notModified != null) {
+				return notModified;
+			}
+			// Clients which do not have them yet get the compressed results
+			// sent to the last client which asked, if nothing has changed.
+			Representation cached = this.getCompressed(tag);
+			if (cached != null) {
+				return cached;
+			}
+			bookCursor = books.streamWithQuery(query);
 		} catch (NoSuchFieldException e) {
 			// Return an exception to the user, indicating which fields
 			// in their query string were invalid.
@@ -71,15 +120,25 @@ public class BooksView extends View {
 					String.format(
 							"One of your GET parameters was invalid. The '%s' model does not have %s field(s).",
 							books.getName(), e.getMessage()));
+		} catch (UnindexedFilterException e) {
+			// Models can limit filters which would make MySQL read every
+			// book (see Model.getUnindexedFilterPolicy). The BookModel allows
+			// them, but one with a different policy would refuse them here.
+			throw refused(e);
+		} catch (RetrieveException e) {
+			throw new ResourceException(Status.SERVER_ERROR_INTERNAL,
+					String.format("MySQL returned an error: \"%s\".",
+							e.getMessage()));
 		}
-		// Convert DataArrayObject returned by BookModel to a string
-		// in the JSON format. DataArrayObject inherits from the JSONArray
-		// class,
-		// so this is as easy as calling its toString method.
-		String jsonString = doa.toString();
-		// Return the results of querying the BookModel to the user.
-		// TODO Change MediaType to APPLICATION_JSON when in production.
-		return new StringRepresentation(jsonString, MediaType.TEXT_PLAIN);
+		// Return the results of querying the BookModel to the user as a
+		// JSON array, streaming each book as it is read. If a page was asked
+		// for, this includes a token for the next page. The results are
+		// tagged, so that the client can ask whether they have changed, and
+		// compressed (as they are written) if the client accepts gzip or
+		// deflate.
+		Representation results = this.streamAsJson(bookCursor, query);
+		results.setTag(tag);
+		return this.compress(results);
 	}
 
 	/**
@@ -93,46 +152,115 @@ public class BooksView extends View {
 	 */
 	@Post("json")
 	public Representation createBook(Representation postData) {
-		// Load the BookModel.
-		BookModel books = new BookModel();
-		// Instantiated a DataObject which will hold the postData and
+		// Get the BookModel shared by all requests.
+		BookModel books = this.getModel(BookModel.class);
+		// Parse the postData straight from the request into a DataObject
 		// which we will attempt to insert into the database as a new
-		// BookModel object.
-		DataObject newBook;
-		// Try to initialize the DataObject using postData. If the postData
-		// is not a properly formatted JSON (ParseException), or if the
-		// postData.getText method
-		// returns an IOException, then return an error message to the user.
-		// NOTE: Had to use multiple catch statements so that application is
-		// compatible with JDK 1.6. 
-		try {
-			newBook = DataObject.instanceFromJson(postData.getText());
-		} catch (ParseException e) {
-			throw new ResourceException(Status.CLIENT_ERROR_NOT_ACCEPTABLE,
-					"Your POST request is malformed. Ensure your JSON is correctly formated.");
-		} catch (IOException e) {
-			throw new ResourceException(Status.CLIENT_ERROR_NOT_ACCEPTABLE,
-					"Your POST request is malformed. Ensure your JSON is correctly formated.");
+		// BookModel object (or into a DataObjectArray of them). If the
+		// postData is not properly formatted JSON, is too large, or has a
+		// field which the BookModel does not have, an error message is
+		// returned to the user before the rest of it is read.
+		Object json = this.readJson(postData, books);
+		// A JSON array holds a batch of books, which are all created at
+		// once.
+		if (json instanceof DataObjectArray) {
+			return this.createBooks(books, (DataObjectArray) json);
 		}
-	
+		DataObject newBook = (DataObject) json;
+
 		// Try and create a new BookModel object in the database using the
 		// newBook DataObject.
-		// If newBook is not a valid BookModel object, then return error message
-		// to the user.
-		// TODO Validation of BookModel objects is currently the responsibility
-		// of MySQL, this will
-		// be changed so that validation is performed by the BookModel object
-		// itself.
+		// If newBook is not a valid BookModel object (see
+		// BookModel.defineFields), the BookModel rejects it straight away,
+		// without going to MySQL, and an error message is returned to the
+		// user.
 		try {
 			books.createNew(newBook);
 		} catch (CreateException e) {
 			throw new ResourceException(Status.CLIENT_ERROR_NOT_ACCEPTABLE,
-					String.format("MySQL returned an error: \"%s\".",
-							e.getMessage()));
+					describe(e));
+		} catch (RejectedExecutionException e) {
+			// The BookModel is write-behind and its queue is full.
+			throw new ResourceException(
+					Status.SERVER_ERROR_SERVICE_UNAVAILABLE,
+					"The server is too busy, try again later.");
+		}
+		if (books.getWriteBehindQueue() != null) {
+			// The book has only been queued, not yet inserted. Set status of
+			// response to SUCCESS_ACCEPTED (i.e. 202).
+			this.setStatus(Status.SUCCESS_ACCEPTED);
+			return new StringRepresentation("Item accepted.",
+					MediaType.TEXT_PLAIN);
 		}
 		// Set status of response to SUCCESS_CREATED (i.e. 201).
 		this.setStatus(Status.SUCCESS_CREATED);
 		// Return success message to user.
 		return new StringRepresentation("Item created.", MediaType.TEXT_PLAIN);
 	}
+
+	/**
+	 * Creates a batch of books (sent as a JSON array) in a single transaction.
+	 * 
+	 * @return a JSON array with the result for each book, in the order they
+	 *         were sent. Either every book is created (201), or none are
+	 *         (406) and the result for the offending book (if MySQL says which
+	 *         one it was) holds the error.
+	 */
+	private Representation createBooks(BookModel books,
+			DataObjectArray newBooks) {
+		try {
+			books.createAll(newBooks);
+		} catch (CreateException e) {
+			return this.batchResults(newBooks, e);
+		}
+		return this.batchResults(newBooks, null);
+	}
+
+	/**
+	 * @param e
+	 *            thrown by createAll, or null if every book was created.
+	 */
+	private Representation batchResults(DataObjectArray newBooks,
+			CreateException e) {
+		JSONArray results = new JSONArray();
+		String error = null;
+		int failedIndex = -1;
+		if (e != null) {
+			error = describe(e);
+			failedIndex = e.getIndex();
+		}
+		for (int i = 0; i < newBooks.size(); i++) {
+			JSONObject result = new JSONObject();
+			result.put("index", i);
+			if (error == null) {
+				result.put("status", "created");
+			} else if (i == failedIndex) {
+				result.put("status", "error");
+				result.put("error", error);
+			} else {
+				// The whole batch is rolled back.
+				result.put("status", "not created");
+				if (failedIndex < 0) {
+					result.put("error", error);
+				}
+			}
+			results.add(result);
+		}
+		// Set status of response to SUCCESS_CREATED (i.e. 201), or
+		// CLIENT_ERROR_NOT_ACCEPTABLE (i.e. 406) if nothing was created.
+		this.setStatus(error == null ? Status.SUCCESS_CREATED
+				: Status.CLIENT_ERROR_NOT_ACCEPTABLE);
+		return this.writeAsJson(results);
+	}
+
+	/**
+	 * @return the error message to send to the user for e.
+	 */
+	private static String describe(CreateException e) {
+		if (e instanceof ValidationException) {
+			return String.format("Invalid book: %s.", e.getMessage());
+		}
+		return String.format("MySQL returned an error: \"%s\".",
+				e.getMessage());
+	}
 }
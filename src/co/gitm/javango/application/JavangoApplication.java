@@ -0,0 +1,323 @@
+package co.gitm.javango.application;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.restlet.Application;
+import org.restlet.Restlet;
+
+import co.gitm.javango.config.Config;
+import co.gitm.javango.data.DataSource;
+import co.gitm.javango.data.async.DataExecutor;
+import co.gitm.javango.data.async.WriteBehindQueue;
+import co.gitm.javango.metrics.MetricsCollector;
+import co.gitm.javango.metrics.MetricsRegistry;
+import co.gitm.javango.metrics.PrometheusWriter;
+import co.gitm.javango.model.LocalVersionStore;
+import co.gitm.javango.model.Model;
+import co.gitm.javango.model.VersionStore;
+import co.gitm.javango.routing.Route;
+import co.gitm.javango.view.View;
+
+/**
+ * Javango applications should inherit from this class rather than directly from
+ * the Restlet Application class. It holds a registry of the application's
+ * models and the datasources they use, which are built once when the
+ * application starts (see createModels) and then shared by every request. Views
+ * get models from the registry using View.getModel, instead of building a new
+ * model (and datasource) for every request.
+ *
+ * Registered models share a DataExecutor (bounded by the async settings), which
+ * runs their *Async calls (views do not use them). When the application stops,
+ * the executor is given a chance to finish its calls, and the write-behind
+ * queues of the models a chance to drain, and then the datasources registered
+ * with addDataSource are closed.
+ *
+ * Registered models also share a VersionStore (see Model.getVersion), which
+ * keeps their versions in memory unless createModels sets another one with
+ * setVersionStore, e.g. to share them between servers.
+ *
+ * While it is running, the executor's and the write-behind queues' statistics
+ * are added to the application's metrics (see MetricsRegistry and MetricsView).
+ *
+ * Requests are routed to views by the URL patterns defineUrls returns, which
+ * are compiled once into a ViewRouter, e.g.
+ *
+ * <pre>
+ * return Arrays.asList(path(&quot;books&quot;, BooksView.class, &quot;books&quot;),
+ * 		path(&quot;books/&lt;int:id&gt;&quot;, BookView.class, &quot;book&quot;));
+ * </pre>
+ *
+ */
+public abstract class JavangoApplication extends Application {
+	// How long stop waits for asynchronous calls to finish.
+	private static final long SHUTDOWN_TIMEOUT_MILLIS = 30 * 1000;
+
+	private final ConcurrentHashMap<Class<? extends Model>, Model> models = new ConcurrentHashMap<Class<? extends Model>, Model>();
+	private final List<DataSource> dataSources = new ArrayList<DataSource>();
+	private volatile boolean modelsCreated = false;
+	private DataExecutor executor = null;
+	private VersionStore versionStore = LocalVersionStore.DEFAULT;
+	private MetricsCollector metricsCollector = null;
+	private volatile ViewRouter viewRouter = null;
+
+	/**
+	 * Called once when the application starts. Child-classes should build
+	 * their datasources and models here, and register them using
+	 * addDataSource and addModel, e.g.
+	 *
+	 * <pre>
+	 * DataSource db = this.addDataSource(new MySqlDataSource());
+	 * this.addModel(new BookModel(db));
+	 * </pre>
+	 */
+	protected abstract void createModels();
+
+	/**
+	 * Called once, before the application handles its first request.
+	 * Child-classes should return a route (see path) for each of their URLs.
+	 * Patterns are written Django-style, relative to the application's root
+	 * (see co.gitm.javango.routing.UrlPattern).
+	 */
+	protected abstract List<Route<Class<? extends View>>> defineUrls();
+
+	/**
+	 * @param name
+	 *            of the route, for reverse, or null.
+	 * @return a route sending the paths pattern matches to view.
+	 */
+	protected static Route<Class<? extends View>> path(String pattern,
+			Class<? extends View> view, String name) {
+		return Route.<Class<? extends View>> of(pattern, view, name);
+	}
+
+	/**
+	 * @param dataSource
+	 *            to be closed when the application stops.
+	 * @return dataSource.
+	 */
+	protected synchronized <T extends DataSource> T addDataSource(T dataSource) {
+		dataSources.add(dataSource);
+		return dataSource;
+	}
+
+	/**
+	 * @param model
+	 *            to share between all views, which get it with
+	 *            getModel(model.getClass()). Its asynchronous calls are run
+	 *            on the application's executor.
+	 */
+	protected synchronized void addModel(Model model) {
+		model.setExecutor(this.getExecutor());
+		model.setVersionStore(versionStore);
+		models.put(model.getClass(), model);
+	}
+
+	/**
+	 * @param versionStore
+	 *            to keep the versions of the application's models in (e.g. a
+	 *            MySqlVersionStore, so that every server sees the same
+	 *            versions). Applies to models which have already been
+	 *            registered too.
+	 */
+	protected synchronized void setVersionStore(VersionStore versionStore) {
+		this.versionStore = versionStore;
+		for (Model model : models.values()) {
+			model.setVersionStore(versionStore);
+		}
+	}
+
+	/**
+	 * @return the executor which runs the asynchronous calls of the
+	 *         application's models, creating it on first use.
+	 */
+	public synchronized DataExecutor getExecutor() {
+		if (executor == null) {
+			executor = new DataExecutor(Config.get().getAsync());
+		}
+		return executor;
+	}
+
+	/**
+	 * @return the registered instance of modelClass.
+	 * @throws IllegalStateException
+	 *             if no instance of modelClass has been registered.
+	 */
+	public <T extends Model> T getModel(Class<T> modelClass) {
+		if (!modelsCreated) {
+			this.ensureModels();
+		}
+		Model model = models.get(modelClass);
+		if (model == null) {
+			throw new IllegalStateException(String.format(
+					"Model %s has not been registered with %s.",
+					modelClass.getName(), this.getClass().getName()));
+		}
+		return modelClass.cast(model);
+	}
+
+	/**
+	 * @return the path (with a leading slash, relative to the application's
+	 *         root) of the URL called name, with values as its parameters.
+	 * @throws IllegalArgumentException
+	 *             if there is no URL called name, or values do not fit its
+	 *             parameters.
+	 */
+	public String reverse(String name, Object... values) {
+		return this.getViewRouter().reverse(name, values);
+	}
+
+	/**
+	 * @return a ViewRouter which sends requests to the views of defineUrls.
+	 *
+	 * @see org.restlet.Application#createInboundRoot()
+	 */
+	@Override
+	public Restlet createInboundRoot() {
+		return this.getViewRouter();
+	}
+
+	private ViewRouter getViewRouter() {
+		ViewRouter router = viewRouter;
+		if (router == null) {
+			synchronized (this) {
+				if (viewRouter == null) {
+					viewRouter = new ViewRouter(this.getContext(),
+							this.defineUrls());
+				}
+				router = viewRouter;
+			}
+		}
+		return router;
+	}
+
+	/**
+	 * Builds the application's models (see createModels) before it starts
+	 * handling requests.
+	 *
+	 * @see org.restlet.Application#start()
+	 */
+	@Override
+	public synchronized void start() throws Exception {
+		this.ensureModels();
+		super.start();
+	}
+
+	/**
+	 * Drains the models' write-behind queues and closes the datasources
+	 * registered with addDataSource once the application has stopped.
+	 *
+	 * @see org.restlet.Application#stop()
+	 */
+	@Override
+	public synchronized void stop() throws Exception {
+		try {
+			super.stop();
+		} finally {
+			// Before the write-behind queues are stopped, so that collecting
+			// metrics does not start them again.
+			if (metricsCollector != null) {
+				MetricsRegistry.removeCollector(metricsCollector);
+				metricsCollector = null;
+			}
+			if (executor != null) {
+				// Let queued and running calls finish before their
+				// datasources are closed.
+				try {
+					executor.shutdown(SHUTDOWN_TIMEOUT_MILLIS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				executor = null;
+			}
+			for (Model model : models.values()) {
+				try {
+					model.stopWriteBehind(SHUTDOWN_TIMEOUT_MILLIS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			for (DataSource dataSource : dataSources) {
+				dataSource.close();
+			}
+			dataSources.clear();
+			models.clear();
+			modelsCreated = false;
+		}
+	}
+
+	private synchronized void ensureModels() {
+		if (!modelsCreated) {
+			this.createModels();
+			modelsCreated = true;
+		}
+		if (metricsCollector == null) {
+			metricsCollector = new MetricsCollector() {
+				@Override
+				public void collect(PrometheusWriter out) {
+					JavangoApplication.this.collectMetrics(out);
+				}
+			};
+			MetricsRegistry.addCollector(metricsCollector);
+		}
+	}
+
+	/**
+	 * Adds the executor's statistics, and those of the models' write-behind
+	 * queues, to out.
+	 */
+	private void collectMetrics(PrometheusWriter out) {
+		DataExecutor dataExecutor;
+		synchronized (this) {
+			dataExecutor = executor;
+		}
+		if (dataExecutor != null) {
+			out.gauge("javango_executor_active",
+					"Asynchronous calls currently running.",
+					dataExecutor.getActiveCount());
+			out.gauge("javango_executor_queued",
+					"Asynchronous calls waiting to run.",
+					dataExecutor.getQueuedCount());
+			out.gauge("javango_executor_permits",
+					"Most asynchronous calls which may run at once.",
+					dataExecutor.getPermits());
+			out.counter("javango_executor_submitted_total",
+					"Asynchronous calls submitted.",
+					dataExecutor.getSubmittedCount());
+			out.counter("javango_executor_rejected_total",
+					"Asynchronous calls rejected because the queue was full.",
+					dataExecutor.getRejectedCount());
+			out.counter("javango_executor_failed_total",
+					"Asynchronous calls which failed.",
+					dataExecutor.getFailedCount());
+		}
+		for (Model model : models.values()) {
+			WriteBehindQueue queue = model.getWriteBehindQueue();
+			if (queue == null) {
+				continue;
+			}
+			String name = model.getName();
+			out.gauge("javango_write_behind_depth",
+					"Objects waiting to be written.", queue.getDepth(),
+					"model", name);
+			out.gauge("javango_write_behind_capacity",
+					"Most objects which may wait to be written.",
+					queue.getCapacity(), "model", name);
+			out.counter("javango_write_behind_accepted_total",
+					"Objects queued.", queue.getAcceptedCount(), "model",
+					name);
+			out.counter("javango_write_behind_rejected_total",
+					"Objects rejected because the queue was full.",
+					queue.getRejectedCount(), "model", name);
+			out.counter("javango_write_behind_written_total",
+					"Objects written.", queue.getWrittenCount(), "model", name);
+			out.counter("javango_write_behind_dead_lettered_total",
+					"Objects given up on.", queue.getDeadLetteredCount(),
+					"model", name);
+			out.gauge("javango_write_behind_flush_max_seconds",
+					"Longest batch write.", queue.getMaxFlushMillis() / 1000,
+					"model", name);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package co.gitm.javango.application;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.restlet.Context;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.Restlet;
+import org.restlet.data.Status;
+import org.restlet.resource.Finder;
+
+import co.gitm.javango.routing.Route;
+import co.gitm.javango.routing.RouteMatch;
+import co.gitm.javango.routing.Router;
+import co.gitm.javango.view.View;
+
+/**
+ * The inbound root of a JavangoApplication: resolves each request's path with a
+ * Router built from the application's URLs (see JavangoApplication.defineUrls),
+ * and hands the request to the matched view, or answers 404 Not Found if no URL
+ * matches.
+ *
+ * The RouteMatch is put in the request's attributes under MATCH_ATTRIBUTE,
+ * where View.getRouteMatch finds it. Path parameters are read from it when the
+ * view asks for them, rather than each being copied into an attribute of its
+ * own.
+ *
+ */
+public class ViewRouter extends Restlet {
+	/**
+	 * The request attribute the RouteMatch is kept in.
+	 */
+	public static final String MATCH_ATTRIBUTE = "co.gitm.javango.routing.match";
+
+	private final Router<Finder> router;
+	private final List<Finder> finders = new ArrayList<Finder>();
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if urls cannot be compiled into a Router.
+	 */
+	public ViewRouter(Context context, List<Route<Class<? extends View>>> urls) {
+		super(context);
+		List<Route<Finder>> routes = new ArrayList<Route<Finder>>();
+		for (Route<Class<? extends View>> url : urls) {
+			// One finder per view, made once rather than for every request.
+			Finder finder = new Finder(context, url.getTarget());
+			finders.add(finder);
+			routes.add(Route.of(url, finder));
+		}
+		this.router = new Router<Finder>(routes);
+	}
+
+	/**
+	 * @see co.gitm.javango.routing.Router#reverse(String, Object...)
+	 */
+	public String reverse(String name, Object... values) {
+		return router.reverse(name, values);
+	}
+
+	@Override
+	public void handle(Request request, Response response) {
+		super.handle(request, response);
+		if (!this.isStarted()) {
+			return;
+		}
+		RouteMatch<Finder> match = router.resolve(request.getResourceRef()
+				.getRemainingPart(false, false));
+		if (match == null) {
+			response.setStatus(Status.CLIENT_ERROR_NOT_FOUND);
+			return;
+		}
+		request.getAttributes().put(MATCH_ATTRIBUTE, match);
+		match.getRoute().getTarget().handle(request, response);
+	}
+
+	@Override
+	public synchronized void start() throws Exception {
+		for (Finder finder : finders) {
+			finder.start();
+		}
+		super.start();
+	}
+
+	@Override
+	public synchronized void stop() throws Exception {
+		super.stop();
+		for (Finder finder : finders) {
+			finder.stop();
+		}
+	}
+}
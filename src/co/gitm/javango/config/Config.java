@@ -1,12 +1,135 @@
 package co.gitm.javango.config;
 
+import java.io.File;
+import java.net.URL;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.ConfigurationUtils;
 import org.apache.commons.configuration.XMLConfiguration;
 
+/**
+ * @author Alex McLeod
+ *
+ *         Holds the application's configuration. The configuration file
+ *         (database.xml, which just has to be on the CLASSPATH) is parsed once
+ *         into an immutable Settings object, which Config.get returns without
+ *         any further parsing. System properties and environment variables
+ *         take precedence over the file (see Settings).
+ *
+ *         If the configuration file lives on the file system, it is checked
+ *         for changes every server.configpollinterval milliseconds. When it
+ *         changes, a new Settings object is built and swapped in atomically,
+ *         and every registered ConfigListener is told about it, so tunables
+ *         like pool sizes can be changed without restarting the application.
+ *
+ */
 public final class Config {
-	
-	public static Configuration getConfig(String file){
+	public static final String DEFAULT_FILE = "database.xml";
+
+	private static volatile Settings current = null;
+	private static String fileName = DEFAULT_FILE;
+	private static File watchedFile = null;
+	private static long lastModified = 0;
+	private static Timer watcher = null;
+	private static long watchInterval = 0;
+	private static final List<ConfigListener> listeners = new CopyOnWriteArrayList<ConfigListener>();
+
+	private Config() {
+	}
+
+	/**
+	 * @return the current configuration, loading it on first use.
+	 */
+	public static Settings get() {
+		Settings settings = current;
+		if (settings == null) {
+			synchronized (Config.class) {
+				if (current == null) {
+					load(fileName);
+				}
+				settings = current;
+			}
+		}
+		return settings;
+	}
+
+	/**
+	 * Loads the configuration from a different file (instead of database.xml)
+	 * and starts watching it.
+	 *
+	 * @param file
+	 *            name of a configuration file on the CLASSPATH (or a path).
+	 */
+	public static synchronized void load(String file) {
+		fileName = file;
+		URL location = ConfigurationUtils.locate(file);
+		watchedFile = location == null ? null : ConfigurationUtils
+				.fileFromURL(location);
+		lastModified = watchedFile == null ? 0 : watchedFile.lastModified();
+		// Always start a new watcher for the new file.
+		stopWatching();
+		Settings settings;
+		try {
+			settings = new Settings(parse(location));
+		} catch (ConfigurationException e) {
+			e.printStackTrace();
+			settings = new Settings(new XMLConfiguration());
+		}
+		swap(settings);
+		startWatching(settings.getServer().getConfigPollIntervalMillis());
+	}
+
+	/**
+	 * Re-reads the configuration file, keeping the current settings if the
+	 * file cannot be parsed.
+	 */
+	public static synchronized void reload() {
+		URL location = ConfigurationUtils.locate(fileName);
+		Settings settings;
+		try {
+			settings = new Settings(parse(location));
+		} catch (ConfigurationException e) {
+			e.printStackTrace();
+			return;
+		} catch (IllegalArgumentException e) {
+			// A setting has an invalid value.
+			e.printStackTrace();
+			return;
+		}
+		swap(settings);
+		startWatching(settings.getServer().getConfigPollIntervalMillis());
+	}
+
+	public static void addListener(ConfigListener listener) {
+		listeners.add(listener);
+	}
+
+	public static void removeListener(ConfigListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Stops checking the configuration file for changes.
+	 */
+	public static synchronized void stopWatching() {
+		if (watcher != null) {
+			watcher.cancel();
+			watcher = null;
+		}
+	}
+
+	/**
+	 * @param file
+	 *            name of an XML file on the CLASSPATH.
+	 * @return the raw contents of the file. Prefer Config.get, which does not
+	 *         re-parse the file on every call.
+	 */
+	public static Configuration getConfig(String file) {
 		Configuration config = new XMLConfiguration();
 		try {
 			config = new XMLConfiguration(file);
@@ -15,5 +138,60 @@ public final class Config {
 		}
 		return config;
 	}
-	
+
+	private static Configuration parse(URL location)
+			throws ConfigurationException {
+		// A missing file is fine, everything can be set with system
+		// properties and environment variables instead (as on Elastic
+		// Beanstalk).
+		if (location == null) {
+			return new XMLConfiguration();
+		}
+		return new XMLConfiguration(location);
+	}
+
+	private static void swap(Settings settings) {
+		Settings previous = current;
+		current = settings;
+		if (previous != null) {
+			for (ConfigListener listener : listeners) {
+				try {
+					listener.configChanged(previous, settings);
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private static void startWatching(long pollInterval) {
+		if (watcher != null && pollInterval == watchInterval) {
+			// Already watching at the right interval.
+			return;
+		}
+		stopWatching();
+		// Only files on the file system can change (not ones inside a jar).
+		if (watchedFile == null || pollInterval <= 0) {
+			return;
+		}
+		watchInterval = pollInterval;
+		watcher = new Timer("javango-config-watcher", true);
+		watcher.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				checkForChanges();
+			}
+		}, pollInterval, pollInterval);
+	}
+
+	private static synchronized void checkForChanges() {
+		if (watchedFile == null) {
+			return;
+		}
+		long modified = watchedFile.lastModified();
+		if (modified != lastModified) {
+			lastModified = modified;
+			reload();
+		}
+	}
 }
@@ -0,0 +1,20 @@
+package co.gitm.javango.config;
+
+/**
+ * Implemented by anything which needs to react when the configuration is
+ * reloaded (e.g. the connection pool resizing itself). Register listeners using
+ * Config.addListener.
+ *
+ */
+public interface ConfigListener {
+	/**
+	 * Called (on the configuration watcher thread) after a new Settings
+	 * snapshot has been swapped in.
+	 *
+	 * @param previous
+	 *            the settings which were in use until now.
+	 * @param current
+	 *            the settings now returned by Config.get.
+	 */
+	public void configChanged(Settings previous, Settings current);
+}
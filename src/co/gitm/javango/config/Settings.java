@@ -0,0 +1,695 @@
+package co.gitm.javango.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.configuration.Configuration;
+
+/**
+ * An immutable, typed snapshot of an application's configuration. The current
+ * snapshot is held by the Config class, which swaps in a new Settings object
+ * whenever the configuration file changes, so a Settings object never changes
+ * once it has been handed out.
+ *
+ * Every setting is looked up in three places, in order of precedence: a system
+ * property, an environment variable (both using the setting's override name,
+ * e.g. RDS_HOSTNAME) and finally the configuration file (using the setting's
+ * XML key, e.g. database.servername). If none of these hold a value, a default
+ * is used.
+ *
+ */
+public final class Settings {
+	/**
+	 * Details used to connect to the application's MySQL database.
+	 */
+	public static final class Database {
+		private final String serverName;
+		private final int port;
+		private final String name;
+		private final String user;
+		private final String password;
+		private final int preparedStatementCacheSize;
+		private final int streamFetchSize;
+		private final List<String> replicas;
+
+		Database(Configuration file) {
+			// The RDS_* names are the ones set by Elastic Beanstalk.
+			this.serverName = getString(file, "database.servername",
+					"RDS_HOSTNAME", "localhost");
+			this.port = getInt(file, "database.port", "RDS_PORT", 3306);
+			this.name = getString(file, "database.name", "RDS_DB_NAME", null);
+			this.user = getString(file, "database.user", "RDS_USERNAME", null);
+			this.password = getString(file, "database.password",
+					"RDS_PASSWORD", null);
+			this.preparedStatementCacheSize = getInt(file,
+					"database.preparedstatementcachesize",
+					"JAVANGO_PREPARED_STATEMENT_CACHE_SIZE", 250);
+			this.streamFetchSize = getInt(file, "database.streamfetchsize",
+					"JAVANGO_STREAM_FETCH_SIZE", 0);
+			this.replicas = getList(file, "database.replicas",
+					"JAVANGO_DB_REPLICAS");
+		}
+
+		public String getServerName() {
+			return serverName;
+		}
+
+		public int getPort() {
+			return port;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getUser() {
+			return user;
+		}
+
+		public String getPassword() {
+			return password;
+		}
+
+		/**
+		 * @return number of prepared statements to keep open on each
+		 *         connection (0 disables server-side prepared statements).
+		 */
+		public int getPreparedStatementCacheSize() {
+			return preparedStatementCacheSize;
+		}
+
+		/**
+		 * @return number of rows fetched per round trip when streaming
+		 *         results, or 0 to have MySQL send rows one at a time.
+		 */
+		public int getStreamFetchSize() {
+			return streamFetchSize;
+		}
+
+		/**
+		 * @return the read replicas of the database, as host or host:port
+		 *         (the port defaults to the primary's), e.g.
+		 *         JAVANGO_DB_REPLICAS=replica1,replica2:3307. Empty if every
+		 *         query goes to the primary.
+		 */
+		public List<String> getReplicas() {
+			return replicas;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Database)) {
+				return false;
+			}
+			Database that = (Database) other;
+			return port == that.port && equal(serverName, that.serverName)
+					&& equal(name, that.name) && equal(user, that.user)
+					&& equal(password, that.password)
+					&& preparedStatementCacheSize == that.preparedStatementCacheSize
+					&& streamFetchSize == that.streamFetchSize
+					&& replicas.equals(that.replicas);
+		}
+
+		@Override
+		public int hashCode() {
+			return String.format("%s:%d/%s", serverName, port, name)
+					.hashCode();
+		}
+	}
+
+	/**
+	 * Bounds and timeouts of the database connection pool.
+	 */
+	public static final class Pool {
+		private final int minSize;
+		private final int maxSize;
+		private final long idleTimeoutMillis;
+		private final long borrowTimeoutMillis;
+		private final long validationIntervalMillis;
+
+		Pool(Configuration file) {
+			this.minSize = getInt(file, "pool.minsize",
+					"JAVANGO_POOL_MIN_SIZE", 2);
+			this.maxSize = getInt(file, "pool.maxsize",
+					"JAVANGO_POOL_MAX_SIZE", 20);
+			if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+				throw new IllegalArgumentException(String.format(
+						"Settings pool.minsize (JAVANGO_POOL_MIN_SIZE) and pool.maxsize (JAVANGO_POOL_MAX_SIZE) must satisfy 0 <= min <= max and max >= 1, not min %d, max %d.",
+						minSize, maxSize));
+			}
+			this.idleTimeoutMillis = getLong(file, "pool.idletimeout",
+					"JAVANGO_POOL_IDLE_TIMEOUT", 5 * 60 * 1000);
+			this.borrowTimeoutMillis = getLong(file, "pool.borrowtimeout",
+					"JAVANGO_POOL_BORROW_TIMEOUT", 5 * 1000);
+			this.validationIntervalMillis = getLong(file,
+					"pool.validationinterval",
+					"JAVANGO_POOL_VALIDATION_INTERVAL", 5 * 1000);
+		}
+
+		public int getMinSize() {
+			return minSize;
+		}
+
+		public int getMaxSize() {
+			return maxSize;
+		}
+
+		public long getIdleTimeoutMillis() {
+			return idleTimeoutMillis;
+		}
+
+		public long getBorrowTimeoutMillis() {
+			return borrowTimeoutMillis;
+		}
+
+		public long getValidationIntervalMillis() {
+			return validationIntervalMillis;
+		}
+	}
+
+	/**
+	 * How reads are spread over the database's read replicas (see
+	 * Database.getReplicas).
+	 */
+	public static final class Replication {
+		private final long maxLagSeconds;
+		private final long checkIntervalMillis;
+		private final long readYourWritesMillis;
+
+		Replication(Configuration file) {
+			this.maxLagSeconds = getLong(file, "replication.maxlag",
+					"JAVANGO_REPLICA_MAX_LAG", 5);
+			this.checkIntervalMillis = getLong(file,
+					"replication.checkinterval",
+					"JAVANGO_REPLICA_CHECK_INTERVAL", 5 * 1000);
+			this.readYourWritesMillis = getLong(file,
+					"replication.readyourwrites", "JAVANGO_READ_YOUR_WRITES",
+					2 * 1000);
+		}
+
+		/**
+		 * @return how far (in seconds) a replica may fall behind the primary
+		 *         before it stops being used.
+		 */
+		public long getMaxLagSeconds() {
+			return maxLagSeconds;
+		}
+
+		/**
+		 * @return how often each replica's health and lag are checked.
+		 */
+		public long getCheckIntervalMillis() {
+			return checkIntervalMillis;
+		}
+
+		/**
+		 * @return how long after a write to a table reads of that table go to
+		 *         the primary, so that they see the write (0 disables this).
+		 */
+		public long getReadYourWritesMillis() {
+			return readYourWritesMillis;
+		}
+	}
+
+	/**
+	 * Defaults for caches kept by the framework.
+	 */
+	public static final class Cache {
+		private final int maxEntries;
+		private final int maxRows;
+		private final long ttlMillis;
+
+		Cache(Configuration file) {
+			this.maxEntries = getInt(file, "cache.maxentries",
+					"JAVANGO_CACHE_MAX_ENTRIES", 1000);
+			this.maxRows = getInt(file, "cache.maxrows",
+					"JAVANGO_CACHE_MAX_ROWS", 1000);
+			this.ttlMillis = getLong(file, "cache.ttl", "JAVANGO_CACHE_TTL",
+					60 * 1000);
+		}
+
+		public int getMaxEntries() {
+			return maxEntries;
+		}
+
+		/**
+		 * @return the most objects a cached result may hold. Larger results
+		 *         are not cached.
+		 */
+		public int getMaxRows() {
+			return maxRows;
+		}
+
+		public long getTtlMillis() {
+			return ttlMillis;
+		}
+	}
+
+	/**
+	 * Settings which affect how the application serves requests.
+	 */
+	public static final class Server {
+		private final long configPollIntervalMillis;
+		private final int maxPageSize;
+		private final long maxBodySize;
+		private final int maxJsonDepth;
+
+		Server(Configuration file) {
+			this.configPollIntervalMillis = getLong(file,
+					"server.configpollinterval",
+					"JAVANGO_CONFIG_POLL_INTERVAL", 10 * 1000);
+			this.maxPageSize = getInt(file, "server.maxpagesize",
+					"JAVANGO_MAX_PAGE_SIZE", 1000);
+			this.maxBodySize = getLong(file, "server.maxbodysize",
+					"JAVANGO_MAX_BODY_SIZE", 16 * 1024 * 1024);
+			this.maxJsonDepth = getInt(file, "server.maxjsondepth",
+					"JAVANGO_MAX_JSON_DEPTH", 16);
+		}
+
+		/**
+		 * @return the largest page of results a user can ask for.
+		 */
+		public int getMaxPageSize() {
+			return maxPageSize;
+		}
+
+		/**
+		 * @return the largest request body (in bytes) a user can send.
+		 */
+		public long getMaxBodySize() {
+			return maxBodySize;
+		}
+
+		/**
+		 * @return how deeply arrays and objects may be nested in a JSON
+		 *         request body.
+		 */
+		public int getMaxJsonDepth() {
+			return maxJsonDepth;
+		}
+
+		/**
+		 * @return how often the configuration file is checked for changes (0
+		 *         disables reloading).
+		 */
+		public long getConfigPollIntervalMillis() {
+			return configPollIntervalMillis;
+		}
+	}
+
+	/**
+	 * Bounds of the executor which runs asynchronous datasource calls (see
+	 * co.gitm.javango.data.async.DataExecutor).
+	 */
+	public static final class Async {
+		private final int permits;
+		private final int queueSize;
+
+		Async(Configuration file) {
+			this.permits = getInt(file, "async.permits",
+					"JAVANGO_ASYNC_PERMITS", 20);
+			this.queueSize = getInt(file, "async.queuesize",
+					"JAVANGO_ASYNC_QUEUE_SIZE", 1000);
+		}
+
+		/**
+		 * @return the most asynchronous datasource calls which may run at
+		 *         once (normally no more than the pool's maxsize).
+		 */
+		public int getPermits() {
+			return permits;
+		}
+
+		/**
+		 * @return the most calls which may wait for a permit, further calls
+		 *         are rejected.
+		 */
+		public int getQueueSize() {
+			return queueSize;
+		}
+	}
+
+	/**
+	 * Bounds of the write-behind queues of models which opt in to them (see
+	 * co.gitm.javango.data.async.WriteBehindQueue).
+	 */
+	public static final class WriteBehind {
+		private final int queueSize;
+		private final int batchSize;
+		private final long flushIntervalMillis;
+		private final long offerTimeoutMillis;
+		private final int maxAttempts;
+
+		WriteBehind(Configuration file) {
+			this.queueSize = getInt(file, "writebehind.queuesize",
+					"JAVANGO_WRITE_BEHIND_QUEUE_SIZE", 10000);
+			this.batchSize = getInt(file, "writebehind.batchsize",
+					"JAVANGO_WRITE_BEHIND_BATCH_SIZE", 500);
+			this.flushIntervalMillis = getLong(file,
+					"writebehind.flushinterval",
+					"JAVANGO_WRITE_BEHIND_FLUSH_INTERVAL", 200);
+			this.offerTimeoutMillis = getLong(file,
+					"writebehind.offertimeout",
+					"JAVANGO_WRITE_BEHIND_OFFER_TIMEOUT", 100);
+			this.maxAttempts = getInt(file, "writebehind.maxattempts",
+					"JAVANGO_WRITE_BEHIND_MAX_ATTEMPTS", 3);
+		}
+
+		/**
+		 * @return the most objects which may wait to be written.
+		 */
+		public int getQueueSize() {
+			return queueSize;
+		}
+
+		/**
+		 * @return the most objects written in one batch.
+		 */
+		public int getBatchSize() {
+			return batchSize;
+		}
+
+		/**
+		 * @return the longest an object waits for its batch to fill up
+		 *         before the batch is written anyway.
+		 */
+		public long getFlushIntervalMillis() {
+			return flushIntervalMillis;
+		}
+
+		/**
+		 * @return how long a full queue is waited on before new objects are
+		 *         rejected.
+		 */
+		public long getOfferTimeoutMillis() {
+			return offerTimeoutMillis;
+		}
+
+		/**
+		 * @return how many times an object is tried before it is given to the
+		 *         dead letter handler.
+		 */
+		public int getMaxAttempts() {
+			return maxAttempts;
+		}
+	}
+
+	/**
+	 * Query diagnostics: whether new query shapes are EXPLAINed (see
+	 * co.gitm.javango.data.mysql.QueryPlanAnalyzer), which calls are logged as
+	 * slow, and how many filters on unindexed fields rate-limited models
+	 * allow (see co.gitm.javango.model.UnindexedFilterPolicy).
+	 */
+	public static final class Diagnostics {
+		private final boolean explain;
+		private final long slowQueryMillis;
+		private final int unindexedFilterRate;
+
+		Diagnostics(Configuration file) {
+			this.explain = getBoolean(file, "diagnostics.explain",
+					"JAVANGO_EXPLAIN", true);
+			this.slowQueryMillis = getLong(file, "diagnostics.slowquery",
+					"JAVANGO_SLOW_QUERY_MILLIS", 1000);
+			this.unindexedFilterRate = getInt(file,
+					"diagnostics.unindexedrate",
+					"JAVANGO_UNINDEXED_FILTER_RATE", 5);
+		}
+
+		/**
+		 * @return whether the query plan of each new query shape is read
+		 *         (with EXPLAIN) in the background.
+		 */
+		public boolean isExplainEnabled() {
+			return explain;
+		}
+
+		/**
+		 * @return how long a call must take to be logged as slow, or 0 to
+		 *         log none.
+		 */
+		public long getSlowQueryMillis() {
+			return slowQueryMillis;
+		}
+
+		/**
+		 * @return how many queries per second which only filter on unindexed
+		 *         fields are allowed for models with the RATE_LIMIT policy.
+		 */
+		public int getUnindexedFilterRate() {
+			return unindexedFilterRate;
+		}
+	}
+
+	/**
+	 * Model versions shared between servers through the database (see
+	 * co.gitm.javango.data.mysql.MySqlVersionStore).
+	 */
+	public static final class Versions {
+		private final String table;
+		private final long refreshIntervalMillis;
+
+		Versions(Configuration file) {
+			this.table = getString(file, "versions.table",
+					"JAVANGO_VERSIONS_TABLE", "javango_versions");
+			this.refreshIntervalMillis = getLong(file,
+					"versions.refreshinterval",
+					"JAVANGO_VERSIONS_REFRESH_MILLIS", 1000);
+		}
+
+		/**
+		 * @return name of the table which holds the versions.
+		 */
+		public String getTable() {
+			return table;
+		}
+
+		/**
+		 * @return how long a version read from the table is used for before
+		 *         it is read again, i.e. how long a write made through another
+		 *         server may go unseen (0 reads it every time).
+		 */
+		public long getRefreshIntervalMillis() {
+			return refreshIntervalMillis;
+		}
+	}
+
+	/**
+	 * Compression of responses (see co.gitm.javango.view.View.compress), and
+	 * the cache of compressed responses which are sent over and over (see
+	 * co.gitm.javango.view.CompressedCache).
+	 */
+	public static final class Compression {
+		private final long minSize;
+		private final int level;
+		private final long cacheSize;
+		private final long cacheEntrySize;
+
+		Compression(Configuration file) {
+			this.minSize = getLong(file, "compression.minsize",
+					"JAVANGO_COMPRESSION_MIN_SIZE", 1024);
+			this.level = getInt(file, "compression.level",
+					"JAVANGO_COMPRESSION_LEVEL", 6);
+			if (level < 0 || level > 9) {
+				throw new IllegalArgumentException(String.format(
+						"Setting compression.level (JAVANGO_COMPRESSION_LEVEL) must be between 0 and 9, not %d.",
+						level));
+			}
+			this.cacheSize = getLong(file, "compression.cachesize",
+					"JAVANGO_COMPRESSION_CACHE_SIZE", 16 * 1024 * 1024);
+			this.cacheEntrySize = getLong(file, "compression.cacheentrysize",
+					"JAVANGO_COMPRESSION_CACHE_ENTRY_SIZE", 1024 * 1024);
+		}
+
+		/**
+		 * @return smallest response (in bytes) which is compressed. Responses
+		 *         whose size is not known in advance (e.g. streamed results)
+		 *         are always compressed.
+		 */
+		public long getMinSize() {
+			return minSize;
+		}
+
+		/**
+		 * @return the Deflater level to compress with, from 1 (fastest) to 9
+		 *         (smallest), or 0 to only frame the bytes.
+		 */
+		public int getLevel() {
+			return level;
+		}
+
+		/**
+		 * @return most bytes of compressed responses to cache (0 to cache
+		 *         none).
+		 */
+		public long getCacheSize() {
+			return cacheSize;
+		}
+
+		/**
+		 * @return largest compressed response (in bytes) to cache.
+		 */
+		public long getCacheEntrySize() {
+			return cacheEntrySize;
+		}
+	}
+
+	private final Database database;
+	private final Pool pool;
+	private final Replication replication;
+	private final Cache cache;
+	private final Server server;
+	private final Async async;
+	private final WriteBehind writeBehind;
+	private final Diagnostics diagnostics;
+	private final Versions versions;
+	private final Compression compression;
+
+	/**
+	 * @param file
+	 *            holds the contents of the configuration file (may be empty).
+	 */
+	Settings(Configuration file) {
+		this.database = new Database(file);
+		this.pool = new Pool(file);
+		this.replication = new Replication(file);
+		this.cache = new Cache(file);
+		this.server = new Server(file);
+		this.async = new Async(file);
+		this.writeBehind = new WriteBehind(file);
+		this.diagnostics = new Diagnostics(file);
+		this.versions = new Versions(file);
+		this.compression = new Compression(file);
+	}
+
+	public Database getDatabase() {
+		return database;
+	}
+
+	public Pool getPool() {
+		return pool;
+	}
+
+	public Replication getReplication() {
+		return replication;
+	}
+
+	public Cache getCache() {
+		return cache;
+	}
+
+	public Server getServer() {
+		return server;
+	}
+
+	public Async getAsync() {
+		return async;
+	}
+
+	public WriteBehind getWriteBehind() {
+		return writeBehind;
+	}
+
+	public Diagnostics getDiagnostics() {
+		return diagnostics;
+	}
+
+	public Versions getVersions() {
+		return versions;
+	}
+
+	public Compression getCompression() {
+		return compression;
+	}
+
+	/**
+	 * @return the value of a setting, looking in system properties,
+	 *         environment variables and the configuration file (in that
+	 *         order).
+	 */
+	static String getString(Configuration file, String key,
+			String overrideName, String defaultValue) {
+		String value = System.getProperty(overrideName);
+		if (value == null) {
+			value = System.getenv(overrideName);
+		}
+		if (value == null) {
+			value = file.getString(key, defaultValue);
+		}
+		return value;
+	}
+
+	static int getInt(Configuration file, String key, String overrideName,
+			int defaultValue) {
+		String value = getString(file, key, overrideName, null);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(String.format(
+					"Setting %s (%s) must be an integer, not \"%s\".", key,
+					overrideName, value));
+		}
+	}
+
+	static long getLong(Configuration file, String key, String overrideName,
+			long defaultValue) {
+		String value = getString(file, key, overrideName, null);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(String.format(
+					"Setting %s (%s) must be an integer, not \"%s\".", key,
+					overrideName, value));
+		}
+	}
+
+	static boolean getBoolean(Configuration file, String key,
+			String overrideName, boolean defaultValue) {
+		String value = getString(file, key, overrideName, null);
+		if (value == null) {
+			return defaultValue;
+		}
+		value = value.trim();
+		if (value.equalsIgnoreCase("true")) {
+			return true;
+		}
+		if (value.equalsIgnoreCase("false")) {
+			return false;
+		}
+		throw new IllegalArgumentException(String.format(
+				"Setting %s (%s) must be true or false, not \"%s\".", key,
+				overrideName, value));
+	}
+
+	/**
+	 * @return the comma separated values of a setting (empty if it is not
+	 *         set). The list cannot be modified.
+	 */
+	static List<String> getList(Configuration file, String key,
+			String overrideName) {
+		String value = System.getProperty(overrideName);
+		if (value == null) {
+			value = System.getenv(overrideName);
+		}
+		// The configuration file splits values on commas itself.
+		String[] items = value != null ? value.split(",") : file
+				.getStringArray(key);
+		List<String> values = new ArrayList<String>();
+		for (String item : items) {
+			if (item.trim().length() > 0) {
+				values.add(item.trim());
+			}
+		}
+		return Collections.unmodifiableList(values);
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
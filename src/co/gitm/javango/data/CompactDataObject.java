@@ -0,0 +1,473 @@
+package co.gitm.javango.data;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import co.gitm.javango.data.RowSchema.Kind;
+
+/**
+ * A DataObject which holds its fields in a flat array, described by a RowSchema
+ * shared with every other row of the same result, rather than in a hash table
+ * of its own. Numeric columns are held as primitives and only boxed when they
+ * are read through the Map interface (JsonWriter reads them without boxing), so
+ * a row costs one object array (plus one long array if it has numeric columns)
+ * instead of a table, an entry per field and a boxed number per numeric value.
+ *
+ * Rows behave like any other DataObject (a Map from field names to values,
+ * which is written as JSON in the same way). Changing the value of one of the
+ * schema's fields is done in place; adding or removing fields turns the row
+ * into an ordinary DataObject (its values are copied into the underlying
+ * HashMap), since it no longer matches the schema.
+ *
+ * The keySet, values and entrySet views (and their entries) read through to the
+ * row, so still reflect it once it has turned into an ordinary DataObject.
+ * Iterators over a compact row do not support removal, and fail with a
+ * ConcurrentModificationException if the row stops being compact while they are
+ * in use.
+ *
+ * Maps methods added after Java 6 which HashMap overrides (e.g. forEach and
+ * compute) only see fields which were added or removed after that point, so
+ * should not be used on compact rows.
+ *
+ */
+public class CompactDataObject extends DataObject {
+	// Marks a value which is held in primitives.
+	private static final Object PRIMITIVE = new Object();
+
+	// Null once the row is no longer compact (see inflate).
+	private RowSchema schema;
+	private Object[] values;
+	private long[] primitives;
+
+	/**
+	 * @param schema
+	 *            of the row. All fields start out null.
+	 */
+	public CompactDataObject(RowSchema schema) {
+		this.schema = schema;
+		this.values = new Object[schema.getColumnCount()];
+		this.primitives = schema.getPrimitiveCount() == 0 ? null
+				: new long[schema.getPrimitiveCount()];
+	}
+
+	/**
+	 * @return the row's schema, or null if fields have been added to or
+	 *         removed from it (so it is held as an ordinary DataObject).
+	 */
+	public RowSchema getSchema() {
+		return schema;
+	}
+
+	/**
+	 * Sets the value of a column.
+	 */
+	public void setValue(int column, Object value) {
+		Kind kind = schema.getKind(column);
+		if (value instanceof Number && kind != Kind.OBJECT
+				&& fits((Number) value, kind)) {
+			Number number = (Number) value;
+			if (kind == Kind.FLOAT || kind == Kind.DOUBLE) {
+				this.setDouble(column, number.doubleValue());
+			} else {
+				this.setLong(column, number.longValue());
+			}
+		} else {
+			values[column] = value;
+		}
+	}
+
+	/**
+	 * Sets the value of an INT or LONG column.
+	 */
+	public void setLong(int column, long value) {
+		primitives[schema.getSlot(column)] = value;
+		values[column] = PRIMITIVE;
+	}
+
+	/**
+	 * Sets the value of a FLOAT or DOUBLE column.
+	 */
+	public void setDouble(int column, double value) {
+		primitives[schema.getSlot(column)] = Double.doubleToRawLongBits(value);
+		values[column] = PRIMITIVE;
+	}
+
+	/**
+	 * @return the value of a column, boxed if it is held as a primitive.
+	 */
+	public Object getValue(int column) {
+		Object value = values[column];
+		if (value != PRIMITIVE) {
+			return value;
+		}
+		long bits = primitives[schema.getSlot(column)];
+		switch (schema.getKind(column)) {
+		case INT:
+			return Integer.valueOf((int) bits);
+		case LONG:
+			return Long.valueOf(bits);
+		case FLOAT:
+			return Float.valueOf((float) Double.longBitsToDouble(bits));
+		default:
+			return Double.valueOf(Double.longBitsToDouble(bits));
+		}
+	}
+
+	/**
+	 * @return whether the value of a column is held as a primitive (so can be
+	 *         read with getLong or getDouble, depending on its kind), rather
+	 *         than as an object (which may be null).
+	 */
+	public boolean isPrimitive(int column) {
+		return values[column] == PRIMITIVE;
+	}
+
+	/**
+	 * @return the value of an INT or LONG column held as a primitive.
+	 */
+	public long getLong(int column) {
+		return primitives[schema.getSlot(column)];
+	}
+
+	/**
+	 * @return the value of a FLOAT or DOUBLE column held as a primitive.
+	 */
+	public double getDouble(int column) {
+		return Double.longBitsToDouble(primitives[schema.getSlot(column)]);
+	}
+
+	@Override
+	public int size() {
+		return schema != null ? values.length : super.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return this.size() == 0;
+	}
+
+	@Override
+	public Object get(Object key) {
+		if (schema == null) {
+			return super.get(key);
+		}
+		int column = schema.indexOf(key);
+		return column < 0 ? null : this.getValue(column);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return schema != null ? schema.indexOf(key) >= 0 : super
+				.containsKey(key);
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		if (schema == null) {
+			return super.containsValue(value);
+		}
+		for (int i = 0; i < values.length; i++) {
+			Object v = this.getValue(i);
+			if (value == null ? v == null : value.equals(v)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public Object put(Object key, Object value) {
+		if (schema != null) {
+			int column = schema.indexOf(key);
+			if (column >= 0) {
+				Object previous = this.getValue(column);
+				this.setValue(column, value);
+				return previous;
+			}
+			this.inflate();
+		}
+		return super.put(key, value);
+	}
+
+	@Override
+	public void putAll(Map m) {
+		for (Object entry : m.entrySet()) {
+			this.put(((Map.Entry) entry).getKey(),
+					((Map.Entry) entry).getValue());
+		}
+	}
+
+	@Override
+	public Object remove(Object key) {
+		if (schema != null) {
+			if (schema.indexOf(key) < 0) {
+				return null;
+			}
+			this.inflate();
+		}
+		return super.remove(key);
+	}
+
+	@Override
+	public void clear() {
+		if (schema != null) {
+			schema = null;
+			values = null;
+			primitives = null;
+		}
+		super.clear();
+	}
+
+	/**
+	 * Same as Map.getOrDefault (which is not available in Java 6).
+	 */
+	public Object getOrDefault(Object key, Object defaultValue) {
+		return this.containsKey(key) ? this.get(key) : defaultValue;
+	}
+
+	/**
+	 * Same as Map.putIfAbsent (which is not available in Java 6).
+	 */
+	public Object putIfAbsent(Object key, Object value) {
+		Object current = this.get(key);
+		return current == null ? this.put(key, value) : current;
+	}
+
+	@Override
+	public Set keySet() {
+		if (schema == null) {
+			return super.keySet();
+		}
+		return new AbstractSet<String>() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public Iterator<String> iterator() {
+				if (schema == null) {
+					return CompactDataObject.super.keySet().iterator();
+				}
+				return new ColumnIterator<String>() {
+					@Override
+					String element(int column) {
+						return schema.getName(column);
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object key) {
+				return CompactDataObject.this.containsKey(key);
+			}
+
+			@Override
+			public int size() {
+				return CompactDataObject.this.size();
+			}
+		};
+	}
+
+	@Override
+	public Collection values() {
+		if (schema == null) {
+			return super.values();
+		}
+		return new AbstractCollection<Object>() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public Iterator<Object> iterator() {
+				if (schema == null) {
+					return CompactDataObject.super.values().iterator();
+				}
+				return new ColumnIterator<Object>() {
+					@Override
+					Object element(int column) {
+						return CompactDataObject.this.getValue(column);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return CompactDataObject.this.size();
+			}
+		};
+	}
+
+	@Override
+	public Set entrySet() {
+		if (schema == null) {
+			return super.entrySet();
+		}
+		return new AbstractSet<Map.Entry<String, Object>>() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				if (schema == null) {
+					return CompactDataObject.super.entrySet().iterator();
+				}
+				return new ColumnIterator<Map.Entry<String, Object>>() {
+					@Override
+					Map.Entry<String, Object> element(int column) {
+						return new ColumnEntry(column);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return CompactDataObject.this.size();
+			}
+		};
+	}
+
+	@Override
+	public Object clone() {
+		if (schema == null) {
+			return super.clone();
+		}
+		CompactDataObject copy = new CompactDataObject(schema);
+		System.arraycopy(values, 0, copy.values, 0, values.length);
+		if (primitives != null) {
+			System.arraycopy(primitives, 0, copy.primitives, 0,
+					primitives.length);
+		}
+		copy.setObjectName(this.getObjectName());
+		return copy;
+	}
+
+	/**
+	 * Copies the row's values into the underlying HashMap, which holds them
+	 * from then on.
+	 */
+	private void inflate() {
+		RowSchema compact = schema;
+		Object[] boxed = new Object[values.length];
+		for (int i = 0; i < boxed.length; i++) {
+			boxed[i] = this.getValue(i);
+		}
+		schema = null;
+		values = null;
+		primitives = null;
+		for (int i = 0; i < boxed.length; i++) {
+			super.put(compact.getName(i), boxed[i]);
+		}
+	}
+
+	/**
+	 * @return whether number can be held as a primitive of kind without
+	 *         changing its value or type.
+	 */
+	private static boolean fits(Number number, Kind kind) {
+		switch (kind) {
+		case INT:
+			return number instanceof Integer || number instanceof Short
+					|| number instanceof Byte;
+		case LONG:
+			return number instanceof Long;
+		case FLOAT:
+			return number instanceof Float;
+		case DOUBLE:
+			return number instanceof Double;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Iterates over the row's columns. Removal is not supported.
+	 */
+	private abstract class ColumnIterator<E> implements Iterator<E> {
+		private final int count = values.length;
+		private int next = 0;
+
+		abstract E element(int column);
+
+		@Override
+		public boolean hasNext() {
+			return next < count;
+		}
+
+		@Override
+		public E next() {
+			if (!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			if (schema == null) {
+				// Fields were added or removed, so the columns are gone.
+				throw new ConcurrentModificationException();
+			}
+			return this.element(next++);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * A column of the row, which reads and writes through to it (by name,
+	 * once the row is no longer compact).
+	 */
+	private final class ColumnEntry implements Map.Entry<String, Object> {
+		private final int column;
+		private final String key;
+
+		ColumnEntry(int column) {
+			this.column = column;
+			this.key = schema.getName(column);
+		}
+
+		@Override
+		public String getKey() {
+			return key;
+		}
+
+		@Override
+		public Object getValue() {
+			if (schema == null) {
+				return CompactDataObject.this.get(key);
+			}
+			return CompactDataObject.this.getValue(column);
+		}
+
+		@Override
+		public Object setValue(Object value) {
+			if (schema == null) {
+				return CompactDataObject.this.put(key, value);
+			}
+			Object previous = this.getValue();
+			CompactDataObject.this.setValue(column, value);
+			return previous;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?, ?> that = (Map.Entry<?, ?>) other;
+			Object value = this.getValue();
+			return this.getKey().equals(that.getKey())
+					&& (value == null ? that.getValue() == null : value
+							.equals(that.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			Object value = this.getValue();
+			return this.getKey().hashCode()
+					^ (value == null ? 0 : value.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return this.getKey() + "=" + this.getValue();
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package co.gitm.javango.data;
+
+import java.util.Iterator;
+
+/**
+ * A DataCursor iterates over the objects which matched a Query, one at a time,
+ * as they are read from the DataSource. Unlike a DataObjectArray, the objects
+ * are never all held in memory at once, so a cursor can be used to send a
+ * result set of any size to the user.
+ * 
+ * A cursor holds on to DataSource resources (e.g. a database connection) until
+ * it has been read to the end or closed, so it must always be closed
+ * (preferably in a finally block) once it is no longer needed. If the
+ * DataSource fails part way through, hasNext and next throw a
+ * DataCursorException.
+ * 
+ */
+public interface DataCursor extends Iterator<DataObject> {
+	/**
+	 * Releases any resources held by the cursor. Calling close more than once
+	 * has no effect.
+	 */
+	public void close();
+}
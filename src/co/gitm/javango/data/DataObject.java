@@ -3,8 +3,6 @@ package co.gitm.javango.data;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
-import org.restlet.data.Form;
-import org.restlet.data.Parameter;
 
 /**
  * @author Alex McLeod
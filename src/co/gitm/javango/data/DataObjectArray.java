@@ -1,6 +1,9 @@
 package co.gitm.javango.data;
 
 import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 
 /**
  * @author Alex McLeod
@@ -10,4 +13,32 @@ import org.json.simple.JSONArray;
  */
 public class DataObjectArray extends JSONArray {
 
+	/**
+	 * @param jsonStr
+	 *            a JSON array of JSON objects.
+	 * @return new DataObjectArray holding a DataObject for each object in
+	 *         jsonStr.
+	 * @throws ParseException
+	 *             if jsonStr is not a valid JSON array of objects.
+	 */
+	public static DataObjectArray instanceFromJson(String jsonStr)
+			throws ParseException {
+		JSONParser p = new JSONParser();
+		Object jsonData = p.parse(jsonStr);
+		if (!(jsonData instanceof JSONArray)) {
+			throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN,
+					jsonData);
+		}
+		DataObjectArray doa = new DataObjectArray();
+		for (Object element : (JSONArray) jsonData) {
+			if (!(element instanceof JSONObject)) {
+				throw new ParseException(
+						ParseException.ERROR_UNEXPECTED_TOKEN, element);
+			}
+			DataObject dObj = new DataObject();
+			dObj.putAll((JSONObject) element);
+			doa.add(dObj);
+		}
+		return doa;
+	}
 }
@@ -0,0 +1,37 @@
+package co.gitm.javango.data;
+
+import java.util.Iterator;
+
+/**
+ * A DataCursor over objects which are already in memory (e.g. results from a
+ * cache), so that they can be handled in the same way as objects streamed from
+ * a DataSource.
+ *
+ */
+public class DataObjectArrayCursor implements DataCursor {
+	private final Iterator<?> itr;
+
+	public DataObjectArrayCursor(DataObjectArray objects) {
+		this.itr = objects.iterator();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return itr.hasNext();
+	}
+
+	@Override
+	public DataObject next() {
+		return (DataObject) itr.next();
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() {
+		// Nothing to release.
+	}
+}
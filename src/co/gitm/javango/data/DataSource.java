@@ -1,6 +1,9 @@
 package co.gitm.javango.data;
 
 import co.gitm.javango.data.exceptions.CreateException;
+import co.gitm.javango.data.exceptions.DeleteException;
+import co.gitm.javango.data.exceptions.RetrieveException;
+import co.gitm.javango.data.exceptions.UpdateException;
 
 /**
  * @author Alex McLeod
@@ -9,6 +12,9 @@ import co.gitm.javango.data.exceptions.CreateException;
  *         this interface. This ensures that they support creating, retrieving,
  *         updating and deleting model objects.
  * 
+ *         Implementations must be thread safe, as a single instance is shared
+ *         by every request (see JavangoApplication).
+ * 
  */
 public interface DataSource {
 	/**
@@ -19,21 +25,71 @@ public interface DataSource {
 	 */
 	public void create(DataObject newData) throws CreateException;
 
+	/**
+	 * Inserts several objects at once. Either all of them are inserted or none
+	 * of them are.
+	 * 
+	 * @param newData
+	 *            DataObjects to insert into datasource
+	 * @return number of objects inserted.
+	 * @throws CreateException
+	 *             if insertion failed (getIndex returns the position of the
+	 *             offending object, if known).
+	 */
+	public int createAll(DataObjectArray newData) throws CreateException;
+
+	/**
+	 * @param query
+	 *            to query the datasource
+	 * @return all objects in the datasource which matched that query.
+	 * @throws RetrieveException
+	 *             if the query could not be run.
+	 */
+	public DataObjectArray retrieve(Query query) throws RetrieveException;
+
 	/**
 	 * @param query
 	 *            to query the datasource
-	 * @return all objects in the datasource which matched that query. TODO
-	 *         Should throw a RetrieveException.
+	 * @return a cursor over all objects in the datasource which matched that
+	 *         query, which reads them as they are iterated over instead of
+	 *         holding them all in memory. The caller must close the cursor.
+	 * @throws RetrieveException
+	 *             if the query could not be run.
+	 */
+	public DataCursor stream(Query query) throws RetrieveException;
+
+	/**
+	 * Sets fields of every object which matches the filter of query (its
+	 * order, paging and fields are ignored).
+	 * 
+	 * @param query
+	 *            selecting the objects to update. An empty filter selects
+	 *            every object.
+	 * @param changes
+	 *            fields to set, and their new values.
+	 * @return number of objects updated.
+	 * @throws UpdateException
+	 *             if the update failed.
 	 */
-	public DataObjectArray retrieve(Query query);
+	public int update(Query query, DataObject changes) throws UpdateException;
 
 	/**
-	 * TODO Implement update.
+	 * Deletes every object which matches the filter of query (its order,
+	 * paging and fields are ignored).
+	 * 
+	 * @param query
+	 *            selecting the objects to delete. An empty filter selects
+	 *            every object.
+	 * @return number of objects deleted.
+	 * @throws DeleteException
+	 *             if the deletion failed.
 	 */
-	public void update();
+	public int delete(Query query) throws DeleteException;
 
 	/**
-	 * TODO Implement delete.
+	 * Releases everything held by the datasource (e.g. pooled connections).
+	 * Called when the application which owns the datasource stops. Calling
+	 * it more than once has no further effect.
 	 */
-	public void delete();
+	public void close();
 }
@@ -0,0 +1,784 @@
+package co.gitm.javango.data;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import co.gitm.javango.data.exceptions.CreateException;
+import co.gitm.javango.data.exceptions.DeleteException;
+import co.gitm.javango.data.exceptions.RetrieveException;
+import co.gitm.javango.data.exceptions.UpdateException;
+
+/**
+ * A DataSource which holds its objects in memory, e.g. for small, read-mostly
+ * lookup tables which are too hot to query MySQL for, or to test and benchmark
+ * models without a database. Objects are held in tables named after their
+ * objectName, which are created when they are first used (see load to fill a
+ * table from another DataSource, e.g. a MySqlDataSource, when the application
+ * starts).
+ *
+ * Queries behave like they do in MySqlDataSource: filters select objects whose
+ * fields equal the filter values (numbers are compared by value, so the filter
+ * "5" matches the number 5), and results can be ordered, paged (by limit,
+ * offset or seeking) and limited to some of their fields. Objects are returned
+ * in the order they were added unless the query is ordered. Tables have no
+ * fixed columns, so objects are not checked against any (models do that
+ * themselves, see Model.validate).
+ *
+ * Filters on fields which have an index (see addIndex) are hash lookups, rather
+ * than scans of the whole table. A table can also have a generated key field
+ * (see setGeneratedKey), which works like a MySQL AUTO_INCREMENT primary key.
+ *
+ * Instances are thread safe. Each table has a read-write lock, so any number of
+ * queries can run at once, while writes to a table run one at a time. Objects
+ * are copied on their way in and out, so callers never share them with the
+ * table (nested JSON values are not copied, so must not be modified).
+ *
+ */
+public class InMemoryDataSource implements DataSource {
+	// Tables by objectName.
+	private final ConcurrentHashMap<String, Table> tables = new ConcurrentHashMap<String, Table>();
+	private volatile boolean closed = false;
+
+	public InMemoryDataSource() {
+	}
+
+	/**
+	 * Keeps a hash index on field of the objectName table, so that filters
+	 * on field do not have to scan the table. Can be called at any time
+	 * (existing objects are indexed straight away).
+	 */
+	public void addIndex(String objectName, String field) {
+		Table table = this.getTable(objectName);
+		table.lock.writeLock().lock();
+		try {
+			table.addIndex(field);
+		} finally {
+			table.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Makes field the generated key of the objectName table: objects added
+	 * without a value for it are given the next number (1, 2, 3...), and no
+	 * two objects can have the same value. The field is indexed.
+	 */
+	public void setGeneratedKey(String objectName, String field) {
+		Table table = this.getTable(objectName);
+		table.lock.writeLock().lock();
+		try {
+			table.setGeneratedKey(field);
+		} finally {
+			table.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds every object of the objectName table in source (e.g. a
+	 * MySqlDataSource) to the objectName table of this datasource.
+	 *
+	 * @return number of objects added.
+	 * @throws RetrieveException
+	 *             if the objects could not be read from source.
+	 * @throws CreateException
+	 *             if the objects could not be added (e.g. their generated
+	 *             keys clash with objects which are already in the table), in
+	 *             which case none of them are.
+	 */
+	public int load(DataSource source, String objectName)
+			throws RetrieveException, CreateException {
+		DataObjectArray objects = source.retrieve(new Query(objectName));
+		for (Object obj : objects) {
+			((DataObject) obj).setObjectName(objectName);
+		}
+		return this.createAll(objects);
+	}
+
+	/**
+	 * @return number of objects in the objectName table.
+	 */
+	public int size(String objectName) {
+		Table table = tables.get(objectName);
+		if (table == null) {
+			return 0;
+		}
+		table.lock.readLock().lock();
+		try {
+			return table.rows.size();
+		} finally {
+			table.lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * co.gitm.javango.data.DataSource#create(co.gitm.javango.data.DataObject)
+	 */
+	@Override
+	public void create(DataObject newData) throws CreateException {
+		if (newData.isEmpty()) {
+			throw new CreateException("Cannot insert an object with no fields.");
+		}
+		Table table;
+		try {
+			table = this.getTable(newData.getObjectName());
+		} catch (IllegalStateException e) {
+			throw new CreateException(e.getMessage());
+		}
+		table.lock.writeLock().lock();
+		try {
+			table.insert(newData);
+		} finally {
+			table.lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * co.gitm.javango.data.DataSource#createAll(co.gitm.javango.data.DataObjectArray
+	 * )
+	 */
+	@Override
+	public int createAll(DataObjectArray newData) throws CreateException {
+		if (newData.isEmpty()) {
+			return 0;
+		}
+		// Objects may belong to different tables, lock them in name order so
+		// that concurrent batches cannot deadlock.
+		TreeMap<String, Table> locked = new TreeMap<String, Table>();
+		for (int i = 0; i < newData.size(); i++) {
+			DataObject obj = (DataObject) newData.get(i);
+			if (obj.isEmpty()) {
+				throw new CreateException(
+						"Cannot insert an object with no fields.", i);
+			}
+			try {
+				locked.put(this.checkName(obj.getObjectName()), null);
+			} catch (IllegalStateException e) {
+				throw new CreateException(e.getMessage(), i);
+			}
+		}
+		try {
+			for (String name : locked.keySet()) {
+				locked.put(name, this.getTable(name));
+			}
+		} catch (IllegalStateException e) {
+			throw new CreateException(e.getMessage());
+		}
+		for (Table table : locked.values()) {
+			table.lock.writeLock().lock();
+		}
+		// Objects added so far, so that they can be removed again if a later
+		// one cannot be added.
+		List<Table> tablesAdded = new ArrayList<Table>();
+		List<Long> idsAdded = new ArrayList<Long>();
+		Map<Table, Long> nextKeys = new HashMap<Table, Long>();
+		for (Table table : locked.values()) {
+			nextKeys.put(table, table.nextKey);
+		}
+		try {
+			for (int i = 0; i < newData.size(); i++) {
+				DataObject obj = (DataObject) newData.get(i);
+				Table table = locked.get(obj.getObjectName());
+				try {
+					idsAdded.add(table.insert(obj));
+					tablesAdded.add(table);
+				} catch (CreateException e) {
+					// Either all of them are added, or none of them are.
+					for (int j = 0; j < idsAdded.size(); j++) {
+						tablesAdded.get(j).remove(idsAdded.get(j));
+					}
+					for (Map.Entry<Table, Long> next : nextKeys.entrySet()) {
+						next.getKey().nextKey = next.getValue();
+					}
+					throw new CreateException(e.getMessage(), i);
+				}
+			}
+			return newData.size();
+		} finally {
+			for (Table table : locked.values()) {
+				table.lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see co.gitm.javango.data.DataSource#retrieve(co.gitm.javango.data.Query)
+	 */
+	@Override
+	public DataObjectArray retrieve(Query query) throws RetrieveException {
+		if (closed || query.getObjectName() == null) {
+			throw new RetrieveException(closed ? "InMemoryDataSource is closed."
+					: "Query has no object name.");
+		}
+		DataObjectArray results = new DataObjectArray();
+		Table table = tables.get(query.getObjectName());
+		if (table == null) {
+			return results;
+		}
+		table.lock.readLock().lock();
+		try {
+			table.select(query, results);
+		} finally {
+			table.lock.readLock().unlock();
+		}
+		return results;
+	}
+
+	/**
+	 * The objects are copied out of the table when stream is called, so the
+	 * cursor does not hold the table's lock.
+	 *
+	 * @see co.gitm.javango.data.DataSource#stream(co.gitm.javango.data.Query)
+	 */
+	@Override
+	public DataCursor stream(Query query) throws RetrieveException {
+		return new DataObjectArrayCursor(this.retrieve(query));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see co.gitm.javango.data.DataSource#update(co.gitm.javango.data.Query,
+	 * co.gitm.javango.data.DataObject)
+	 */
+	@Override
+	public int update(Query query, DataObject changes) throws UpdateException {
+		if (changes.isEmpty()) {
+			throw new UpdateException("Cannot update an object with no fields.");
+		}
+		Table table;
+		try {
+			table = this.getTable(query.getObjectName());
+		} catch (IllegalStateException e) {
+			throw new UpdateException(e.getMessage());
+		}
+		table.lock.writeLock().lock();
+		try {
+			return table.update(query.getFilter(), changes);
+		} finally {
+			table.lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see co.gitm.javango.data.DataSource#delete(co.gitm.javango.data.Query)
+	 */
+	@Override
+	public int delete(Query query) throws DeleteException {
+		Table table;
+		try {
+			table = this.getTable(query.getObjectName());
+		} catch (IllegalStateException e) {
+			throw new DeleteException(e.getMessage());
+		}
+		table.lock.writeLock().lock();
+		try {
+			List<Long> ids = table.find(query.getFilter());
+			for (Long id : ids) {
+				table.remove(id);
+			}
+			return ids.size();
+		} finally {
+			table.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Drops every table. The datasource cannot be used afterwards.
+	 *
+	 * @see co.gitm.javango.data.DataSource#close()
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		tables.clear();
+	}
+
+	/**
+	 * @return the objectName table, creating it if it does not exist yet.
+	 * @throws IllegalStateException
+	 *             if the datasource has been closed, or objectName is null.
+	 */
+	private Table getTable(String objectName) {
+		this.checkName(objectName);
+		Table table = tables.get(objectName);
+		if (table == null) {
+			table = new Table();
+			Table existing = tables.putIfAbsent(objectName, table);
+			if (existing != null) {
+				table = existing;
+			}
+		}
+		return table;
+	}
+
+	private String checkName(String objectName) {
+		if (closed) {
+			throw new IllegalStateException("InMemoryDataSource is closed.");
+		}
+		if (objectName == null) {
+			throw new IllegalStateException("Object has no object name.");
+		}
+		return objectName;
+	}
+
+	/**
+	 * The objects with one objectName. Guarded by lock: reads must hold the
+	 * read lock, and writes the write lock.
+	 */
+	private static final class Table {
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		// Objects by id. Ids are given out in increasing order, so iterating
+		// over rows visits objects in the order they were added.
+		private final TreeMap<Long, DataObject> rows = new TreeMap<Long, DataObject>();
+		// Hash index of each indexed field: the ids of the objects with each
+		// value of the field (see keyOf). Null values are not indexed.
+		private final HashMap<String, HashMap<Object, TreeSet<Long>>> indexes = new HashMap<String, HashMap<Object, TreeSet<Long>>>();
+		private long nextId = 0;
+		// Generated key field (or null) and the next value to give it.
+		private String keyField = null;
+		private long nextKey = 1;
+
+		void addIndex(String field) {
+			if (indexes.containsKey(field)) {
+				return;
+			}
+			HashMap<Object, TreeSet<Long>> index = new HashMap<Object, TreeSet<Long>>();
+			indexes.put(field, index);
+			for (Map.Entry<Long, DataObject> row : rows.entrySet()) {
+				index(index, row.getValue().get(field), row.getKey());
+			}
+		}
+
+		void setGeneratedKey(String field) {
+			this.addIndex(field);
+			keyField = field;
+			for (DataObject row : rows.values()) {
+				this.advanceKey(row.get(field));
+			}
+		}
+
+		/**
+		 * Adds a copy of obj to the table.
+		 *
+		 * @return its id.
+		 */
+		long insert(DataObject obj) throws CreateException {
+			DataObject row = new DataObject();
+			row.putAll(obj);
+			if (keyField != null) {
+				Object key = row.get(keyField);
+				if (key == null) {
+					row.put(keyField, Long.valueOf(nextKey));
+				} else if (!this.lookup(keyField, keysFor(key)).isEmpty()) {
+					throw new CreateException(String.format(
+							"Duplicate entry '%s' for key '%s'", key, keyField));
+				}
+				this.advanceKey(row.get(keyField));
+			}
+			long id = nextId++;
+			rows.put(id, row);
+			for (Map.Entry<String, HashMap<Object, TreeSet<Long>>> index : indexes
+					.entrySet()) {
+				index(index.getValue(), row.get(index.getKey()), id);
+			}
+			return id;
+		}
+
+		void remove(Long id) {
+			DataObject row = rows.remove(id);
+			if (row == null) {
+				return;
+			}
+			for (Map.Entry<String, HashMap<Object, TreeSet<Long>>> index : indexes
+					.entrySet()) {
+				unindex(index.getValue(), row.get(index.getKey()), id);
+			}
+		}
+
+		int update(Map<String, String> filter, DataObject changes)
+				throws UpdateException {
+			List<Long> ids = this.find(filter);
+			// Check the generated key stays unique before changing anything.
+			if (keyField != null && changes.containsKey(keyField)) {
+				Object key = changes.get(keyField);
+				if (key == null) {
+					throw new UpdateException(String.format(
+							"Column '%s' cannot be null", keyField));
+				}
+				List<Long> clashes = this.lookup(keyField, keysFor(key));
+				if (ids.size() > 1 || !clashes.isEmpty()
+						&& !(ids.size() == 1 && clashes.size() == 1 && clashes
+								.get(0).equals(ids.get(0)))) {
+					throw new UpdateException(String.format(
+							"Duplicate entry '%s' for key '%s'", key, keyField));
+				}
+			}
+			for (Long id : ids) {
+				DataObject row = rows.get(id);
+				for (Object entry : changes.entrySet()) {
+					String field = (String) ((Map.Entry) entry).getKey();
+					Object value = ((Map.Entry) entry).getValue();
+					HashMap<Object, TreeSet<Long>> index = indexes.get(field);
+					if (index != null) {
+						unindex(index, row.get(field), id);
+						index(index, value, id);
+					}
+					row.put(field, value);
+				}
+				if (keyField != null) {
+					this.advanceKey(row.get(keyField));
+				}
+			}
+			return ids.size();
+		}
+
+		/**
+		 * Adds copies of the objects which match query to results.
+		 */
+		void select(Query query, DataObjectArray results) {
+			List<Long> ids = this.find(query.getFilter());
+			List<DataObject> matches = new ArrayList<DataObject>(ids.size());
+			for (Long id : ids) {
+				matches.add(rows.get(id));
+			}
+			// Order and page results in the same way as QueryCompiler.
+			boolean paged = query.getLimit() != null || query.getOffset() > 0
+					|| query.isSeek();
+			final String order = query.getOrder();
+			final String key = paged || order != null ? query.getKeyField()
+					: null;
+			final String sortField = order != null ? order : key;
+			final boolean tieBreaker = key != null && order != null
+					&& !order.equals(key);
+			final int direction = query.isDescending() ? -1 : 1;
+			if (sortField != null) {
+				Collections.sort(matches, new Comparator<DataObject>() {
+					@Override
+					public int compare(DataObject a, DataObject b) {
+						int c = compareValues(a.get(sortField),
+								b.get(sortField));
+						if (c == 0 && tieBreaker) {
+							c = compareValues(a.get(key), b.get(key));
+						}
+						return c * direction;
+					}
+				});
+			}
+			int skip = query.getOffset();
+			int limit = query.getLimit() != null ? query.getLimit()
+					: Integer.MAX_VALUE;
+			List<String> fields = query.getFields();
+			for (DataObject row : matches) {
+				if (results.size() >= limit) {
+					break;
+				}
+				if (query.isSeek() && sortField != null
+						&& !isAfter(row, query, sortField, key, tieBreaker,
+								direction)) {
+					continue;
+				}
+				if (skip > 0) {
+					skip--;
+					continue;
+				}
+				DataObject copy = new DataObject();
+				if (fields == null || fields.isEmpty()) {
+					copy.putAll(row);
+				} else {
+					// Order and key fields are needed for page tokens.
+					copyField(row, copy, order);
+					copyField(row, copy, key);
+					for (String field : fields) {
+						copyField(row, copy, field);
+					}
+				}
+				results.add(copy);
+			}
+		}
+
+		/**
+		 * @return the ids of the objects which match filter, in increasing
+		 *         order.
+		 */
+		List<Long> find(Map<String, String> filter) {
+			if (filter == null || filter.isEmpty()) {
+				return new ArrayList<Long>(rows.keySet());
+			}
+			// Look values up in the smallest index, and check the rest of
+			// the filter against each object found.
+			String[] fields = new String[filter.size()];
+			Object[][] keys = new Object[fields.length][];
+			List<Long> candidates = null;
+			int i = 0;
+			for (Map.Entry<String, String> entry : filter.entrySet()) {
+				fields[i] = entry.getKey();
+				keys[i] = keysFor(entry.getValue());
+				if (indexes.containsKey(fields[i])) {
+					List<Long> found = this.lookup(fields[i], keys[i]);
+					if (candidates == null || found.size() < candidates.size()) {
+						candidates = found;
+					}
+				}
+				i++;
+			}
+			Collection<Long> ids = candidates != null ? candidates : rows
+					.keySet();
+			List<Long> matches = new ArrayList<Long>();
+			for (Long id : ids) {
+				DataObject row = rows.get(id);
+				boolean match = true;
+				for (int f = 0; f < fields.length && match; f++) {
+					match = matches(row.get(fields[f]), keys[f]);
+				}
+				if (match) {
+					matches.add(id);
+				}
+			}
+			return matches;
+		}
+
+		/**
+		 * @return the ids of the objects whose (indexed) field has one of
+		 *         keys, in increasing order.
+		 */
+		List<Long> lookup(String field, Object[] keys) {
+			HashMap<Object, TreeSet<Long>> index = indexes.get(field);
+			if (keys.length == 1) {
+				TreeSet<Long> ids = keys[0] == null ? null : index.get(keys[0]);
+				return ids == null ? new ArrayList<Long>() : new ArrayList<Long>(
+						ids);
+			}
+			TreeSet<Long> ids = new TreeSet<Long>();
+			for (Object key : keys) {
+				TreeSet<Long> found = key == null ? null : index.get(key);
+				if (found != null) {
+					ids.addAll(found);
+				}
+			}
+			return new ArrayList<Long>(ids);
+		}
+
+		/**
+		 * Makes sure generated keys stay above key (like AUTO_INCREMENT).
+		 */
+		private void advanceKey(Object key) {
+			BigDecimal value = toDecimal(key);
+			if (value != null && value.compareTo(BigDecimal.valueOf(nextKey)) >= 0
+					&& value.compareTo(BigDecimal.valueOf(Long.MAX_VALUE)) < 0) {
+				nextKey = value.longValue() + 1;
+			}
+		}
+
+		private static void index(HashMap<Object, TreeSet<Long>> index,
+				Object value, Long id) {
+			if (value == null) {
+				return;
+			}
+			Object key = keyOf(value);
+			TreeSet<Long> ids = index.get(key);
+			if (ids == null) {
+				ids = new TreeSet<Long>();
+				index.put(key, ids);
+			}
+			ids.add(id);
+		}
+
+		private static void unindex(HashMap<Object, TreeSet<Long>> index,
+				Object value, Long id) {
+			if (value == null) {
+				return;
+			}
+			Object key = keyOf(value);
+			TreeSet<Long> ids = index.get(key);
+			if (ids != null) {
+				ids.remove(id);
+				if (ids.isEmpty()) {
+					index.remove(key);
+				}
+			}
+		}
+
+		private static void copyField(DataObject from, DataObject to,
+				String field) {
+			if (field != null && from.containsKey(field)) {
+				to.put(field, from.get(field));
+			}
+		}
+	}
+
+	/**
+	 * @return whether row comes after the seek position of query, e.g.
+	 *         (order > ? OR (order = ? AND key > ?)) when ascending.
+	 */
+	private static boolean isAfter(DataObject row, Query query,
+			String sortField, String key, boolean tieBreaker, int direction) {
+		Object value = row.get(sortField);
+		Object seek = tieBreaker || query.getOrder() != null ? query
+				.getSeekOrderValue() : query.getSeekKeyValue();
+		// Like SQL, comparisons with null are never true.
+		if (value == null || seek == null) {
+			return false;
+		}
+		int c = compareValues(value, seek) * direction;
+		if (c != 0 || !tieBreaker) {
+			return c > 0;
+		}
+		Object keyValue = row.get(key);
+		Object seekKey = query.getSeekKeyValue();
+		if (keyValue == null || seekKey == null) {
+			return false;
+		}
+		return compareValues(keyValue, seekKey) * direction > 0;
+	}
+
+	/**
+	 * @return whether value is equal to one of keys (see keysFor). Like SQL,
+	 *         null is not equal to anything.
+	 */
+	private static boolean matches(Object value, Object[] keys) {
+		if (value == null) {
+			return false;
+		}
+		Object key = keyOf(value);
+		for (Object k : keys) {
+			if (key.equals(k)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return what value is indexed (and compared) as: numbers by their value
+	 *         (so 5, 5L and 5.0 are the same), anything else as itself.
+	 */
+	private static Object keyOf(Object value) {
+		if (value instanceof Number) {
+			BigDecimal decimal = toDecimal(value);
+			if (decimal != null) {
+				return canonical(decimal);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * @return the keys of the values which are equal to a filter value.
+	 *         Filter values are usually strings (from query strings), which
+	 *         match both strings and numbers (e.g. "5" matches "5" and 5).
+	 */
+	private static Object[] keysFor(Object wanted) {
+		Object key = keyOf(wanted);
+		if (wanted instanceof String) {
+			BigDecimal decimal = toDecimal(wanted);
+			if (decimal != null) {
+				return new Object[] { key, canonical(decimal) };
+			}
+		}
+		return new Object[] { key };
+	}
+
+	private static BigDecimal canonical(BigDecimal decimal) {
+		return decimal.signum() == 0 ? BigDecimal.ZERO : decimal
+				.stripTrailingZeros();
+	}
+
+	/**
+	 * @return value as a BigDecimal, or null if it is not a (finite) number
+	 *         or a string holding one.
+	 */
+	private static BigDecimal toDecimal(Object value) {
+		if (value instanceof BigDecimal) {
+			return (BigDecimal) value;
+		}
+		if (value instanceof Long || value instanceof Integer
+				|| value instanceof Short || value instanceof Byte) {
+			return BigDecimal.valueOf(((Number) value).longValue());
+		}
+		if (value instanceof BigInteger) {
+			return new BigDecimal((BigInteger) value);
+		}
+		if (value instanceof Double || value instanceof Float) {
+			double d = ((Number) value).doubleValue();
+			if (Double.isNaN(d) || Double.isInfinite(d)) {
+				return null;
+			}
+			// Float.toString keeps e.g. 19.95f as 19.95.
+			return new BigDecimal(value.toString());
+		}
+		if (value instanceof String) {
+			String s = ((String) value).trim();
+			if (s.length() == 0 || s.length() > 100) {
+				return null;
+			}
+			try {
+				return new BigDecimal(s);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Orders values like MySQL: nulls first, numbers by value (including
+	 * strings holding numbers, e.g. page token values), anything else by its
+	 * natural order or, failing that, as a string.
+	 */
+	@SuppressWarnings("unchecked")
+	private static int compareValues(Object a, Object b) {
+		if (a == b) {
+			return 0;
+		}
+		if (a == null) {
+			return -1;
+		}
+		if (b == null) {
+			return 1;
+		}
+		if (isIntegral(a) && isIntegral(b)) {
+			long x = ((Number) a).longValue();
+			long y = ((Number) b).longValue();
+			return x < y ? -1 : (x == y ? 0 : 1);
+		}
+		if (a instanceof String && b instanceof String) {
+			return ((String) a).compareTo((String) b);
+		}
+		if (a instanceof Number || b instanceof Number) {
+			BigDecimal x = toDecimal(a);
+			BigDecimal y = toDecimal(b);
+			if (x != null && y != null) {
+				return x.compareTo(y);
+			}
+		}
+		if (a instanceof Comparable && a.getClass() == b.getClass()) {
+			return ((Comparable<Object>) a).compareTo(b);
+		}
+		return a.toString().compareTo(b.toString());
+	}
+
+	private static boolean isIntegral(Object value) {
+		return value instanceof Long || value instanceof Integer
+				|| value instanceof Short || value instanceof Byte;
+	}
+}
@@ -1,6 +1,11 @@
 package co.gitm.javango.data;
 
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 /**
  * @author Alex McLeod
@@ -11,11 +16,35 @@ import java.util.Map;
  *         determines the order of the results set returned by the DataSource
  *         being queried).
  * 
+ *         A Query can also ask for a single page of results. The size of the
+ *         page is set by limit. The page can start either a number of objects
+ *         (offset) into the results, or straight after a given object (see
+ *         setSeekAfter). Seeking is preferable, since the DataSource can jump
+ *         straight to the object using an index on the order field, however
+ *         deep the page is, whereas an offset means reading (and discarding)
+ *         every object before the page.
+ * 
+ *         To make the order of results (and so pages) well defined, a Query
+ *         can have a keyField: a unique field (e.g. "id") which breaks ties
+ *         between objects with the same value in the order field.
+ * 
+ *         Finally, a Query can be limited to a subset of fields (a
+ *         projection), so that the DataSource only reads and returns the
+ *         fields which are actually needed.
+ * 
  */
 public class Query {
 	private String objectName = null;
 	private Map<String, String> filter = null;
 	private String order = null;
+	private boolean descending = false;
+	private String keyField = null;
+	private Integer limit = null;
+	private int offset = 0;
+	private boolean seek = false;
+	private Object seekOrderValue = null;
+	private Object seekKeyValue = null;
+	private List<String> fields = null;
 
 	public Query() {
 	}
@@ -42,6 +71,72 @@ public class Query {
 		this.order = order;
 	}
 
+	/**
+	 * @param fields
+	 *            the only fields to return for each object, or null to return
+	 *            every field. The DataSource may also return the order field
+	 *            and keyField, which are needed to page through results.
+	 */
+	public void setFields(List<String> fields) {
+		this.fields = fields;
+	}
+
+	/**
+	 * @param descending
+	 *            whether results are returned from the largest to the smallest
+	 *            value of the order field (and keyField).
+	 */
+	public void setDescending(boolean descending) {
+		this.descending = descending;
+	}
+
+	/**
+	 * @param keyField
+	 *            a unique field used to break ties in the order of results.
+	 */
+	public void setKeyField(String keyField) {
+		this.keyField = keyField;
+	}
+
+	/**
+	 * @param limit
+	 *            maximum number of objects to return, or null for no limit.
+	 */
+	public void setLimit(Integer limit) {
+		if (limit != null && limit < 0) {
+			throw new IllegalArgumentException("Limit cannot be negative.");
+		}
+		this.limit = limit;
+	}
+
+	/**
+	 * @param offset
+	 *            number of objects to skip before the first object returned.
+	 */
+	public void setOffset(int offset) {
+		if (offset < 0) {
+			throw new IllegalArgumentException("Offset cannot be negative.");
+		}
+		this.offset = offset;
+	}
+
+	/**
+	 * Only return objects which come after a given object in the query's
+	 * order (normally the last object of the previous page). Requires a
+	 * keyField.
+	 * 
+	 * @param orderValue
+	 *            value of the order field in that object (ignored if the query
+	 *            has no order, or is ordered by its keyField).
+	 * @param keyValue
+	 *            value of the keyField in that object.
+	 */
+	public void setSeekAfter(Object orderValue, Object keyValue) {
+		this.seek = true;
+		this.seekOrderValue = orderValue;
+		this.seekKeyValue = keyValue;
+	}
+
 	public String getObjectName() {
 		return this.objectName;
 	}
@@ -53,4 +148,169 @@ public class Query {
 	public String getOrder() {
 		return this.order;
 	}
+
+	public List<String> getFields() {
+		return this.fields;
+	}
+
+	public boolean isDescending() {
+		return this.descending;
+	}
+
+	public String getKeyField() {
+		return this.keyField;
+	}
+
+	public Integer getLimit() {
+		return this.limit;
+	}
+
+	public int getOffset() {
+		return this.offset;
+	}
+
+	/**
+	 * @return whether setSeekAfter has been called.
+	 */
+	public boolean isSeek() {
+		return this.seek;
+	}
+
+	public Object getSeekOrderValue() {
+		return this.seekOrderValue;
+	}
+
+	public Object getSeekKeyValue() {
+		return this.seekKeyValue;
+	}
+
+	/**
+	 * @return the field results are sorted by first: the order field, or the
+	 *         keyField if there is no order (null if neither is set).
+	 */
+	public String getSortField() {
+		return this.order != null ? this.order : this.keyField;
+	}
+
+	/**
+	 * @return whether the keyField is needed as a second sort field (i.e. the
+	 *         query is ordered by some other field).
+	 */
+	public boolean hasTieBreaker() {
+		return this.keyField != null && this.order != null
+				&& !this.order.equals(this.keyField);
+	}
+
+	/**
+	 * Two queries are equal if they would return the same objects from the
+	 * same DataSource, i.e. the order of the filter entries and of the
+	 * projected fields does not matter. Used to cache query results.
+	 */
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof Query)) {
+			return false;
+		}
+		Query that = (Query) other;
+		return equal(objectName, that.objectName)
+				&& equal(filter, that.filter) && equal(order, that.order)
+				&& descending == that.descending
+				&& equal(keyField, that.keyField) && equal(limit, that.limit)
+				&& offset == that.offset && seek == that.seek
+				&& equal(seekOrderValue, that.seekOrderValue)
+				&& equal(seekKeyValue, that.seekKeyValue)
+				&& equal(fieldSet(), that.fieldSet());
+	}
+
+	@Override
+	public int hashCode() {
+		int h = objectName == null ? 0 : objectName.hashCode();
+		h = 31 * h + (filter == null ? 0 : filter.hashCode());
+		h = 31 * h + (order == null ? 0 : order.hashCode());
+		h = 31 * h + (descending ? 1 : 0);
+		h = 31 * h + (limit == null ? 0 : limit.hashCode());
+		h = 31 * h + offset;
+		h = 31 * h + (seekKeyValue == null ? 0 : seekKeyValue.hashCode());
+		h = 31 * h + (fields == null ? 0 : fieldSet().hashCode());
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"Query[%s, filter=%s, fields=%s, order=%s%s, limit=%s, offset=%d%s]",
+				objectName, filter, fields, descending ? "-" : "", order,
+				limit, offset, seek ? String.format(", after=(%s, %s)",
+						seekOrderValue, seekKeyValue) : "");
+	}
+
+	/**
+	 * @return a string which is the same for equal queries (see equals) and
+	 *         different for any others, e.g. to identify the results of a
+	 *         query in an HTTP ETag. Unlike toString, filter entries and
+	 *         projected fields are sorted, and every value is prefixed with
+	 *         its length, so that values holding separators cannot make two
+	 *         different queries look the same.
+	 */
+	public String toNormalizedString() {
+		StringBuilder out = new StringBuilder();
+		append(out, objectName);
+		Map<String, String> sortedFilter = filter == null ? null
+				: new TreeMap<String, String>(filter);
+		out.append(sortedFilter == null ? -1 : sortedFilter.size()).append(
+				'#');
+		if (sortedFilter != null) {
+			for (Map.Entry<String, String> entry : sortedFilter.entrySet()) {
+				append(out, entry.getKey());
+				append(out, entry.getValue());
+			}
+		}
+		Set<String> sortedFields = fields == null ? null : new TreeSet<String>(
+				fields);
+		out.append(sortedFields == null ? -1 : sortedFields.size()).append(
+				'#');
+		if (sortedFields != null) {
+			for (String field : sortedFields) {
+				append(out, field);
+			}
+		}
+		append(out, order);
+		out.append(descending ? 'd' : 'a');
+		append(out, keyField);
+		append(out, limit);
+		append(out, offset);
+		out.append(seek ? 's' : 'n');
+		if (seek) {
+			append(out, seekOrderValue);
+			append(out, seekKeyValue);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Appends value to out as length:value (or - if it is null), with its
+	 * class, since e.g. 1 and "1" are not equal.
+	 */
+	private static void append(StringBuilder out, Object value) {
+		if (value == null) {
+			out.append('-');
+			return;
+		}
+		String text = value.toString();
+		if (!(value instanceof String)) {
+			out.append(value.getClass().getName()).append('/');
+		}
+		out.append(text.length()).append(':').append(text);
+	}
+
+	private Set<String> fieldSet() {
+		return fields == null ? null : new HashSet<String>(fields);
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
 }
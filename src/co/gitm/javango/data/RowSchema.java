@@ -0,0 +1,115 @@
+package co.gitm.javango.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The column names (and how each column's values are stored) of a set of
+ * CompactDataObjects, e.g. every row of one query's result. It is built once
+ * per result and shared by all of its rows, so each row only has to hold its
+ * values.
+ *
+ * Schemas are immutable, and so can be shared between threads.
+ *
+ */
+public final class RowSchema {
+	/**
+	 * How a column's values are stored. Numeric columns are stored as
+	 * primitives (see CompactDataObject), and boxed only when they are read
+	 * through the Map interface.
+	 */
+	public enum Kind {
+		OBJECT, INT, LONG, FLOAT, DOUBLE;
+
+		boolean isPrimitive() {
+			return this != OBJECT;
+		}
+	}
+
+	private final String[] names;
+	private final Kind[] kinds;
+	// Position of each column's value in a row's primitive storage, or -1 if
+	// it is stored as an object.
+	private final int[] slots;
+	private final int primitiveCount;
+	private final HashMap<String, Integer> indexes;
+
+	/**
+	 * @param names
+	 *            of the columns, in order.
+	 * @param kinds
+	 *            how the values of each column are stored.
+	 * @throws IllegalArgumentException
+	 *             if names and kinds differ in length or names has duplicates.
+	 */
+	public RowSchema(String[] names, Kind[] kinds) {
+		if (names.length != kinds.length) {
+			throw new IllegalArgumentException(
+					"Every column needs a name and a kind.");
+		}
+		this.names = names.clone();
+		this.kinds = kinds.clone();
+		this.slots = new int[names.length];
+		this.indexes = new HashMap<String, Integer>(names.length * 2);
+		int primitives = 0;
+		for (int i = 0; i < names.length; i++) {
+			if (indexes.put(names[i], i) != null) {
+				throw new IllegalArgumentException(String.format(
+						"Duplicate column \"%s\".", names[i]));
+			}
+			slots[i] = kinds[i].isPrimitive() ? primitives++ : -1;
+		}
+		this.primitiveCount = primitives;
+	}
+
+	/**
+	 * @return a schema whose columns are all stored as objects.
+	 */
+	public static RowSchema of(List<String> names) {
+		Kind[] kinds = new Kind[names.size()];
+		Arrays.fill(kinds, Kind.OBJECT);
+		return new RowSchema(names.toArray(new String[kinds.length]), kinds);
+	}
+
+	/**
+	 * @return the position of the column with this name, or -1 if there is
+	 *         none.
+	 */
+	public int indexOf(Object name) {
+		Integer index = indexes.get(name);
+		return index == null ? -1 : index.intValue();
+	}
+
+	public int getColumnCount() {
+		return names.length;
+	}
+
+	public String getName(int column) {
+		return names[column];
+	}
+
+	public Kind getKind(int column) {
+		return kinds[column];
+	}
+
+	int getSlot(int column) {
+		return slots[column];
+	}
+
+	int getPrimitiveCount() {
+		return primitiveCount;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder("RowSchema[");
+		for (int i = 0; i < names.length; i++) {
+			if (i > 0) {
+				s.append(", ");
+			}
+			s.append(names[i]).append(':').append(kinds[i]);
+		}
+		return s.append(']').toString();
+	}
+}
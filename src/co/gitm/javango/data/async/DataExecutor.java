@@ -0,0 +1,180 @@
+package co.gitm.javango.data.async;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import co.gitm.javango.config.Settings;
+
+/**
+ * Runs the blocking datasource calls of the Model *Async methods (e.g. JDBC
+ * queries) on a bounded pool of threads, so that code which has other work to
+ * do (e.g. fanning out several queries at once) does not have to wait for each
+ * of them. Views do not use it, they call models on the request thread.
+ *
+ * At most permits calls run at once, each on its own thread. Calls beyond that
+ * wait in a bounded queue, and calls beyond the queue are rejected straight
+ * away (their futures fail with a RejectedExecutionException) rather than
+ * piling up. This only bounds the calls made through the executor: how many
+ * calls the database is given at once, from anywhere, is bounded by its
+ * connection pool (see ConnectionPool).
+ *
+ */
+public class DataExecutor {
+	private static final AtomicInteger executorCount = new AtomicInteger();
+
+	private final ThreadPoolExecutor executor;
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * @param permits
+	 *            most calls which may run at once.
+	 * @param queueSize
+	 *            most calls which may wait for a permit.
+	 */
+	public DataExecutor(int permits, int queueSize) {
+		if (permits < 1 || queueSize < 1) {
+			throw new IllegalArgumentException(
+					"DataExecutor needs at least one permit and queue slot.");
+		}
+		final int id = executorCount.incrementAndGet();
+		ThreadFactory threads = new ThreadFactory() {
+			private final AtomicInteger threadCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, String.format(
+						"javango-data-%d-%d", id,
+						threadCount.incrementAndGet()));
+				// Don't keep the JVM alive just for idle workers.
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		this.executor = new ThreadPoolExecutor(permits, permits, 60,
+				TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+				threads, new ThreadPoolExecutor.AbortPolicy());
+		// Let idle workers go, they are cheap to start again.
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Creates an executor bounded by the async settings.
+	 */
+	public DataExecutor(Settings.Async settings) {
+		this(settings.getPermits(), settings.getQueueSize());
+	}
+
+	/**
+	 * @param call
+	 *            blocking call to run once a permit is free.
+	 * @return a future which completes with the result of call, or fails with
+	 *         whatever it throws (or with a RejectedExecutionException if the
+	 *         queue is full or the executor has been shut down).
+	 */
+	public <T> DataFuture<T> submit(final Callable<T> call) {
+		final DataFuture<T> future = new DataFuture<T>();
+		submitted.incrementAndGet();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					// Don't bother running calls which were cancelled while
+					// they were queued.
+					if (future.isDone()) {
+						return;
+					}
+					try {
+						future.complete(call.call());
+					} catch (Throwable e) {
+						failed.incrementAndGet();
+						future.fail(e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			future.fail(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Stops accepting calls, and waits up to timeoutMillis for queued and
+	 * running calls to finish.
+	 *
+	 * @return whether every call finished.
+	 */
+	public boolean shutdown(long timeoutMillis) throws InterruptedException {
+		executor.shutdown();
+		return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Changes the number of calls which may run at once.
+	 */
+	public void setPermits(int permits) {
+		if (permits < 1) {
+			throw new IllegalArgumentException(
+					"DataExecutor needs at least one permit.");
+		}
+		// The core size may not exceed the maximum size, so change them in
+		// the right order.
+		if (permits > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(permits);
+			executor.setCorePoolSize(permits);
+		} else {
+			executor.setCorePoolSize(permits);
+			executor.setMaximumPoolSize(permits);
+		}
+	}
+
+	public int getPermits() {
+		return executor.getMaximumPoolSize();
+	}
+
+	/**
+	 * @return number of calls running right now.
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * @return number of calls waiting for a permit.
+	 */
+	public int getQueuedCount() {
+		return executor.getQueue().size();
+	}
+
+	public long getSubmittedCount() {
+		return submitted.get();
+	}
+
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * @return number of calls which threw an exception.
+	 */
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"DataExecutor[permits=%d, active=%d, queued=%d, submitted=%d, rejected=%d, failed=%d]",
+				this.getPermits(), this.getActiveCount(),
+				this.getQueuedCount(), this.getSubmittedCount(),
+				this.getRejectedCount(), this.getFailedCount());
+	}
+}
@@ -0,0 +1,189 @@
+package co.gitm.javango.data.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The result of an asynchronous datasource call (see DataExecutor). As well as
+ * being waited on like any Future, it can be given listeners which are called
+ * as soon as it completes.
+ *
+ * A DataFuture is completed exactly once, with either a result (complete) or an
+ * error (fail). Later attempts to complete it are ignored.
+ *
+ */
+public class DataFuture<T> implements Future<T> {
+	private static final int PENDING = 0;
+	private static final int COMPLETED = 1;
+	private static final int FAILED = 2;
+
+	private int state = PENDING;
+	private T result;
+	private Throwable error;
+	// Listeners waiting for completion, null once the future has completed.
+	private List<DataFutureListener<? super T>> listeners = new ArrayList<DataFutureListener<? super T>>(
+			2);
+
+	/**
+	 * Completes the future with result, and calls its listeners.
+	 *
+	 * @return false if the future had already completed.
+	 */
+	public boolean complete(T result) {
+		List<DataFutureListener<? super T>> toCall;
+		synchronized (this) {
+			if (state != PENDING) {
+				return false;
+			}
+			this.result = result;
+			this.state = COMPLETED;
+			toCall = this.finish();
+		}
+		for (DataFutureListener<? super T> listener : toCall) {
+			notifyCompleted(listener, result);
+		}
+		return true;
+	}
+
+	/**
+	 * Completes the future with error, and calls its listeners.
+	 *
+	 * @return false if the future had already completed.
+	 */
+	public boolean fail(Throwable error) {
+		List<DataFutureListener<? super T>> toCall;
+		synchronized (this) {
+			if (state != PENDING) {
+				return false;
+			}
+			this.error = error;
+			this.state = FAILED;
+			toCall = this.finish();
+		}
+		for (DataFutureListener<? super T> listener : toCall) {
+			notifyFailed(listener, error);
+		}
+		return true;
+	}
+
+	/**
+	 * @param listener
+	 *            to call when the future completes, or straight away if it
+	 *            already has.
+	 * @return this future.
+	 */
+	public DataFuture<T> addListener(DataFutureListener<? super T> listener) {
+		boolean completed;
+		synchronized (this) {
+			if (state == PENDING) {
+				listeners.add(listener);
+				return this;
+			}
+			completed = state == COMPLETED;
+		}
+		// The result and error never change once the future has completed.
+		if (completed) {
+			notifyCompleted(listener, result);
+		} else {
+			notifyFailed(listener, error);
+		}
+		return this;
+	}
+
+	/**
+	 * Fails the future with a CancellationException. A call which is already
+	 * running is not interrupted, its result is just ignored.
+	 *
+	 * @see java.util.concurrent.Future#cancel(boolean)
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return this.fail(new CancellationException());
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return state == FAILED && error instanceof CancellationException;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return state != PENDING;
+	}
+
+	/**
+	 * @return whether the future completed with an error.
+	 */
+	public synchronized boolean isFailed() {
+		return state == FAILED;
+	}
+
+	@Override
+	public synchronized T get() throws InterruptedException,
+			ExecutionException {
+		while (state == PENDING) {
+			this.wait();
+		}
+		return this.getResult();
+	}
+
+	@Override
+	public synchronized T get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (state == PENDING) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				throw new TimeoutException();
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return this.getResult();
+	}
+
+	/**
+	 * Must be called holding the lock, once the state has been set.
+	 *
+	 * @return the listeners to call.
+	 */
+	private List<DataFutureListener<? super T>> finish() {
+		List<DataFutureListener<? super T>> toCall = listeners;
+		listeners = null;
+		this.notifyAll();
+		return toCall;
+	}
+
+	private T getResult() throws ExecutionException {
+		if (state == FAILED) {
+			if (error instanceof CancellationException) {
+				throw (CancellationException) error;
+			}
+			throw new ExecutionException(error);
+		}
+		return result;
+	}
+
+	private static <T> void notifyCompleted(
+			DataFutureListener<? super T> listener, T result) {
+		try {
+			listener.completed(result);
+		} catch (RuntimeException e) {
+			// One broken listener must not stop the others being called.
+			e.printStackTrace();
+		}
+	}
+
+	private static void notifyFailed(DataFutureListener<?> listener,
+			Throwable error) {
+		try {
+			listener.failed(error);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+}
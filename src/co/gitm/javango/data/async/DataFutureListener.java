@@ -0,0 +1,23 @@
+package co.gitm.javango.data.async;
+
+/**
+ * Is told when a DataFuture completes. Exactly one of its methods is called, on
+ * the thread which completed the future (or on the thread which added the
+ * listener, if the future had already completed), so implementations should not
+ * block.
+ *
+ */
+public interface DataFutureListener<T> {
+	/**
+	 * @param result
+	 *            of the asynchronous call (may be null).
+	 */
+	public void completed(T result);
+
+	/**
+	 * @param error
+	 *            thrown by the asynchronous call (e.g. a CreateException), or a
+	 *            CancellationException if the future was cancelled.
+	 */
+	public void failed(Throwable error);
+}
@@ -0,0 +1,96 @@
+package co.gitm.javango.data.async;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Helpers for building and combining DataFutures, e.g. so that a view can run
+ * several model queries in parallel and respond once they have all completed:
+ *
+ * <pre>
+ * DataFuture&lt;List&lt;DataObjectArray&gt;&gt; both = DataFutures.all(Arrays.asList(
+ * 		books.getWithFilterAsync(byAuthor), books.getWithFilterAsync(byTitle)));
+ * </pre>
+ *
+ */
+public final class DataFutures {
+	private DataFutures() {
+	}
+
+	/**
+	 * @return a future which has already completed with result.
+	 */
+	public static <T> DataFuture<T> completed(T result) {
+		DataFuture<T> future = new DataFuture<T>();
+		future.complete(result);
+		return future;
+	}
+
+	/**
+	 * @return a future which has already failed with error.
+	 */
+	public static <T> DataFuture<T> failed(Throwable error) {
+		DataFuture<T> future = new DataFuture<T>();
+		future.fail(error);
+		return future;
+	}
+
+	/**
+	 * @param futures
+	 *            to wait for.
+	 * @return a future which completes with the results of futures (in the
+	 *         same order) once all of them have completed, or fails as soon as
+	 *         any of them fails (with that future's error).
+	 */
+	public static <T> DataFuture<List<T>> all(
+			List<? extends DataFuture<? extends T>> futures) {
+		final DataFuture<List<T>> all = new DataFuture<List<T>>();
+		final int count = futures.size();
+		if (count == 0) {
+			all.complete(Collections.<T> emptyList());
+			return all;
+		}
+		// Results are written by whichever threads complete the futures, and
+		// published to the last one by the decrement of remaining.
+		final Object[] results = new Object[count];
+		final AtomicInteger remaining = new AtomicInteger(count);
+		for (int i = 0; i < count; i++) {
+			final int index = i;
+			futures.get(i).addListener(new DataFutureListener<T>() {
+				@Override
+				public void completed(T result) {
+					results[index] = result;
+					if (remaining.decrementAndGet() == 0) {
+						all.complete(DataFutures.<T> toList(results));
+					}
+				}
+
+				@Override
+				public void failed(Throwable error) {
+					all.fail(error);
+				}
+			});
+		}
+		return all;
+	}
+
+	/**
+	 * Same as all(List), for a fixed number of futures.
+	 */
+	public static DataFuture<List<Object>> all(DataFuture<?>... futures) {
+		List<DataFuture<?>> list = Arrays.asList(futures);
+		return DataFutures.<Object> all(list);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> List<T> toList(Object[] results) {
+		List<T> list = new ArrayList<T>(results.length);
+		for (Object result : results) {
+			list.add((T) result);
+		}
+		return list;
+	}
+}
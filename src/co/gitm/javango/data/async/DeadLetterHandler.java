@@ -0,0 +1,23 @@
+package co.gitm.javango.data.async;
+
+import co.gitm.javango.data.DataObject;
+import co.gitm.javango.data.exceptions.CreateException;
+
+/**
+ * Told about objects which a WriteBehindQueue gave up on writing, e.g. so that
+ * they can be logged or saved somewhere else to be replayed later. Called on
+ * the queue's flusher thread, so should not block for long.
+ *
+ */
+public interface DeadLetterHandler {
+	/**
+	 * @param obj
+	 *            which was not written.
+	 * @param error
+	 *            from the last attempt to write it.
+	 * @param attempts
+	 *            number of times it was tried.
+	 */
+	public void deadLettered(DataObject obj, CreateException error,
+			int attempts);
+}
@@ -0,0 +1,485 @@
+package co.gitm.javango.data.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import co.gitm.javango.config.Settings;
+import co.gitm.javango.data.DataObject;
+import co.gitm.javango.data.DataObjectArray;
+import co.gitm.javango.data.DataSource;
+import co.gitm.javango.data.exceptions.CreateException;
+
+/**
+ * Writes new objects to a DataSource in the background, so that the request
+ * which created them does not wait for the database (see Model.isWriteBehind).
+ * Objects wait in a bounded queue, and a single flusher thread writes them with
+ * DataSource.createAll, in batches of up to batchSize objects, or whatever has
+ * arrived within flushInterval of the first object in the batch.
+ *
+ * When the queue is full, add waits for up to offerTimeout and then rejects the
+ * object (with a RejectedExecutionException), so that callers slow down instead
+ * of the queue growing without bound.
+ *
+ * Batches which fail are retried (with a growing delay), in case the error is
+ * transient. Once the batch has been tried maxAttempts times, or straight away
+ * if the datasource blames one of its objects, it is split in half and each
+ * half written separately, until the objects to blame are found. The
+ * datasource's index is only a hint (a rewritten multi-row INSERT fails as a
+ * whole), so an object is only given up on when it fails on its own: it is
+ * retried up to maxAttempts times (counting the batch's attempts), and then
+ * given to the DeadLetterHandler.
+ *
+ * shutdown stops accepting objects and waits for the queue to drain. Objects
+ * are only held in memory, so any which have been accepted but not written are
+ * lost if the process dies: only models whose objects can afford that (e.g.
+ * events) should use write-behind.
+ *
+ */
+public class WriteBehindQueue {
+	/**
+	 * Logs dead objects to System.err.
+	 */
+	public static final DeadLetterHandler LOG_DEAD_LETTERS = new DeadLetterHandler() {
+		@Override
+		public void deadLettered(DataObject obj, CreateException error,
+				int attempts) {
+			System.err.println(String.format(
+					"Gave up writing %s object after %d attempt(s): %s: %s",
+					obj.getObjectName(), attempts, error.getMessage(),
+					obj.toJSONString()));
+		}
+	};
+
+	// Longest delay between attempts to write a failed batch.
+	private static final long MAX_RETRY_DELAY_MILLIS = 5000;
+	private static final AtomicInteger queueCount = new AtomicInteger();
+
+	/**
+	 * An object waiting to be written, and the number of times it has been
+	 * tried.
+	 */
+	private static final class Pending {
+		final DataObject obj;
+		int attempts = 0;
+		// Whether the object has been written or dead lettered.
+		boolean done = false;
+
+		Pending(DataObject obj) {
+			this.obj = obj;
+		}
+	}
+
+	private final DataSource dataSource;
+	private final DeadLetterHandler deadLetters;
+	// Run after every batch is written (e.g. to invalidate a cache).
+	private final Runnable onFlush;
+	private final ArrayBlockingQueue<Pending> queue;
+	private final int batchSize;
+	private final long flushIntervalNanos;
+	private final long offerTimeoutMillis;
+	private final int maxAttempts;
+	private final Thread flusher;
+	private volatile boolean stopping = false;
+
+	// Metrics.
+	private final AtomicLong accepted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong retried = new AtomicLong();
+	private final AtomicLong deadLettered = new AtomicLong();
+	private final AtomicLong flushCount = new AtomicLong();
+	private final AtomicLong totalFlushNanos = new AtomicLong();
+	private final AtomicLong maxFlushNanos = new AtomicLong();
+
+	/**
+	 * @param name
+	 *            of the queue's flusher thread (e.g. the model's name).
+	 * @param dataSource
+	 *            to write objects to.
+	 * @param settings
+	 *            bounding the queue and its batches.
+	 * @param deadLetters
+	 *            told about objects which could not be written.
+	 * @param onFlush
+	 *            run after each batch is written, or null.
+	 */
+	public WriteBehindQueue(String name, DataSource dataSource,
+			Settings.WriteBehind settings, DeadLetterHandler deadLetters,
+			Runnable onFlush) {
+		this(name, dataSource, settings.getQueueSize(), settings
+				.getBatchSize(), settings.getFlushIntervalMillis(), settings
+				.getOfferTimeoutMillis(), settings.getMaxAttempts(),
+				deadLetters, onFlush);
+	}
+
+	/**
+	 * Creates a queue with the given bounds, which are described by the
+	 * writebehind settings (see Settings.WriteBehind).
+	 */
+	public WriteBehindQueue(String name, DataSource dataSource, int queueSize,
+			int batchSize, long flushIntervalMillis, long offerTimeoutMillis,
+			int maxAttempts, DeadLetterHandler deadLetters, Runnable onFlush) {
+		if (queueSize < 1 || batchSize < 1) {
+			throw new IllegalArgumentException(
+					"WriteBehindQueue needs room for at least one object.");
+		}
+		this.dataSource = dataSource;
+		this.deadLetters = deadLetters != null ? deadLetters
+				: LOG_DEAD_LETTERS;
+		this.onFlush = onFlush;
+		this.queue = new ArrayBlockingQueue<Pending>(queueSize);
+		this.batchSize = batchSize;
+		this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0,
+				flushIntervalMillis));
+		this.offerTimeoutMillis = Math.max(0, offerTimeoutMillis);
+		this.maxAttempts = Math.max(1, maxAttempts);
+		this.flusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				WriteBehindQueue.this.run();
+			}
+		}, String.format("javango-write-behind-%d-%s",
+				queueCount.incrementAndGet(), name));
+		// Like the DataExecutor's workers, the flusher does not keep the JVM
+		// alive, queues are drained by shutdown (see JavangoApplication.stop).
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	/**
+	 * Queues obj to be written. It should already have been validated, since
+	 * nobody is waiting to hear that it could not be written.
+	 *
+	 * @throws RejectedExecutionException
+	 *             if the queue stayed full for offerTimeout, or has been shut
+	 *             down.
+	 */
+	public void add(DataObject obj) {
+		if (stopping) {
+			rejected.incrementAndGet();
+			throw new RejectedExecutionException(
+					"The write-behind queue has been shut down.");
+		}
+		Pending pending = new Pending(obj);
+		boolean added;
+		try {
+			added = queue.offer(pending, offerTimeoutMillis,
+					TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			added = false;
+		}
+		if (!added) {
+			rejected.incrementAndGet();
+			throw new RejectedExecutionException(
+					"The write-behind queue is full.");
+		}
+		// If shutdown started while obj was being queued, the flusher may
+		// already have seen an empty queue and stopped. Take obj back, unless
+		// the flusher (or shutdown) already has it, and will see to it.
+		if (stopping && queue.remove(pending)) {
+			rejected.incrementAndGet();
+			throw new RejectedExecutionException(
+					"The write-behind queue has been shut down.");
+		}
+		accepted.incrementAndGet();
+	}
+
+	/**
+	 * Stops accepting objects, and waits up to timeoutMillis for the queued
+	 * ones to be written. Objects which are still queued after that are
+	 * given to the dead letter handler.
+	 *
+	 * @return whether every queued object was written (or dead lettered)
+	 *         before the timeout.
+	 */
+	public boolean shutdown(long timeoutMillis) throws InterruptedException {
+		stopping = true;
+		flusher.join(Math.max(1, timeoutMillis));
+		if (!flusher.isAlive()) {
+			return true;
+		}
+		// Give up on whatever is left.
+		flusher.interrupt();
+		flusher.join(timeoutMillis);
+		List<Pending> left = new ArrayList<Pending>();
+		queue.drainTo(left);
+		this.deadLetter(left, new CreateException(
+				"Not written before the write-behind queue was shut down."));
+		return false;
+	}
+
+	/**
+	 * @return number of objects waiting to be written.
+	 */
+	public int getDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * @return the most objects which may wait to be written.
+	 */
+	public int getCapacity() {
+		return queue.size() + queue.remainingCapacity();
+	}
+
+	public long getAcceptedCount() {
+		return accepted.get();
+	}
+
+	/**
+	 * @return number of objects rejected because the queue was full (or
+	 *         shut down).
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	public long getWrittenCount() {
+		return written.get();
+	}
+
+	/**
+	 * @return number of times a failed batch (or object) was tried again.
+	 */
+	public long getRetriedCount() {
+		return retried.get();
+	}
+
+	public long getDeadLetteredCount() {
+		return deadLettered.get();
+	}
+
+	/**
+	 * @return number of batches written (or given up on).
+	 */
+	public long getFlushCount() {
+		return flushCount.get();
+	}
+
+	/**
+	 * @return average time taken to write a batch, including retries.
+	 */
+	public double getAverageFlushMillis() {
+		long flushes = flushCount.get();
+		return flushes == 0 ? 0 : totalFlushNanos.get() / 1e6 / flushes;
+	}
+
+	public double getMaxFlushMillis() {
+		return maxFlushNanos.get() / 1e6;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"WriteBehindQueue[depth=%d/%d, accepted=%d, rejected=%d, written=%d, retried=%d, deadLettered=%d, flushes=%d, avgFlush=%.1fms, maxFlush=%.1fms]",
+				this.getDepth(), this.getCapacity(), this.getAcceptedCount(),
+				this.getRejectedCount(), this.getWrittenCount(),
+				this.getRetriedCount(), this.getDeadLetteredCount(),
+				this.getFlushCount(), this.getAverageFlushMillis(),
+				this.getMaxFlushMillis());
+	}
+
+	/**
+	 * Body of the flusher thread: collects batches and writes them until the
+	 * queue has been shut down and drained (or the thread is interrupted).
+	 */
+	private void run() {
+		List<Pending> batch = new ArrayList<Pending>(batchSize);
+		try {
+			while (!stopping || !queue.isEmpty()) {
+				Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				long deadline = System.nanoTime() + flushIntervalNanos;
+				while (batch.size() < batchSize) {
+					queue.drainTo(batch, batchSize - batch.size());
+					long remaining = deadline - System.nanoTime();
+					// Once shut down, write what is there without waiting.
+					if (batch.size() >= batchSize || stopping || remaining <= 0) {
+						break;
+					}
+					Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+				List<Pending> full = new ArrayList<Pending>(batch);
+				batch.clear();
+				this.flush(full);
+			}
+		} catch (InterruptedException e) {
+			// Forced to stop (see shutdown), which dead letters what is
+			// still queued. Objects in a batch being written were dead
+			// lettered by flush.
+			this.deadLetter(batch, new CreateException(
+					"Not written before the write-behind queue was shut down."));
+		}
+	}
+
+	/**
+	 * Writes batch, retrying and dead lettering objects as needed.
+	 */
+	private void flush(List<Pending> batch) throws InterruptedException {
+		long start = System.nanoTime();
+		try {
+			int batchAttempts = 0;
+			while (true) {
+				CreateException error = this.write(batch);
+				if (error == null) {
+					this.written(batch);
+					return;
+				}
+				batchAttempts++;
+				// Retrying will not help a batch the datasource says is
+				// refused because of one of its objects.
+				boolean blamed = error.getIndex() >= 0 && batch.size() > 1;
+				if (!blamed && batchAttempts < maxAttempts) {
+					this.backOff(batchAttempts);
+					continue;
+				}
+				for (Pending pending : batch) {
+					pending.attempts = Math.max(pending.attempts,
+							batchAttempts);
+				}
+				if (batch.size() == 1) {
+					this.deadLetter(batch.get(0), error);
+				} else {
+					this.split(batch);
+				}
+				return;
+			}
+		} catch (InterruptedException e) {
+			List<Pending> unwritten = new ArrayList<Pending>();
+			for (Pending pending : batch) {
+				if (!pending.done) {
+					unwritten.add(pending);
+				}
+			}
+			this.deadLetter(unwritten, new CreateException(
+					"Not written before the write-behind queue was shut down."));
+			throw e;
+		} finally {
+			long took = System.nanoTime() - start;
+			flushCount.incrementAndGet();
+			totalFlushNanos.addAndGet(took);
+			long max = maxFlushNanos.get();
+			while (took > max && !maxFlushNanos.compareAndSet(max, took)) {
+				max = maxFlushNanos.get();
+			}
+			if (onFlush != null) {
+				try {
+					onFlush.run();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes failed (which has just failed as a whole) in two halves, and
+	 * splits each half which fails again, until the objects which fail on
+	 * their own are found (see retry). At most 2 * failed.size() batches are
+	 * written, plus the retries of the objects to blame.
+	 */
+	private void split(List<Pending> failed) throws InterruptedException {
+		int middle = failed.size() / 2;
+		List<List<Pending>> halves = new ArrayList<List<Pending>>(2);
+		halves.add(failed.subList(0, middle));
+		halves.add(failed.subList(middle, failed.size()));
+		for (List<Pending> half : halves) {
+			if (half.size() == 1) {
+				this.retry(half);
+				continue;
+			}
+			if (this.write(half) == null) {
+				this.written(half);
+			} else {
+				this.split(half);
+			}
+		}
+	}
+
+	/**
+	 * Writes single (which holds one object) until it is written, or it has
+	 * been tried maxAttempts times, when it is dead lettered.
+	 */
+	private void retry(List<Pending> single) throws InterruptedException {
+		Pending pending = single.get(0);
+		while (true) {
+			CreateException error = this.write(single);
+			if (error == null) {
+				this.written(single);
+				return;
+			}
+			pending.attempts++;
+			if (pending.attempts >= maxAttempts) {
+				this.deadLetter(pending, error);
+				return;
+			}
+			this.backOff(pending.attempts);
+		}
+	}
+
+	private void written(List<Pending> pending) {
+		for (Pending p : pending) {
+			p.done = true;
+		}
+		written.addAndGet(pending.size());
+	}
+
+	/**
+	 * @return null if every object was written, or why they were not.
+	 */
+	private CreateException write(List<Pending> pending) {
+		DataObjectArray objects = new DataObjectArray();
+		for (Pending p : pending) {
+			objects.add(p.obj);
+		}
+		try {
+			dataSource.createAll(objects);
+			return null;
+		} catch (CreateException e) {
+			return e;
+		} catch (RuntimeException e) {
+			return new CreateException(e.toString());
+		}
+	}
+
+	/**
+	 * Waits before trying again, longer after each attempt.
+	 */
+	private void backOff(int attempts) throws InterruptedException {
+		retried.incrementAndGet();
+		long delay = Math.min(MAX_RETRY_DELAY_MILLIS, 100L << Math.min(attempts,
+				16));
+		Thread.sleep(delay);
+	}
+
+	private void deadLetter(List<Pending> pending, CreateException error) {
+		for (Pending p : pending) {
+			this.deadLetter(p, error);
+		}
+	}
+
+	private void deadLetter(Pending pending, CreateException error) {
+		pending.done = true;
+		deadLettered.incrementAndGet();
+		try {
+			deadLetters.deadLettered(pending.obj, error,
+					Math.max(1, pending.attempts));
+		} catch (RuntimeException e) {
+			// The handler must not stop the flusher.
+			e.printStackTrace();
+		}
+	}
+}
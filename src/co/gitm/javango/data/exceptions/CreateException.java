@@ -7,11 +7,27 @@ package co.gitm.javango.data.exceptions;
  */
 public class CreateException extends Exception {
 	private String message;
+	// Position of the object which could not be created when creating several
+	// objects at once, or -1 if unknown.
+	private int index = -1;
 
 	public CreateException(String msg) {
 		this.setMessage(msg);
 	}
 
+	public CreateException(String msg, int index) {
+		this.setMessage(msg);
+		this.index = index;
+	}
+
+	/**
+	 * @return when creating several objects at once, the position of the object
+	 *         which could not be created, or -1 if it is not known.
+	 */
+	public int getIndex() {
+		return this.index;
+	}
+
 	public void setMessage(String msg) {
 		this.message = msg;
 	}
@@ -0,0 +1,13 @@
+package co.gitm.javango.data.exceptions;
+
+/**
+ * Thrown by a DataCursor if the DataSource fails while the cursor is being
+ * iterated over. This is unchecked because Iterator methods cannot throw
+ * checked exceptions.
+ * 
+ */
+public class DataCursorException extends RuntimeException {
+	public DataCursorException(String msg, Throwable cause) {
+		super(msg, cause);
+	}
+}
@@ -0,0 +1,22 @@
+package co.gitm.javango.data.exceptions;
+
+/**
+ * Exception to be thrown if there is an error deleting objects from a
+ * datasource.
+ * 
+ */
+public class DeleteException extends Exception {
+	private String message;
+
+	public DeleteException(String msg) {
+		this.setMessage(msg);
+	}
+
+	public void setMessage(String msg) {
+		this.message = msg;
+	}
+
+	public String getMessage() {
+		return this.message;
+	}
+}
@@ -0,0 +1,54 @@
+package co.gitm.javango.data.exceptions;
+
+/**
+ * Exception to be thrown if data sent by a user (e.g. the JSON body of a POST
+ * request) cannot be turned into DataObjects.
+ *
+ */
+public class MalformedDataException extends Exception {
+	/**
+	 * Why the data was rejected.
+	 */
+	public enum Reason {
+		// The data is not valid JSON, or not the expected JSON value.
+		SYNTAX,
+		// An object has a field which its model does not have.
+		UNKNOWN_FIELD,
+		// The data is larger than allowed.
+		TOO_LARGE,
+		// Objects and arrays are nested more deeply than allowed.
+		TOO_DEEP
+	}
+
+	private String message;
+	private Reason reason;
+	// Position (in bytes) in the data at which the problem was found, or -1
+	// if unknown.
+	private long offset = -1;
+
+	public MalformedDataException(String msg, Reason reason, long offset) {
+		this.setMessage(msg);
+		this.reason = reason;
+		this.offset = offset;
+	}
+
+	public Reason getReason() {
+		return this.reason;
+	}
+
+	/**
+	 * @return the position (in bytes) in the data at which the problem was
+	 *         found, or -1 if it is not known.
+	 */
+	public long getOffset() {
+		return this.offset;
+	}
+
+	public void setMessage(String msg) {
+		this.message = msg;
+	}
+
+	public String getMessage() {
+		return this.message;
+	}
+}
@@ -0,0 +1,27 @@
+package co.gitm.javango.data.exceptions;
+
+/**
+ * Exception to be thrown if there is an error retrieving objects from a
+ * datasource.
+ * 
+ */
+public class RetrieveException extends Exception {
+	private String message;
+
+	public RetrieveException(String msg) {
+		this.setMessage(msg);
+	}
+
+	public RetrieveException(String msg, Throwable cause) {
+		super(cause);
+		this.setMessage(msg);
+	}
+
+	public void setMessage(String msg) {
+		this.message = msg;
+	}
+
+	public String getMessage() {
+		return this.message;
+	}
+}
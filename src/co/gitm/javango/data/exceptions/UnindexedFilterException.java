@@ -0,0 +1,44 @@
+package co.gitm.javango.data.exceptions;
+
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown when a filter only uses fields which are not indexed, and the model's
+ * UnindexedFilterPolicy refuses it: by Model.newQuery under REJECT, or when the
+ * query is run under RATE_LIMIT. It is a RejectedExecutionException, like the
+ * other ways in which a model sheds load, so callers which do not check for it
+ * send it as SERVER_ERROR_SERVICE_UNAVAILABLE.
+ *
+ */
+public class UnindexedFilterException extends RejectedExecutionException {
+	private final Set<String> fields;
+	private final boolean rateLimited;
+
+	/**
+	 * @param fields
+	 *            of the filter.
+	 * @param rateLimited
+	 *            whether the filter would be allowed later (under the
+	 *            RATE_LIMIT policy), rather than never.
+	 */
+	public UnindexedFilterException(Set<String> fields, boolean rateLimited) {
+		super(String.format(
+				rateLimited ? "Too many queries filter only on %s, which are not indexed, try again later."
+						: "Filtering only on %s is not allowed, since they are not indexed.",
+				fields));
+		this.fields = fields;
+		this.rateLimited = rateLimited;
+	}
+
+	/**
+	 * @return the unindexed fields the filter used.
+	 */
+	public Set<String> getFields() {
+		return fields;
+	}
+
+	public boolean isRateLimited() {
+		return rateLimited;
+	}
+}
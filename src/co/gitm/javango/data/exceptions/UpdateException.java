@@ -0,0 +1,21 @@
+package co.gitm.javango.data.exceptions;
+
+/**
+ * Exception to be thrown if there is an error updating objects in a datasource.
+ * 
+ */
+public class UpdateException extends Exception {
+	private String message;
+
+	public UpdateException(String msg) {
+		this.setMessage(msg);
+	}
+
+	public void setMessage(String msg) {
+		this.message = msg;
+	}
+
+	public String getMessage() {
+		return this.message;
+	}
+}
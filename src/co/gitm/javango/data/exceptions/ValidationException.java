@@ -0,0 +1,46 @@
+package co.gitm.javango.data.exceptions;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exception to be thrown if an object is not a valid object of its model (see
+ * Model.validate), so it is rejected before it is sent to the datasource.
+ * 
+ */
+public class ValidationException extends CreateException {
+	// Problem with each invalid field, in the order they were found.
+	private final Map<String, String> errors;
+
+	/**
+	 * @param errors
+	 *            maps the name of each invalid field to what is wrong with it.
+	 * @param index
+	 *            position of the invalid object when creating several objects
+	 *            at once, or -1.
+	 */
+	public ValidationException(Map<String, String> errors, int index) {
+		super(describe(errors), index);
+		this.errors = Collections
+				.unmodifiableMap(new LinkedHashMap<String, String>(errors));
+	}
+
+	/**
+	 * @return the name of each invalid field, mapped to what is wrong with it.
+	 */
+	public Map<String, String> getErrors() {
+		return errors;
+	}
+
+	private static String describe(Map<String, String> errors) {
+		StringBuilder s = new StringBuilder();
+		for (Map.Entry<String, String> error : errors.entrySet()) {
+			if (s.length() > 0) {
+				s.append("; ");
+			}
+			s.append(error.getKey()).append(' ').append(error.getValue());
+		}
+		return s.toString();
+	}
+}
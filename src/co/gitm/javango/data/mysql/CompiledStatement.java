@@ -0,0 +1,111 @@
+package co.gitm.javango.data.mysql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.json.simple.JSONAware;
+
+/**
+ * A SQL statement produced by the QueryCompiler: the statement's shape (SQL
+ * text with a ? placeholder for every value) plus the values to bind to those
+ * placeholders. Statements which only differ in their values share the same SQL
+ * text, so MySQL (and the JDBC driver's prepared statement cache) only has to
+ * parse each shape once.
+ *
+ */
+public class CompiledStatement {
+	private final String sql;
+	private final Object[] parameters;
+
+	public CompiledStatement(String sql, Object[] parameters) {
+		this.sql = sql;
+		this.parameters = parameters;
+	}
+
+	/**
+	 * @return the SQL text of this statement, with ? placeholders in place of
+	 *         values.
+	 */
+	public String getSql() {
+		return this.sql;
+	}
+
+	public Object[] getParameters() {
+		return this.parameters;
+	}
+
+	/**
+	 * @param connection
+	 *            on which to prepare the statement.
+	 * @return a PreparedStatement with all parameters bound. The caller is
+	 *         responsible for closing it.
+	 */
+	public PreparedStatement prepare(Connection connection)
+			throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(sql);
+		try {
+			bind(statement, parameters);
+		} catch (SQLException e) {
+			statement.close();
+			throw e;
+		}
+		return statement;
+	}
+
+	/**
+	 * @param connection
+	 *            on which to prepare the statement.
+	 * @param fetchSize
+	 *            number of rows to fetch per round trip, or Integer.MIN_VALUE
+	 *            to have the MySQL driver stream rows one at a time.
+	 * @return a forward-only, read-only PreparedStatement with all parameters
+	 *         bound, whose results are not read into memory all at once.
+	 */
+	public PreparedStatement prepareForStreaming(Connection connection,
+			int fetchSize) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(sql,
+				ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		try {
+			statement.setFetchSize(fetchSize);
+			bind(statement, parameters);
+		} catch (SQLException e) {
+			statement.close();
+			throw e;
+		}
+		return statement;
+	}
+
+	/**
+	 * Binds values to the placeholders of a prepared statement, in order.
+	 */
+	static void bind(PreparedStatement statement, Object[] values)
+			throws SQLException {
+		for (int i = 0; i < values.length; i++) {
+			Object value = values[i];
+			if (value == null) {
+				statement.setNull(i + 1, Types.NULL);
+			} else if (value instanceof JSONAware) {
+				// Nested JSON objects/arrays are stored as JSON text.
+				statement.setString(i + 1, ((JSONAware) value).toJSONString());
+			} else {
+				statement.setObject(i + 1, value);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder str = new StringBuilder(sql);
+		str.append(" [");
+		for (int i = 0; i < parameters.length; i++) {
+			if (i > 0) {
+				str.append(", ");
+			}
+			str.append(parameters[i]);
+		}
+		return str.append(']').toString();
+	}
+}
@@ -0,0 +1,512 @@
+package co.gitm.javango.data.mysql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.sql.DataSource;
+
+/**
+ * A bounded pool of JDBC connections. Opening a MySQL connection means a TCP
+ * and authentication handshake, so instead of doing that for every query the
+ * MySqlDataSource borrows an already open connection from this pool and
+ * releases it back when it is done.
+ *
+ * The pool never holds more than maxSize connections (idle and borrowed), and
+ * tries to keep at least minSize open. Connections which sit idle for longer
+ * than idleTimeout are closed by a background eviction task (down to minSize).
+ * Connections which have been idle for longer than validationInterval are
+ * checked with Connection.isValid before being handed out. If no connection
+ * becomes available within borrowTimeout, borrow throws an SQLTimeoutException.
+ *
+ * Every query and insert borrows a connection for as long as it runs, so
+ * maxSize is also the most calls (reads and writes together) that MySQL is
+ * given at once, however many request threads are calling.
+ *
+ */
+public class ConnectionPool {
+	// Number of seconds to wait for Connection.isValid to return.
+	private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+	/**
+	 * An open connection waiting in the pool, along with the time it was
+	 * released back into the pool.
+	 */
+	private static class IdleConnection {
+		final Connection connection;
+		final long idleSince;
+
+		IdleConnection(Connection connection, long idleSince) {
+			this.connection = connection;
+			this.idleSince = idleSince;
+		}
+	}
+
+	// Used to open new physical connections.
+	private final DataSource connectionFactory;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition connectionAvailable = lock.newCondition();
+	// Most recently released connection is at the head so that busy periods
+	// keep reusing the same (warm) connections and the rest can be evicted.
+	private final Deque<IdleConnection> idle = new ArrayDeque<IdleConnection>();
+	// Total number of open connections (idle + borrowed) and connections
+	// currently being opened.
+	private int totalCount = 0;
+	private boolean closed = false;
+
+	private volatile int minSize;
+	private volatile int maxSize;
+	private volatile long idleTimeoutMillis;
+	private volatile long borrowTimeoutMillis;
+	private volatile long validationIntervalMillis;
+
+	// Stats. Guarded by lock.
+	private long borrowCount = 0;
+	private long timeoutCount = 0;
+	private long totalWaitNanos = 0;
+	private long maxWaitNanos = 0;
+
+	private final Timer evictionTimer;
+
+	/**
+	 * @param connectionFactory
+	 *            used to open new connections (e.g. a JDBC MysqlDataSource).
+	 * @param minSize
+	 *            number of connections the pool tries to keep open.
+	 * @param maxSize
+	 *            maximum number of open connections.
+	 * @param idleTimeoutMillis
+	 *            how long a connection may sit idle before being closed.
+	 * @param borrowTimeoutMillis
+	 *            how long borrow waits for a free connection.
+	 * @param validationIntervalMillis
+	 *            connections idle for longer than this are validated on
+	 *            borrow (0 validates on every borrow).
+	 */
+	public ConnectionPool(DataSource connectionFactory, int minSize,
+			int maxSize, long idleTimeoutMillis, long borrowTimeoutMillis,
+			long validationIntervalMillis) {
+		this.connectionFactory = connectionFactory;
+		this.setSizes(minSize, maxSize);
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.borrowTimeoutMillis = borrowTimeoutMillis;
+		this.validationIntervalMillis = validationIntervalMillis;
+		// Run eviction a few times per idle timeout, but not too often.
+		long evictionPeriod = Math.max(1000, idleTimeoutMillis / 4);
+		this.evictionTimer = new Timer("javango-pool-evictor", true);
+		this.evictionTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				evict();
+			}
+		}, evictionPeriod, evictionPeriod);
+	}
+
+	/**
+	 * @return an open connection from the pool (opening a new one if the pool
+	 *         is below maxSize). The caller must hand it back using release
+	 *         (or invalidate, if the connection is known to be broken).
+	 * @throws SQLException
+	 *             if no connection became available within borrowTimeout, or
+	 *             if a new connection could not be opened.
+	 */
+	public Connection borrow() throws SQLException {
+		long start = System.nanoTime();
+		long remaining = TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+		while (true) {
+			IdleConnection candidate = null;
+			boolean openNew = false;
+			lock.lock();
+			try {
+				while (true) {
+					if (closed) {
+						throw new SQLException("Connection pool is closed.");
+					}
+					if (!idle.isEmpty()) {
+						candidate = idle.pollFirst();
+						break;
+					}
+					if (totalCount < maxSize) {
+						// Reserve a slot, then open the connection outside the
+						// lock.
+						totalCount++;
+						openNew = true;
+						break;
+					}
+					if (remaining <= 0) {
+						timeoutCount++;
+						throw new SQLTimeoutException(String.format(
+								"Timed out after %dms waiting for a database connection (%d active, %d max).",
+								borrowTimeoutMillis, totalCount - idle.size(),
+								maxSize));
+					}
+					try {
+						remaining = connectionAvailable.awaitNanos(remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new SQLException(
+								"Interrupted while waiting for a database connection.");
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+
+			Connection connection;
+			if (openNew) {
+				try {
+					connection = connectionFactory.getConnection();
+				} catch (SQLException e) {
+					this.discardSlot();
+					throw e;
+				} catch (RuntimeException e) {
+					this.discardSlot();
+					throw e;
+				}
+			} else {
+				connection = candidate.connection;
+				long idleFor = System.currentTimeMillis() - candidate.idleSince;
+				if (idleFor >= validationIntervalMillis
+						&& !this.isValid(connection)) {
+					// Stale connection (e.g. closed by MySQL's wait_timeout),
+					// throw it away and try again.
+					this.invalidate(connection);
+					remaining = TimeUnit.MILLISECONDS
+							.toNanos(borrowTimeoutMillis)
+							- (System.nanoTime() - start);
+					continue;
+				}
+			}
+			this.recordBorrow(System.nanoTime() - start);
+			return connection;
+		}
+	}
+
+	/**
+	 * Hands a borrowed connection back to the pool so that it can be reused.
+	 *
+	 * @param connection
+	 *            previously returned by borrow.
+	 */
+	public void release(Connection connection) {
+		if (connection == null) {
+			return;
+		}
+		boolean reusable;
+		try {
+			reusable = !connection.isClosed();
+			// Make sure an abandoned transaction does not leak into the next
+			// borrower.
+			if (reusable && !connection.getAutoCommit()) {
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			reusable = false;
+		}
+		if (!reusable) {
+			this.invalidate(connection);
+			return;
+		}
+		lock.lock();
+		try {
+			if (!closed && totalCount <= maxSize) {
+				idle.addFirst(new IdleConnection(connection, System
+						.currentTimeMillis()));
+				connectionAvailable.signal();
+				return;
+			}
+		} finally {
+			lock.unlock();
+		}
+		// Pool was closed or shrunk while the connection was borrowed.
+		this.invalidate(connection);
+	}
+
+	/**
+	 * Closes a borrowed connection which is known to be broken, freeing its
+	 * slot in the pool.
+	 *
+	 * @param connection
+	 *            previously returned by borrow.
+	 */
+	public void invalidate(Connection connection) {
+		closeQuietly(connection);
+		this.discardSlot();
+	}
+
+	/**
+	 * Changes the size bounds of the pool. If maxSize shrinks, surplus idle
+	 * connections are closed straight away and surplus borrowed connections
+	 * are closed when they are released.
+	 */
+	public void setSizes(int minSize, int maxSize) {
+		if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+			throw new IllegalArgumentException(String.format(
+					"Invalid pool size bounds: min %d, max %d.", minSize,
+					maxSize));
+		}
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		List<Connection> surplus = new ArrayList<Connection>();
+		lock.lock();
+		try {
+			while (totalCount > maxSize && !idle.isEmpty()) {
+				surplus.add(idle.pollLast().connection);
+				totalCount--;
+			}
+			// More connections may be allowed now.
+			connectionAvailable.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		for (Connection connection : surplus) {
+			closeQuietly(connection);
+		}
+	}
+
+	public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	public void setBorrowTimeoutMillis(long borrowTimeoutMillis) {
+		this.borrowTimeoutMillis = borrowTimeoutMillis;
+	}
+
+	public void setValidationIntervalMillis(long validationIntervalMillis) {
+		this.validationIntervalMillis = validationIntervalMillis;
+	}
+
+	/**
+	 * Closes all idle connections and stops handing out new ones. Borrowed
+	 * connections are closed when they are released.
+	 */
+	public void close() {
+		evictionTimer.cancel();
+		List<Connection> toClose = new ArrayList<Connection>();
+		lock.lock();
+		try {
+			closed = true;
+			while (!idle.isEmpty()) {
+				toClose.add(idle.pollFirst().connection);
+				totalCount--;
+			}
+			connectionAvailable.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		for (Connection connection : toClose) {
+			closeQuietly(connection);
+		}
+	}
+
+	/**
+	 * @return number of connections currently borrowed.
+	 */
+	public int getActiveCount() {
+		lock.lock();
+		try {
+			return totalCount - idle.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of open connections waiting in the pool.
+	 */
+	public int getIdleCount() {
+		lock.lock();
+		try {
+			return idle.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getMinSize() {
+		return minSize;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return number of successful borrows since the pool was created.
+	 */
+	public long getBorrowCount() {
+		lock.lock();
+		try {
+			return borrowCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of borrows which gave up after borrowTimeout.
+	 */
+	public long getTimeoutCount() {
+		lock.lock();
+		try {
+			return timeoutCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return total time (in milliseconds) callers have spent waiting in
+	 *         borrow, including time spent opening new connections.
+	 */
+	public double getTotalWaitMillis() {
+		lock.lock();
+		try {
+			return totalWaitNanos / 1e6;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return average time (in milliseconds) spent waiting in borrow.
+	 */
+	public double getAverageWaitMillis() {
+		lock.lock();
+		try {
+			return borrowCount == 0 ? 0 : totalWaitNanos / 1e6 / borrowCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return longest time (in milliseconds) a single borrow has waited.
+	 */
+	public double getMaxWaitMillis() {
+		lock.lock();
+		try {
+			return maxWaitNanos / 1e6;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"ConnectionPool[active=%d, idle=%d, max=%d, borrows=%d, timeouts=%d, avgWait=%.3fms]",
+				this.getActiveCount(), this.getIdleCount(), maxSize,
+				this.getBorrowCount(), this.getTimeoutCount(),
+				this.getAverageWaitMillis());
+	}
+
+	/**
+	 * Closes connections which have been idle for longer than idleTimeout
+	 * (keeping at least minSize open), then opens new connections until the
+	 * pool holds minSize again.
+	 */
+	void evict() {
+		List<Connection> expired = new ArrayList<Connection>();
+		int toOpen;
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+			// Oldest idle connections are at the tail.
+			Iterator<IdleConnection> itr = idle.descendingIterator();
+			while (itr.hasNext() && totalCount > minSize) {
+				IdleConnection candidate = itr.next();
+				if (candidate.idleSince > cutoff) {
+					break;
+				}
+				itr.remove();
+				totalCount--;
+				expired.add(candidate.connection);
+			}
+			toOpen = Math.max(0, minSize - totalCount);
+			totalCount += toOpen;
+		} finally {
+			lock.unlock();
+		}
+		for (Connection connection : expired) {
+			closeQuietly(connection);
+		}
+		for (int i = 0; i < toOpen; i++) {
+			Connection connection;
+			try {
+				connection = connectionFactory.getConnection();
+			} catch (SQLException e) {
+				// Database is unavailable, try again on the next run.
+				this.discardSlots(toOpen - i);
+				return;
+			} catch (RuntimeException e) {
+				// A driver bug must not kill the eviction thread (which would
+				// stop eviction for good) or leak the reserved slots.
+				e.printStackTrace();
+				this.discardSlots(toOpen - i);
+				return;
+			}
+			this.release(connection);
+		}
+	}
+
+	private boolean isValid(Connection connection) {
+		try {
+			return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private void discardSlot() {
+		lock.lock();
+		try {
+			totalCount--;
+			connectionAvailable.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void discardSlots(int count) {
+		for (int i = 0; i < count; i++) {
+			this.discardSlot();
+		}
+	}
+
+	private void recordBorrow(long waitNanos) {
+		lock.lock();
+		try {
+			borrowCount++;
+			totalWaitNanos += waitNanos;
+			if (waitNanos > maxWaitNanos) {
+				maxWaitNanos = waitNanos;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static void closeQuietly(Connection connection) {
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			// Nothing more can be done with a connection which fails to close.
+		}
+	}
+}
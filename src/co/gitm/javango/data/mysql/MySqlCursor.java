@@ -0,0 +1,143 @@
+package co.gitm.javango.data.mysql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.NoSuchElementException;
+
+import co.gitm.javango.data.DataCursor;
+import co.gitm.javango.data.DataObject;
+import co.gitm.javango.data.exceptions.DataCursorException;
+import co.gitm.javango.metrics.QueryMetrics;
+
+/**
+ * A DataCursor over a streamed MySQL result set. Rows are converted to
+ * DataObjects one at a time as the cursor is iterated over. The cursor owns the
+ * connection it was opened on, and releases it back to the pool as soon as the
+ * last row has been read (or the cursor is closed). Cursors opened on a read
+ * replica tell it when they are closed, since they count as outstanding reads
+ * until then. The rows read (and any errors) are recorded in the query's
+ * QueryMetrics when the cursor is closed.
+ *
+ */
+class MySqlCursor implements DataCursor {
+	private final ConnectionPool pool;
+	// Replica the cursor reads from, or null if it reads from the primary.
+	private final ReplicaSet.Replica replica;
+	// Null if the query's metrics are not recorded.
+	private final QueryMetrics metrics;
+	private long rowCount = 0;
+	private long byteCount = 0;
+	private Connection connection;
+	private PreparedStatement statement;
+	private ResultSet resultSet;
+	private RowMapper mapper;
+	// Whether resultSet is positioned on a row which has not been returned by
+	// next yet.
+	private boolean hasRow = false;
+	private boolean closed = false;
+
+	MySqlCursor(ConnectionPool pool, Connection connection,
+			PreparedStatement statement, ResultSet resultSet, String shape)
+			throws SQLException {
+		this(pool, connection, statement, resultSet, shape, null, null);
+	}
+
+	MySqlCursor(ConnectionPool pool, Connection connection,
+			PreparedStatement statement, ResultSet resultSet, String shape,
+			ReplicaSet.Replica replica, QueryMetrics metrics)
+			throws SQLException {
+		this.pool = pool;
+		this.replica = replica;
+		this.metrics = metrics;
+		this.connection = connection;
+		this.statement = statement;
+		this.resultSet = resultSet;
+		this.mapper = RowMapper.forShape(shape, resultSet.getMetaData());
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (closed) {
+			return false;
+		}
+		if (!hasRow) {
+			try {
+				hasRow = resultSet.next();
+			} catch (SQLException e) {
+				this.failed();
+				throw new DataCursorException(e.getMessage(), e);
+			}
+			if (!hasRow) {
+				// Release the connection as early as possible.
+				this.close();
+			}
+		}
+		return hasRow;
+	}
+
+	@Override
+	public DataObject next() {
+		if (!this.hasNext()) {
+			throw new NoSuchElementException();
+		}
+		hasRow = false;
+		try {
+			DataObject row = mapper.map(resultSet);
+			if (metrics != null) {
+				rowCount++;
+				byteCount += RowMapper.sizeOf(row);
+			}
+			return row;
+		} catch (SQLException e) {
+			this.failed();
+			throw new DataCursorException(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		hasRow = false;
+		try {
+			// Closing a streamed result set reads (and discards) any rows
+			// which have not been read yet.
+			resultSet.close();
+			statement.close();
+		} catch (SQLException e) {
+			// The connection is in an unknown state, don't reuse it.
+			pool.invalidate(connection);
+			connection = null;
+		} finally {
+			if (connection != null) {
+				pool.release(connection);
+			}
+			if (replica != null) {
+				replica.finished();
+			}
+			if (metrics != null) {
+				metrics.recordRows(rowCount, byteCount);
+			}
+			connection = null;
+			statement = null;
+			resultSet = null;
+			mapper = null;
+		}
+	}
+
+	private void failed() {
+		if (metrics != null && !closed) {
+			metrics.recordError();
+		}
+		this.close();
+	}
+}
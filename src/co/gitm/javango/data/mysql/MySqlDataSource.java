@@ -1,28 +1,40 @@
 package co.gitm.javango.data.mysql;
 
+import java.sql.BatchUpdateException;
 import java.sql.PreparedStatement;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.Map;
-
-import org.apache.commons.configuration.Configuration;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.mysql.jdbc.jdbc2.optional.MysqlDataSource;
 
 import co.gitm.javango.config.Config;
+import co.gitm.javango.config.ConfigListener;
+import co.gitm.javango.config.Settings;
+import co.gitm.javango.data.DataCursor;
 import co.gitm.javango.data.DataObject;
 import co.gitm.javango.data.DataObjectArray;
 import co.gitm.javango.data.Query;
 import co.gitm.javango.data.DataSource;
 import co.gitm.javango.data.exceptions.CreateException;
+import co.gitm.javango.data.exceptions.DeleteException;
+import co.gitm.javango.data.exceptions.RetrieveException;
+import co.gitm.javango.data.exceptions.UpdateException;
+import co.gitm.javango.metrics.MetricsCollector;
+import co.gitm.javango.metrics.MetricsRegistry;
+import co.gitm.javango.metrics.PrometheusWriter;
+import co.gitm.javango.metrics.QueryDiagnostics;
+import co.gitm.javango.metrics.QueryMetrics;
+import co.gitm.javango.metrics.SlowQuery;
 
 /**
  * @author Alex McLeod
  * 
- *         This class enables the creation, retrieval, insertion and deletion of
+ *         This class enables the creation, retrieval, updating and deletion of
  *         data in MySQL databases. It is essentially a wrapper for the JDBC
  *         MysqlDataSource class, but it enables querying of a database using
  *         Query objects, retrieval of data in the form of DataObjectArrays and
@@ -30,15 +42,54 @@ import co.gitm.javango.data.exceptions.CreateException;
  * 
  *         The configuration details for the MySQL database used by any given
  *         application are specified in the application's config/database.xml
- *         file. NOTE This is currently not the case, check notes in sample_database.xml
+ *         file, or by the RDS_* system properties/environment variables (which
+ *         take precedence). See co.gitm.javango.config.Settings.
+ * 
+ *         Connections are borrowed from a ConnectionPool owned by the
+ *         instance, rather than being opened for every query. SQL is generated
+ *         by a QueryCompiler, so values are always bound as parameters and
+ *         each pooled connection reuses its prepared statements.
+ * 
+ *         If the database has read replicas (see Settings.Database.getReplicas,
+ *         e.g. JAVANGO_DB_REPLICAS), retrieve and stream are sent to them (see
+ *         ReplicaSet) while create, update and delete always go to the
+ *         primary. Reads fall back to the primary when no replica is healthy
+ *         or the chosen one cannot be reached, and reads of a table go to the
+ *         primary for a short window after it was written to (the
+ *         replication readyourwrites setting), so a client always sees its
+ *         own writes despite replication lag.
+ * 
+ *         Every call is recorded in the QueryMetrics of its query shape (see
+ *         MetricsRegistry): its latency, the time it waited for a connection,
+ *         the rows it read or wrote and whether it failed. The pools' sizes
+ *         and the replicas' health are added to the metrics page as well.
+ *         The plan of every new SELECT shape is read with EXPLAIN in the
+ *         background (see QueryPlanAnalyzer), and calls which take longer
+ *         than the diagnostics slowquery setting are logged (see
+ *         QueryDiagnostics).
+ * 
+ *         Instances keep no per-call state, so a single instance can (and
+ *         should) be shared by every request, e.g. by registering it with a
+ *         JavangoApplication, which closes it when the application stops.
  * 
  */
 public class MySqlDataSource implements DataSource {
+	// Turns Queries and DataObjects into parameterized SQL, caching the SQL
+	// text of each query shape.
+	private static final QueryCompiler compiler = new QueryCompiler();
+	// Maximum number of rows sent to MySQL in one batch by createAll.
+	private static final int MAX_BATCH_SIZE = 1000;
 
-	Connection dbConnection;
-	PreparedStatement statement;
-	ResultSet resultSet;
-	DataObjectArray resultsArray;
+	// Created on first use, guarded by this.
+	private ConnectionPool pool = null;
+	// Null if the database has no replicas.
+	private ReplicaSet replicas = null;
+	private ConfigListener configListener = null;
+	private MetricsCollector poolMetrics = null;
+	private boolean closed = false;
+	// When (System.nanoTime) each table was last written to, for read your
+	// writes.
+	private final ConcurrentHashMap<String, Long> lastWrites = new ConcurrentHashMap<String, Long>();
 
 	public MySqlDataSource() {
 	}
@@ -51,24 +102,126 @@ public class MySqlDataSource implements DataSource {
 	 */
 	@Override
 	public void create(DataObject newData) throws CreateException {
-		// Connect to the database.
-		this.connect();
+		// Create an INSERT statement using the input data (newData).
+		CompiledStatement insert;
+		try {
+			insert = compiler.compileInsert(newData);
+		} catch (IllegalArgumentException e) {
+			throw new CreateException(e.getMessage());
+		}
+		QueryMetrics metrics = MetricsRegistry.forQuery("insert",
+				newData.getObjectName(), insert.getSql());
+		long start = System.nanoTime();
+		boolean failed = true;
+		ConnectionPool connections = null;
+		Connection dbConnection = null;
+		PreparedStatement statement = null;
 		try {
-			// Create an INSERT statement using the input data (newData).
-			statement = dbConnection.prepareStatement(this
-					.dataObjectToInsertStatement(newData));
-			System.out.println(statement.toString());
+			// Connect to the database.
+			connections = this.getPool();
+			dbConnection = borrow(connections, metrics);
+			statement = insert.prepare(dbConnection);
 			// Attempt to execute insertion.
 			statement.executeUpdate();
+			metrics.recordRows(1, RowMapper.sizeOf(newData));
+			failed = false;
 		} catch (SQLException e) {
 			e.printStackTrace();
 			// Throw an exception if insertion fails, include MySQL error
 			// message.
 			throw new CreateException(e.getMessage());
+		} catch (IllegalStateException e) {
+			// The data source has been closed.
+			throw new CreateException(e.getMessage());
 		} finally {
 			// Ensure database connection is closed, even if exception was
 			// thrown.
-			this.close();
+			close(connections, dbConnection, statement, null);
+			this.recordWrite(newData.getObjectName());
+			record(metrics, insert, start, failed);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * co.gitm.javango.data.DataSource#createAll(co.gitm.javango.data.DataObjectArray
+	 * )
+	 */
+	@Override
+	public int createAll(DataObjectArray newData) throws CreateException {
+		if (newData.isEmpty()) {
+			return 0;
+		}
+		// Compile every INSERT before touching the database, so that invalid
+		// objects are rejected without borrowing a connection.
+		CompiledStatement[] inserts = new CompiledStatement[newData.size()];
+		for (int i = 0; i < inserts.length; i++) {
+			try {
+				inserts[i] = compiler.compileInsert((DataObject) newData.get(i));
+			} catch (IllegalArgumentException e) {
+				throw new CreateException(e.getMessage(), i);
+			}
+		}
+		// Recorded under the shape of the first INSERT.
+		QueryMetrics metrics = MetricsRegistry.forQuery("insert_batch",
+				((DataObject) newData.get(0)).getObjectName(),
+				inserts[0].getSql());
+		long start = System.nanoTime();
+		boolean failed = true;
+		// Position of the first object in the batch currently being built.
+		int batchStart = 0;
+		ConnectionPool connections = null;
+		Connection dbConnection = null;
+		PreparedStatement statement = null;
+		try {
+			connections = this.getPool();
+			dbConnection = borrow(connections, metrics);
+			// Insert everything in a single transaction.
+			dbConnection.setAutoCommit(false);
+			for (int i = 0; i < inserts.length; i++) {
+				// Consecutive objects with the same fields share a statement
+				// and are sent as a single batch (which the driver rewrites
+				// into one multi-row INSERT).
+				if (statement != null
+						&& (i - batchStart == MAX_BATCH_SIZE || !inserts[i]
+								.getSql().equals(inserts[batchStart].getSql()))) {
+					statement = executeBatch(statement);
+					batchStart = i;
+				}
+				if (statement == null) {
+					statement = dbConnection.prepareStatement(inserts[i]
+							.getSql());
+				}
+				CompiledStatement.bind(statement, inserts[i].getParameters());
+				statement.addBatch();
+			}
+			statement = executeBatch(statement);
+			dbConnection.commit();
+			failed = false;
+			long bytes = 0;
+			for (Object obj : newData) {
+				bytes += RowMapper.sizeOf((DataObject) obj);
+			}
+			metrics.recordRows(inserts.length, bytes);
+			return inserts.length;
+		} catch (SQLException e) {
+			e.printStackTrace();
+			// Nothing is kept if any insert failed.
+			rollback(dbConnection);
+			throw new CreateException(e.getMessage(), failedIndex(e,
+					batchStart));
+		} catch (IllegalStateException e) {
+			// The data source has been closed.
+			throw new CreateException(e.getMessage());
+		} finally {
+			// Releasing the connection restores auto-commit.
+			close(connections, dbConnection, statement, null);
+			for (Object obj : newData) {
+				this.recordWrite(((DataObject) obj).getObjectName());
+			}
+			record(metrics, inserts[0], start, failed);
 		}
 	}
 
@@ -78,182 +231,674 @@ public class MySqlDataSource implements DataSource {
 	 * @see co.gitm.javango.data.DataSource#retrieve(co.gitm.javango.data.Query)
 	 */
 	@Override
-	public DataObjectArray retrieve(Query query) {
-		this.connect();
+	public DataObjectArray retrieve(Query query) throws RetrieveException {
+		// Create a SELECT statement using the input query.
+		CompiledStatement select;
 		try {
-			// Create a SELECT statement using the input query.
-			statement = dbConnection.prepareStatement(this
-					.queryToSelectStatement(query));
-			System.out.println(statement.toString());
-			// resultSet holds the result of executing the query on the
-			// database.
-			resultSet = statement.executeQuery();
-			// Convert resultSet to a DataObjectArray (the type used by
-			// Javango).
-			resultsArray = ResultSetToDataObjectArray.convert(resultSet);
+			select = compiler.compileSelect(query);
+		} catch (IllegalArgumentException e) {
+			// Query referred to an invalid table or column name.
+			throw new RetrieveException(e.getMessage(), e);
+		}
+		try {
+			QueryMetrics metrics = MetricsRegistry.forQuery("select",
+					query.getObjectName(), select.getSql());
+			ReplicaSet.Replica replica = this.chooseReplica(query
+					.getObjectName());
+			if (replica != null) {
+				try {
+					return this.retrieve(replica.getPool(), select, metrics);
+				} catch (SQLException e) {
+					e.printStackTrace();
+					// Only retry on the primary if the replica could not be
+					// reached, a bad query would fail there too.
+					if (!replica.failed(e)) {
+						throw e;
+					}
+				} finally {
+					replica.finished();
+				}
+			}
+			return this.retrieve(this.getPool(), select, metrics);
 		} catch (SQLException e) {
-			// Ensure that if a resultsArray is returned, it has nothing in it
-			// (and will thus throw an exception when accessed).
-			// TODO Throw a RetrieveException and pass MySQL error message to
-			// caller.
-			resultsArray = null;
 			e.printStackTrace();
+			throw new RetrieveException(e.getMessage(), e);
+		} catch (IllegalStateException e) {
+			// The data source has been closed.
+			throw new RetrieveException(e.getMessage(), e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.gitm.javango.data.DataSource#stream(co.gitm.javango.data.Query)
+	 */
+	@Override
+	public DataCursor stream(Query query) throws RetrieveException {
+		// The cursor outlives this call, so it owns the connection and
+		// statement and releases them when it is closed.
+		CompiledStatement select;
+		try {
+			select = compiler.compileSelect(query);
+		} catch (IllegalArgumentException e) {
+			throw new RetrieveException(e.getMessage(), e);
+		}
+		QueryMetrics metrics = MetricsRegistry.forQuery("stream",
+				query.getObjectName(), select.getSql());
+		try {
+			ReplicaSet.Replica replica = this.chooseReplica(query
+					.getObjectName());
+			if (replica != null) {
+				try {
+					return this.stream(replica.getPool(), select, replica,
+							metrics);
+				} catch (SQLException e) {
+					e.printStackTrace();
+					// The cursor was not opened, so the read is over.
+					replica.finished();
+					if (!replica.failed(e)) {
+						throw e;
+					}
+				}
+			}
+			return this.stream(this.getPool(), select, null, metrics);
+		} catch (SQLException e) {
+			e.printStackTrace();
+			throw new RetrieveException(e.getMessage(), e);
+		} catch (IllegalStateException e) {
+			// The data source has been closed.
+			throw new RetrieveException(e.getMessage(), e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.gitm.javango.data.DataSource#update(co.gitm.javango.data.Query,
+	 * co.gitm.javango.data.DataObject)
+	 */
+	@Override
+	public int update(Query query, DataObject changes) throws UpdateException {
+		// Create an UPDATE statement using the query's filter and changes.
+		CompiledStatement update;
+		try {
+			update = compiler.compileUpdate(query, changes);
+		} catch (IllegalArgumentException e) {
+			throw new UpdateException(e.getMessage());
+		}
+		try {
+			return this.executeUpdate("update", query.getObjectName(), update);
+		} catch (SQLException e) {
+			e.printStackTrace();
+			throw new UpdateException(e.getMessage());
+		} catch (IllegalStateException e) {
+			// The data source has been closed.
+			throw new UpdateException(e.getMessage());
 		} finally {
-			// Ensure database connection is closed.
-			this.close();
+			this.recordWrite(query.getObjectName());
 		}
-		return resultsArray;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.gitm.javango.data.DataSource#delete(co.gitm.javango.data.Query)
+	 */
 	@Override
-	public void update() {
-		// TODO Auto-generated method stub
+	public int delete(Query query) throws DeleteException {
+		// Create a DELETE statement using the query's filter.
+		CompiledStatement delete;
+		try {
+			delete = compiler.compileDelete(query);
+		} catch (IllegalArgumentException e) {
+			throw new DeleteException(e.getMessage());
+		}
+		try {
+			return this.executeUpdate("delete", query.getObjectName(), delete);
+		} catch (SQLException e) {
+			e.printStackTrace();
+			throw new DeleteException(e.getMessage());
+		} catch (IllegalStateException e) {
+			// The data source has been closed.
+			throw new DeleteException(e.getMessage());
+		} finally {
+			this.recordWrite(query.getObjectName());
+		}
+	}
 
+	/**
+	 * @return this data source's ConnectionPool (for the primary), creating
+	 *         it on first use.
+	 * @throws IllegalStateException
+	 *             if the data source has been closed.
+	 */
+	public synchronized ConnectionPool getPool() {
+		if (closed) {
+			throw new IllegalStateException("MySqlDataSource is closed.");
+		}
+		if (pool == null) {
+			Settings settings = Config.get();
+			pool = createPool(settings);
+			replicas = createReplicas(settings);
+			// Apply new pool settings as soon as the configuration changes.
+			// Register only once, the listener always acts on the current
+			// pool.
+			if (configListener == null) {
+				configListener = new ConfigListener() {
+					@Override
+					public void configChanged(Settings previous,
+							Settings current) {
+						MySqlDataSource.this.reconfigure(previous, current);
+					}
+				};
+				Config.addListener(configListener);
+			}
+			if (poolMetrics == null) {
+				poolMetrics = new MetricsCollector() {
+					@Override
+					public void collect(PrometheusWriter out) {
+						MySqlDataSource.this.collectPoolMetrics(out);
+					}
+				};
+				MetricsRegistry.addCollector(poolMetrics);
+			}
+		}
+		return pool;
 	}
 
+	/**
+	 * Closes all pooled connections. Connections which are still borrowed
+	 * (e.g. by open cursors) are closed when they are released. The data
+	 * source cannot be used afterwards.
+	 * 
+	 * @see co.gitm.javango.data.DataSource#close()
+	 */
 	@Override
-	public void delete() {
-		// TODO Auto-generated method stub
+	public synchronized void close() {
+		closed = true;
+		if (configListener != null) {
+			Config.removeListener(configListener);
+			configListener = null;
+		}
+		if (poolMetrics != null) {
+			MetricsRegistry.removeCollector(poolMetrics);
+			poolMetrics = null;
+		}
+		if (pool != null) {
+			pool.close();
+			pool = null;
+		}
+		if (replicas != null) {
+			replicas.close();
+			replicas = null;
+		}
+	}
+
+	/**
+	 * @return the database's read replicas, or null if it has none.
+	 * @throws IllegalStateException
+	 *             if the data source has been closed.
+	 */
+	public synchronized ReplicaSet getReplicas() {
+		this.getPool();
+		return replicas;
+	}
 
+	private static ConnectionPool createPool(Settings settings) {
+		Settings.Database dbSettings = settings.getDatabase();
+		return createPool(settings, dbSettings.getServerName(),
+				dbSettings.getPort());
 	}
 
 	/**
-	 * Connects to a MySQL database using the configuration details specified in
-	 * database.xml. database.xml just has to be a file on the current CLASSPATH
-	 * (it can really be located anyway, though it should be in the
-	 * application's config folder). To ensure database.xml is on CLASSPATH in
-	 * Eclipse, right-click on it's parent folder and go to
-	 * "Build path">"Use as source folder". Otherwise, you'll probably get
-	 * database connection errors.
+	 * @return a pool of connections to the database on host:port (e.g. a
+	 *         replica), with the same pool settings as the primary's.
 	 */
-	private void connect() {
-		Configuration dbConfig = Config.getConfig("database.xml");
-		// Use the JDBC MysqlDataSource class to connect to the database
-		// specified in database.xml.
-		// System.getProperty is used by Elastic Beanstalk environment to connect to db. 
-		String dbName = System.getProperty("RDS_DB_NAME"); //dbConfig.getString("database.name");
-		String userName = System.getProperty("RDS_USERNAME"); //dbConfig.getString("database.user");
-		String password = System.getProperty("RDS_PASSWORD"); //dbConfig.getString("database.password");
-		String serverName = System.getProperty("RDS_HOSTNAME"); //dbConfig.getString("database.servername");
-		String port = System.getProperty("RDS_PORT"); //dbConfig.getString("database.port");
-		MysqlDataSource ds = new MysqlDataSource();
-		ds.setUser(userName);
-		ds.setPassword(password);
-		ds.setServerName(serverName);
-		ds.setPort(Integer.parseInt(port));
-		ds.setDatabaseName(dbName);
-		// Attempt to get a database connection, throw exception if this fails.
+	private static ConnectionPool createPool(Settings settings, String host,
+			int port) {
+		Settings.Pool poolSettings = settings.getPool();
+		return new ConnectionPool(createConnectionFactory(
+				settings.getDatabase(), host, port), poolSettings.getMinSize(),
+				poolSettings.getMaxSize(), poolSettings.getIdleTimeoutMillis(),
+				poolSettings.getBorrowTimeoutMillis(),
+				poolSettings.getValidationIntervalMillis());
+	}
+
+	/**
+	 * @return a pool for each of the database's replicas, or null if it has
+	 *         none.
+	 */
+	private static ReplicaSet createReplicas(Settings settings) {
+		Settings.Database dbSettings = settings.getDatabase();
+		if (dbSettings.getReplicas().isEmpty()) {
+			return null;
+		}
+		List<ReplicaSet.Replica> replicas = new ArrayList<ReplicaSet.Replica>();
+		for (String address : dbSettings.getReplicas()) {
+			String host = address;
+			int port = dbSettings.getPort();
+			int colon = address.lastIndexOf(':');
+			if (colon > 0) {
+				host = address.substring(0, colon);
+				try {
+					port = Integer.parseInt(address.substring(colon + 1));
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException(String.format(
+							"Invalid replica address \"%s\".", address));
+				}
+			}
+			replicas.add(new ReplicaSet.Replica(host, port, createPool(
+					settings, host, port)));
+		}
+		return new ReplicaSet(replicas, settings.getReplication()
+				.getCheckIntervalMillis());
+	}
+
+	/**
+	 * @return the replica to read objectName from, or null to read it from
+	 *         the primary (because there are no healthy replicas, or the
+	 *         table was written to within the read your writes window). The
+	 *         caller must call finished on the replica once it is done.
+	 */
+	private ReplicaSet.Replica chooseReplica(String objectName) {
+		ReplicaSet replicas = this.getReplicas();
+		if (replicas == null) {
+			return null;
+		}
+		long window = Config.get().getReplication().getReadYourWritesMillis();
+		Long lastWrite = objectName == null ? null : lastWrites.get(objectName);
+		if (window > 0 && lastWrite != null
+				&& System.nanoTime() - lastWrite < window * 1000000L) {
+			return null;
+		}
+		return replicas.choose();
+	}
+
+	/**
+	 * Notes that objectName has just been written to (through this data
+	 * source, or another server, see MySqlVersionStore), so that it is read
+	 * from the primary for the read your writes window.
+	 */
+	void recordWrite(String objectName) {
+		if (objectName != null) {
+			lastWrites.put(objectName, System.nanoTime());
+		}
+	}
+
+	/**
+	 * @return the results of select, read from a connection in connections.
+	 */
+	private DataObjectArray retrieve(ConnectionPool connections,
+			CompiledStatement select, QueryMetrics metrics)
+			throws SQLException {
+		long start = System.nanoTime();
+		boolean failed = true;
+		Connection dbConnection = null;
+		PreparedStatement statement = null;
+		ResultSet resultSet = null;
 		try {
-			dbConnection = ds.getConnection();
-		} catch (SQLException e) {
-			e.printStackTrace();
+			dbConnection = borrow(connections, metrics);
+			statement = select.prepare(dbConnection);
+			// resultSet holds the result of executing the query on the
+			// database.
+			resultSet = statement.executeQuery();
+			// Convert resultSet to a DataObjectArray (the type used by
+			// Javango).
+			DataObjectArray results = ResultSetToDataObjectArray.convert(
+					resultSet, select.getSql(), metrics);
+			failed = false;
+			analyze(metrics, select, connections);
+			return results;
+		} finally {
+			// Ensure database connection is closed.
+			close(connections, dbConnection, statement, resultSet);
+			record(metrics, select, start, failed);
 		}
 	}
 
 	/**
-	 * Close connection to the database.
+	 * @return a cursor over the results of select, which owns a connection
+	 *         from connections until it is closed (and then tells replica, if
+	 *         it is not null, that the read has finished). Only the time taken
+	 *         to open the cursor is recorded as the call's latency, its rows
+	 *         are recorded when it is closed.
 	 */
-	private void close() {
+	private DataCursor stream(ConnectionPool connections,
+			CompiledStatement select, ReplicaSet.Replica replica,
+			QueryMetrics metrics) throws SQLException {
+		long start = System.nanoTime();
+		Connection connection = null;
+		PreparedStatement streamStatement = null;
 		try {
-			if (resultSet != null) {
-				resultSet.close();
+			connection = borrow(connections, metrics);
+			int fetchSize = Config.get().getDatabase().getStreamFetchSize();
+			// Integer.MIN_VALUE tells the MySQL driver to stream rows one by
+			// one, otherwise rows are fetched fetchSize at a time using a
+			// server-side cursor.
+			streamStatement = select.prepareForStreaming(connection,
+					fetchSize > 0 ? fetchSize : Integer.MIN_VALUE);
+			DataCursor cursor = new MySqlCursor(connections, connection,
+					streamStatement, streamStatement.executeQuery(),
+					select.getSql(), replica, metrics);
+			record(metrics, select, start, false);
+			analyze(metrics, select, connections);
+			return cursor;
+		} catch (SQLException e) {
+			record(metrics, select, start, true);
+			try {
+				if (streamStatement != null) {
+					streamStatement.close();
+				}
+			} catch (SQLException ignored) {
+				// Connection is released below regardless.
 			}
-			if (statement != null) {
-				statement.close();
+			connections.release(connection);
+			throw e;
+		}
+	}
+
+	/**
+	 * Resizes the pool when pool settings change. If the database itself
+	 * changed, a new pool is created and the old one is closed (connections
+	 * which are still borrowed from it are closed when they are released).
+	 * Invalid pool settings are logged and ignored.
+	 */
+	private synchronized void reconfigure(Settings previous,
+			Settings current) {
+		if (pool == null) {
+			return;
+		}
+		if (!previous.getDatabase().equals(current.getDatabase())
+				|| previous.getReplication().getCheckIntervalMillis() != current
+						.getReplication().getCheckIntervalMillis()) {
+			ConnectionPool old = pool;
+			ReplicaSet oldReplicas = replicas;
+			pool = createPool(current);
+			replicas = createReplicas(current);
+			old.close();
+			if (oldReplicas != null) {
+				oldReplicas.close();
 			}
-			if (dbConnection != null) {
-				dbConnection.close();
+			return;
+		}
+		Settings.Pool poolSettings = current.getPool();
+		try {
+			configure(pool, poolSettings);
+			if (replicas != null) {
+				for (ReplicaSet.Replica replica : replicas.getReplicas()) {
+					configure(replica.getPool(), poolSettings);
+				}
 			}
-		} catch (Exception e) {
-			// TODO Handle exception?
+		} catch (IllegalArgumentException e) {
+			// Settings refuses invalid pool bounds, but keep the current ones
+			// (rather than killing the watcher thread) if any get through.
+			e.printStackTrace();
 		}
 	}
 
+	private static void configure(ConnectionPool pool,
+			Settings.Pool poolSettings) {
+		pool.setSizes(poolSettings.getMinSize(), poolSettings.getMaxSize());
+		pool.setIdleTimeoutMillis(poolSettings.getIdleTimeoutMillis());
+		pool.setBorrowTimeoutMillis(poolSettings.getBorrowTimeoutMillis());
+		pool.setValidationIntervalMillis(poolSettings
+				.getValidationIntervalMillis());
+	}
+
 	/**
-	 * @param query
-	 *            is query for the database.
-	 * @return a valid SQL SELECT statement.
+	 * Builds the JDBC MysqlDataSource which the pool uses to open new
+	 * connections. The database details come from the application's
+	 * configuration (see co.gitm.javango.config.Settings), i.e. from the
+	 * RDS_* system properties used by Elastic Beanstalk or from the database
+	 * section of database.xml.
 	 */
-	private String queryToSelectStatement(Query query) {
-		// Generate first part of SELECT statement (not including WHERE and
-		// ORDER clauses).
-		String select = String
-				.format("SELECT * FROM %s", query.getObjectName());
-		String where = "";
-		// Build WHERE clause if query object has an associated filter.
-		if (query.getFilter() != null) {
-			where = String.format("WHERE %s", mapToString(query.getFilter()));
-		}
-		// Build ORDER clause if query object has an associated order.
-		// TODO Finish ORDER clause support...it probably won't work currently.
-		String order = "";
-		if (query.getOrder() != null) {
-			order = String.format("ORDER %s", query.getOrder());
-		}
-		// Return the full SELECT statement.
-		return String.format("%s %s %s", select, where, order);
+	private static MysqlDataSource createConnectionFactory(
+			Settings.Database dbSettings, String host, int port) {
+		MysqlDataSource ds = new MysqlDataSource();
+		ds.setUser(dbSettings.getUser());
+		ds.setPassword(dbSettings.getPassword());
+		ds.setServerName(host);
+		ds.setPort(port);
+		ds.setDatabaseName(dbSettings.getName());
+		// Send batches of INSERTs (see createAll) as multi-row INSERTs.
+		ds.setRewriteBatchedStatements(true);
+		// Needed for stream to fetch rows in batches (see
+		// Settings.Database.getStreamFetchSize).
+		if (dbSettings.getStreamFetchSize() > 0) {
+			ds.setUseCursorFetch(true);
+		}
+		// Keep server-side prepared statements open on each (pooled)
+		// connection, so that each query shape is only parsed by MySQL once
+		// per connection.
+		int cacheSize = dbSettings.getPreparedStatementCacheSize();
+		if (cacheSize > 0) {
+			try {
+				ds.setUseServerPrepStmts(true);
+				ds.setCachePrepStmts(true);
+				ds.setPrepStmtCacheSize(cacheSize);
+				ds.setPrepStmtCacheSqlLimit(4096);
+			} catch (SQLException e) {
+				// Statements still work, they just won't be cached.
+				e.printStackTrace();
+			}
+		}
+		return ds;
 	}
 
 	/**
-	 * @param data
-	 *            object from which to build INSERT statement
-	 * @return a valid SQL INSERT statement.
+	 * Runs an UPDATE or DELETE statement on a pooled connection.
+	 * 
+	 * @param operation
+	 *            which the statement's metrics are recorded under.
+	 * @return number of rows changed.
+	 * @throws IllegalStateException
+	 *             if the data source has been closed.
 	 */
-	private String dataObjectToInsertStatement(DataObject data) {
-		// Build statement from dataObject keys and their associated values.
-		String statement = String.format("INSERT INTO %s (%s) VALUES (%s)",
-				data.getObjectName(), this.collectionToString(data.keySet())
-						.replace("\"", ""), this.collectionToString(data
-						.values()));
-		return statement;
+	private int executeUpdate(String operation, String objectName,
+			CompiledStatement compiled) throws SQLException {
+		QueryMetrics metrics = MetricsRegistry.forQuery(operation, objectName,
+				compiled.getSql());
+		long start = System.nanoTime();
+		boolean failed = true;
+		ConnectionPool connections = null;
+		Connection dbConnection = null;
+		PreparedStatement statement = null;
+		try {
+			connections = this.getPool();
+			dbConnection = borrow(connections, metrics);
+			statement = compiled.prepare(dbConnection);
+			int count = statement.executeUpdate();
+			metrics.recordRows(count, 0);
+			failed = false;
+			return count;
+		} finally {
+			close(connections, dbConnection, statement, null);
+			record(metrics, compiled, start, failed);
+		}
 	}
 
 	/**
-	 * @param map
-	 *            object to convert into a string
-	 * @return a string representation of the map object.
+	 * Records a call of statement in metrics, and as a slow query if it took
+	 * longer than the diagnostics slowquery setting.
 	 * 
-	 *         This conversion is very specific to the format required by MySQL,
-	 *         which is why it's done here as opposed to being performed using
-	 *         an override on the Map toString method.
+	 * @param start
+	 *            System.nanoTime when the call started.
 	 */
-	private String mapToString(Map map) {
-		String mapStr = "";
-		// Get iterator.
-		Iterator<Map.Entry> itr = map.entrySet().iterator();
-		// Use iterator to iterate over map entries and build a string
-		// representation of it.
-		while (itr.hasNext()) {
-			Map.Entry<String, String> entry = (Map.Entry<String, String>) itr
-					.next();
-			String keyAndValue = String.format("%s=\"%s\" ", entry.getKey(),
-					entry.getValue());
-			if (itr.hasNext()) {
-				keyAndValue = keyAndValue + "AND ";
-			}
-			mapStr = mapStr + keyAndValue;
+	private static void record(QueryMetrics metrics,
+			CompiledStatement statement, long start, boolean failed) {
+		long nanos = System.nanoTime() - start;
+		metrics.recordCall(nanos, failed);
+		long slowMillis = Config.get().getDiagnostics().getSlowQueryMillis();
+		if (slowMillis > 0 && nanos >= slowMillis * 1000000L) {
+			QueryDiagnostics.addSlowQuery(new SlowQuery(metrics
+					.getOperation(), metrics.getModel(), statement.getSql(),
+					statement.getParameters(), nanos));
+		}
+	}
+
+	/**
+	 * Has the plan of select read in the background (see QueryPlanAnalyzer),
+	 * if it is new and the diagnostics explain setting is on.
+	 */
+	private static void analyze(QueryMetrics metrics,
+			CompiledStatement select, ConnectionPool connections) {
+		if (Config.get().getDiagnostics().isExplainEnabled()) {
+			QueryPlanAnalyzer.analyze(metrics.getModel(), select, connections);
 		}
-		return mapStr;
 	}
 
 	/**
-	 * @param collection
-	 *            to be converted into a string.
-	 * @return a string representation of the collection.
+	 * Borrows a connection from connections, recording how long it took in
+	 * metrics.
+	 */
+	private static Connection borrow(ConnectionPool connections,
+			QueryMetrics metrics) throws SQLException {
+		long start = System.nanoTime();
+		try {
+			return connections.borrow();
+		} finally {
+			metrics.recordConnectionWait(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Adds the size of each pool (the primary's and the replicas') and the
+	 * health of each replica to out.
+	 */
+	private void collectPoolMetrics(PrometheusWriter out) {
+		ConnectionPool primary;
+		ReplicaSet replicaSet;
+		synchronized (this) {
+			primary = pool;
+			replicaSet = replicas;
+		}
+		if (primary != null) {
+			collectPoolMetrics(out, primary, "primary");
+		}
+		if (replicaSet == null) {
+			return;
+		}
+		for (ReplicaSet.Replica replica : replicaSet.getReplicas()) {
+			String name = replica.getHost() + ":" + replica.getPort();
+			collectPoolMetrics(out, replica.getPool(), name);
+			out.gauge("javango_replica_healthy",
+					"Whether reads are sent to a replica (1) or not (0).",
+					replica.isHealthy() ? 1 : 0, "replica", name);
+			out.gauge("javango_replica_lag_seconds",
+					"Replication lag at the last health check (-1 if unknown).",
+					replica.getLagSeconds(), "replica", name);
+			out.gauge("javango_replica_outstanding",
+					"Reads currently running on a replica.",
+					replica.getOutstanding(), "replica", name);
+			out.counter("javango_replica_ejections_total",
+					"Times a replica was ejected.",
+					replica.getEjectionCount(), "replica", name);
+		}
+	}
+
+	private static void collectPoolMetrics(PrometheusWriter out,
+			ConnectionPool pool, String name) {
+		out.gauge("javango_pool_active", "Connections currently borrowed.",
+				pool.getActiveCount(), "pool", name);
+		out.gauge("javango_pool_idle", "Idle connections.",
+				pool.getIdleCount(), "pool", name);
+		out.gauge("javango_pool_max", "Most connections the pool may open.",
+				pool.getMaxSize(), "pool", name);
+		out.counter("javango_pool_borrows_total", "Connections borrowed.",
+				pool.getBorrowCount(), "pool", name);
+		out.counter("javango_pool_timeouts_total",
+				"Borrows which timed out waiting for a connection.",
+				pool.getTimeoutCount(), "pool", name);
+		out.counter("javango_pool_wait_seconds_total",
+				"Total time spent waiting to borrow connections.",
+				pool.getTotalWaitMillis() / 1000, "pool", name);
+	}
+
+	/**
+	 * Executes and closes a batch statement.
 	 * 
-	 *         Again, the returned string is in a SQL friendly format.
+	 * @return null, which the caller should use as its statement from then on.
 	 */
-	private String collectionToString(Collection collection) {
-		String collectionStr = "";
-		// Get iterator.
-		Iterator itr = collection.iterator();
-		collectionStr = String.format("\"%s\"", itr.next());
-		// Use iterator to iterate over collection and build a string
-		// representation of it.
-		while (itr.hasNext()) {
-			collectionStr = String.format("%s, \"%s\"", collectionStr,
-					itr.next());
-		}
-		return collectionStr;
+	private static PreparedStatement executeBatch(PreparedStatement statement)
+			throws SQLException {
+		if (statement == null) {
+			return null;
+		}
+		statement.executeBatch();
+		statement.close();
+		return null;
+	}
+
+	/**
+	 * Rolls back the current transaction, ignoring any error (the connection
+	 * is validated before it is reused anyway).
+	 */
+	private static void rollback(Connection dbConnection) {
+		try {
+			if (dbConnection != null) {
+				dbConnection.rollback();
+			}
+		} catch (SQLException e) {
+			// Nothing more can be done.
+		}
+	}
+
+	/**
+	 * @return the position of the object which made a batch fail, or -1 if
+	 *         the driver does not say. A rewritten (multi-row) batch fails as a
+	 *         whole, so the driver marks every one of its statements
+	 *         EXECUTE_FAILED and the object which failed is not known.
+	 */
+	private static int failedIndex(SQLException e, int batchStart) {
+		if (!(e instanceof BatchUpdateException)) {
+			return -1;
+		}
+		int[] counts = ((BatchUpdateException) e).getUpdateCounts();
+		if (counts == null || counts.length == 0) {
+			return -1;
+		}
+		int failed = -1;
+		int failedCount = 0;
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] == Statement.EXECUTE_FAILED) {
+				if (failed < 0) {
+					failed = i;
+				}
+				failedCount++;
+			}
+		}
+		if (failedCount == 0) {
+			// The driver stopped at the first failing statement, so the
+			// counts only cover the ones before it.
+			return batchStart + counts.length;
+		}
+		if (failedCount == counts.length && counts.length > 1) {
+			return -1;
+		}
+		return batchStart + failed;
+	}
+
+	/**
+	 * Close statement and result set (either may be null) and release the
+	 * connection back to the pool it was borrowed from (which is not
+	 * necessarily the current pool, see reconfigure).
+	 */
+	private static void close(ConnectionPool connections,
+			Connection dbConnection, Statement statement, ResultSet resultSet) {
+		try {
+			if (resultSet != null) {
+				resultSet.close();
+			}
+			if (statement != null) {
+				statement.close();
+			}
+		} catch (Exception e) {
+			// TODO Handle exception?
+		} finally {
+			if (connections != null) {
+				connections.release(dbConnection);
+			}
+		}
 	}
 }
@@ -0,0 +1,222 @@
+package co.gitm.javango.data.mysql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import co.gitm.javango.config.Config;
+import co.gitm.javango.config.Settings;
+import co.gitm.javango.model.VersionStore;
+
+/**
+ * Keeps model versions in a small table on the primary of a MySqlDataSource, so
+ * that every server which shares the database sees the same versions (and so
+ * hands out the same ETags):
+ *
+ * <pre>
+ * CREATE TABLE javango_versions (
+ * 	model VARCHAR(255) NOT NULL PRIMARY KEY,
+ * 	version BIGINT NOT NULL)
+ * </pre>
+ *
+ * The table (named by the versions table setting) is created on first use if it
+ * does not exist. Increments are a single upsert. Reads are kept for the
+ * versions refreshinterval setting, so polling clients cost at most one small
+ * query per model per interval; a server's own writes are seen straight away.
+ *
+ * When a write made through another server is seen, the model is read from the
+ * primary for the read your writes window (see MySqlDataSource), so that a
+ * lagging replica does not return data from before the write under the new
+ * version.
+ *
+ * If an increment fails, the model's version is UNKNOWN (so no ETags are handed
+ * out for it) until a later increment succeeds.
+ *
+ */
+public class MySqlVersionStore implements VersionStore {
+	private static final class CachedVersion {
+		long version = UNKNOWN;
+		// System.nanoTime() when the version was read, 0 if never.
+		long readAt = 0;
+	}
+
+	private final MySqlDataSource dataSource;
+	private final ConcurrentHashMap<String, CachedVersion> versions = new ConcurrentHashMap<String, CachedVersion>();
+	// Models whose last increment failed.
+	private final Set<String> missedIncrements = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	// Name of the table which has been created (or found), if any.
+	private volatile String createdTable = null;
+
+	/**
+	 * @param dataSource
+	 *            whose primary holds the versions table.
+	 */
+	public MySqlVersionStore(MySqlDataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	@Override
+	public long getVersion(String modelName) {
+		if (!missedIncrements.isEmpty() && missedIncrements.contains(modelName)
+				&& !this.tryIncrement(modelName)) {
+			return UNKNOWN;
+		}
+		CachedVersion cached = this.cachedVersionOf(modelName);
+		long refreshNanos = Config.get().getVersions()
+				.getRefreshIntervalMillis() * 1000000L;
+		synchronized (cached) {
+			if (cached.readAt != 0
+					&& System.nanoTime() - cached.readAt < refreshNanos) {
+				return cached.version;
+			}
+			long previous = cached.version;
+			try {
+				cached.version = this.read(modelName);
+				cached.readAt = System.nanoTime();
+			} catch (SQLException e) {
+				cached.readAt = 0;
+				return UNKNOWN;
+			} catch (RuntimeException e) {
+				// E.g. the data source has been closed.
+				cached.readAt = 0;
+				return UNKNOWN;
+			}
+			if (previous != UNKNOWN && cached.version != previous) {
+				// Written to through another server (this server's writes
+				// have already been recorded by the data source).
+				dataSource.recordWrite(modelName);
+			}
+			return cached.version;
+		}
+	}
+
+	@Override
+	public void increment(String modelName) {
+		this.tryIncrement(modelName);
+	}
+
+	/**
+	 * Bumps the version of modelName in the table, and makes the next
+	 * getVersion read it again.
+	 *
+	 * @return whether the version was bumped.
+	 */
+	private boolean tryIncrement(String modelName) {
+		CachedVersion cached = this.cachedVersionOf(modelName);
+		boolean incremented;
+		try {
+			this.incrementRow(modelName);
+			incremented = true;
+		} catch (SQLException e) {
+			incremented = false;
+			System.err.println(String.format(
+					"Could not increment the version of %s: %s", modelName,
+					e.getMessage()));
+		} catch (RuntimeException e) {
+			incremented = false;
+		}
+		if (incremented) {
+			missedIncrements.remove(modelName);
+		} else {
+			missedIncrements.add(modelName);
+		}
+		synchronized (cached) {
+			// This server's own write, so not a reason to read from the
+			// primary (the data source has already recorded it).
+			cached.version = UNKNOWN;
+			cached.readAt = 0;
+		}
+		return incremented;
+	}
+
+	private CachedVersion cachedVersionOf(String modelName) {
+		CachedVersion cached = versions.get(modelName);
+		if (cached == null) {
+			CachedVersion newCached = new CachedVersion();
+			cached = versions.putIfAbsent(modelName, newCached);
+			if (cached == null) {
+				cached = newCached;
+			}
+		}
+		return cached;
+	}
+
+	/**
+	 * @return the version of modelName in the table (0 if it has none).
+	 */
+	private long read(String modelName) throws SQLException {
+		ConnectionPool connections = dataSource.getPool();
+		Connection connection = connections.borrow();
+		PreparedStatement statement = null;
+		ResultSet result = null;
+		try {
+			String table = this.ensureTable(connection);
+			statement = connection.prepareStatement("SELECT version FROM "
+					+ table + " WHERE model = ?");
+			statement.setString(1, modelName);
+			result = statement.executeQuery();
+			return result.next() ? result.getLong(1) : 0;
+		} finally {
+			if (result != null) {
+				result.close();
+			}
+			if (statement != null) {
+				statement.close();
+			}
+			connections.release(connection);
+		}
+	}
+
+	/**
+	 * Adds one to the version of modelName in the table (setting it to 1 if
+	 * it has none).
+	 */
+	private void incrementRow(String modelName) throws SQLException {
+		ConnectionPool connections = dataSource.getPool();
+		Connection connection = connections.borrow();
+		PreparedStatement statement = null;
+		try {
+			String table = this.ensureTable(connection);
+			statement = connection.prepareStatement("INSERT INTO " + table
+					+ " (model, version) VALUES (?, 1)"
+					+ " ON DUPLICATE KEY UPDATE version = version + 1");
+			statement.setString(1, modelName);
+			statement.executeUpdate();
+		} finally {
+			if (statement != null) {
+				statement.close();
+			}
+			connections.release(connection);
+		}
+	}
+
+	/**
+	 * Creates the versions table, unless it has already been created (or
+	 * found) by this store.
+	 *
+	 * @return the quoted name of the table.
+	 */
+	private String ensureTable(Connection connection) throws SQLException {
+		Settings.Versions settings = Config.get().getVersions();
+		String table = QueryCompiler.quote(settings.getTable());
+		if (table.equals(createdTable)) {
+			return table;
+		}
+		Statement statement = connection.createStatement();
+		try {
+			statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + table
+					+ " (model VARCHAR(255) NOT NULL PRIMARY KEY,"
+					+ " version BIGINT NOT NULL)");
+		} finally {
+			statement.close();
+		}
+		createdTable = table;
+		return table;
+	}
+}
@@ -0,0 +1,432 @@
+package co.gitm.javango.data.mysql;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import co.gitm.javango.data.DataObject;
+import co.gitm.javango.data.Query;
+
+/**
+ * Turns Query and DataObject objects into parameterized SQL statements. Values
+ * are never written into the SQL text, they are bound to ? placeholders
+ * instead, which means that a filter value cannot inject SQL and that every
+ * query with the same shape (table, selected fields, filter fields, order and
+ * paging) produces exactly the same SQL text.
+ *
+ * The SQL text for each shape is built once and cached, so repeated queries
+ * (e.g. /books?authors=...) only have to collect their values. Table and column
+ * names cannot be bound, so they are checked against a strict identifier
+ * pattern and quoted.
+ *
+ * Instances are thread safe.
+ *
+ */
+public class QueryCompiler {
+	// Shapes are normally bounded by the fields of each model, but insert
+	// column names come straight from clients, so stop caching new shapes
+	// once this many have been seen.
+	private static final int MAX_CACHED_SHAPES = 1000;
+
+	private static final String SELECT = "SELECT";
+	private static final String INSERT = "INSERT";
+	private static final String UPDATE = "UPDATE";
+	private static final String DELETE = "DELETE";
+
+	// Flags describing the parts of a SELECT's shape beyond its filter and
+	// order.
+	private static final int DESCENDING = 1;
+	private static final int LIMIT = 2;
+	private static final int OFFSET = 4;
+	private static final int SEEK = 8;
+
+	// MySQL has no OFFSET without LIMIT, this is the largest possible LIMIT.
+	private static final String NO_LIMIT = "18446744073709551615";
+
+	/**
+	 * Identifies the shape of a statement. Two statements with equal keys
+	 * have identical SQL text.
+	 */
+	private static final class ShapeKey {
+		private final String kind;
+		private final String objectName;
+		private final String[] fields;
+		private final String[] columns;
+		private final String order;
+		private final String keyField;
+		private final int flags;
+		private final int hash;
+
+		ShapeKey(String kind, String objectName, String[] fields,
+				String[] columns, String order, String keyField, int flags) {
+			this.kind = kind;
+			this.objectName = objectName;
+			this.fields = fields;
+			this.columns = columns;
+			this.order = order;
+			this.keyField = keyField;
+			this.flags = flags;
+			int h = kind.hashCode();
+			h = 31 * h + (objectName == null ? 0 : objectName.hashCode());
+			h = 31 * h + Arrays.hashCode(fields);
+			h = 31 * h + Arrays.hashCode(columns);
+			h = 31 * h + (order == null ? 0 : order.hashCode());
+			h = 31 * h + (keyField == null ? 0 : keyField.hashCode());
+			h = 31 * h + flags;
+			this.hash = h;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof ShapeKey)) {
+				return false;
+			}
+			ShapeKey that = (ShapeKey) other;
+			return hash == that.hash && kind.equals(that.kind)
+					&& equal(objectName, that.objectName)
+					&& flags == that.flags && Arrays.equals(fields, that.fields)
+					&& Arrays.equals(columns, that.columns)
+					&& equal(order, that.order)
+					&& equal(keyField, that.keyField);
+		}
+	}
+
+	private final ConcurrentHashMap<ShapeKey, String> shapes = new ConcurrentHashMap<ShapeKey, String>();
+
+	/**
+	 * @param query
+	 *            is query for the database.
+	 * @return a parameterized SQL SELECT statement. Queries which ask for a
+	 *         page (limit, offset or seek) are always ordered, by their order
+	 *         field and/or their keyField.
+	 * @throws IllegalArgumentException
+	 *             if the query refers to an invalid table or column name, or
+	 *             seeks without an order or keyField.
+	 */
+	public CompiledStatement compileSelect(Query query) {
+		Map<String, String> filter = query.getFilter();
+		// Sort the filter fields so that the same filter always produces the
+		// same shape, whatever order its entries are in.
+		String[] fields = sortedKeys(filter);
+		int flags = 0;
+		if (query.isDescending()) {
+			flags |= DESCENDING;
+		}
+		if (query.getLimit() != null) {
+			flags |= LIMIT;
+		}
+		if (query.getOffset() > 0) {
+			flags |= OFFSET;
+		}
+		if (query.isSeek()) {
+			flags |= SEEK;
+		}
+		// The keyField only matters when it is needed to order results.
+		String keyField = (flags & (LIMIT | OFFSET | SEEK)) != 0
+				|| query.getOrder() != null ? query.getKeyField() : null;
+		// Columns to select, or null to select all of them.
+		String[] columns = selectedColumns(query.getFields(),
+				query.getOrder(), keyField);
+		ShapeKey key = new ShapeKey(SELECT, query.getObjectName(), fields,
+				columns, query.getOrder(), keyField, flags);
+		String sql = shapes.get(key);
+		if (sql == null) {
+			sql = this.buildSelect(query.getObjectName(), fields, columns,
+					query.getOrder(), keyField, flags);
+			this.cache(key, sql);
+		}
+		Object[] parameters = new Object[fields.length + 5];
+		int n = 0;
+		for (int i = 0; i < fields.length; i++) {
+			parameters[n++] = filter.get(fields[i]);
+		}
+		if ((flags & SEEK) != 0) {
+			if (query.hasTieBreaker()) {
+				parameters[n++] = query.getSeekOrderValue();
+				parameters[n++] = query.getSeekOrderValue();
+				parameters[n++] = query.getSeekKeyValue();
+			} else if (query.getOrder() != null) {
+				parameters[n++] = query.getSeekOrderValue();
+			} else {
+				parameters[n++] = query.getSeekKeyValue();
+			}
+		}
+		if ((flags & LIMIT) != 0) {
+			parameters[n++] = query.getLimit();
+		}
+		if ((flags & OFFSET) != 0) {
+			parameters[n++] = query.getOffset();
+		}
+		return new CompiledStatement(sql, n == parameters.length ? parameters
+				: Arrays.copyOf(parameters, n));
+	}
+
+	/**
+	 * @param data
+	 *            object from which to build INSERT statement
+	 * @return a parameterized SQL INSERT statement.
+	 * @throws IllegalArgumentException
+	 *             if the object has no fields, or refers to an invalid table or
+	 *             column name.
+	 */
+	public CompiledStatement compileInsert(DataObject data) {
+		String[] fields = sortedKeys(data);
+		if (fields.length == 0) {
+			throw new IllegalArgumentException(
+					"Cannot insert an object with no fields.");
+		}
+		ShapeKey key = new ShapeKey(INSERT, data.getObjectName(), fields,
+				null, null, null, 0);
+		String sql = shapes.get(key);
+		if (sql == null) {
+			sql = this.buildInsert(data.getObjectName(), fields);
+			this.cache(key, sql);
+		}
+		Object[] parameters = new Object[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			parameters[i] = data.get(fields[i]);
+		}
+		return new CompiledStatement(sql, parameters);
+	}
+
+	/**
+	 * @param query
+	 *            whose filter selects the rows to update (its order, paging
+	 *            and fields are ignored).
+	 * @param changes
+	 *            columns to set, and their new values.
+	 * @return a parameterized SQL UPDATE statement.
+	 * @throws IllegalArgumentException
+	 *             if there are no changes, or they (or the query) refer to an
+	 *             invalid table or column name.
+	 */
+	public CompiledStatement compileUpdate(Query query, DataObject changes) {
+		String[] columns = sortedKeys(changes);
+		if (columns.length == 0) {
+			throw new IllegalArgumentException(
+					"Cannot update an object with no fields.");
+		}
+		Map<String, String> filter = query.getFilter();
+		String[] fields = sortedKeys(filter);
+		ShapeKey key = new ShapeKey(UPDATE, query.getObjectName(), fields,
+				columns, null, null, 0);
+		String sql = shapes.get(key);
+		if (sql == null) {
+			sql = this.buildUpdate(query.getObjectName(), fields, columns);
+			this.cache(key, sql);
+		}
+		Object[] parameters = new Object[columns.length + fields.length];
+		for (int i = 0; i < columns.length; i++) {
+			parameters[i] = changes.get(columns[i]);
+		}
+		for (int i = 0; i < fields.length; i++) {
+			parameters[columns.length + i] = filter.get(fields[i]);
+		}
+		return new CompiledStatement(sql, parameters);
+	}
+
+	/**
+	 * @param query
+	 *            whose filter selects the rows to delete (its order, paging
+	 *            and fields are ignored).
+	 * @return a parameterized SQL DELETE statement.
+	 * @throws IllegalArgumentException
+	 *             if the query refers to an invalid table or column name.
+	 */
+	public CompiledStatement compileDelete(Query query) {
+		Map<String, String> filter = query.getFilter();
+		String[] fields = sortedKeys(filter);
+		ShapeKey key = new ShapeKey(DELETE, query.getObjectName(), fields,
+				null, null, null, 0);
+		String sql = shapes.get(key);
+		if (sql == null) {
+			StringBuilder delete = new StringBuilder("DELETE FROM ");
+			delete.append(quote(query.getObjectName()));
+			appendWhere(delete, fields);
+			sql = delete.toString();
+			this.cache(key, sql);
+		}
+		Object[] parameters = new Object[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			parameters[i] = filter.get(fields[i]);
+		}
+		return new CompiledStatement(sql, parameters);
+	}
+
+	/**
+	 * @return number of statement shapes currently cached.
+	 */
+	public int getCachedShapeCount() {
+		return shapes.size();
+	}
+
+	private String buildSelect(String objectName, String[] fields,
+			String[] columns, String order, String keyField, int flags) {
+		StringBuilder sql = new StringBuilder("SELECT ");
+		if (columns == null) {
+			sql.append('*');
+		} else {
+			for (int i = 0; i < columns.length; i++) {
+				if (i > 0) {
+					sql.append(", ");
+				}
+				sql.append(quote(columns[i]));
+			}
+		}
+		sql.append(" FROM ").append(quote(objectName));
+		// Build WHERE clause if query object has an associated filter.
+		appendWhere(sql, fields);
+		String sortField = order != null ? order : keyField;
+		boolean tieBreaker = keyField != null && order != null
+				&& !order.equals(keyField);
+		String direction = (flags & DESCENDING) != 0 ? " DESC" : "";
+		// Only return results after the seek position, e.g.
+		// (order > ? OR (order = ? AND key > ?)).
+		if ((flags & SEEK) != 0) {
+			if (sortField == null) {
+				throw new IllegalArgumentException(
+						"Seeking requires an order or key field.");
+			}
+			String after = (flags & DESCENDING) != 0 ? " < ?" : " > ?";
+			sql.append(fields.length == 0 ? " WHERE " : " AND ");
+			if (tieBreaker) {
+				sql.append('(').append(quote(order)).append(after)
+						.append(" OR (").append(quote(order))
+						.append(" = ? AND ").append(quote(keyField))
+						.append(after).append("))");
+			} else {
+				sql.append(quote(sortField)).append(after);
+			}
+		}
+		// Build ORDER BY clause if query object has an associated order, or
+		// if it asks for a page (which is meaningless without an order).
+		if (sortField != null) {
+			sql.append(" ORDER BY ").append(quote(sortField))
+					.append(direction);
+			if (tieBreaker) {
+				sql.append(", ").append(quote(keyField)).append(direction);
+			}
+		}
+		if ((flags & LIMIT) != 0) {
+			sql.append(" LIMIT ?");
+		} else if ((flags & OFFSET) != 0) {
+			sql.append(" LIMIT ").append(NO_LIMIT);
+		}
+		if ((flags & OFFSET) != 0) {
+			sql.append(" OFFSET ?");
+		}
+		return sql.toString();
+	}
+
+	private String buildInsert(String objectName, String[] fields) {
+		StringBuilder sql = new StringBuilder("INSERT INTO ");
+		sql.append(quote(objectName)).append(" (");
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0) {
+				sql.append(", ");
+			}
+			sql.append(quote(fields[i]));
+		}
+		sql.append(") VALUES (");
+		for (int i = 0; i < fields.length; i++) {
+			sql.append(i == 0 ? "?" : ", ?");
+		}
+		return sql.append(')').toString();
+	}
+
+	private String buildUpdate(String objectName, String[] fields,
+			String[] columns) {
+		StringBuilder sql = new StringBuilder("UPDATE ");
+		sql.append(quote(objectName)).append(" SET ");
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				sql.append(", ");
+			}
+			sql.append(quote(columns[i])).append(" = ?");
+		}
+		appendWhere(sql, fields);
+		return sql.toString();
+	}
+
+	/**
+	 * Appends a WHERE clause matching every filter field (if there are any).
+	 */
+	private static void appendWhere(StringBuilder sql, String[] fields) {
+		for (int i = 0; i < fields.length; i++) {
+			sql.append(i == 0 ? " WHERE " : " AND ");
+			sql.append(quote(fields[i])).append(" = ?");
+		}
+	}
+
+	private void cache(ShapeKey key, String sql) {
+		if (shapes.size() < MAX_CACHED_SHAPES) {
+			shapes.putIfAbsent(key, sql);
+		}
+	}
+
+	/**
+	 * @param identifier
+	 *            table or column name.
+	 * @return the identifier quoted for MySQL.
+	 * @throws IllegalArgumentException
+	 *             if the identifier contains anything other than letters,
+	 *             digits, '_' or '$'.
+	 */
+	static String quote(String identifier) {
+		if (identifier == null || identifier.length() == 0) {
+			throw new IllegalArgumentException("Missing table or column name.");
+		}
+		for (int i = 0; i < identifier.length(); i++) {
+			char c = identifier.charAt(i);
+			if (!(Character.isLetterOrDigit(c) || c == '_' || c == '$')) {
+				throw new IllegalArgumentException(String.format(
+						"Invalid table or column name: \"%s\".", identifier));
+			}
+		}
+		return "`" + identifier + "`";
+	}
+
+	/**
+	 * @return the sorted, distinct columns to select for a projection, plus
+	 *         the order and key fields (which are needed to build page
+	 *         tokens), or null if the query has no projection.
+	 */
+	private static String[] selectedColumns(List<String> projection,
+			String order, String keyField) {
+		if (projection == null || projection.isEmpty()) {
+			return null;
+		}
+		TreeSet<String> columns = new TreeSet<String>(projection);
+		if (order != null) {
+			columns.add(order);
+		}
+		if (keyField != null) {
+			columns.add(keyField);
+		}
+		return columns.toArray(new String[columns.size()]);
+	}
+
+	private static String[] sortedKeys(Map<?, ?> map) {
+		if (map == null || map.isEmpty()) {
+			return new String[0];
+		}
+		String[] keys = new String[map.size()];
+		int i = 0;
+		for (Object key : map.keySet()) {
+			keys[i++] = String.valueOf(key);
+		}
+		Arrays.sort(keys);
+		return keys;
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
@@ -0,0 +1,187 @@
+package co.gitm.javango.data.mysql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import co.gitm.javango.metrics.QueryDiagnostics;
+import co.gitm.javango.metrics.QueryPlan;
+
+/**
+ * Reads the plan of each new SELECT shape with EXPLAIN, on a single background
+ * thread, the first time a MySqlDataSource runs it (with the values of that
+ * first call, on the same pool). Plans are recorded in QueryDiagnostics, which
+ * logs the ones which scan a whole table, use a filesort or build a temporary
+ * table, e.g. when a client filters on a column which has no index.
+ *
+ * Shapes are only analyzed once. Analysis never holds up the call which
+ * triggered it: if the analyzer is already behind, the shape is analyzed the
+ * next time it is run instead.
+ *
+ */
+class QueryPlanAnalyzer {
+	// Shapes which may wait to be analyzed.
+	private static final int MAX_QUEUED = 100;
+	private static final int EXPLAIN_TIMEOUT_SECONDS = 5;
+
+	// Shapes which are queued (or being analyzed).
+	private static final Set<String> pending = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private static final ThreadPoolExecutor explainer = new ThreadPoolExecutor(
+			1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
+					MAX_QUEUED), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable task) {
+					Thread thread = new Thread(task, "javango-explain");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	static {
+		// Let the thread stop when there is nothing to analyze.
+		explainer.allowCoreThreadTimeOut(true);
+	}
+
+	private QueryPlanAnalyzer() {
+	}
+
+	/**
+	 * Queues select to be EXPLAINed on a connection from connections, unless
+	 * its shape has already been analyzed.
+	 *
+	 * @param model
+	 *            name of the table select reads.
+	 */
+	static void analyze(final String model, final CompiledStatement select,
+			final ConnectionPool connections) {
+		final String shape = select.getSql();
+		if (QueryDiagnostics.hasPlan(shape) || !pending.add(shape)) {
+			return;
+		}
+		try {
+			explainer.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						QueryDiagnostics.addPlan(explain(model, select,
+								connections));
+					} finally {
+						pending.remove(shape);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Try again the next time the shape is run.
+			pending.remove(shape);
+		}
+	}
+
+	/**
+	 * @return the plan of select, or a failed plan if it could not be read
+	 *         (e.g. the pool has been closed).
+	 */
+	static QueryPlan explain(String model, CompiledStatement select,
+			ConnectionPool connections) {
+		String shape = select.getSql();
+		Connection connection = null;
+		PreparedStatement statement = null;
+		ResultSet plan = null;
+		try {
+			connection = connections.borrow();
+			statement = connection.prepareStatement("EXPLAIN " + shape);
+			statement.setQueryTimeout(EXPLAIN_TIMEOUT_SECONDS);
+			CompiledStatement.bind(statement, select.getParameters());
+			plan = statement.executeQuery();
+			return readPlan(model, shape, plan);
+		} catch (SQLException e) {
+			return QueryPlan.failed(model, shape, e.getMessage());
+		} catch (RuntimeException e) {
+			return QueryPlan.failed(model, shape, e.toString());
+		} finally {
+			try {
+				if (plan != null) {
+					plan.close();
+				}
+				if (statement != null) {
+					statement.close();
+				}
+			} catch (SQLException e) {
+				// The connection is released below regardless.
+			}
+			if (connection != null) {
+				connections.release(connection);
+			}
+		}
+	}
+
+	/**
+	 * Reads the rows of EXPLAIN's (traditional) output: one per table read,
+	 * with the access type (ALL is a full scan), the key used, the estimated
+	 * number of rows and notes such as "Using filesort".
+	 */
+	private static QueryPlan readPlan(String model, String shape,
+			ResultSet plan) throws SQLException {
+		ResultSetMetaData metaData = plan.getMetaData();
+		int typeColumn = 0;
+		int keyColumn = 0;
+		int rowsColumn = 0;
+		int extraColumn = 0;
+		for (int i = 1; i <= metaData.getColumnCount(); i++) {
+			String label = metaData.getColumnLabel(i);
+			if ("type".equalsIgnoreCase(label)) {
+				typeColumn = i;
+			} else if ("key".equalsIgnoreCase(label)) {
+				keyColumn = i;
+			} else if ("rows".equalsIgnoreCase(label)) {
+				rowsColumn = i;
+			} else if ("Extra".equalsIgnoreCase(label)) {
+				extraColumn = i;
+			}
+		}
+		boolean fullScan = false;
+		boolean filesort = false;
+		boolean temporary = false;
+		long estimatedRows = rowsColumn > 0 ? 0 : -1;
+		Set<String> keys = new LinkedHashSet<String>();
+		while (plan.next()) {
+			if (typeColumn > 0
+					&& "ALL".equalsIgnoreCase(plan.getString(typeColumn))) {
+				fullScan = true;
+			}
+			String key = keyColumn > 0 ? plan.getString(keyColumn) : null;
+			if (key != null) {
+				keys.add(key);
+			}
+			if (rowsColumn > 0) {
+				// Rows read by a join multiply, but the tables of model
+				// queries are only ever read once.
+				estimatedRows = Math.max(estimatedRows,
+						plan.getLong(rowsColumn));
+			}
+			String extra = extraColumn > 0 ? plan.getString(extraColumn)
+					: null;
+			if (extra != null) {
+				filesort |= extra.contains("Using filesort");
+				temporary |= extra.contains("Using temporary");
+			}
+		}
+		String keyList = null;
+		for (String key : keys) {
+			keyList = keyList == null ? key : keyList + "," + key;
+		}
+		return new QueryPlan(model, shape, fullScan, filesort, temporary,
+				estimatedRows, keyList);
+	}
+}
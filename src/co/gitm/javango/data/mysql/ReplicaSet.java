@@ -0,0 +1,339 @@
+package co.gitm.javango.data.mysql;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import co.gitm.javango.config.Config;
+
+/**
+ * The read replicas of a MySqlDataSource, each with its own ConnectionPool.
+ * Reads are sent to the healthy replica with the fewest outstanding requests
+ * (see choose), so that a slow replica gets fewer reads rather than a queue of
+ * them.
+ *
+ * A background task checks every replica at the replication checkinterval
+ * setting: replicas which cannot be reached, whose replication has stopped, or
+ * which are further behind the primary than the replication maxlag setting are
+ * ejected (no reads are sent to them) until they pass a check again. Replicas
+ * are also ejected straight away when a read fails because their connection was
+ * lost. Instances which are not replicating at all (e.g. standalone local MySQL
+ * servers used for testing) are treated as having no lag.
+ *
+ * Instances are thread safe.
+ *
+ */
+public class ReplicaSet {
+	// Number of seconds to wait for a replica's status.
+	private static final int CHECK_TIMEOUT_SECONDS = 2;
+
+	/**
+	 * One read replica.
+	 */
+	public static final class Replica {
+		private final String host;
+		private final int port;
+		private final ConnectionPool pool;
+		// Reads currently running on (or streaming from) the replica.
+		private final AtomicInteger outstanding = new AtomicInteger();
+		private final AtomicLong readCount = new AtomicLong();
+		private final AtomicLong ejectionCount = new AtomicLong();
+		private volatile boolean healthy = true;
+		// Seconds behind the primary at the last check, or -1 if unknown.
+		private volatile long lagSeconds = -1;
+		// Why the replica was ejected, or null if it is healthy.
+		private volatile String problem = null;
+		// Whether the replica only understands SHOW SLAVE STATUS (MySQL
+		// before 8.0.22).
+		private volatile boolean legacyStatus = false;
+
+		Replica(String host, int port, ConnectionPool pool) {
+			this.host = host;
+			this.port = port;
+			this.pool = pool;
+		}
+
+		public String getHost() {
+			return host;
+		}
+
+		public int getPort() {
+			return port;
+		}
+
+		public ConnectionPool getPool() {
+			return pool;
+		}
+
+		public boolean isHealthy() {
+			return healthy;
+		}
+
+		/**
+		 * @return seconds behind the primary at the last check, or -1 if it
+		 *         is not known (yet).
+		 */
+		public long getLagSeconds() {
+			return lagSeconds;
+		}
+
+		/**
+		 * @return why the replica is not being used, or null if it is
+		 *         healthy.
+		 */
+		public String getProblem() {
+			return problem;
+		}
+
+		public int getOutstanding() {
+			return outstanding.get();
+		}
+
+		public long getReadCount() {
+			return readCount.get();
+		}
+
+		public long getEjectionCount() {
+			return ejectionCount.get();
+		}
+
+		/**
+		 * Must be called once for every time the replica is chosen, when the
+		 * read has finished (e.g. when its cursor is closed).
+		 */
+		public void finished() {
+			outstanding.decrementAndGet();
+		}
+
+		/**
+		 * Ejects the replica if e means that it could not be reached (rather
+		 * than that the query was wrong), until it passes a health check.
+		 *
+		 * @return whether the replica was ejected, in which case the read can
+		 *         be retried elsewhere.
+		 */
+		public boolean failed(SQLException e) {
+			String state = e.getSQLState();
+			if (state != null && state.startsWith("08")) {
+				this.eject("Connection failed: " + e.getMessage());
+				return true;
+			}
+			return false;
+		}
+
+		private void eject(String problem) {
+			this.problem = problem;
+			if (healthy) {
+				healthy = false;
+				ejectionCount.incrementAndGet();
+			}
+		}
+
+		private void restore() {
+			problem = null;
+			healthy = true;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"%s:%d [%s, lag %ds, %d outstanding, %d reads]%s", host,
+					port, healthy ? "healthy" : "ejected", lagSeconds,
+					outstanding.get(), readCount.get(), problem == null ? ""
+							: " " + problem);
+		}
+	}
+
+	private final Replica[] replicas;
+	// Where choose starts looking, so that equally loaded replicas take
+	// turns.
+	private final AtomicInteger next = new AtomicInteger();
+	private final Timer checker;
+
+	/**
+	 * @param replicas
+	 *            to spread reads over. Their health is checked straight away,
+	 *            then every checkIntervalMillis.
+	 */
+	public ReplicaSet(List<Replica> replicas, long checkIntervalMillis) {
+		this.replicas = replicas.toArray(new Replica[replicas.size()]);
+		this.checker = new Timer("javango-replica-checker", true);
+		this.checker.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				check();
+			}
+		}, 0, Math.max(100, checkIntervalMillis));
+	}
+
+	/**
+	 * @return the healthy replica with the fewest outstanding reads, or null
+	 *         if none are healthy (in which case the primary should be read
+	 *         from). The caller must call finished on the replica when its
+	 *         read is done.
+	 */
+	public Replica choose() {
+		int n = replicas.length;
+		if (n == 0) {
+			return null;
+		}
+		int start = (next.getAndIncrement() & Integer.MAX_VALUE) % n;
+		Replica best = null;
+		int fewest = Integer.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			Replica replica = replicas[(start + i) % n];
+			if (replica.healthy) {
+				int count = replica.outstanding.get();
+				if (count < fewest) {
+					best = replica;
+					fewest = count;
+				}
+			}
+		}
+		if (best != null) {
+			best.outstanding.incrementAndGet();
+			best.readCount.incrementAndGet();
+		}
+		return best;
+	}
+
+	/**
+	 * @return every replica, healthy or not.
+	 */
+	public List<Replica> getReplicas() {
+		List<Replica> list = new ArrayList<Replica>(replicas.length);
+		Collections.addAll(list, replicas);
+		return list;
+	}
+
+	/**
+	 * @return number of replicas which are currently used for reads.
+	 */
+	public int getHealthyCount() {
+		int count = 0;
+		for (Replica replica : replicas) {
+			if (replica.healthy) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Stops the health checks and closes every replica's pool.
+	 */
+	public void close() {
+		checker.cancel();
+		for (Replica replica : replicas) {
+			replica.pool.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder str = new StringBuilder("ReplicaSet[");
+		for (int i = 0; i < replicas.length; i++) {
+			if (i > 0) {
+				str.append(", ");
+			}
+			str.append(replicas[i]);
+		}
+		return str.append(']').toString();
+	}
+
+	/**
+	 * Checks the health and lag of every replica, ejecting or restoring it.
+	 */
+	private void check() {
+		long maxLag = Config.get().getReplication().getMaxLagSeconds();
+		for (Replica replica : replicas) {
+			Connection connection = null;
+			try {
+				connection = replica.pool.borrow();
+				long lag = readLag(replica, connection);
+				replica.lagSeconds = lag;
+				if (lag < 0) {
+					replica.eject("Replication is not running.");
+				} else if (lag > maxLag) {
+					replica.eject(String.format(
+							"%d seconds behind the primary.", lag));
+				} else {
+					replica.restore();
+				}
+			} catch (SQLException e) {
+				if (connection != null) {
+					replica.pool.invalidate(connection);
+					connection = null;
+				}
+				replica.lagSeconds = -1;
+				replica.eject("Health check failed: " + e.getMessage());
+			} catch (RuntimeException e) {
+				// Keep checking the other replicas.
+				replica.eject("Health check failed: " + e);
+			} finally {
+				if (connection != null) {
+					replica.pool.release(connection);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return how many seconds the replica is behind its primary, 0 if it is
+	 *         not replicating, or -1 if its replication has stopped.
+	 */
+	private static long readLag(Replica replica, Connection connection)
+			throws SQLException {
+		if (!replica.legacyStatus) {
+			try {
+				return readLag(connection, "SHOW REPLICA STATUS");
+			} catch (SQLException e) {
+				// Syntax error: MySQL before 8.0.22.
+				if (!"42000".equals(e.getSQLState())) {
+					throw e;
+				}
+				replica.legacyStatus = true;
+			}
+		}
+		return readLag(connection, "SHOW SLAVE STATUS");
+	}
+
+	private static long readLag(Connection connection, String sql)
+			throws SQLException {
+		Statement statement = connection.createStatement();
+		ResultSet status = null;
+		try {
+			statement.setQueryTimeout(CHECK_TIMEOUT_SECONDS);
+			status = statement.executeQuery(sql);
+			if (!status.next()) {
+				// Not a replica, so it cannot lag.
+				return 0;
+			}
+			ResultSetMetaData metaData = status.getMetaData();
+			for (int i = 1; i <= metaData.getColumnCount(); i++) {
+				String column = metaData.getColumnLabel(i);
+				if ("Seconds_Behind_Source".equalsIgnoreCase(column)
+						|| "Seconds_Behind_Master".equalsIgnoreCase(column)) {
+					// NULL if the replication threads are not running.
+					long lag = status.getLong(i);
+					return status.wasNull() ? -1 : lag;
+				}
+			}
+			return -1;
+		} finally {
+			if (status != null) {
+				status.close();
+			}
+			statement.close();
+		}
+	}
+}
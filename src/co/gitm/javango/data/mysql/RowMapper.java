@@ -0,0 +1,389 @@
+package co.gitm.javango.data.mysql;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.concurrent.ConcurrentHashMap;
+
+import co.gitm.javango.data.CompactDataObject;
+import co.gitm.javango.data.DataObject;
+import co.gitm.javango.data.RowSchema;
+import co.gitm.javango.data.RowSchema.Kind;
+
+/**
+ * Converts ResultSet rows into DataObjects. A RowMapper is compiled from a
+ * result set's ResultSetMetaData once: it looks up each column's name and type
+ * a single time and picks a typed reader for the column, which then reads
+ * values by column index (rather than by name, which makes the driver search
+ * for the column on every call).
+ *
+ * Mappers are cached per query shape (see forShape), so repeated queries skip
+ * the metadata inspection as well.
+ *
+ * NULL columns are mapped to null, rather than to 0 or false.
+ * 
+ * Rows are mapped to CompactDataObjects which share the mapper's RowSchema, and
+ * numeric columns are copied into them as primitives.
+ *
+ */
+public class RowMapper {
+	// Bounded like the QueryCompiler's shape cache.
+	private static final int MAX_CACHED_MAPPERS = 1000;
+	private static final ConcurrentHashMap<String, RowMapper> mappers = new ConcurrentHashMap<String, RowMapper>();
+
+	/**
+	 * Reads the value of one column from the current row.
+	 */
+	private static abstract class ColumnReader {
+		abstract Object read(ResultSet rs, int index) throws SQLException;
+
+		/**
+		 * @return how the column's values are stored in a CompactDataObject.
+		 */
+		Kind kind() {
+			return Kind.OBJECT;
+		}
+
+		/**
+		 * Copies the column's value into row (as a primitive if it is
+		 * numeric).
+		 */
+		void copy(ResultSet rs, int index, CompactDataObject row, int column)
+				throws SQLException {
+			row.setValue(column, this.read(rs, index));
+		}
+	}
+
+	private static final ColumnReader OBJECT = new ColumnReader() {
+		Object read(ResultSet rs, int index) throws SQLException {
+			return rs.getObject(index);
+		}
+	};
+
+	private static final ColumnReader STRING = new ColumnReader() {
+		Object read(ResultSet rs, int index) throws SQLException {
+			return rs.getString(index);
+		}
+	};
+
+	private static final ColumnReader NSTRING = new ColumnReader() {
+		Object read(ResultSet rs, int index) throws SQLException {
+			return rs.getNString(index);
+		}
+	};
+
+	private static final ColumnReader INT = new ColumnReader() {
+		Object read(ResultSet rs, int index) throws SQLException {
+			int value = rs.getInt(index);
+			return rs.wasNull() ? null : Integer.valueOf(value);
+		}
+
+		Kind kind() {
+			return Kind.INT;
+		}
+
+		void copy(ResultSet rs, int index, CompactDataObject row, int column)
+				throws SQLException {
+			int value = rs.getInt(index);
+			if (rs.wasNull()) {
+				row.setValue(column, null);
+			} else {
+				row.setLong(column, value);
+			}
+		}
+	};
+
+	private static final ColumnReader LONG = new ColumnReader() {
+		Object read(ResultSet rs, int index) throws SQLException {
+			long value = rs.getLong(index);
+			return rs.wasNull() ? null : Long.valueOf(value);
+		}
+
+		Kind kind() {
+			return Kind.LONG;
+		}
+
+		void copy(ResultSet rs, int index, CompactDataObject row, int column)
+				throws SQLException {
+			long value = rs.getLong(index);
+			if (rs.wasNull()) {
+				row.setValue(column, null);
+			} else {
+				row.setLong(column, value);
+			}
+		}
+	};
+
+	private static final ColumnReader FLOAT = new ColumnReader() {
+		Object read(ResultSet rs, int index) throws SQLException {
+			float value = rs.getFloat(index);
+			return rs.wasNull() ? null : Float.valueOf(value);
+		}
+
+		Kind kind() {
+			return Kind.FLOAT;
+		}
+
+		void copy(ResultSet rs, int index, CompactDataObject row, int column)
+				throws SQLException {
+			float value = rs.getFloat(index);
+			if (rs.wasNull()) {
+				row.setValue(column, null);
+			} else {
+				row.setDouble(column, value);
+			}
+		}
+	};
+
+	private static final ColumnReader DOUBLE = new ColumnReader() {
+		Object read(ResultSet rs, int index) throws SQLException {
+			double value = rs.getDouble(index);
+			return rs.wasNull() ? null : Double.valueOf(value);
+		}
+
+		Kind kind() {
+			return Kind.DOUBLE;
+		}
+
+		void copy(ResultSet rs, int index, CompactDataObject row, int column)
+				throws SQLException {
+			double value = rs.getDouble(index);
+			if (rs.wasNull()) {
+				row.setValue(column, null);
+			} else {
+				row.setDouble(column, value);
+			}
+		}
+	};
+
+	private static final ColumnReader DECIMAL = new ColumnReader() {
+		Object read(ResultSet rs, int index) throws SQLException {
+			return rs.getBigDecimal(index);
+		}
+	};
+
+	private static final ColumnReader BOOLEAN = new ColumnReader() {
+		Object read(ResultSet rs, int index) throws SQLException {
+			boolean value = rs.getBoolean(index);
+			return rs.wasNull() ? null : Boolean.valueOf(value);
+		}
+	};
+
+	private static final ColumnReader DATE = new ColumnReader() {
+		Object read(ResultSet rs, int index) throws SQLException {
+			return rs.getDate(index);
+		}
+	};
+
+	private static final ColumnReader TIMESTAMP = new ColumnReader() {
+		Object read(ResultSet rs, int index) throws SQLException {
+			return rs.getTimestamp(index);
+		}
+	};
+
+	private static final ColumnReader BLOB = new ColumnReader() {
+		Object read(ResultSet rs, int index) throws SQLException {
+			return rs.getBlob(index);
+		}
+	};
+
+	private static final ColumnReader ARRAY = new ColumnReader() {
+		Object read(ResultSet rs, int index) throws SQLException {
+			return rs.getArray(index);
+		}
+	};
+
+	private final String[] names;
+	private final int[] types;
+	private final boolean[] signed;
+	private final ColumnReader[] readers;
+	// Shared by every row this mapper produces.
+	private final RowSchema schema;
+
+	private RowMapper(ResultSetMetaData rsmd) throws SQLException {
+		int numColumns = rsmd.getColumnCount();
+		this.names = new String[numColumns];
+		this.types = new int[numColumns];
+		this.signed = new boolean[numColumns];
+		this.readers = new ColumnReader[numColumns];
+		for (int i = 0; i < numColumns; i++) {
+			// Use the label so that column aliases are respected.
+			names[i] = rsmd.getColumnLabel(i + 1);
+			types[i] = rsmd.getColumnType(i + 1);
+			signed[i] = rsmd.isSigned(i + 1);
+			readers[i] = readerFor(types[i], signed[i]);
+		}
+		this.schema = createSchema(names, readers);
+	}
+
+	/**
+	 * @return a mapper for a result set with the given metadata.
+	 */
+	public static RowMapper compile(ResultSetMetaData rsmd)
+			throws SQLException {
+		return new RowMapper(rsmd);
+	}
+
+	/**
+	 * @param shape
+	 *            identifies the query which produced the result set (e.g. its
+	 *            SQL text with ? placeholders).
+	 * @param rsmd
+	 *            metadata of the result set.
+	 * @return the cached mapper for this shape, or a newly compiled one if the
+	 *         shape has not been seen before or its columns have changed (e.g.
+	 *         after an ALTER TABLE).
+	 */
+	public static RowMapper forShape(String shape, ResultSetMetaData rsmd)
+			throws SQLException {
+		RowMapper mapper = mappers.get(shape);
+		if (mapper == null || !mapper.matches(rsmd)) {
+			mapper = new RowMapper(rsmd);
+			if (mappers.size() < MAX_CACHED_MAPPERS || mappers.containsKey(shape)) {
+				mappers.put(shape, mapper);
+			}
+		}
+		return mapper;
+	}
+
+	/**
+	 * Converts the row the ResultSet is currently positioned on.
+	 */
+	public DataObject map(ResultSet rs) throws SQLException {
+		if (schema == null) {
+			DataObject obj = new DataObject();
+			for (int i = 0; i < readers.length; i++) {
+				obj.put(names[i], readers[i].read(rs, i + 1));
+			}
+			return obj;
+		}
+		CompactDataObject row = new CompactDataObject(schema);
+		for (int i = 0; i < readers.length; i++) {
+			readers[i].copy(rs, i + 1, row, i);
+		}
+		return row;
+	}
+
+	public int getColumnCount() {
+		return names.length;
+	}
+
+	/**
+	 * @return roughly how many bytes of values row holds (8 per number or
+	 *         date, 2 per character of text, the length of binary values), for
+	 *         QueryMetrics.
+	 */
+	public static long sizeOf(DataObject row) {
+		long size = 0;
+		if (row instanceof CompactDataObject
+				&& ((CompactDataObject) row).getSchema() != null) {
+			CompactDataObject compact = (CompactDataObject) row;
+			int columns = compact.getSchema().getColumnCount();
+			for (int i = 0; i < columns; i++) {
+				size += compact.isPrimitive(i) ? 8 : sizeOf(compact
+						.getValue(i));
+			}
+			return size;
+		}
+		for (Object value : row.values()) {
+			size += sizeOf(value);
+		}
+		return size;
+	}
+
+	private static long sizeOf(Object value) {
+		if (value == null) {
+			return 0;
+		}
+		if (value instanceof String) {
+			return 2L * ((String) value).length();
+		}
+		if (value instanceof byte[]) {
+			return ((byte[]) value).length;
+		}
+		return 8;
+	}
+
+	/**
+	 * @return whether this mapper was compiled for a result set with the same
+	 *         columns (labels, types and signedness, in order) as the given
+	 *         metadata. The query shape does not fix the columns of a SELECT *,
+	 *         which an ALTER TABLE can rename or reorder.
+	 */
+	boolean matches(ResultSetMetaData rsmd) throws SQLException {
+		if (rsmd.getColumnCount() != types.length) {
+			return false;
+		}
+		for (int i = 0; i < types.length; i++) {
+			if (rsmd.getColumnType(i + 1) != types[i]
+					|| rsmd.isSigned(i + 1) != signed[i]
+					|| !names[i].equals(rsmd.getColumnLabel(i + 1))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the schema of the mapper's rows, or null if a column name is
+	 *         repeated (e.g. SELECT *, id), in which case rows are mapped to
+	 *         ordinary DataObjects.
+	 */
+	private static RowSchema createSchema(String[] names,
+			ColumnReader[] readers) {
+		Kind[] kinds = new Kind[names.length];
+		for (int i = 0; i < names.length; i++) {
+			kinds[i] = readers[i].kind();
+		}
+		try {
+			return new RowSchema(names, kinds);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static ColumnReader readerFor(int type, boolean signed) {
+		switch (type) {
+		case Types.CHAR:
+		case Types.VARCHAR:
+		case Types.LONGVARCHAR:
+			return STRING;
+		case Types.NCHAR:
+		case Types.NVARCHAR:
+		case Types.LONGNVARCHAR:
+			return NSTRING;
+		case Types.TINYINT:
+		case Types.SMALLINT:
+			return INT;
+		case Types.INTEGER:
+			// INT UNSIGNED does not fit in an int.
+			return signed ? INT : LONG;
+		case Types.BIGINT:
+			// BIGINT UNSIGNED does not fit in a long, the driver returns a
+			// BigInteger.
+			return signed ? LONG : OBJECT;
+		case Types.REAL:
+			return FLOAT;
+		case Types.FLOAT:
+		case Types.DOUBLE:
+			// JDBC's FLOAT is a double precision type.
+			return DOUBLE;
+		case Types.DECIMAL:
+		case Types.NUMERIC:
+			return DECIMAL;
+		case Types.BOOLEAN:
+			return BOOLEAN;
+		case Types.DATE:
+			return DATE;
+		case Types.TIMESTAMP:
+			return TIMESTAMP;
+		case Types.BLOB:
+			return BLOB;
+		case Types.ARRAY:
+			return ARRAY;
+		default:
+			return OBJECT;
+		}
+	}
+}
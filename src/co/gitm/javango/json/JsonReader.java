@@ -0,0 +1,603 @@
+package co.gitm.javango.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import co.gitm.javango.data.DataObject;
+import co.gitm.javango.data.DataObjectArray;
+import co.gitm.javango.data.exceptions.MalformedDataException;
+import co.gitm.javango.data.exceptions.MalformedDataException.Reason;
+
+/**
+ * Parses a JSON document straight from an InputStream (e.g. the body of a POST
+ * request) into a DataObject, or a DataObjectArray of DataObjects, without
+ * reading the document into a String or building any intermediate objects
+ * first. Bytes are decoded from UTF-8 as they are read into a reused buffer,
+ * and strings are built in a reused character buffer.
+ *
+ * Parsing stops at the first problem, which is reported as a
+ * MalformedDataException:
+ * <ul>
+ * <li>anything which is not valid JSON, or not the expected value;</li>
+ * <li>a field which is not one of the allowed fields (see
+ * setFields), so that objects which do not belong to a model are rejected
+ * before the rest of the document is read;</li>
+ * <li>a document longer than maxBytes;</li>
+ * <li>arrays and objects nested more than maxDepth deep.</li>
+ * </ul>
+ *
+ * Values are parsed in the same way as json-simple: whole numbers become Longs
+ * (or BigIntegers if they are too big), other numbers become Doubles and nested
+ * objects and arrays become JSONObjects and JSONArrays.
+ *
+ * Readers are not thread safe, and close must be called once the document has
+ * been read (it does not close the stream).
+ *
+ */
+public class JsonReader {
+	private static final int BUFFER_SIZE = 8 * 1024;
+	// Longs can hold any number with this many digits.
+	private static final int MAX_LONG_DIGITS = 18;
+
+	// Buffers left by readers which have been closed, one per thread.
+	private static final ThreadLocal<byte[]> spareBuffer = new ThreadLocal<byte[]>();
+
+	private final InputStream in;
+	private final long maxBytes;
+	private final int maxDepth;
+	private byte[] buffer;
+	private int position = 0;
+	private int limit = 0;
+	// Number of bytes read before the start of the buffer.
+	private long consumed = 0;
+	private int depth = 0;
+	// Characters of the string or number being read.
+	private char[] chars = new char[64];
+	private int length = 0;
+	// Fields which the document's objects may have, or null for any.
+	private String[] fields = null;
+
+	/**
+	 * @param in
+	 *            to read the document from.
+	 * @param maxBytes
+	 *            longest document to accept.
+	 * @param maxDepth
+	 *            most deeply nested arrays and objects to accept (the document
+	 *            itself has a depth of 1).
+	 */
+	public JsonReader(InputStream in, long maxBytes, int maxDepth) {
+		this.in = in;
+		this.maxBytes = maxBytes;
+		this.maxDepth = maxDepth;
+		byte[] spare = spareBuffer.get();
+		if (spare != null) {
+			spareBuffer.set(null);
+			this.buffer = spare;
+		} else {
+			this.buffer = new byte[BUFFER_SIZE];
+		}
+	}
+
+	/**
+	 * @param fields
+	 *            the only fields which the document's DataObjects may have
+	 *            (e.g. Model.getFields), or null to allow any. Fields of
+	 *            nested objects are not checked.
+	 * @return this reader.
+	 */
+	public JsonReader setFields(Collection<String> fields) {
+		this.fields = fields == null ? null : fields.toArray(new String[fields
+				.size()]);
+		return this;
+	}
+
+	/**
+	 * @return the document, which must be a JSON object.
+	 */
+	public DataObject readObject() throws MalformedDataException, IOException {
+		int c = this.nextToken();
+		if (c != '{') {
+			throw this.syntaxError("Expected a JSON object.");
+		}
+		DataObject object = this.readDataObject();
+		this.expectEnd();
+		return object;
+	}
+
+	/**
+	 * @return the document, which must be a JSON array of objects.
+	 */
+	public DataObjectArray readArray() throws MalformedDataException,
+			IOException {
+		int c = this.nextToken();
+		if (c != '[') {
+			throw this.syntaxError("Expected a JSON array of objects.");
+		}
+		DataObjectArray array = this.readDataObjectArray();
+		this.expectEnd();
+		return array;
+	}
+
+	/**
+	 * @return the document as a DataObject if it is a JSON object, or as a
+	 *         DataObjectArray if it is a JSON array of objects.
+	 */
+	public Object readObjectOrArray() throws MalformedDataException,
+			IOException {
+		int c = this.nextToken();
+		Object document;
+		if (c == '{') {
+			document = this.readDataObject();
+		} else if (c == '[') {
+			document = this.readDataObjectArray();
+		} else {
+			throw this.syntaxError("Expected a JSON object or array of objects.");
+		}
+		this.expectEnd();
+		return document;
+	}
+
+	/**
+	 * Gives the reader's buffer back for reuse. The stream is left open.
+	 */
+	public void close() {
+		if (buffer != null) {
+			spareBuffer.set(buffer);
+			buffer = null;
+		}
+	}
+
+	/**
+	 * @return number of bytes read so far.
+	 */
+	public long getOffset() {
+		return consumed + position;
+	}
+
+	private DataObject readDataObject() throws MalformedDataException,
+			IOException {
+		this.enter();
+		DataObject object = new DataObject();
+		int c = this.nextToken();
+		if (c != '}') {
+			while (true) {
+				if (c != '"') {
+					throw this.syntaxError("Expected a field name.");
+				}
+				this.readChars();
+				String field = this.field();
+				this.expect(':');
+				object.put(field, this.readValue(this.nextToken()));
+				c = this.nextToken();
+				if (c == '}') {
+					break;
+				}
+				if (c != ',') {
+					throw this.syntaxError("Expected ',' or '}'.");
+				}
+				c = this.nextToken();
+			}
+		}
+		depth--;
+		return object;
+	}
+
+	private DataObjectArray readDataObjectArray()
+			throws MalformedDataException, IOException {
+		this.enter();
+		DataObjectArray array = new DataObjectArray();
+		int c = this.nextToken();
+		if (c != ']') {
+			while (true) {
+				if (c != '{') {
+					throw this.syntaxError("Expected a JSON object.");
+				}
+				array.add(this.readDataObject());
+				c = this.nextToken();
+				if (c == ']') {
+					break;
+				}
+				if (c != ',') {
+					throw this.syntaxError("Expected ',' or ']'.");
+				}
+				c = this.nextToken();
+			}
+		}
+		depth--;
+		return array;
+	}
+
+	/**
+	 * @param c
+	 *            first character of the value.
+	 */
+	private Object readValue(int c) throws MalformedDataException,
+			IOException {
+		switch (c) {
+		case '"':
+			this.readChars();
+			return new String(chars, 0, length);
+		case '{':
+			return this.readJsonObject();
+		case '[':
+			return this.readJsonArray();
+		case 't':
+			this.expectLiteral("rue");
+			return Boolean.TRUE;
+		case 'f':
+			this.expectLiteral("alse");
+			return Boolean.FALSE;
+		case 'n':
+			this.expectLiteral("ull");
+			return null;
+		default:
+			if (c == '-' || (c >= '0' && c <= '9')) {
+				return this.readNumber(c);
+			}
+			throw this.syntaxError(c < 0 ? "Unexpected end of data."
+					: "Expected a value.");
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private JSONObject readJsonObject() throws MalformedDataException,
+			IOException {
+		this.enter();
+		JSONObject object = new JSONObject();
+		int c = this.nextToken();
+		if (c != '}') {
+			while (true) {
+				if (c != '"') {
+					throw this.syntaxError("Expected a field name.");
+				}
+				this.readChars();
+				String name = new String(chars, 0, length);
+				this.expect(':');
+				object.put(name, this.readValue(this.nextToken()));
+				c = this.nextToken();
+				if (c == '}') {
+					break;
+				}
+				if (c != ',') {
+					throw this.syntaxError("Expected ',' or '}'.");
+				}
+				c = this.nextToken();
+			}
+		}
+		depth--;
+		return object;
+	}
+
+	@SuppressWarnings("unchecked")
+	private JSONArray readJsonArray() throws MalformedDataException,
+			IOException {
+		this.enter();
+		JSONArray array = new JSONArray();
+		int c = this.nextToken();
+		if (c != ']') {
+			while (true) {
+				array.add(this.readValue(c));
+				c = this.nextToken();
+				if (c == ']') {
+					break;
+				}
+				if (c != ',') {
+					throw this.syntaxError("Expected ',' or ']'.");
+				}
+				c = this.nextToken();
+			}
+		}
+		depth--;
+		return array;
+	}
+
+	/**
+	 * @param c
+	 *            first character of the number ('-' or a digit).
+	 */
+	private Object readNumber(int c) throws MalformedDataException,
+			IOException {
+		length = 0;
+		boolean negative = c == '-';
+		if (negative) {
+			this.append('-');
+			c = this.read();
+		}
+		if (c < '0' || c > '9') {
+			throw this.syntaxError("Expected a digit.");
+		}
+		long value = 0;
+		int digits = 0;
+		if (c == '0') {
+			this.append('0');
+			digits = 1;
+			c = this.read();
+		} else {
+			while (c >= '0' && c <= '9') {
+				this.append((char) c);
+				value = value * 10 + (c - '0');
+				digits++;
+				c = this.read();
+			}
+		}
+		boolean integral = true;
+		if (c == '.') {
+			integral = false;
+			this.append('.');
+			c = this.readDigits();
+		}
+		if (c == 'e' || c == 'E') {
+			integral = false;
+			this.append('e');
+			c = this.read();
+			if (c == '+' || c == '-') {
+				this.append((char) c);
+				c = this.read();
+			}
+			this.unread(c);
+			c = this.readDigits();
+		}
+		// The character after the number belongs to whatever follows it.
+		this.unread(c);
+		if (!integral) {
+			return Double.valueOf(new String(chars, 0, length));
+		}
+		if (digits <= MAX_LONG_DIGITS) {
+			return Long.valueOf(negative ? -value : value);
+		}
+		String text = new String(chars, 0, length);
+		try {
+			return Long.valueOf(text);
+		} catch (NumberFormatException e) {
+			return new BigInteger(text);
+		}
+	}
+
+	/**
+	 * Reads one or more digits.
+	 *
+	 * @return the character after them.
+	 */
+	private int readDigits() throws MalformedDataException, IOException {
+		int c = this.read();
+		if (c < '0' || c > '9') {
+			throw this.syntaxError("Expected a digit.");
+		}
+		while (c >= '0' && c <= '9') {
+			this.append((char) c);
+			c = this.read();
+		}
+		return c;
+	}
+
+	/**
+	 * Reads the rest of a string (after its opening quote) into chars,
+	 * decoding escapes and UTF-8.
+	 */
+	private void readChars() throws MalformedDataException, IOException {
+		length = 0;
+		while (true) {
+			int c = this.read();
+			if (c == '"') {
+				return;
+			}
+			if (c < 0) {
+				throw this.syntaxError("Unterminated string.");
+			}
+			if (c < 0x20) {
+				throw this.syntaxError("Control character in string.");
+			}
+			if (c == '\\') {
+				this.append(this.readEscape());
+			} else if (c < 0x80) {
+				this.append((char) c);
+			} else {
+				this.readUtf8(c);
+			}
+		}
+	}
+
+	private char readEscape() throws MalformedDataException, IOException {
+		int c = this.read();
+		switch (c) {
+		case '"':
+		case '\\':
+		case '/':
+			return (char) c;
+		case 'b':
+			return '\b';
+		case 'f':
+			return '\f';
+		case 'n':
+			return '\n';
+		case 'r':
+			return '\r';
+		case 't':
+			return '\t';
+		case 'u':
+			int value = 0;
+			for (int i = 0; i < 4; i++) {
+				int digit = Character.digit(this.read(), 16);
+				if (digit < 0) {
+					throw this.syntaxError("Invalid \\u escape.");
+				}
+				value = (value << 4) | digit;
+			}
+			return (char) value;
+		default:
+			throw this.syntaxError("Invalid escape.");
+		}
+	}
+
+	/**
+	 * Decodes a multi-byte UTF-8 character into chars.
+	 *
+	 * @param first
+	 *            byte of the character.
+	 */
+	private void readUtf8(int first) throws MalformedDataException,
+			IOException {
+		int codePoint;
+		int continuation;
+		if ((first & 0xe0) == 0xc0) {
+			codePoint = first & 0x1f;
+			continuation = 1;
+		} else if ((first & 0xf0) == 0xe0) {
+			codePoint = first & 0x0f;
+			continuation = 2;
+		} else if ((first & 0xf8) == 0xf0) {
+			codePoint = first & 0x07;
+			continuation = 3;
+		} else {
+			throw this.syntaxError("Invalid UTF-8.");
+		}
+		for (int i = 0; i < continuation; i++) {
+			int c = this.read();
+			if ((c & 0xc0) != 0x80) {
+				throw this.syntaxError("Invalid UTF-8.");
+			}
+			codePoint = (codePoint << 6) | (c & 0x3f);
+		}
+		if (codePoint < 0x10000) {
+			this.append((char) codePoint);
+		} else if (codePoint <= Character.MAX_CODE_POINT) {
+			// Needs a surrogate pair.
+			codePoint -= 0x10000;
+			this.append((char) (0xd800 | (codePoint >> 10)));
+			this.append((char) (0xdc00 | (codePoint & 0x3ff)));
+		} else {
+			throw this.syntaxError("Invalid UTF-8.");
+		}
+	}
+
+	/**
+	 * @return the name in chars, as one of the allowed fields.
+	 * @throws MalformedDataException
+	 *             if it is not an allowed field.
+	 */
+	private String field() throws MalformedDataException {
+		if (fields == null) {
+			return new String(chars, 0, length);
+		}
+		// Models only have a handful of fields, so compare against each of
+		// them in place, rather than creating a String to look up.
+		for (String field : fields) {
+			if (field.length() == length) {
+				int i = 0;
+				while (i < length && field.charAt(i) == chars[i]) {
+					i++;
+				}
+				if (i == length) {
+					return field;
+				}
+			}
+		}
+		throw new MalformedDataException(String.format(
+				"Unknown field \"%s\".", new String(chars, 0, length)),
+				Reason.UNKNOWN_FIELD, this.getOffset());
+	}
+
+	private void append(char c) {
+		if (length == chars.length) {
+			chars = Arrays.copyOf(chars, length * 2);
+		}
+		chars[length++] = c;
+	}
+
+	private void enter() throws MalformedDataException {
+		if (++depth > maxDepth) {
+			throw new MalformedDataException(String.format(
+					"Data is nested more than %d deep.", maxDepth),
+					Reason.TOO_DEEP, this.getOffset());
+		}
+	}
+
+	private void expect(char expected) throws MalformedDataException,
+			IOException {
+		if (this.nextToken() != expected) {
+			throw this.syntaxError(String.format("Expected '%s'.", expected));
+		}
+	}
+
+	private void expectLiteral(String rest) throws MalformedDataException,
+			IOException {
+		for (int i = 0; i < rest.length(); i++) {
+			if (this.read() != rest.charAt(i)) {
+				throw this.syntaxError("Expected true, false or null.");
+			}
+		}
+	}
+
+	/**
+	 * Checks that nothing but whitespace follows the document.
+	 */
+	private void expectEnd() throws MalformedDataException, IOException {
+		if (this.nextToken() >= 0) {
+			throw this.syntaxError("Unexpected data after the end.");
+		}
+	}
+
+	/**
+	 * @return the next byte which is not whitespace, or -1 at the end of the
+	 *         data.
+	 */
+	private int nextToken() throws MalformedDataException, IOException {
+		int c;
+		do {
+			c = this.read();
+		} while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+		return c;
+	}
+
+	/**
+	 * @return the next byte, or -1 at the end of the data.
+	 */
+	private int read() throws MalformedDataException, IOException {
+		if (position == limit && !this.fill()) {
+			return -1;
+		}
+		return buffer[position++] & 0xff;
+	}
+
+	/**
+	 * Steps back over c, which must be the last byte read (or -1).
+	 */
+	private void unread(int c) {
+		if (c >= 0) {
+			position--;
+		}
+	}
+
+	private boolean fill() throws MalformedDataException, IOException {
+		if (buffer == null) {
+			throw new IOException("JsonReader is closed.");
+		}
+		consumed += limit;
+		position = 0;
+		limit = 0;
+		int n = in.read(buffer, 0, buffer.length);
+		if (n <= 0) {
+			return false;
+		}
+		limit = n;
+		if (consumed + limit > maxBytes) {
+			throw new MalformedDataException(String.format(
+					"Data is larger than %d bytes.", maxBytes),
+					Reason.TOO_LARGE, maxBytes);
+		}
+		return true;
+	}
+
+	private MalformedDataException syntaxError(String msg) {
+		return new MalformedDataException(String.format(
+				"%s (at byte %d)", msg, this.getOffset()), Reason.SYNTAX,
+				this.getOffset());
+	}
+}
@@ -0,0 +1,468 @@
+package co.gitm.javango.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+import org.json.simple.JSONAware;
+
+import co.gitm.javango.data.CompactDataObject;
+import co.gitm.javango.data.RowSchema;
+
+/**
+ * Writes JSON straight to an OutputStream as UTF-8, without building the
+ * document (or any of its strings) in memory first. Characters are escaped and
+ * encoded directly into a byte buffer, which is flushed to the stream whenever
+ * it fills up, so output starts as soon as the first values are written.
+ * Buffers are reused by later writers on the same thread.
+ *
+ * Values are written with value, which handles everything a DataObject can hold
+ * (strings, numbers, booleans, maps, collections and nested JSON), and arrays
+ * and objects can be built up with beginArray, beginObject, name etc. Commas
+ * are added automatically. Output matches json-simple's toJSONString, except
+ * that values of unknown types (e.g. dates) are written as strings.
+ * CompactDataObjects are written straight from their columns, without boxing
+ * their numbers.
+ *
+ * Writers are not thread safe, and close must be called once the document has
+ * been written (it flushes the buffer, but does not close the stream).
+ *
+ */
+public class JsonWriter {
+	private static final int BUFFER_SIZE = 8 * 1024;
+	private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+	private static final byte[] NULL = "null".getBytes();
+	private static final byte[] TRUE = "true".getBytes();
+	private static final byte[] FALSE = "false".getBytes();
+	// Long.MIN_VALUE cannot be negated, so is written as is.
+	private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE)
+			.getBytes();
+
+	// Buffers left by writers which have been closed, one per thread.
+	private static final ThreadLocal<byte[]> spareBuffer = new ThreadLocal<byte[]>();
+
+	private final OutputStream out;
+	private byte[] buffer;
+	private int position = 0;
+	// For each open array or object, whether it has any elements yet (so
+	// needs a comma before the next one).
+	private boolean[] hasElements = new boolean[16];
+	private int depth = 0;
+	// Whether an object name has just been written (so the next value needs
+	// no comma).
+	private boolean afterName = false;
+	// Scratch space for digits of integers.
+	private final byte[] digits = new byte[20];
+
+	public JsonWriter(OutputStream out) {
+		this.out = out;
+		byte[] spare = spareBuffer.get();
+		if (spare != null) {
+			spareBuffer.set(null);
+			this.buffer = spare;
+		} else {
+			this.buffer = new byte[BUFFER_SIZE];
+		}
+	}
+
+	public JsonWriter beginArray() throws IOException {
+		return this.open('[');
+	}
+
+	public JsonWriter endArray() throws IOException {
+		return this.close(']');
+	}
+
+	public JsonWriter beginObject() throws IOException {
+		return this.open('{');
+	}
+
+	public JsonWriter endObject() throws IOException {
+		return this.close('}');
+	}
+
+	/**
+	 * Writes the name of the next member of the current object.
+	 */
+	public JsonWriter name(String name) throws IOException {
+		this.separate();
+		this.string(name);
+		this.ensure(1);
+		buffer[position++] = ':';
+		afterName = true;
+		return this;
+	}
+
+	/**
+	 * Writes value (and everything it holds) as JSON.
+	 */
+	public JsonWriter value(Object value) throws IOException {
+		this.separate();
+		this.write(value);
+		return this;
+	}
+
+	/**
+	 * Writes a string value.
+	 */
+	public JsonWriter value(CharSequence value) throws IOException {
+		this.separate();
+		if (value == null) {
+			this.raw(NULL);
+		} else {
+			this.string(value);
+		}
+		return this;
+	}
+
+	/**
+	 * Writes an integer value.
+	 */
+	public JsonWriter value(long value) throws IOException {
+		this.separate();
+		this.integer(value);
+		return this;
+	}
+
+	/**
+	 * Writes a floating point value (null if it is NaN or infinite).
+	 */
+	public JsonWriter value(double value) throws IOException {
+		this.separate();
+		this.decimal(value);
+		return this;
+	}
+
+	public JsonWriter value(boolean value) throws IOException {
+		this.separate();
+		this.raw(value ? TRUE : FALSE);
+		return this;
+	}
+
+	/**
+	 * Writes json, which must already be valid JSON, as it is.
+	 */
+	public JsonWriter rawValue(String json) throws IOException {
+		this.separate();
+		this.chars(json, false);
+		return this;
+	}
+
+	/**
+	 * Sends everything written so far to the stream.
+	 */
+	public void flush() throws IOException {
+		if (position > 0) {
+			out.write(buffer, 0, position);
+			position = 0;
+		}
+		out.flush();
+	}
+
+	/**
+	 * Flushes the writer and gives its buffer back for reuse. The stream is
+	 * left open.
+	 */
+	public void close() throws IOException {
+		if (buffer == null) {
+			return;
+		}
+		try {
+			this.flush();
+		} finally {
+			spareBuffer.set(buffer);
+			buffer = null;
+		}
+	}
+
+	private JsonWriter open(char bracket) throws IOException {
+		this.separate();
+		this.ensure(1);
+		buffer[position++] = (byte) bracket;
+		if (depth == hasElements.length) {
+			hasElements = Arrays.copyOf(hasElements, depth * 2);
+		}
+		hasElements[depth++] = false;
+		return this;
+	}
+
+	private JsonWriter close(char bracket) throws IOException {
+		if (depth == 0) {
+			throw new IllegalStateException("Nothing to close.");
+		}
+		depth--;
+		afterName = false;
+		this.ensure(1);
+		buffer[position++] = (byte) bracket;
+		return this;
+	}
+
+	/**
+	 * Writes a comma if the current array or object already has elements.
+	 */
+	private void separate() throws IOException {
+		if (afterName) {
+			afterName = false;
+			return;
+		}
+		if (depth > 0) {
+			if (hasElements[depth - 1]) {
+				this.ensure(1);
+				buffer[position++] = ',';
+			} else {
+				hasElements[depth - 1] = true;
+			}
+		}
+	}
+
+	private void write(Object value) throws IOException {
+		if (value == null) {
+			this.raw(NULL);
+		} else if (value instanceof String) {
+			this.string((String) value);
+		} else if (value instanceof Integer || value instanceof Long
+				|| value instanceof Short || value instanceof Byte) {
+			this.integer(((Number) value).longValue());
+		} else if (value instanceof Double) {
+			this.decimal(((Double) value).doubleValue());
+		} else if (value instanceof Float) {
+			// Float.toString gives the shortest digits which identify a float.
+			Float f = (Float) value;
+			if (f.isNaN() || f.isInfinite()) {
+				this.raw(NULL);
+			} else {
+				this.chars(f.toString(), false);
+			}
+		} else if (value instanceof Number) {
+			// e.g. BigDecimal.
+			this.chars(value.toString(), false);
+		} else if (value instanceof Boolean) {
+			this.raw(((Boolean) value).booleanValue() ? TRUE : FALSE);
+		} else if (value instanceof CompactDataObject
+				&& ((CompactDataObject) value).getSchema() != null) {
+			this.row((CompactDataObject) value);
+		} else if (value instanceof Map) {
+			this.map((Map<?, ?>) value);
+		} else if (value instanceof Collection) {
+			this.collection((Collection<?>) value);
+		} else if (value instanceof JSONAware) {
+			this.chars(((JSONAware) value).toJSONString(), false);
+		} else {
+			this.string(value.toString());
+		}
+	}
+
+	private void map(Map<?, ?> map) throws IOException {
+		this.ensure(1);
+		buffer[position++] = '{';
+		boolean first = true;
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			this.ensure(1);
+			if (!first) {
+				buffer[position++] = ',';
+			}
+			first = false;
+			this.string(String.valueOf(entry.getKey()));
+			this.ensure(1);
+			buffer[position++] = ':';
+			this.write(entry.getValue());
+		}
+		this.ensure(1);
+		buffer[position++] = '}';
+	}
+
+	private void row(CompactDataObject row) throws IOException {
+		RowSchema schema = row.getSchema();
+		this.ensure(1);
+		buffer[position++] = '{';
+		for (int i = 0; i < schema.getColumnCount(); i++) {
+			this.ensure(1);
+			if (i > 0) {
+				buffer[position++] = ',';
+			}
+			this.string(schema.getName(i));
+			this.ensure(1);
+			buffer[position++] = ':';
+			if (!row.isPrimitive(i)) {
+				this.write(row.getValue(i));
+				continue;
+			}
+			switch (schema.getKind(i)) {
+			case INT:
+			case LONG:
+				this.integer(row.getLong(i));
+				break;
+			case FLOAT:
+				// Written like a Float, not like the double it is held as.
+				float f = (float) row.getDouble(i);
+				if (Float.isNaN(f) || Float.isInfinite(f)) {
+					this.raw(NULL);
+				} else {
+					this.chars(Float.toString(f), false);
+				}
+				break;
+			default:
+				this.decimal(row.getDouble(i));
+			}
+		}
+		this.ensure(1);
+		buffer[position++] = '}';
+	}
+
+	private void collection(Collection<?> collection) throws IOException {
+		this.ensure(1);
+		buffer[position++] = '[';
+		boolean first = true;
+		for (Object element : collection) {
+			if (!first) {
+				this.ensure(1);
+				buffer[position++] = ',';
+			}
+			first = false;
+			this.write(element);
+		}
+		this.ensure(1);
+		buffer[position++] = ']';
+	}
+
+	private void string(CharSequence value) throws IOException {
+		this.ensure(1);
+		buffer[position++] = '"';
+		this.chars(value, true);
+		this.ensure(1);
+		buffer[position++] = '"';
+	}
+
+	/**
+	 * Encodes chars as UTF-8, escaping them for use in a JSON string if
+	 * escape is true (in the same way as json-simple).
+	 */
+	private void chars(CharSequence chars, boolean escape) throws IOException {
+		int length = chars.length();
+		for (int i = 0; i < length; i++) {
+			char c = chars.charAt(i);
+			// Worst case is a \\uXXXX escape or a 4 byte character.
+			if (buffer.length - position < 6) {
+				this.drain();
+			}
+			if (escape) {
+				switch (c) {
+				case '"':
+				case '\\':
+				case '/':
+					buffer[position++] = '\\';
+					buffer[position++] = (byte) c;
+					continue;
+				case '\b':
+					buffer[position++] = '\\';
+					buffer[position++] = 'b';
+					continue;
+				case '\f':
+					buffer[position++] = '\\';
+					buffer[position++] = 'f';
+					continue;
+				case '\n':
+					buffer[position++] = '\\';
+					buffer[position++] = 'n';
+					continue;
+				case '\r':
+					buffer[position++] = '\\';
+					buffer[position++] = 'r';
+					continue;
+				case '\t':
+					buffer[position++] = '\\';
+					buffer[position++] = 't';
+					continue;
+				default:
+					if (c <= '\u001F' || (c >= '\u007F' && c <= '\u009F')
+							|| (c >= '\u2000' && c <= '\u20FF')) {
+						buffer[position++] = '\\';
+						buffer[position++] = 'u';
+						buffer[position++] = HEX[(c >> 12) & 0xf];
+						buffer[position++] = HEX[(c >> 8) & 0xf];
+						buffer[position++] = HEX[(c >> 4) & 0xf];
+						buffer[position++] = HEX[c & 0xf];
+						continue;
+					}
+				}
+			}
+			if (c < 0x80) {
+				buffer[position++] = (byte) c;
+			} else if (c < 0x800) {
+				buffer[position++] = (byte) (0xc0 | (c >> 6));
+				buffer[position++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(chars.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+				buffer[position++] = (byte) (0xf0 | (codePoint >> 18));
+				buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+				buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+				buffer[position++] = (byte) (0x80 | (codePoint & 0x3f));
+			} else if (c >= '\uD800' && c <= '\uDFFF') {
+				// Unpaired surrogate, which cannot be encoded.
+				buffer[position++] = '?';
+			} else {
+				buffer[position++] = (byte) (0xe0 | (c >> 12));
+				buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				buffer[position++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+	}
+
+	private void integer(long value) throws IOException {
+		if (value == Long.MIN_VALUE) {
+			this.raw(MIN_LONG);
+			return;
+		}
+		this.ensure(20);
+		if (value < 0) {
+			buffer[position++] = '-';
+			value = -value;
+		}
+		// Digits come out backwards.
+		int n = 0;
+		do {
+			digits[n++] = (byte) ('0' + (value % 10));
+			value /= 10;
+		} while (value != 0);
+		while (n > 0) {
+			buffer[position++] = digits[--n];
+		}
+	}
+
+	private void decimal(double value) throws IOException {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			this.raw(NULL);
+		} else {
+			this.chars(Double.toString(value), false);
+		}
+	}
+
+	private void raw(byte[] bytes) throws IOException {
+		this.ensure(bytes.length);
+		System.arraycopy(bytes, 0, buffer, position, bytes.length);
+		position += bytes.length;
+	}
+
+	/**
+	 * Makes room for at least n more bytes in the buffer.
+	 */
+	private void ensure(int n) throws IOException {
+		if (buffer.length - position < n) {
+			this.drain();
+		}
+	}
+
+	/**
+	 * Writes the buffer to the stream (without flushing the stream).
+	 */
+	private void drain() throws IOException {
+		if (buffer == null) {
+			throw new IOException("JsonWriter is closed.");
+		}
+		out.write(buffer, 0, position);
+		position = 0;
+	}
+}
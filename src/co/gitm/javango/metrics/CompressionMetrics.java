@@ -0,0 +1,99 @@
+package co.gitm.javango.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compression metrics for one route (e.g. one view): how many responses were
+ * compressed, sent as they were (too small, or the client does not accept a
+ * compressed coding) or sent from the cache of compressed responses, how many
+ * bytes went into and came out of the compressor, and how much CPU time
+ * compressing took. Get instances from MetricsRegistry.forCompression.
+ *
+ * Recording is lock-free, so instances can be shared by every thread handling
+ * the route.
+ *
+ */
+public class CompressionMetrics {
+	private final String route;
+	private final AtomicLong compressed = new AtomicLong();
+	private final AtomicLong uncompressed = new AtomicLong();
+	private final AtomicLong cacheHits = new AtomicLong();
+	private final AtomicLong bytesIn = new AtomicLong();
+	private final AtomicLong bytesOut = new AtomicLong();
+	private final AtomicLong cpuNanos = new AtomicLong();
+
+	CompressionMetrics(String route) {
+		this.route = route;
+	}
+
+	public String getRoute() {
+		return route;
+	}
+
+	/**
+	 * Records one compressed response.
+	 *
+	 * @param in
+	 *            bytes before compression.
+	 * @param out
+	 *            bytes after compression.
+	 * @param nanos
+	 *            CPU time spent compressing (or elapsed time, if the JVM
+	 *            cannot measure the CPU time of a thread).
+	 */
+	public void recordCompressed(long in, long out, long nanos) {
+		compressed.incrementAndGet();
+		bytesIn.addAndGet(in);
+		bytesOut.addAndGet(out);
+		cpuNanos.addAndGet(nanos);
+	}
+
+	/**
+	 * Records a response which was sent without being compressed.
+	 */
+	public void recordUncompressed() {
+		uncompressed.incrementAndGet();
+	}
+
+	/**
+	 * Records a response which was sent from the cache of compressed
+	 * responses, without being compressed again.
+	 */
+	public void recordCacheHit() {
+		cacheHits.incrementAndGet();
+	}
+
+	public long getCompressedCount() {
+		return compressed.get();
+	}
+
+	public long getUncompressedCount() {
+		return uncompressed.get();
+	}
+
+	public long getCacheHitCount() {
+		return cacheHits.get();
+	}
+
+	public long getBytesIn() {
+		return bytesIn.get();
+	}
+
+	public long getBytesOut() {
+		return bytesOut.get();
+	}
+
+	public long getCpuNanos() {
+		return cpuNanos.get();
+	}
+
+	/**
+	 * @return bytes before compression per byte after it (e.g. 8 for JSON
+	 *         compressed to an eighth of its size), or 0 if nothing has been
+	 *         compressed.
+	 */
+	public double getRatio() {
+		long out = bytesOut.get();
+		return out == 0 ? 0 : (double) bytesIn.get() / out;
+	}
+}
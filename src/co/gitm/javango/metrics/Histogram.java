@@ -0,0 +1,116 @@
+package co.gitm.javango.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts recorded values (e.g. latencies in nanoseconds) in logarithmic
+ * buckets, so that percentiles can be read without keeping every value. Each
+ * power of two is split into 8 buckets, so a percentile is never more than
+ * 12.5% above the true value. Values above 2^40 (about 18 minutes in
+ * nanoseconds) share the last bucket.
+ *
+ * Recording is lock-free (a few atomic increments), so it can be done on every
+ * call. Percentiles read while values are being recorded may be slightly out of
+ * step with the count.
+ *
+ */
+public class Histogram {
+	// Bits of each value (below its highest bit) used to pick a bucket.
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_BIT = 40;
+	private static final long MAX_VALUE = (1L << (MAX_BIT + 1)) - 1;
+	private static final int BUCKET_COUNT = bucketOf(MAX_VALUE) + 1;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param value
+	 *            to count. Negative values are counted as 0.
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		buckets.incrementAndGet(bucketOf(Math.min(value, MAX_VALUE)));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getSum() {
+		return sum.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param quantile
+	 *            between 0 and 1, e.g. 0.99.
+	 * @return the value which quantile of the recorded values are at or
+	 *         below (the top of its bucket, but never more than getMax), or 0
+	 *         if nothing has been recorded.
+	 */
+	public long getPercentile(double quantile) {
+		long total = 0;
+		long[] counts = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(Math.max(0, Math.min(1, quantile))
+				* total);
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts[i];
+			if (seen >= Math.max(1, rank)) {
+				return Math.min(upperBound(i), this.getMax());
+			}
+		}
+		return this.getMax();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Histogram[count=%d, p50=%d, p99=%d, max=%d]",
+				this.getCount(), this.getPercentile(0.5),
+				this.getPercentile(0.99), this.getMax());
+	}
+
+	private static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS
+				+ (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * @return the largest value which is counted in bucket.
+	 */
+	private static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+	}
+}
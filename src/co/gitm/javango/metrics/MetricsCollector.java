@@ -0,0 +1,12 @@
+package co.gitm.javango.metrics;
+
+/**
+ * Adds the current values of some component's metrics (e.g. a connection pool's
+ * size) to a page of metrics. Registered with MetricsRegistry.addCollector, and
+ * called every time the page is built, so it should only read values which are
+ * already kept.
+ *
+ */
+public interface MetricsCollector {
+	void collect(PrometheusWriter out);
+}
@@ -0,0 +1,175 @@
+package co.gitm.javango.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Holds the QueryMetrics of every query shape run by the application's
+ * datasources, the CompressionMetrics of every route whose responses are
+ * compressed, and the MetricsCollectors of other components (e.g. connection
+ * pools and write-behind queues), and writes them all as a page of Prometheus
+ * metrics (see writeTo and MetricsView).
+ *
+ * The number of query shapes is bounded like the QueryCompiler's shape cache:
+ * once the limit is reached, new shapes are counted under the shape "other" of
+ * their model.
+ *
+ */
+public final class MetricsRegistry {
+	/**
+	 * Shape which new shapes are counted under once MAX_SHAPES is reached.
+	 */
+	public static final String OTHER_SHAPE = "other";
+	private static final int MAX_SHAPES = 1000;
+
+	private static final ConcurrentHashMap<String, QueryMetrics> queries = new ConcurrentHashMap<String, QueryMetrics>();
+	private static final ConcurrentHashMap<String, CompressionMetrics> compression = new ConcurrentHashMap<String, CompressionMetrics>();
+	private static final List<MetricsCollector> collectors = new CopyOnWriteArrayList<MetricsCollector>();
+
+	private MetricsRegistry() {
+	}
+
+	/**
+	 * @param operation
+	 *            what the query does, e.g. select or insert.
+	 * @param model
+	 *            name of the model (i.e. the table) the query is run on.
+	 * @param shape
+	 *            of the query, e.g. its SQL text with ? placeholders.
+	 * @return the metrics of the query, created on first use.
+	 */
+	public static QueryMetrics forQuery(String operation, String model,
+			String shape) {
+		String key = operation + '\u0000' + model + '\u0000' + shape;
+		QueryMetrics metrics = queries.get(key);
+		if (metrics == null) {
+			if (queries.size() >= MAX_SHAPES && !OTHER_SHAPE.equals(shape)) {
+				return forQuery(operation, model, OTHER_SHAPE);
+			}
+			QueryMetrics newMetrics = new QueryMetrics(operation, model, shape);
+			metrics = queries.putIfAbsent(key, newMetrics);
+			if (metrics == null) {
+				metrics = newMetrics;
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * @return the metrics of every query shape run so far.
+	 */
+	public static List<QueryMetrics> getQueries() {
+		return new ArrayList<QueryMetrics>(queries.values());
+	}
+
+	/**
+	 * @param route
+	 *            whose responses are compressed, e.g. the name of a view.
+	 *            Routes are not bounded like query shapes, so must not be
+	 *            built from request values.
+	 * @return the compression metrics of the route, created on first use.
+	 */
+	public static CompressionMetrics forCompression(String route) {
+		CompressionMetrics metrics = compression.get(route);
+		if (metrics == null) {
+			CompressionMetrics newMetrics = new CompressionMetrics(route);
+			metrics = compression.putIfAbsent(route, newMetrics);
+			if (metrics == null) {
+				metrics = newMetrics;
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * @return the compression metrics of every route compressed so far.
+	 */
+	public static List<CompressionMetrics> getCompression() {
+		return new ArrayList<CompressionMetrics>(compression.values());
+	}
+
+	/**
+	 * @param collector
+	 *            to call every time the metrics are written, until it is
+	 *            removed.
+	 */
+	public static void addCollector(MetricsCollector collector) {
+		collectors.add(collector);
+	}
+
+	public static void removeCollector(MetricsCollector collector) {
+		collectors.remove(collector);
+	}
+
+	/**
+	 * Adds every query's metrics, and those of the registered collectors, to
+	 * out.
+	 */
+	public static void writeTo(PrometheusWriter out) {
+		for (QueryMetrics query : queries.values()) {
+			String[] labels = { "operation", query.getOperation(), "model",
+					query.getModel(), "shape", query.getShape() };
+			out.summary("javango_query_duration_seconds",
+					"Time taken by each call of a query shape.",
+					query.getLatency(), 1e-9, labels);
+			out.gauge("javango_query_duration_max_seconds",
+					"Longest call of a query shape.",
+					query.getLatency().getMax() / 1e9, labels);
+			out.summary("javango_query_connection_wait_seconds",
+					"Time each call of a query shape waited for a connection.",
+					query.getConnectionWait(), 1e-9, labels);
+			out.counter("javango_query_errors_total",
+					"Calls of a query shape which failed.",
+					query.getErrorCount(), labels);
+			out.counter("javango_query_rows_total",
+					"Rows read or written by a query shape.",
+					query.getRowCount(), labels);
+			out.counter("javango_query_bytes_total",
+					"Approximate bytes of values read or written by a query shape.",
+					query.getByteCount(), labels);
+		}
+		for (CompressionMetrics route : compression.values()) {
+			String[] labels = { "route", route.getRoute() };
+			out.counter("javango_compression_responses_total",
+					"Responses compressed.", route.getCompressedCount(),
+					labels);
+			out.counter("javango_compression_uncompressed_responses_total",
+					"Responses sent uncompressed (too small, or not accepted).",
+					route.getUncompressedCount(), labels);
+			out.counter("javango_compression_cache_hits_total",
+					"Compressed responses sent from the cache.",
+					route.getCacheHitCount(), labels);
+			out.counter("javango_compression_bytes_in_total",
+					"Bytes of responses before compression.",
+					route.getBytesIn(), labels);
+			out.counter("javango_compression_bytes_out_total",
+					"Bytes of responses after compression.",
+					route.getBytesOut(), labels);
+			out.gauge("javango_compression_ratio",
+					"Bytes before compression per byte after it.",
+					route.getRatio(), labels);
+			out.counter("javango_compression_cpu_seconds_total",
+					"CPU time spent compressing responses.",
+					route.getCpuNanos() / 1e9, labels);
+		}
+		for (MetricsCollector collector : collectors) {
+			try {
+				collector.collect(out);
+			} catch (RuntimeException e) {
+				// One broken collector should not hide the other metrics.
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * @return every metric, in the Prometheus text format.
+	 */
+	public static String toPrometheus() {
+		PrometheusWriter out = new PrometheusWriter();
+		writeTo(out);
+		return out.toString();
+	}
+}
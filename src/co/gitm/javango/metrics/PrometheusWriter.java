@@ -0,0 +1,173 @@
+package co.gitm.javango.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds a page of metrics in the Prometheus text exposition format (version
+ * 0.0.4). Samples can be added in any order: they are grouped by metric name,
+ * under a single HELP and TYPE line each, when the page is written (see
+ * toString).
+ *
+ * Labels are given as name, value pairs, e.g.
+ *
+ * <pre>
+ * out.gauge("javango_pool_active", "Borrowed connections.", 3,
+ * 		"pool", "primary");
+ * </pre>
+ *
+ * Instances are not thread safe, each page needs its own.
+ *
+ */
+public class PrometheusWriter {
+	/**
+	 * Content type of the page.
+	 */
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+	private static final class Family {
+		final String help;
+		final String type;
+		final StringBuilder samples = new StringBuilder();
+
+		Family(String help, String type) {
+			this.help = help;
+			this.type = type;
+		}
+	}
+
+	private final Map<String, Family> families = new LinkedHashMap<String, Family>();
+
+	/**
+	 * Adds a sample of a value which only goes up (e.g. a number of calls).
+	 * By convention, the name should end in _total.
+	 */
+	public void counter(String name, String help, double value,
+			String... labels) {
+		this.sample(this.family(name, help, "counter"), name, labels, null,
+				value);
+	}
+
+	/**
+	 * Adds a sample of a value which can go up and down (e.g. a queue depth).
+	 */
+	public void gauge(String name, String help, double value,
+			String... labels) {
+		this.sample(this.family(name, help, "gauge"), name, labels, null,
+				value);
+	}
+
+	/**
+	 * Adds the 50th, 90th and 99th percentiles, sum and count of histogram as
+	 * a summary.
+	 *
+	 * @param scale
+	 *            to multiply recorded values by, e.g. 1e-9 to turn nanoseconds
+	 *            into seconds.
+	 */
+	public void summary(String name, String help, Histogram histogram,
+			double scale, String... labels) {
+		Family family = this.family(name, help, "summary");
+		for (double quantile : QUANTILES) {
+			this.sample(family, name, labels, Double.toString(quantile),
+					histogram.getPercentile(quantile) * scale);
+		}
+		this.sample(family, name + "_sum", labels, null, histogram.getSum()
+				* scale);
+		this.sample(family, name + "_count", labels, null,
+				histogram.getCount());
+	}
+
+	/**
+	 * @return the page.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder page = new StringBuilder();
+		for (Map.Entry<String, Family> entry : families.entrySet()) {
+			Family family = entry.getValue();
+			page.append("# HELP ").append(entry.getKey()).append(' ');
+			escape(page, family.help, false);
+			page.append('\n');
+			page.append("# TYPE ").append(entry.getKey()).append(' ')
+					.append(family.type).append('\n');
+			page.append(family.samples);
+		}
+		return page.toString();
+	}
+
+	private Family family(String name, String help, String type) {
+		Family family = families.get(name);
+		if (family == null) {
+			family = new Family(help, type);
+			families.put(name, family);
+		} else if (!family.type.equals(type)) {
+			throw new IllegalArgumentException(String.format(
+					"Metric %s is a %s, not a %s.", name, family.type, type));
+		}
+		return family;
+	}
+
+	private void sample(Family family, String name, String[] labels,
+			String quantile, double value) {
+		if (labels.length % 2 != 0) {
+			throw new IllegalArgumentException(
+					"Labels must be given as name, value pairs.");
+		}
+		StringBuilder line = family.samples;
+		line.append(name);
+		if (labels.length > 0 || quantile != null) {
+			line.append('{');
+			for (int i = 0; i < labels.length; i += 2) {
+				if (i > 0) {
+					line.append(',');
+				}
+				line.append(labels[i]).append("=\"");
+				escape(line, labels[i + 1] == null ? "" : labels[i + 1], true);
+				line.append('"');
+			}
+			if (quantile != null) {
+				if (labels.length > 0) {
+					line.append(',');
+				}
+				line.append("quantile=\"").append(quantile).append('"');
+			}
+			line.append('}');
+		}
+		line.append(' ').append(format(value)).append('\n');
+	}
+
+	private static String format(double value) {
+		if (Double.isNaN(value)) {
+			return "NaN";
+		}
+		if (Double.isInfinite(value)) {
+			return value > 0 ? "+Inf" : "-Inf";
+		}
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+		return Double.toString(value);
+	}
+
+	/**
+	 * Escapes backslashes and newlines (and double quotes in label values).
+	 */
+	private static void escape(StringBuilder out, String text,
+			boolean labelValue) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\\') {
+				out.append("\\\\");
+			} else if (c == '\n') {
+				out.append("\\n");
+			} else if (c == '"' && labelValue) {
+				out.append("\\\"");
+			} else {
+				out.append(c);
+			}
+		}
+	}
+}
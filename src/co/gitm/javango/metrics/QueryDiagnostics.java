@@ -0,0 +1,126 @@
+package co.gitm.javango.metrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds what is known about the cost of each query shape: its plan (read by the
+ * datasource in the background, see
+ * co.gitm.javango.data.mysql.QueryPlanAnalyzer) and the latest slow calls.
+ * Expensive plans and slow calls are logged to System.err when they are
+ * recorded, slow calls at most once every 10 seconds per shape. DiagnosticsView
+ * shows the shapes ranked by the total time spent running them.
+ *
+ */
+public final class QueryDiagnostics {
+	// Bounded like MetricsRegistry's shapes.
+	private static final int MAX_PLANS = 1000;
+	private static final int MAX_SLOW_QUERIES = 100;
+	private static final long SLOW_LOG_INTERVAL_MILLIS = 10 * 1000;
+
+	private static final ConcurrentHashMap<String, QueryPlan> plans = new ConcurrentHashMap<String, QueryPlan>();
+	// Newest first, guarded by itself.
+	private static final ArrayDeque<SlowQuery> slowQueries = new ArrayDeque<SlowQuery>();
+	// When slow calls of each shape were last logged.
+	private static final ConcurrentHashMap<String, Long> lastLogged = new ConcurrentHashMap<String, Long>();
+
+	private QueryDiagnostics() {
+	}
+
+	/**
+	 * @return whether shape has a plan (so does not need to be analyzed), or
+	 *         no more plans can be held.
+	 */
+	public static boolean hasPlan(String shape) {
+		return plans.containsKey(shape) || plans.size() >= MAX_PLANS;
+	}
+
+	public static QueryPlan getPlan(String shape) {
+		return plans.get(shape);
+	}
+
+	/**
+	 * @return the plan of every shape analyzed so far.
+	 */
+	public static List<QueryPlan> getPlans() {
+		return new ArrayList<QueryPlan>(plans.values());
+	}
+
+	/**
+	 * Records (and logs, if it is expensive) the plan of a shape.
+	 */
+	public static void addPlan(QueryPlan plan) {
+		if (plans.size() >= MAX_PLANS && !plans.containsKey(plan.getShape())) {
+			return;
+		}
+		plans.put(plan.getShape(), plan);
+		if (plan.isExpensive()) {
+			System.err.println(String.format("Expensive query on %s (%s): %s",
+					plan.getModel(), plan, plan.getShape()));
+		}
+	}
+
+	/**
+	 * Records (and logs, unless the shape was logged recently) a slow call.
+	 */
+	public static void addSlowQuery(SlowQuery query) {
+		synchronized (slowQueries) {
+			if (slowQueries.size() == MAX_SLOW_QUERIES) {
+				slowQueries.removeLast();
+			}
+			slowQueries.addFirst(query);
+		}
+		long now = System.currentTimeMillis();
+		Long last = lastLogged.get(query.getShape());
+		if (last == null || now - last >= SLOW_LOG_INTERVAL_MILLIS) {
+			if (lastLogged.size() >= MAX_PLANS) {
+				lastLogged.clear();
+			}
+			lastLogged.put(query.getShape(), now);
+			System.err.println("Slow query: " + query);
+		}
+	}
+
+	/**
+	 * @return the latest slow calls, newest first.
+	 */
+	public static List<SlowQuery> getSlowQueries() {
+		synchronized (slowQueries) {
+			return new ArrayList<SlowQuery>(slowQueries);
+		}
+	}
+
+	/**
+	 * @return the slow calls of shape (from the latest ones), newest first.
+	 */
+	public static List<SlowQuery> getSlowQueries(String shape) {
+		List<SlowQuery> matching = new ArrayList<SlowQuery>();
+		for (SlowQuery query : getSlowQueries()) {
+			if (query.getShape().equals(shape)) {
+				matching.add(query);
+			}
+		}
+		return matching;
+	}
+
+	/**
+	 * @return the metrics of every query shape, the one which has taken the
+	 *         most time in total first.
+	 */
+	public static List<QueryMetrics> rankByTotalTime() {
+		List<QueryMetrics> queries = MetricsRegistry.getQueries();
+		Collections.sort(queries, new Comparator<QueryMetrics>() {
+			@Override
+			public int compare(QueryMetrics a, QueryMetrics b) {
+				long x = a.getLatency().getSum();
+				long y = b.getLatency().getSum();
+				return x > y ? -1 : x < y ? 1 : 0;
+			}
+		});
+		return queries;
+	}
+}
@@ -0,0 +1,132 @@
+package co.gitm.javango.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics for one query shape (e.g. the SQL text of a SELECT, with ?
+ * placeholders) of one model: how many times it was run and how long it took,
+ * how long it waited for a connection, how many rows (and roughly how many
+ * bytes of values) it read or wrote, and how many times it failed. Get
+ * instances from MetricsRegistry.forQuery.
+ *
+ * Recording is lock-free, so instances can be shared by every thread running
+ * the query.
+ *
+ */
+public class QueryMetrics {
+	private final String operation;
+	private final String model;
+	private final String shape;
+	private final Histogram latency = new Histogram();
+	private final Histogram connectionWait = new Histogram();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong rows = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+
+	QueryMetrics(String operation, String model, String shape) {
+		this.operation = operation;
+		this.model = model;
+		this.shape = shape;
+	}
+
+	/**
+	 * @return what the query does, e.g. select, stream, insert.
+	 */
+	public String getOperation() {
+		return operation;
+	}
+
+	/**
+	 * @return the name of the model (i.e. the table) the query is run on.
+	 */
+	public String getModel() {
+		return model;
+	}
+
+	public String getShape() {
+		return shape;
+	}
+
+	/**
+	 * Records one run of the query.
+	 *
+	 * @param nanos
+	 *            from the start of the call to its end (including the wait
+	 *            for a connection).
+	 * @param failed
+	 *            whether the call failed.
+	 */
+	public void recordCall(long nanos, boolean failed) {
+		latency.record(nanos);
+		if (failed) {
+			errors.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Records a failure after the call itself finished (e.g. while a cursor
+	 * was being read).
+	 */
+	public void recordError() {
+		errors.incrementAndGet();
+	}
+
+	/**
+	 * @param nanos
+	 *            spent waiting to borrow a connection.
+	 */
+	public void recordConnectionWait(long nanos) {
+		connectionWait.record(nanos);
+	}
+
+	/**
+	 * @param rowCount
+	 *            read (or written) by a call.
+	 * @param byteCount
+	 *            roughly how many bytes of values the rows held.
+	 */
+	public void recordRows(long rowCount, long byteCount) {
+		rows.addAndGet(rowCount);
+		bytes.addAndGet(byteCount);
+	}
+
+	public long getCallCount() {
+		return latency.getCount();
+	}
+
+	public long getErrorCount() {
+		return errors.get();
+	}
+
+	public long getRowCount() {
+		return rows.get();
+	}
+
+	public long getByteCount() {
+		return bytes.get();
+	}
+
+	/**
+	 * @return the latency of each call, in nanoseconds.
+	 */
+	public Histogram getLatency() {
+		return latency;
+	}
+
+	/**
+	 * @return the time each call waited for a connection, in nanoseconds.
+	 */
+	public Histogram getConnectionWait() {
+		return connectionWait;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"QueryMetrics[%s %s, calls=%d, errors=%d, rows=%d, p50=%.3fms, p99=%.3fms, max=%.3fms] %s",
+				operation, model, this.getCallCount(), errors.get(),
+				rows.get(), latency.getPercentile(0.5) / 1e6,
+				latency.getPercentile(0.99) / 1e6, latency.getMax() / 1e6,
+				shape);
+	}
+}
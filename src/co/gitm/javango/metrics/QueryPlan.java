@@ -0,0 +1,133 @@
+package co.gitm.javango.metrics;
+
+/**
+ * What a datasource said about how it runs one query shape (e.g. the output of
+ * MySQL's EXPLAIN): whether it reads every row of a table (a full scan), sorts
+ * the rows itself rather than reading them in index order (a filesort), or
+ * builds a temporary table, which keys it uses and roughly how many rows it
+ * reads.
+ *
+ * Plans are immutable.
+ *
+ */
+public final class QueryPlan {
+	private final String model;
+	private final String shape;
+	private final boolean fullScan;
+	private final boolean filesort;
+	private final boolean temporary;
+	private final long estimatedRows;
+	private final String keys;
+	private final String error;
+	private final long analyzedAt = System.currentTimeMillis();
+
+	/**
+	 * @param keys
+	 *            the indexes the query uses (comma separated), or null if it
+	 *            uses none.
+	 * @param estimatedRows
+	 *            roughly how many rows the query reads, or -1 if not known.
+	 */
+	public QueryPlan(String model, String shape, boolean fullScan,
+			boolean filesort, boolean temporary, long estimatedRows,
+			String keys) {
+		this.model = model;
+		this.shape = shape;
+		this.fullScan = fullScan;
+		this.filesort = filesort;
+		this.temporary = temporary;
+		this.estimatedRows = estimatedRows;
+		this.keys = keys;
+		this.error = null;
+	}
+
+	/**
+	 * @return the plan of a shape which could not be analyzed.
+	 */
+	public static QueryPlan failed(String model, String shape, String error) {
+		return new QueryPlan(model, shape, error);
+	}
+
+	private QueryPlan(String model, String shape, String error) {
+		this.model = model;
+		this.shape = shape;
+		this.fullScan = false;
+		this.filesort = false;
+		this.temporary = false;
+		this.estimatedRows = -1;
+		this.keys = null;
+		this.error = error;
+	}
+
+	public String getModel() {
+		return model;
+	}
+
+	public String getShape() {
+		return shape;
+	}
+
+	public boolean isFullScan() {
+		return fullScan;
+	}
+
+	public boolean isFilesort() {
+		return filesort;
+	}
+
+	public boolean isTemporary() {
+		return temporary;
+	}
+
+	public long getEstimatedRows() {
+		return estimatedRows;
+	}
+
+	public String getKeys() {
+		return keys;
+	}
+
+	/**
+	 * @return why the shape could not be analyzed, or null if it was.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * @return when (System.currentTimeMillis) the shape was analyzed.
+	 */
+	public long getAnalyzedAt() {
+		return analyzedAt;
+	}
+
+	/**
+	 * @return whether the plan does something which gets slower as the table
+	 *         grows (a full scan, filesort or temporary table).
+	 */
+	public boolean isExpensive() {
+		return fullScan || filesort || temporary;
+	}
+
+	@Override
+	public String toString() {
+		if (error != null) {
+			return "not analyzed (" + error + ")";
+		}
+		StringBuilder s = new StringBuilder();
+		if (fullScan) {
+			s.append("full scan, ");
+		}
+		if (filesort) {
+			s.append("filesort, ");
+		}
+		if (temporary) {
+			s.append("temporary table, ");
+		}
+		s.append(keys != null ? "keys " + keys : "no keys");
+		if (estimatedRows >= 0) {
+			s.append(", ~").append(estimatedRows).append(" rows");
+		}
+		return s.toString();
+	}
+}
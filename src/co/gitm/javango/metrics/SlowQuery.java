@@ -0,0 +1,65 @@
+package co.gitm.javango.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A call which took longer than the diagnostics slowquery setting: its shape,
+ * the values bound to it and how long it took. Samples are immutable.
+ *
+ */
+public final class SlowQuery {
+	private final String operation;
+	private final String model;
+	private final String shape;
+	private final List<Object> parameters;
+	private final long nanos;
+	private final long at = System.currentTimeMillis();
+
+	public SlowQuery(String operation, String model, String shape,
+			Object[] parameters, long nanos) {
+		this.operation = operation;
+		this.model = model;
+		this.shape = shape;
+		this.parameters = parameters == null ? null : Arrays
+				.asList(parameters.clone());
+		this.nanos = nanos;
+	}
+
+	public String getOperation() {
+		return operation;
+	}
+
+	public String getModel() {
+		return model;
+	}
+
+	public String getShape() {
+		return shape;
+	}
+
+	/**
+	 * @return the values bound to the shape's placeholders, or null if they
+	 *         are not known.
+	 */
+	public List<Object> getParameters() {
+		return parameters;
+	}
+
+	public long getNanos() {
+		return nanos;
+	}
+
+	/**
+	 * @return when (System.currentTimeMillis) the call finished.
+	 */
+	public long getAt() {
+		return at;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s %s took %.1fms: %s %s", operation, model,
+				nanos / 1e6, shape, parameters);
+	}
+}
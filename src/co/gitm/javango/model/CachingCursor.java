@@ -0,0 +1,85 @@
+package co.gitm.javango.model;
+
+import co.gitm.javango.data.DataCursor;
+import co.gitm.javango.data.DataObject;
+import co.gitm.javango.data.DataObjectArray;
+import co.gitm.javango.data.Query;
+
+/**
+ * Passes on the objects of a cursor streamed from a DataSource, keeping a copy
+ * of them while there are few enough to cache (see QueryCache.fits). If the
+ * cursor is read to the end without outgrowing the cache, the copy is cached
+ * as the results of the query. Cursors which are closed early, fail, or turn
+ * out to be too large are not cached, and stop keeping a copy as soon as they
+ * do.
+ * 
+ * Created by Model.streamWithQuery.
+ * 
+ */
+class CachingCursor implements DataCursor {
+	private final DataCursor cursor;
+	private final QueryCache cache;
+	private final Query query;
+	private final long generation;
+	// Objects read so far, or null once they will not be cached.
+	private DataObjectArray results = new DataObjectArray();
+
+	/**
+	 * @param generation
+	 *            of cache, taken before cursor was opened.
+	 */
+	CachingCursor(DataCursor cursor, QueryCache cache, Query query,
+			long generation) {
+		this.cursor = cursor;
+		this.cache = cache;
+		this.query = query;
+		this.generation = generation;
+	}
+
+	@Override
+	public boolean hasNext() {
+		boolean hasNext;
+		try {
+			hasNext = cursor.hasNext();
+		} catch (RuntimeException e) {
+			results = null;
+			throw e;
+		}
+		if (!hasNext && results != null) {
+			cache.put(query, results, generation);
+			results = null;
+		}
+		return hasNext;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public DataObject next() {
+		DataObject object;
+		try {
+			object = cursor.next();
+		} catch (RuntimeException e) {
+			results = null;
+			throw e;
+		}
+		if (results != null) {
+			if (cache.fits(results.size() + 1)) {
+				results.add(object);
+			} else {
+				results = null;
+			}
+		}
+		return object;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() {
+		results = null;
+		cursor.close();
+	}
+}
@@ -0,0 +1,179 @@
+package co.gitm.javango.model;
+
+/**
+ * Describes one field of a model's objects (e.g. a column of its table): its
+ * name, its type, whether it may be null (or left out of new objects), and the
+ * maximum length of its values (for STRING fields). Fields whose values are
+ * generated by the datasource (e.g. an auto-increment id) may be left out of
+ * new objects. Fields which the datasource has an index on are marked with
+ * indexed (generated fields always are), see UnindexedFilterPolicy.
+ * 
+ * Models list their fields in defineFields, e.g.
+ * 
+ * <pre>
+ * Field.generated(&quot;id&quot;, FieldType.INTEGER),
+ * Field.required(&quot;title&quot;, FieldType.STRING, 255).indexed(),
+ * Field.optional(&quot;rrp&quot;, FieldType.DECIMAL)
+ * </pre>
+ * 
+ * Fields are immutable.
+ * 
+ */
+public final class Field {
+	/**
+	 * maxLength of fields whose length is not limited.
+	 */
+	public static final int UNLIMITED = -1;
+
+	private final String name;
+	private final FieldType type;
+	private final boolean nullable;
+	private final int maxLength;
+	private final boolean generated;
+	private final boolean indexed;
+
+	/**
+	 * @param name
+	 *            of the field (e.g. the column name).
+	 * @param type
+	 *            of the field's values.
+	 * @param nullable
+	 *            whether the field's value may be null.
+	 * @param maxLength
+	 *            the maximum number of characters in a STRING field's values,
+	 *            or UNLIMITED.
+	 * @param generated
+	 *            whether the datasource generates the field's value, so that
+	 *            it can be left out of new objects.
+	 */
+	public Field(String name, FieldType type, boolean nullable,
+			int maxLength, boolean generated) {
+		this(name, type, nullable, maxLength, generated, generated);
+	}
+
+	/**
+	 * Same as Field(name, type, nullable, maxLength, generated), except that
+	 * it is also said whether the datasource has an index on the field.
+	 */
+	public Field(String name, FieldType type, boolean nullable,
+			int maxLength, boolean generated, boolean indexed) {
+		if (name == null || type == null) {
+			throw new IllegalArgumentException(
+					"A field needs a name and a type.");
+		}
+		this.name = name;
+		this.type = type;
+		this.nullable = nullable;
+		this.maxLength = maxLength;
+		this.generated = generated;
+		this.indexed = indexed;
+	}
+
+	/**
+	 * @return a field which every new object must have a (non-null) value
+	 *         for.
+	 */
+	public static Field required(String name, FieldType type) {
+		return new Field(name, type, false, UNLIMITED, false);
+	}
+
+	/**
+	 * @return a required STRING (or other) field whose values may be at most
+	 *         maxLength characters long.
+	 */
+	public static Field required(String name, FieldType type, int maxLength) {
+		return new Field(name, type, false, maxLength, false);
+	}
+
+	/**
+	 * @return a field which may be null, or left out of new objects.
+	 */
+	public static Field optional(String name, FieldType type) {
+		return new Field(name, type, true, UNLIMITED, false);
+	}
+
+	/**
+	 * @return an optional field whose values may be at most maxLength
+	 *         characters long.
+	 */
+	public static Field optional(String name, FieldType type, int maxLength) {
+		return new Field(name, type, true, maxLength, false);
+	}
+
+	/**
+	 * @return a field whose value is generated by the datasource (e.g. an
+	 *         auto-increment primary key).
+	 */
+	public static Field generated(String name, FieldType type) {
+		return new Field(name, type, false, UNLIMITED, true);
+	}
+
+	/**
+	 * @return a copy of the field, which the datasource has an index on (so
+	 *         filtering on it does not scan every object).
+	 */
+	public Field indexed() {
+		return new Field(name, type, nullable, maxLength, generated, true);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public FieldType getType() {
+		return type;
+	}
+
+	public boolean isNullable() {
+		return nullable;
+	}
+
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	public boolean isGenerated() {
+		return generated;
+	}
+
+	public boolean isIndexed() {
+		return indexed;
+	}
+
+	/**
+	 * @return whether new objects must have a non-null value for the field.
+	 */
+	public boolean isRequired() {
+		return !nullable && !generated;
+	}
+
+	/**
+	 * @param value
+	 *            of the field in a new object.
+	 * @return why value is not valid for the field, or null if it is.
+	 */
+	public String check(Object value) {
+		if (value == null) {
+			return nullable || generated ? null : "must not be null";
+		}
+		String problem = type.check(value);
+		if (problem == null && maxLength != UNLIMITED
+				&& value instanceof String) {
+			String s = (String) value;
+			// Lengths are in characters, as in MySQL, not UTF-16 units.
+			if (s.length() > maxLength
+					&& s.codePointCount(0, s.length()) > maxLength) {
+				problem = "must be at most " + maxLength + " characters long";
+			}
+		}
+		return problem;
+	}
+
+	@Override
+	public String toString() {
+		return name + ":" + type + (nullable ? "?" : "")
+				+ (maxLength != UNLIMITED ? "(" + maxLength + ")" : "")
+				+ (generated ? " (generated)" : "")
+				+ (indexed ? " (indexed)" : "");
+	}
+}
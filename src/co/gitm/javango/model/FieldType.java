@@ -0,0 +1,127 @@
+package co.gitm.javango.model;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.Date;
+
+/**
+ * The type of a model Field. Each type knows which Java values (as parsed from
+ * JSON by JsonReader, or built by application code) can be stored in a field of
+ * that type, so that objects can be checked before they are sent to the
+ * datasource.
+ * 
+ */
+public enum FieldType {
+	/**
+	 * A 32-bit whole number (e.g. MySQL INT).
+	 */
+	INTEGER {
+		@Override
+		String check(Object value) {
+			Long number = wholeNumber(value);
+			if (number == null || number < Integer.MIN_VALUE
+					|| number > Integer.MAX_VALUE) {
+				return "must be a whole number between " + Integer.MIN_VALUE
+						+ " and " + Integer.MAX_VALUE;
+			}
+			return null;
+		}
+	},
+	/**
+	 * A 64-bit whole number (e.g. MySQL BIGINT).
+	 */
+	LONG {
+		@Override
+		String check(Object value) {
+			return wholeNumber(value) == null ? "must be a whole number between "
+					+ Long.MIN_VALUE + " and " + Long.MAX_VALUE
+					: null;
+		}
+	},
+	/**
+	 * Any number (e.g. MySQL DECIMAL or DOUBLE).
+	 */
+	DECIMAL {
+		@Override
+		String check(Object value) {
+			if (value instanceof Double || value instanceof Float) {
+				double d = ((Number) value).doubleValue();
+				return Double.isNaN(d) || Double.isInfinite(d) ? "must be a finite number"
+						: null;
+			}
+			return value instanceof Number ? null : "must be a number";
+		}
+	},
+	/**
+	 * true or false (e.g. MySQL BOOLEAN).
+	 */
+	BOOLEAN {
+		@Override
+		String check(Object value) {
+			return value instanceof Boolean ? null : "must be true or false";
+		}
+	},
+	/**
+	 * Text (e.g. MySQL VARCHAR or TEXT). Its length can be limited, see
+	 * Field.
+	 */
+	STRING {
+		@Override
+		String check(Object value) {
+			return value instanceof String ? null : "must be a string";
+		}
+	},
+	/**
+	 * A point in time (e.g. MySQL DATETIME), given either as a Date or as a
+	 * string in JDBC format (yyyy-mm-dd hh:mm:ss[.f...]).
+	 */
+	TIMESTAMP {
+		@Override
+		String check(Object value) {
+			if (value instanceof Date) {
+				return null;
+			}
+			if (value instanceof String) {
+				try {
+					Timestamp.valueOf((String) value);
+					return null;
+				} catch (IllegalArgumentException e) {
+					// Fall through.
+				}
+			}
+			return "must be a timestamp (yyyy-mm-dd hh:mm:ss)";
+		}
+	};
+
+	/**
+	 * @param value
+	 *            to check (never null, nullability is checked by Field).
+	 * @return why value cannot be stored in a field of this type, or null if
+	 *         it can.
+	 */
+	abstract String check(Object value);
+
+	/**
+	 * @return value as a long, or null if it is not a whole number which fits
+	 *         in one.
+	 */
+	private static Long wholeNumber(Object value) {
+		if (value instanceof Long || value instanceof Integer
+				|| value instanceof Short || value instanceof Byte) {
+			return ((Number) value).longValue();
+		}
+		if (value instanceof BigInteger) {
+			BigInteger big = (BigInteger) value;
+			return big.bitLength() < 64 ? Long.valueOf(big.longValue()) : null;
+		}
+		if (value instanceof BigDecimal) {
+			try {
+				return ((BigDecimal) value).longValueExact();
+			} catch (ArithmeticException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,49 @@
+package co.gitm.javango.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the version of each model in memory. Versions start at the time (in
+ * milliseconds) they are first asked for, rather than at 0, so that a restarted
+ * server does not hand out the versions (and so the ETags) of the data it had
+ * before.
+ *
+ * Writes made through other servers are not seen, so this is only suitable for
+ * a single server (or models which are only written to through one).
+ *
+ */
+public class LocalVersionStore implements VersionStore {
+	/**
+	 * Store used by models which have not been given another one (see
+	 * Model.setVersionStore).
+	 */
+	public static final LocalVersionStore DEFAULT = new LocalVersionStore();
+
+	private final ConcurrentHashMap<String, AtomicLong> versions = new ConcurrentHashMap<String, AtomicLong>();
+
+	@Override
+	public long getVersion(String modelName) {
+		return this.versionOf(modelName).get();
+	}
+
+	@Override
+	public void increment(String modelName) {
+		this.versionOf(modelName).incrementAndGet();
+	}
+
+	/**
+	 * @return the version counter of the model, created on first use.
+	 */
+	private AtomicLong versionOf(String modelName) {
+		AtomicLong version = versions.get(modelName);
+		if (version == null) {
+			AtomicLong newVersion = new AtomicLong(System.currentTimeMillis());
+			version = versions.putIfAbsent(modelName, newVersion);
+			if (version == null) {
+				version = newVersion;
+			}
+		}
+		return version;
+	}
+}
@@ -1,16 +1,30 @@
 package co.gitm.javango.model;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 
+import co.gitm.javango.config.Config;
+import co.gitm.javango.data.DataCursor;
 import co.gitm.javango.data.DataObject;
 import co.gitm.javango.data.DataObjectArray;
+import co.gitm.javango.data.DataObjectArrayCursor;
 import co.gitm.javango.data.Query;
 import co.gitm.javango.data.DataSource;
+import co.gitm.javango.data.async.DataExecutor;
+import co.gitm.javango.data.async.DataFuture;
+import co.gitm.javango.data.async.DataFutures;
+import co.gitm.javango.data.async.DeadLetterHandler;
+import co.gitm.javango.data.async.WriteBehindQueue;
 import co.gitm.javango.data.exceptions.CreateException;
+import co.gitm.javango.data.exceptions.DeleteException;
+import co.gitm.javango.data.exceptions.RetrieveException;
+import co.gitm.javango.data.exceptions.UnindexedFilterException;
+import co.gitm.javango.data.exceptions.UpdateException;
+import co.gitm.javango.data.exceptions.ValidationException;
 
 /**
  * @author Alex McLeod
@@ -18,14 +32,65 @@ import co.gitm.javango.data.exceptions.CreateException;
  *         Models are responsible for defining and interacting with application
  *         resources/data. Each model in the application must inherit from this
  *         class and implement three abstract methods: getDataSource, getName
- *         and getFields. These methods are then used by this class (i.e. the
- *         parent class) to getAll, getWithFilter and createNew child-defined
- *         model objects from the child-designated datasource.
+ *         and defineFields. These methods are then used by this class (i.e.
+ *         the parent class) to getAll, getWithFilter and createNew
+ *         child-defined model objects from the child-designated datasource.
  *         
- *         Models recieve and return DataObjectArray's of DataObjects.
+ *         The Fields returned by defineFields (their names, types, whether
+ *         they may be null and their maximum lengths) are compiled into a
+ *         ModelSchema once per child-class. It is used to check filters and
+ *         queries, and to validate new objects before they are sent to the
+ *         datasource, so that invalid objects never use up a connection.
+ *         
+ *         Models recieve and return DataObjectArray's of DataObjects, or
+ *         DataCursors (see streamAll and streamWithFilter) for object sets
+ *         which are too large to hold in memory.
+ *         
+ *         Child-classes whose objects are read far more often than they are
+ *         written can override isCached, so that query results are kept in a
+ *         QueryCache (shared by every instance of the child-class) until they
+ *         expire or the model is written to (through createNew, createAll,
+ *         updateWithFilter or deleteWithFilter). Only results of up to
+ *         getCacheMaxRows objects are cached. Streamed queries (see
+ *         streamWithQuery) are still streamed on a miss, and only kept if
+ *         they turn out to be small enough. Cached results are shared between
+ *         callers, so must not be modified.
+ *         
+ *         The *Async methods return a DataFuture straight away and run the
+ *         datasource call on the model's DataExecutor (set by
+ *         JavangoApplication), for callers which have other work to do while
+ *         it runs. Views call the blocking methods instead, since the
+ *         request thread would only wait for the future.
+ *         
+ *         Child-classes which take in large numbers of new objects (e.g.
+ *         events) can override isWriteBehind, so that createNew only
+ *         validates each object and queues it, and the objects are written
+ *         to the datasource in batches by a WriteBehindQueue. Objects which
+ *         cannot be written are given to getDeadLetterHandler.
+ *         
+ *         Filters which only use fields that the datasource has no index on
+ *         (see Field.indexed) make it read every object. Child-classes can
+ *         override getUnindexedFilterPolicy to rate-limit or refuse them.
+ *         Refused filters are refused by newQuery, but rate-limited ones only
+ *         use up a permit when the datasource is actually queried, so that
+ *         results answered from a cache (or with 304 Not Modified) are not
+ *         limited.
+ *         
+ *         Every write bumps the model's version (see getVersion), which views
+ *         use to answer repeated queries with 304 Not Modified while nothing
+ *         has changed. Versions are kept in the model's VersionStore (set by
+ *         JavangoApplication), which can be shared between servers.
  * 
  */
 public abstract class Model {
+	// Runs the *Async calls, or null to run them on the calling thread.
+	private volatile DataExecutor executor = null;
+	// Created on first use, if the model is write-behind.
+	private WriteBehindQueue writeBehindQueue = null;
+	private volatile VersionStore versionStore = LocalVersionStore.DEFAULT;
+	// Last version returned by getVersion, to spot writes made elsewhere.
+	private volatile long lastVersion = VersionStore.UNKNOWN;
+
 	/**
 	 * @return the datasource which the child-class uses to store the objects it
 	 *         defines (e.g. MySQL database).
@@ -39,15 +104,219 @@ public abstract class Model {
 	public abstract String getName();
 
 	/**
-	 * @return the list of fields which make up each child-class object.
+	 * @return the fields which make up each child-class object. Only called
+	 *         once per child-class (see ModelSchema.forModel), so the fields
+	 *         must not depend on the instance.
+	 */
+	protected abstract List<Field> defineFields();
+
+	/**
+	 * @return the compiled schema of the child-class, shared by all of its
+	 *         instances.
+	 */
+	public ModelSchema getSchema() {
+		return ModelSchema.forModel(this);
+	}
+
+	/**
+	 * @return the names of the fields which make up each child-class object.
+	 *         The list cannot be modified.
+	 */
+	public List<String> getFields() {
+		return this.getSchema().getFieldNames();
+	}
+
+	/**
+	 * @param obj
+	 *            to check against the child-class's fields.
+	 * @throws ValidationException
+	 *             if obj has fields which the child-class does not have,
+	 *             values of the wrong type (or too long), or is missing
+	 *             required fields.
+	 */
+	public void validate(DataObject obj) throws ValidationException {
+		this.getSchema().validate(obj, -1);
+	}
+
+	/**
+	 * @return the name of a field which uniquely identifies each child-class
+	 *         object (e.g. the table's primary key). It is used to give
+	 *         results a well defined order, so that they can be paged
+	 *         through. Child-classes whose key is not "id" should override
+	 *         this.
+	 */
+	public String getKeyField() {
+		return "id";
+	}
+
+	/**
+	 * @return whether results of this model's queries should be cached (see
+	 *         QueryCache). False by default, child-classes whose datasource is
+	 *         only written to through this model can override this.
+	 */
+	protected boolean isCached() {
+		return false;
+	}
+
+	/**
+	 * @return how long cached results stay valid for. Defaults to the cache
+	 *         ttl setting in the configuration file.
+	 */
+	protected long getCacheTtlMillis() {
+		return Config.get().getCache().getTtlMillis();
+	}
+
+	/**
+	 * @return maximum number of query results to cache. Defaults to the cache
+	 *         maxentries setting in the configuration file.
+	 */
+	protected int getCacheMaxEntries() {
+		return Config.get().getCache().getMaxEntries();
+	}
+
+	/**
+	 * @return the most objects a cached result may hold. Defaults to the cache
+	 *         maxrows setting in the configuration file.
+	 */
+	protected int getCacheMaxRows() {
+		return Config.get().getCache().getMaxRows();
+	}
+
+	/**
+	 * @return the cache shared by every instance of the child-class, or null
+	 *         if it is not cached.
+	 */
+	public QueryCache getCache() {
+		if (!this.isCached()) {
+			return null;
+		}
+		return QueryCache.forModel(this.getName(), this.getCacheMaxEntries(),
+				this.getCacheMaxRows(), this.getCacheTtlMillis());
+	}
+
+	/**
+	 * @param executor
+	 *            to run the model's asynchronous calls on (or null to run them
+	 *            on the calling thread).
+	 */
+	public void setExecutor(DataExecutor executor) {
+		this.executor = executor;
+	}
+
+	public DataExecutor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * @param versionStore
+	 *            to keep the model's version in (see getVersion).
+	 */
+	public void setVersionStore(VersionStore versionStore) {
+		this.versionStore = versionStore;
+		this.lastVersion = VersionStore.UNKNOWN;
+	}
+
+	public VersionStore getVersionStore() {
+		return versionStore;
+	}
+
+	/**
+	 * @return a stamp which changes every time the model is written to
+	 *         (through this or, if the VersionStore is shared, any other
+	 *         server), or VersionStore.UNKNOWN if it cannot be read. It must
+	 *         be taken before querying the model, so that results read
+	 *         after a write are never stamped with the version from before
+	 *         it. If the version has changed since it was last taken, the
+	 *         model's cached results are dropped, since they may have been
+	 *         made stale by a write on another server.
+	 */
+	public long getVersion() {
+		long version = versionStore.getVersion(this.getName());
+		if (version != VersionStore.UNKNOWN && version != lastVersion) {
+			lastVersion = version;
+			this.invalidateCache();
+		}
+		return version;
+	}
+
+	/**
+	 * @return whether new objects should be queued and written in batches
+	 *         (see WriteBehindQueue) rather than written by createNew. False
+	 *         by default, child-classes whose objects are not read back
+	 *         straight away and can afford to be lost if the process dies can
+	 *         override this.
 	 */
-	public abstract List<String> getFields();
+	protected boolean isWriteBehind() {
+		return false;
+	}
+
+	/**
+	 * @return what to do with queued objects which could not be written.
+	 *         Logs them by default.
+	 */
+	protected DeadLetterHandler getDeadLetterHandler() {
+		return WriteBehindQueue.LOG_DEAD_LETTERS;
+	}
+
+	/**
+	 * @return the queue which new objects are written through, creating it on
+	 *         first use, or null if the model is not write-behind.
+	 */
+	public synchronized WriteBehindQueue getWriteBehindQueue() {
+		if (writeBehindQueue == null && this.isWriteBehind()) {
+			writeBehindQueue = new WriteBehindQueue(this.getName(),
+					this.getDataSource(), Config.get().getWriteBehind(),
+					this.getDeadLetterHandler(), new Runnable() {
+						@Override
+						public void run() {
+							Model.this.written();
+						}
+					});
+		}
+		return writeBehindQueue;
+	}
+
+	/**
+	 * Stops the model's write-behind queue (if it has one), waiting up to
+	 * timeoutMillis for the objects in it to be written. Called by
+	 * JavangoApplication when it stops.
+	 */
+	public void stopWriteBehind(long timeoutMillis)
+			throws InterruptedException {
+		WriteBehindQueue queue;
+		synchronized (this) {
+			queue = writeBehindQueue;
+			writeBehindQueue = null;
+		}
+		if (queue != null) {
+			queue.shutdown(timeoutMillis);
+		}
+	}
+
+	/**
+	 * @return what newQuery does with filters which only use unindexed
+	 *         fields. ALLOW by default.
+	 */
+	protected UnindexedFilterPolicy getUnindexedFilterPolicy() {
+		return UnindexedFilterPolicy.ALLOW;
+	}
+
+	/**
+	 * @return how many filters which only use unindexed fields are allowed
+	 *         per second under the RATE_LIMIT policy. Defaults to the
+	 *         diagnostics unindexedrate setting in the configuration file.
+	 */
+	protected int getUnindexedFilterRate() {
+		return Config.get().getDiagnostics().getUnindexedFilterRate();
+	}
 
 	/**
 	 * @return all objects defined by the child-class from the datasource.
+	 * @throws RetrieveException
+	 *             if the datasource could not be queried.
 	 */
-	public DataObjectArray getAll() {
-		return this.getDataSource().retrieve(new Query(this.getName()));
+	public DataObjectArray getAll() throws RetrieveException {
+		return this.retrieve(new Query(this.getName()));
 	}
 
 	/**
@@ -60,22 +329,136 @@ public abstract class Model {
 	 *             if one or more of the keys in the map does not exist in the
 	 *             model's fields. Will pass these invalid keys back to the
 	 *             caller (as a string).
+	 * @throws RetrieveException
+	 *             if the datasource could not be queried.
 	 */
 	public DataObjectArray getWithFilter(Map<String, String> filter)
+			throws NoSuchFieldException, RetrieveException {
+		return this.retrieve(this.newQuery(filter));
+	}
+
+	/**
+	 * @param query
+	 *            built with newQuery (and then e.g. given an order or a page).
+	 *            It must not be modified afterwards, as it may be used as a
+	 *            cache key.
+	 * @return the child-class objects which match the query.
+	 * @throws NoSuchFieldException
+	 *             if the query is ordered by, or selects, a field which does
+	 *             not exist in the model's fields.
+	 * @throws RetrieveException
+	 *             if the datasource could not be queried.
+	 */
+	public DataObjectArray getWithQuery(Query query)
+			throws NoSuchFieldException, RetrieveException {
+		this.checkQuery(query);
+		return this.retrieve(query);
+	}
+
+	/**
+	 * Same as getWithFilter, except that the datasource is queried
+	 * asynchronously.
+	 * 
+	 * @return a future which completes with the filtered child-class object
+	 *         set, or fails with a RetrieveException.
+	 * @throws NoSuchFieldException
+	 *             if one or more of the keys in the filter does not exist in
+	 *             the model's fields.
+	 */
+	public DataFuture<DataObjectArray> getWithFilterAsync(
+			Map<String, String> filter) throws NoSuchFieldException {
+		return this.getWithQueryAsync(this.newQuery(filter));
+	}
+
+	/**
+	 * Same as getWithQuery, except that the datasource is queried
+	 * asynchronously. Cached results are returned in an already completed
+	 * future.
+	 * 
+	 * @return a future which completes with the child-class objects which
+	 *         match the query, or fails with a RetrieveException.
+	 * @throws NoSuchFieldException
+	 *             if the query is ordered by, or selects, a field which does
+	 *             not exist in the model's fields.
+	 */
+	public DataFuture<DataObjectArray> getWithQueryAsync(final Query query)
 			throws NoSuchFieldException {
-		// Check if any fields in filter are invalid.
-		// NOTE: Need to create new HashMap from filter, or else filter will be
-		// modified by findInvalidFields method.
-		Set invalidFields = this.findFieldsNotInModel(new HashMap(filter));
-		if (!invalidFields.isEmpty()) {
-			throw new NoSuchFieldException(invalidFields.toString());
+		this.checkQuery(query);
+		final QueryCache cache = this.getCache();
+		if (cache != null) {
+			DataObjectArray results = cache.get(query);
+			if (results != null) {
+				return DataFutures.completed(results);
+			}
 		}
-		// If there are no invalid fields, create a new Query object with this
-		// filter, and use it to Query the datasource.
-		Query query = new Query();
-		query.setObjectName(this.getName());
-		query.setFilter(filter);
-		return this.getDataSource().retrieve(query);
+		try {
+			this.acquireUnindexed(query);
+		} catch (UnindexedFilterException e) {
+			return DataFutures.failed(e);
+		}
+		return this.submit(new Callable<DataObjectArray>() {
+			@Override
+			public DataObjectArray call() throws Exception {
+				return Model.this.load(query, cache);
+			}
+		});
+	}
+
+	/**
+	 * @return a cursor over all objects defined by the child-class in the
+	 *         datasource. Objects are read from the datasource as the cursor
+	 *         is iterated over, so this should be used instead of getAll for
+	 *         large object sets. The caller must close the cursor.
+	 * @throws RetrieveException
+	 *             if the datasource could not be queried.
+	 */
+	public DataCursor streamAll() throws RetrieveException {
+		return this.getDataSource().stream(new Query(this.getName()));
+	}
+
+	/**
+	 * Same as getWithFilter, except that objects are read from the datasource
+	 * as the returned cursor is iterated over. The caller must close the
+	 * cursor.
+	 * 
+	 * @throws NoSuchFieldException
+	 *             if one or more of the keys in the filter does not exist in
+	 *             the model's fields.
+	 * @throws RetrieveException
+	 *             if the datasource could not be queried.
+	 */
+	public DataCursor streamWithFilter(Map<String, String> filter)
+			throws NoSuchFieldException, RetrieveException {
+		return this.streamWithQuery(this.newQuery(filter));
+	}
+
+	/**
+	 * Same as getWithQuery, except that objects are read from the datasource
+	 * as the returned cursor is iterated over. The caller must close the
+	 * cursor.
+	 * 
+	 * If the child-class is cached, cached results are returned from memory.
+	 * Otherwise the results are still streamed, and cached once the cursor has
+	 * been read to the end if there turned out to be few enough of them (see
+	 * getCacheMaxRows).
+	 */
+	public DataCursor streamWithQuery(Query query)
+			throws NoSuchFieldException, RetrieveException {
+		this.checkQuery(query);
+		QueryCache cache = this.getCache();
+		if (cache == null) {
+			this.acquireUnindexed(query);
+			return this.getDataSource().stream(query);
+		}
+		DataObjectArray results = cache.get(query);
+		if (results != null) {
+			return new DataObjectArrayCursor(results);
+		}
+		this.acquireUnindexed(query);
+		// Taken before querying, as in load.
+		long generation = cache.getGeneration();
+		return new CachingCursor(this.getDataSource().stream(query), cache,
+				query, generation);
 	}
 
 	/**
@@ -84,25 +467,361 @@ public abstract class Model {
 	 *            object.
 	 * @throws CreateException
 	 *             if the inputData object is not a valid object as defined by
-	 *             the child-class model.
+	 *             the child-class model (a ValidationException, if this is
+	 *             found before it is sent to the datasource).
+	 * @throws RejectedExecutionException
+	 *             if the model is write-behind and its queue is full. Otherwise
+	 *             inputData has been queued, not yet written.
 	 */
 	public void createNew(DataObject inputData) throws CreateException {
+		this.validate(inputData);
 		// Set the name of this object to that of the child-class model.
 		inputData.setObjectName(this.getName());
-		this.getDataSource().create(inputData);
+		WriteBehindQueue queue = this.getWriteBehindQueue();
+		if (queue != null) {
+			queue.add(inputData);
+			return;
+		}
+		try {
+			this.getDataSource().create(inputData);
+		} finally {
+			this.written();
+		}
+	}
+
+	/**
+	 * @param inputData
+	 *            objects to attempt to add to the datasource as new child-class
+	 *            model objects, in a single batch. Either all of them are
+	 *            added, or none of them are.
+	 * @return number of objects added.
+	 * @throws CreateException
+	 *             if any of the objects is not a valid object as defined by
+	 *             the child-class model (getIndex says which, if known).
+	 */
+	public int createAll(DataObjectArray inputData) throws CreateException {
+		this.validateAll(inputData);
+		// Set the name of every object to that of the child-class model.
+		for (Object obj : inputData) {
+			((DataObject) obj).setObjectName(this.getName());
+		}
+		try {
+			return this.getDataSource().createAll(inputData);
+		} finally {
+			this.written();
+		}
+	}
+
+	/**
+	 * @param filter
+	 *            selecting the child-class objects to update, as in
+	 *            getWithFilter. An empty filter updates every object.
+	 * @param changes
+	 *            fields to set on each object, and their new values. They are
+	 *            checked against the child-class's fields (see
+	 *            ModelSchema.validateChanges) before the datasource is used.
+	 * @return number of objects updated.
+	 * @throws NoSuchFieldException
+	 *             if one or more of the keys in the filter does not exist in
+	 *             the model's fields.
+	 * @throws UpdateException
+	 *             if changes are invalid, or the datasource could not update
+	 *             the objects.
+	 */
+	public int updateWithFilter(Map<String, String> filter, DataObject changes)
+			throws NoSuchFieldException, UpdateException {
+		Query query = this.newQuery(filter);
+		try {
+			this.getSchema().validateChanges(changes);
+		} catch (ValidationException e) {
+			throw new UpdateException(e.getMessage());
+		}
+		changes.setObjectName(this.getName());
+		this.acquireUnindexed(query);
+		try {
+			return this.getDataSource().update(query, changes);
+		} finally {
+			this.written();
+		}
+	}
+
+	/**
+	 * @param filter
+	 *            selecting the child-class objects to delete, as in
+	 *            getWithFilter. An empty filter deletes every object.
+	 * @return number of objects deleted.
+	 * @throws NoSuchFieldException
+	 *             if one or more of the keys in the filter does not exist in
+	 *             the model's fields.
+	 * @throws DeleteException
+	 *             if the datasource could not delete the objects.
+	 */
+	public int deleteWithFilter(Map<String, String> filter)
+			throws NoSuchFieldException, DeleteException {
+		Query query = this.newQuery(filter);
+		this.acquireUnindexed(query);
+		try {
+			return this.getDataSource().delete(query);
+		} finally {
+			this.written();
+		}
+	}
+
+	/**
+	 * Same as createNew, except that inputData is added to the datasource
+	 * asynchronously.
+	 * 
+	 * @return a future which completes once inputData has been added, or
+	 *         fails with a CreateException. Invalid objects are rejected on
+	 *         the calling thread, so the future has already failed. If the
+	 *         model is write-behind, the future completes as soon as inputData
+	 *         has been queued (or fails with a RejectedExecutionException if
+	 *         the queue is full).
+	 */
+	public DataFuture<Void> createNewAsync(final DataObject inputData) {
+		try {
+			this.validate(inputData);
+		} catch (ValidationException e) {
+			return DataFutures.failed(e);
+		}
+		WriteBehindQueue queue = this.getWriteBehindQueue();
+		if (queue != null) {
+			// Queueing only waits while the queue is full, so it is done on
+			// the calling thread.
+			inputData.setObjectName(this.getName());
+			try {
+				queue.add(inputData);
+			} catch (RejectedExecutionException e) {
+				return DataFutures.failed(e);
+			}
+			return DataFutures.completed(null);
+		}
+		return this.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				Model.this.createNew(inputData);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Same as createAll, except that inputData is added to the datasource
+	 * asynchronously.
+	 * 
+	 * @return a future which completes with the number of objects added, or
+	 *         fails with a CreateException. Invalid objects are rejected on
+	 *         the calling thread, so the future has already failed.
+	 */
+	public DataFuture<Integer> createAllAsync(final DataObjectArray inputData) {
+		try {
+			this.validateAll(inputData);
+		} catch (ValidationException e) {
+			return DataFutures.failed(e);
+		}
+		return this.submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return Model.this.createAll(inputData);
+			}
+		});
+	}
+
+	/**
+	 * @return a Query for objects of the child-class which match filter. The
+	 *         query can be given an order, limit etc. before being passed to
+	 *         getWithQuery or streamWithQuery.
+	 * @throws NoSuchFieldException
+	 *             if one or more of the keys in the filter does not exist in
+	 *             the model's fields.
+	 * @throws UnindexedFilterException
+	 *             if the filter only uses unindexed fields and the model's
+	 *             UnindexedFilterPolicy is REJECT. Under RATE_LIMIT, it is
+	 *             thrown when the query is run instead.
+	 */
+	public Query newQuery(Map<String, String> filter)
+			throws NoSuchFieldException {
+		// Check if any fields in filter are invalid.
+		ModelSchema schema = this.getSchema();
+		Set<String> invalidFields = null;
+		for (String field : filter.keySet()) {
+			if (!schema.hasField(field)) {
+				invalidFields = addInvalidField(invalidFields, field);
+			}
+		}
+		if (invalidFields != null) {
+			throw new NoSuchFieldException(invalidFields.toString());
+		}
+		if (this.getUnindexedFilterPolicy() == UnindexedFilterPolicy.REJECT
+				&& this.isUnindexed(filter.keySet())) {
+			throw new UnindexedFilterException(new LinkedHashSet<String>(
+					filter.keySet()), false);
+		}
+		// If there are no invalid fields, create a new Query object with this
+		// filter, which can be used to Query the datasource.
+		Query query = new Query();
+		query.setObjectName(this.getName());
+		query.setFilter(filter);
+		query.setKeyField(this.getKeyField());
+		return query;
 	}
 
 	/**
-	 * @param mapToCompare
-	 *            is a Map whose fields (i.e. keys) we want to compare against
-	 *            the child-class model fields.
-	 * @return all keys in the mapToCompare which do not exist in the
-	 *         child-class model field set.
+	 * @return whether fields is a filter which only uses unindexed fields.
 	 */
-	private Set<String> findFieldsNotInModel(HashMap mapToCompare) {
-		Set<String> modelFields = new HashSet<String>(this.getFields());
-		Set<String> mapFields = mapToCompare.keySet();
-		mapFields.removeAll(modelFields);
-		return mapFields;
+	private boolean isUnindexed(Set<String> fields) {
+		if (fields.isEmpty()) {
+			return false;
+		}
+		ModelSchema schema = this.getSchema();
+		for (String field : fields) {
+			// One index is enough to avoid reading every object.
+			if (schema.isIndexed(field) || field.equals(this.getKeyField())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Takes a permit for query from the model's RateLimiter, if its filter
+	 * only uses unindexed fields and the UnindexedFilterPolicy is
+	 * RATE_LIMIT. Called just before the datasource is queried.
+	 * 
+	 * @throws UnindexedFilterException
+	 *             if there are no permits left.
+	 */
+	private void acquireUnindexed(Query query) {
+		if (this.getUnindexedFilterPolicy() != UnindexedFilterPolicy.RATE_LIMIT
+				|| query.getFilter() == null) {
+			return;
+		}
+		Set<String> fields = query.getFilter().keySet();
+		if (this.isUnindexed(fields)
+				&& !RateLimiter.forModel(this.getName()).tryAcquire(
+						this.getUnindexedFilterRate())) {
+			throw new UnindexedFilterException(
+					new LinkedHashSet<String>(fields), true);
+		}
+	}
+
+	/**
+	 * Drops every cached result of the child-class's queries, and then bumps
+	 * its version (in that order, so that results cached before the write
+	 * are never stamped with the new version). Called after every write (even
+	 * a failed one, which may have partly succeeded).
+	 */
+	private void written() {
+		this.invalidateCache();
+		versionStore.increment(this.getName());
+	}
+
+	/**
+	 * Drops every cached result of the child-class's queries. Called after
+	 * every write, and when another server's write is seen (see
+	 * getVersion).
+	 */
+	protected void invalidateCache() {
+		QueryCache cache = QueryCache.getForModel(this.getName());
+		if (cache != null) {
+			cache.invalidate();
+		}
+	}
+
+	/**
+	 * @return the results of query, from the cache if the child-class is
+	 *         cached and they are cached, otherwise from the datasource.
+	 */
+	private DataObjectArray retrieve(Query query) throws RetrieveException {
+		QueryCache cache = this.getCache();
+		DataObjectArray results = cache == null ? null : cache.get(query);
+		if (results == null) {
+			this.acquireUnindexed(query);
+			results = this.load(query, cache);
+		}
+		return results;
+	}
+
+	/**
+	 * @return the results of query from the datasource, after caching them in
+	 *         cache (if it is not null).
+	 */
+	private DataObjectArray load(Query query, QueryCache cache)
+			throws RetrieveException {
+		if (cache == null) {
+			return this.getDataSource().retrieve(query);
+		}
+		// Take the generation before querying, so that results which a
+		// concurrent write may have made stale are not cached.
+		long generation = cache.getGeneration();
+		DataObjectArray results = this.getDataSource().retrieve(query);
+		cache.put(query, results, generation);
+		return results;
+	}
+
+	/**
+	 * @return a future for the result of call, run on the model's executor
+	 *         (or straight away if it has none).
+	 */
+	private <T> DataFuture<T> submit(Callable<T> call) {
+		DataExecutor executor = this.executor;
+		if (executor != null) {
+			return executor.submit(call);
+		}
+		try {
+			return DataFutures.completed(call.call());
+		} catch (Exception e) {
+			return DataFutures.failed(e);
+		}
+	}
+
+	/**
+	 * @throws NoSuchFieldException
+	 *             if query is ordered by, or selects (see Query.setFields), a
+	 *             field which does not exist in the model's fields.
+	 */
+	private void checkQuery(Query query) throws NoSuchFieldException {
+		ModelSchema schema = this.getSchema();
+		Set<String> invalidFields = null;
+		if (query.getOrder() != null && !schema.hasField(query.getOrder())) {
+			invalidFields = addInvalidField(invalidFields, query.getOrder());
+		}
+		if (query.getFields() != null) {
+			for (String field : query.getFields()) {
+				if (!schema.hasField(field)) {
+					invalidFields = addInvalidField(invalidFields, field);
+				}
+			}
+		}
+		if (invalidFields != null) {
+			throw new NoSuchFieldException(invalidFields.toString());
+		}
+	}
+
+	/**
+	 * Validates every object in inputData.
+	 * 
+	 * @throws ValidationException
+	 *             for the first invalid object (getIndex says which).
+	 */
+	private void validateAll(DataObjectArray inputData)
+			throws ValidationException {
+		ModelSchema schema = this.getSchema();
+		for (int i = 0; i < inputData.size(); i++) {
+			schema.validate((DataObject) inputData.get(i), i);
+		}
+	}
+
+	/**
+	 * @return invalidFields (created if it is null, since most checks find
+	 *         nothing) with field added.
+	 */
+	private static Set<String> addInvalidField(Set<String> invalidFields,
+			String field) {
+		if (invalidFields == null) {
+			invalidFields = new LinkedHashSet<String>();
+		}
+		invalidFields.add(field);
+		return invalidFields;
 	}
 }
@@ -0,0 +1,184 @@
+package co.gitm.javango.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import co.gitm.javango.data.DataObject;
+import co.gitm.javango.data.exceptions.ValidationException;
+
+/**
+ * The compiled form of the Fields a model defines (see Model.defineFields).
+ * Fields are looked up by position, and by name through a single map built when
+ * the schema is compiled, so checking a filter or a new object does not build
+ * any sets or copies.
+ * 
+ * Each model class's fields are compiled once (see forModel) and the schema is
+ * shared by every instance of it. Schemas are immutable, so can be shared
+ * between threads.
+ * 
+ */
+public final class ModelSchema {
+	// Compiled schema of each model class.
+	private static final ConcurrentHashMap<Class<?>, ModelSchema> schemas = new ConcurrentHashMap<Class<?>, ModelSchema>();
+
+	private final Field[] fields;
+	private final List<String> names;
+	private final HashMap<String, Integer> indexes;
+	// Positions of the fields every new object must have.
+	private final int[] required;
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if there are no fields, or two have the same name.
+	 */
+	public ModelSchema(List<Field> fields) {
+		if (fields == null || fields.isEmpty()) {
+			throw new IllegalArgumentException("A model needs fields.");
+		}
+		this.fields = fields.toArray(new Field[fields.size()]);
+		this.indexes = new HashMap<String, Integer>(this.fields.length * 2);
+		String[] names = new String[this.fields.length];
+		List<Integer> required = new ArrayList<Integer>();
+		for (int i = 0; i < this.fields.length; i++) {
+			names[i] = this.fields[i].getName();
+			if (indexes.put(names[i], i) != null) {
+				throw new IllegalArgumentException(String.format(
+						"Duplicate field \"%s\".", names[i]));
+			}
+			if (this.fields[i].isRequired()) {
+				required.add(i);
+			}
+		}
+		this.names = Collections.unmodifiableList(Arrays.asList(names));
+		this.required = new int[required.size()];
+		for (int i = 0; i < this.required.length; i++) {
+			this.required[i] = required.get(i);
+		}
+	}
+
+	/**
+	 * @return the schema of model's class, compiled from model.defineFields
+	 *         the first time it is asked for.
+	 */
+	public static ModelSchema forModel(Model model) {
+		ModelSchema schema = schemas.get(model.getClass());
+		if (schema == null) {
+			schema = new ModelSchema(model.defineFields());
+			ModelSchema existing = schemas.putIfAbsent(model.getClass(),
+					schema);
+			if (existing != null) {
+				schema = existing;
+			}
+		}
+		return schema;
+	}
+
+	/**
+	 * @return the position of the field with this name, or -1 if there is
+	 *         none.
+	 */
+	public int indexOf(Object name) {
+		Integer index = indexes.get(name);
+		return index == null ? -1 : index.intValue();
+	}
+
+	public boolean hasField(Object name) {
+		return indexes.containsKey(name);
+	}
+
+	/**
+	 * @return whether the model has a field with this name which the
+	 *         datasource has an index on.
+	 */
+	public boolean isIndexed(Object name) {
+		int index = this.indexOf(name);
+		return index >= 0 && fields[index].isIndexed();
+	}
+
+	public int getFieldCount() {
+		return fields.length;
+	}
+
+	public Field getField(int index) {
+		return fields[index];
+	}
+
+	/**
+	 * @return the names of the fields, in order. The list cannot be modified.
+	 */
+	public List<String> getFieldNames() {
+		return names;
+	}
+
+	/**
+	 * Checks that obj could be added to the model's datasource: that every
+	 * one of its fields is a field of the model, has a value of the right
+	 * type (and length), and that no required field is missing or null.
+	 * 
+	 * @param index
+	 *            of obj when creating several objects at once, or -1.
+	 * @throws ValidationException
+	 *             describing every problem with obj.
+	 */
+	public void validate(DataObject obj, int index) throws ValidationException {
+		this.validate(obj, index, true);
+	}
+
+	/**
+	 * Checks that changes could be made to objects of the model: the same as
+	 * validate, except that required fields may be left out (they keep their
+	 * current values).
+	 * 
+	 * @throws ValidationException
+	 *             describing every problem with changes.
+	 */
+	public void validateChanges(DataObject changes)
+			throws ValidationException {
+		this.validate(changes, -1, false);
+	}
+
+	private void validate(DataObject obj, int index, boolean complete)
+			throws ValidationException {
+		Map<String, String> errors = null;
+		boolean[] present = new boolean[fields.length];
+		for (Object entry : obj.entrySet()) {
+			Object name = ((Map.Entry) entry).getKey();
+			int field = this.indexOf(name);
+			String problem;
+			if (field < 0) {
+				problem = "is not a field";
+			} else {
+				present[field] = true;
+				problem = fields[field].check(((Map.Entry) entry).getValue());
+			}
+			if (problem != null) {
+				if (errors == null) {
+					errors = new LinkedHashMap<String, String>();
+				}
+				errors.put(String.valueOf(name), problem);
+			}
+		}
+		for (int field : required) {
+			if (complete && !present[field]) {
+				if (errors == null) {
+					errors = new LinkedHashMap<String, String>();
+				}
+				errors.put(fields[field].getName(), "is required");
+			}
+		}
+		if (errors != null) {
+			throw new ValidationException(errors, index);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ModelSchema" + Arrays.toString(fields);
+	}
+}
@@ -0,0 +1,249 @@
+package co.gitm.javango.model;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import co.gitm.javango.data.DataObjectArray;
+import co.gitm.javango.data.Query;
+
+/**
+ * Caches the results of a Model's queries, so that repeated queries against
+ * rarely changing data do not have to go to the DataSource. Results are keyed
+ * by Query (whose equals ignores the order of filter entries), expire after a
+ * time to live, and the least recently used results are evicted once the cache
+ * holds maxEntries results. Results with more than maxRows objects are not
+ * cached at all, so that the cache's size is bounded by maxEntries * maxRows
+ * objects. Writing to the model invalidates all of its cached results.
+ *
+ * Cached DataObjectArrays are shared by every caller which gets them from the
+ * cache, so they must not be modified.
+ *
+ * There is one QueryCache per model (see forModel), shared by every instance of
+ * that model.
+ *
+ */
+public class QueryCache {
+	private static final ConcurrentHashMap<String, QueryCache> caches = new ConcurrentHashMap<String, QueryCache>();
+
+	private static final class CachedResults {
+		final DataObjectArray results;
+		final long expiresAt;
+
+		CachedResults(DataObjectArray results, long expiresAt) {
+			this.results = results;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private final String name;
+	private volatile int maxEntries;
+	private volatile int maxRows;
+	private volatile long ttlMillis;
+	// Incremented on every invalidation, so that results read before a write
+	// are not cached after it (see get and put).
+	private long generation = 0;
+	private final LinkedHashMap<Query, CachedResults> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong oversized = new AtomicLong();
+	private final AtomicLong expirations = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	public QueryCache(String name, int maxEntries, int maxRows,
+			long ttlMillis) {
+		this.name = name;
+		this.maxEntries = maxEntries;
+		this.maxRows = maxRows;
+		this.ttlMillis = ttlMillis;
+		// Access ordered, so that the eldest entry is the least recently
+		// used.
+		this.entries = new LinkedHashMap<Query, CachedResults>(16, 0.75f,
+				true) {
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Query, CachedResults> eldest) {
+				if (size() > QueryCache.this.maxEntries) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @return the cache for the model with the given name, creating it with
+	 *         the given bounds if there is none yet. If the model's bounds have
+	 *         changed (e.g. its TTL is taken from a reloaded configuration),
+	 *         the existing cache is updated.
+	 */
+	public static QueryCache forModel(String modelName, int maxEntries,
+			int maxRows, long ttlMillis) {
+		QueryCache cache = caches.get(modelName);
+		if (cache == null) {
+			QueryCache newCache = new QueryCache(modelName, maxEntries,
+					maxRows, ttlMillis);
+			cache = caches.putIfAbsent(modelName, newCache);
+			if (cache == null) {
+				cache = newCache;
+			}
+		}
+		cache.maxEntries = maxEntries;
+		cache.maxRows = maxRows;
+		cache.ttlMillis = ttlMillis;
+		return cache;
+	}
+
+	/**
+	 * @return the cache for the model with the given name, or null if the
+	 *         model is not cached.
+	 */
+	public static QueryCache getForModel(String modelName) {
+		return caches.get(modelName);
+	}
+
+	/**
+	 * @return the cached results of query, or null if there are none (or they
+	 *         have expired).
+	 */
+	public synchronized DataObjectArray get(Query query) {
+		CachedResults entry = entries.get(query);
+		if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+			entries.remove(query);
+			expirations.incrementAndGet();
+			entry = null;
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return entry.results;
+	}
+
+	/**
+	 * @return a stamp to pass to put. Must be taken before querying the
+	 *         DataSource.
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * @return whether a result of rows objects is small enough to cache.
+	 */
+	public boolean fits(int rows) {
+		return rows <= maxRows;
+	}
+
+	/**
+	 * Caches the results of query, unless the model has been written to since
+	 * generation was taken (in which case the results may already be stale),
+	 * or there are too many of them (see fits).
+	 */
+	public synchronized void put(Query query, DataObjectArray results,
+			long generation) {
+		if (results == null || generation != this.generation) {
+			return;
+		}
+		if (!this.fits(results.size())) {
+			oversized.incrementAndGet();
+			return;
+		}
+		entries.put(query, new CachedResults(results, System.currentTimeMillis()
+				+ ttlMillis));
+	}
+
+	/**
+	 * Drops every cached result. Called whenever the model is written to.
+	 */
+	public synchronized void invalidate() {
+		generation++;
+		entries.clear();
+		invalidations.incrementAndGet();
+	}
+
+	/**
+	 * Drops expired results (they are otherwise only dropped when they are
+	 * next looked up, or evicted).
+	 */
+	public synchronized void purgeExpired() {
+		long now = System.currentTimeMillis();
+		Iterator<CachedResults> itr = entries.values().iterator();
+		while (itr.hasNext()) {
+			if (itr.next().expiresAt < now) {
+				itr.remove();
+				expirations.incrementAndGet();
+			}
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public int getMaxRows() {
+		return maxRows;
+	}
+
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return number of results dropped to keep the cache within maxEntries.
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return number of results dropped because they outlived their TTL.
+	 */
+	public long getExpirationCount() {
+		return expirations.get();
+	}
+
+	/**
+	 * @return number of results which were not cached because they held more
+	 *         than maxRows objects.
+	 */
+	public long getOversizedCount() {
+		return oversized.get();
+	}
+
+	public long getInvalidationCount() {
+		return invalidations.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"QueryCache[%s: size=%d/%d, hits=%d, misses=%d, evictions=%d, expirations=%d, oversized=%d, invalidations=%d]",
+				name, this.getSize(), maxEntries, this.getHitCount(),
+				this.getMissCount(), this.getEvictionCount(),
+				this.getExpirationCount(), this.getOversizedCount(),
+				this.getInvalidationCount());
+	}
+}
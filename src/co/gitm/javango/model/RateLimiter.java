@@ -0,0 +1,55 @@
+package co.gitm.javango.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Allows up to a number of calls per second (with bursts of up to a second's
+ * worth), e.g. of a model's queries which filter only on unindexed fields (see
+ * UnindexedFilterPolicy). There is one RateLimiter per model (see forModel),
+ * shared by every instance of that model.
+ *
+ */
+public class RateLimiter {
+	private static final ConcurrentHashMap<String, RateLimiter> limiters = new ConcurrentHashMap<String, RateLimiter>();
+
+	// Calls which may be made straight away, guarded by this. Capped at a
+	// second's worth on first use.
+	private double available = Double.MAX_VALUE;
+	private long refilledAt = System.nanoTime();
+
+	/**
+	 * @return the limiter of the model with the given name, created on first
+	 *         use.
+	 */
+	public static RateLimiter forModel(String modelName) {
+		RateLimiter limiter = limiters.get(modelName);
+		if (limiter == null) {
+			RateLimiter newLimiter = new RateLimiter();
+			limiter = limiters.putIfAbsent(modelName, newLimiter);
+			if (limiter == null) {
+				limiter = newLimiter;
+			}
+		}
+		return limiter;
+	}
+
+	/**
+	 * @param perSecond
+	 *            calls allowed per second (0 or less allows none).
+	 * @return whether a call may be made now (in which case it is counted).
+	 */
+	public synchronized boolean tryAcquire(int perSecond) {
+		if (perSecond <= 0) {
+			return false;
+		}
+		long now = System.nanoTime();
+		available = Math.min(perSecond, available + (now - refilledAt)
+				* perSecond / 1e9);
+		refilledAt = now;
+		if (available < 1) {
+			return false;
+		}
+		available--;
+		return true;
+	}
+}
@@ -0,0 +1,26 @@
+package co.gitm.javango.model;
+
+/**
+ * What a Model does with a filter which only uses fields that are not indexed
+ * (see Field.indexed), which makes the datasource read every object (e.g. a
+ * full table scan in MySQL). Filters which use at least one indexed field (or
+ * the key field) are always allowed, since the datasource can narrow them down
+ * with its index.
+ *
+ */
+public enum UnindexedFilterPolicy {
+	/**
+	 * Allow every filter (the default).
+	 */
+	ALLOW,
+	/**
+	 * Allow up to the diagnostics unindexedrate setting of such filters per
+	 * second, for every instance of the model together. Only queries which
+	 * reach the datasource count, not those answered from the QueryCache.
+	 */
+	RATE_LIMIT,
+	/**
+	 * Refuse every such filter, in Model.newQuery.
+	 */
+	REJECT
+}
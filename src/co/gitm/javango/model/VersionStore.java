@@ -0,0 +1,38 @@
+package co.gitm.javango.model;
+
+/**
+ * Holds a version stamp for each model, which is bumped every time the model is
+ * written to (see Model.getVersion). Views use it to tell clients whether
+ * results they already have are still current (see View.getTag), without
+ * querying the model's datasource.
+ *
+ * LocalVersionStore keeps the versions in memory, which is enough for a single
+ * server. Servers which share a database should share their versions through it
+ * too (see co.gitm.javango.data.mysql.MySqlVersionStore), so that a write on
+ * one server changes the version seen by all of them.
+ *
+ * Implementations must be thread safe.
+ *
+ */
+public interface VersionStore {
+	/**
+	 * Version returned when a model's version cannot be read (e.g. the
+	 * database is down), or may have missed a write.
+	 */
+	public static final long UNKNOWN = -1;
+
+	/**
+	 * @param modelName
+	 *            name of the model (see Model.getName).
+	 * @return the current version of the model (0 or more), or UNKNOWN. The
+	 *         version may lag behind writes made through other servers, but
+	 *         never behind writes made through this one.
+	 */
+	public long getVersion(String modelName);
+
+	/**
+	 * Bumps the version of a model. Called after every write to the model
+	 * (even a failed one, which may have partly succeeded).
+	 */
+	public void increment(String modelName);
+}
@@ -0,0 +1,142 @@
+package co.gitm.javango.routing;
+
+/**
+ * The types of path parameter a UrlPattern can hold, as in Django:
+ *
+ * <pre>
+ * int   one or more digits, e.g. &lt;int:year&gt;
+ * uuid  a lowercase UUID, e.g. 075194d3-6885-417e-a8a8-6c931e272f00
+ * slug  letters, digits, hyphens and underscores, e.g. building-your-1st-site
+ * str   anything but a slash (the default, e.g. &lt;title&gt;)
+ * path  anything, slashes included
+ * </pre>
+ *
+ * Converters are matched against the undecoded path (see RouteMatch.getString),
+ * one character at a time, rather than with regular expressions. Where a path
+ * could match parameters of several types, the converters are tried in the
+ * order they are declared here.
+ *
+ * int, slug and str parameters always take the longest run of characters they
+ * accept, and never give any back to what follows them (so a pattern where they
+ * are followed by a character they accept is refused, see UrlPattern.parse). A
+ * path parameter may end at the end of the path or before any slash in it, and
+ * is tried longest first.
+ *
+ */
+public enum PathConverter {
+	INT("int"), UUID("uuid"), SLUG("slug"), STR("str"), PATH("path");
+
+	// The length of a UUID, hyphens included.
+	private static final int UUID_LENGTH = 36;
+
+	private final String name;
+
+	private PathConverter(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return the name the converter is given in a UrlPattern, e.g. "int".
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the converter called name in a UrlPattern.
+	 * @throws IllegalArgumentException
+	 *             if there is no such converter.
+	 */
+	public static PathConverter forName(String name) {
+		for (PathConverter converter : values()) {
+			if (converter.name.equals(name)) {
+				return converter;
+			}
+		}
+		throw new IllegalArgumentException("Unknown path converter: " + name);
+	}
+
+	/**
+	 * @return the end of the longest parameter of this type which starts at
+	 *         from in path, or from if there is none.
+	 */
+	int scan(String path, int from) {
+		int length = path.length();
+		if (this == UUID) {
+			return isUuid(path, from) ? from + UUID_LENGTH : from;
+		}
+		if (this == PATH) {
+			return length;
+		}
+		int end = from;
+		while (end < length && this.accepts(path.charAt(end))) {
+			end++;
+		}
+		return end;
+	}
+
+	/**
+	 * @return the end of the next shorter parameter of this type which starts
+	 *         at from in path, given that the parameter ending at end matched,
+	 *         or from if there is none: the previous slash for a path, and
+	 *         none for the other converters.
+	 */
+	int shorten(String path, int from, int end) {
+		if (this != PATH) {
+			return from;
+		}
+		int slash = path.lastIndexOf('/', end - 1);
+		return slash > from ? slash : from;
+	}
+
+	/**
+	 * @return whether a parameter of this type can be followed by c in a
+	 *         path.
+	 */
+	boolean canPrecede(char c) {
+		switch (this) {
+		case UUID:
+			return true;
+		case PATH:
+			return c == '/';
+		default:
+			return !this.accepts(c);
+		}
+	}
+
+	/**
+	 * @return whether the whole of value is a parameter of this type.
+	 */
+	boolean fits(String value) {
+		return value.length() > 0 && this.scan(value, 0) == value.length();
+	}
+
+	private boolean accepts(char c) {
+		switch (this) {
+		case INT:
+			return c >= '0' && c <= '9';
+		case SLUG:
+			return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z')
+					|| (c >= 'A' && c <= 'Z') || c == '-' || c == '_';
+		default:
+			return c != '/';
+		}
+	}
+
+	private static boolean isUuid(String path, int from) {
+		if (path.length() - from < UUID_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < UUID_LENGTH; i++) {
+			char c = path.charAt(from + i);
+			if (i == 8 || i == 13 || i == 18 || i == 23) {
+				if (c != '-') {
+					return false;
+				}
+			} else if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
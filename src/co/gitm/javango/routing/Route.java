@@ -0,0 +1,57 @@
+package co.gitm.javango.routing;
+
+/**
+ * A UrlPattern, the target (e.g. a view class) which requests for the paths it
+ * matches are sent to, and optionally a name, so that the path can be built
+ * from its parameters (see Router.reverse) rather than written out wherever it
+ * is linked to.
+ *
+ */
+public final class Route<T> {
+	private final UrlPattern pattern;
+	private final T target;
+	private final String name;
+
+	private Route(UrlPattern pattern, T target, String name) {
+		this.pattern = pattern;
+		this.target = target;
+		this.name = name;
+	}
+
+	/**
+	 * @param name
+	 *            of the route, or null.
+	 * @throws IllegalArgumentException
+	 *             if pattern is not a valid UrlPattern.
+	 */
+	public static <T> Route<T> of(String pattern, T target, String name) {
+		return new Route<T>(UrlPattern.parse(pattern), target, name);
+	}
+
+	/**
+	 * @return a route with the same pattern and name as route, to target.
+	 */
+	public static <T> Route<T> of(Route<?> route, T target) {
+		return new Route<T>(route.pattern, target, route.name);
+	}
+
+	public UrlPattern getPattern() {
+		return pattern;
+	}
+
+	public T getTarget() {
+		return target;
+	}
+
+	/**
+	 * @return the route's name, or null if it has none.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return name == null ? pattern.toString() : name + " (" + pattern + ")";
+	}
+}
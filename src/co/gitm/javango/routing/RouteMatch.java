@@ -0,0 +1,176 @@
+package co.gitm.javango.routing;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * The route a path matched (see Router.resolve), and where each of its
+ * parameters lies in the path. Parameters are only cut out of the path (and
+ * percent-decoded) when they are asked for, and getInt and getLong read them
+ * straight from the path, so matching a request allocates no strings.
+ *
+ */
+public final class RouteMatch<T> {
+	private final Route<T> route;
+	private final String path;
+	// The start and end of each parameter in path.
+	private final int[] bounds;
+
+	RouteMatch(Route<T> route, String path, int[] bounds) {
+		this.route = route;
+		this.path = path;
+		this.bounds = bounds;
+	}
+
+	public Route<T> getRoute() {
+		return route;
+	}
+
+	/**
+	 * @return the path which was matched, undecoded.
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	public int getCount() {
+		return route.getPattern().getParameterCount();
+	}
+
+	public String getName(int index) {
+		return route.getPattern().getName(index);
+	}
+
+	/**
+	 * @return whether the route has a parameter called name.
+	 */
+	public boolean has(String name) {
+		return route.getPattern().indexOf(name) >= 0;
+	}
+
+	/**
+	 * @return the value of parameter index, percent-decoded as UTF-8.
+	 */
+	public String getString(int index) {
+		return decode(path, bounds[2 * index], bounds[2 * index + 1]);
+	}
+
+	/**
+	 * @return the value of the parameter called name, percent-decoded as
+	 *         UTF-8.
+	 * @throws IllegalArgumentException
+	 *             if the route has no such parameter.
+	 */
+	public String getString(String name) {
+		return this.getString(this.indexOf(name));
+	}
+
+	/**
+	 * @return the value of the parameter called name (e.g. an int parameter).
+	 * @throws NumberFormatException
+	 *             if the value is not a number, or too large for an int.
+	 * @throws IllegalArgumentException
+	 *             if the route has no such parameter.
+	 */
+	public int getInt(String name) {
+		long value = this.getLong(name);
+		if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+			throw new NumberFormatException(String.format(
+					"Parameter %s is too large for an int.", name));
+		}
+		return (int) value;
+	}
+
+	/**
+	 * @return the value of the parameter called name (e.g. an int parameter).
+	 * @throws NumberFormatException
+	 *             if the value is not a number, or too large for a long.
+	 * @throws IllegalArgumentException
+	 *             if the route has no such parameter.
+	 */
+	public long getLong(String name) {
+		int index = this.indexOf(name);
+		int from = bounds[2 * index];
+		int to = bounds[2 * index + 1];
+		boolean negative = path.charAt(from) == '-';
+		int i = negative ? from + 1 : from;
+		if (i == to) {
+			throw new NumberFormatException(String.format(
+					"Parameter %s is not a number.", name));
+		}
+		// Accumulated negatively, so that Long.MIN_VALUE can be read.
+		long value = 0;
+		for (; i < to; i++) {
+			int digit = path.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException(String.format(
+						"Parameter %s is not a number.", name));
+			}
+			if (value < (Long.MIN_VALUE + digit) / 10) {
+				throw new NumberFormatException(String.format(
+						"Parameter %s is too large for a long.", name));
+			}
+			value = value * 10 - digit;
+		}
+		if (!negative) {
+			if (value == Long.MIN_VALUE) {
+				throw new NumberFormatException(String.format(
+						"Parameter %s is too large for a long.", name));
+			}
+			value = -value;
+		}
+		return value;
+	}
+
+	private int indexOf(String name) {
+		int index = route.getPattern().indexOf(name);
+		if (index < 0) {
+			throw new IllegalArgumentException(String.format(
+					"Route %s has no parameter %s.", route, name));
+		}
+		return index;
+	}
+
+	/**
+	 * @return path from from to to, with its percent-encoded bytes decoded
+	 *         as UTF-8. A % which does not start an escape is kept as it is.
+	 */
+	static String decode(String path, int from, int to) {
+		int percent = path.indexOf('%', from);
+		if (percent < 0 || percent >= to) {
+			return path.substring(from, to);
+		}
+		StringBuilder decoded = new StringBuilder(to - from);
+		decoded.append(path, from, percent);
+		// Each run of escapes is decoded together, since a character may be
+		// encoded as several bytes.
+		byte[] bytes = new byte[(to - percent) / 3];
+		int i = percent;
+		while (i < to) {
+			int length = 0;
+			while (i + 2 < to && path.charAt(i) == '%') {
+				int high = Character.digit(path.charAt(i + 1), 16);
+				int low = Character.digit(path.charAt(i + 2), 16);
+				if (high < 0 || low < 0) {
+					break;
+				}
+				bytes[length++] = (byte) ((high << 4) | low);
+				i += 3;
+			}
+			if (length > 0) {
+				try {
+					decoded.append(new String(bytes, 0, length, "UTF-8"));
+				} catch (UnsupportedEncodingException e) {
+					throw new IllegalStateException(e);
+				}
+			} else {
+				decoded.append(path.charAt(i++));
+			}
+		}
+		return decoded.toString();
+	}
+
+	@Override
+	public String toString() {
+		return route + " " + path;
+	}
+}
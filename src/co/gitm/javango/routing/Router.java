@@ -0,0 +1,269 @@
+package co.gitm.javango.routing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sends paths to the targets of the routes whose UrlPatterns they match, like
+ * Django's URL dispatcher, e.g.
+ *
+ * <pre>
+ * Router&lt;Class&lt;? extends View&gt;&gt; router = new Router&lt;Class&lt;? extends View&gt;&gt;(Arrays.asList(
+ * 		Route.of(&quot;books&quot;, BooksView.class, &quot;books&quot;),
+ * 		Route.of(&quot;books/&lt;int:id&gt;&quot;, BookView.class, &quot;book&quot;)));
+ * router.resolve(&quot;/books/42&quot;).getInt(&quot;id&quot;); // 42
+ * router.reverse(&quot;book&quot;, 42); // &quot;/books/42&quot;
+ * </pre>
+ *
+ * The routes are compiled, when the router is built, into a trie with an edge
+ * for each character of their literals, and an edge for each of their
+ * parameters' converters. Resolving a path walks the trie a character at a
+ * time, so costs the same however many routes there are. Where a path could
+ * continue with either a literal or a parameter, the literal is tried first
+ * (and then the parameters, in PathConverter order), so that books/new is not
+ * taken for books/&lt;slug:title&gt;.
+ *
+ * Only path parameters give characters back (see PathConverter), so without
+ * them each node of the trie is reached at most once per resolve, and resolving
+ * a path of length n costs O(n) node steps however many routes there are. A
+ * path parameter is tried ending at each slash after it (longest first), so a
+ * node below k path parameters may be reached up to (s + 1)^k times, where s is
+ * the number of slashes in the path.
+ *
+ * A path must match a whole pattern. A leading slash is ignored, but a trailing
+ * one is not: books/ does not match books. A router is immutable once built, so
+ * may be shared between threads.
+ *
+ */
+public final class Router<T> {
+	private static final int[] NO_BOUNDS = new int[0];
+
+	private final Node<T> root;
+	private final Map<String, Route<T>> named = new HashMap<String, Route<T>>();
+	// The most parameters any route has.
+	private final int maxParameters;
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if two routes have the same pattern (i.e. the same literals
+	 *             and converters), or the same name.
+	 */
+	public Router(List<Route<T>> routes) {
+		NodeBuilder<T> rootBuilder = new NodeBuilder<T>();
+		int max = 0;
+		for (Route<T> route : routes) {
+			UrlPattern pattern = route.getPattern();
+			NodeBuilder<T> node = rootBuilder;
+			for (int i = 0;; i++) {
+				node = node.literal(pattern.getLiteral(i));
+				if (i == pattern.getParameterCount()) {
+					break;
+				}
+				node = node.parameter(pattern.getConverter(i), i);
+			}
+			if (node.route != null) {
+				throw new IllegalArgumentException(String.format(
+						"Routes %s and %s match the same paths.", node.route,
+						route));
+			}
+			node.route = route;
+			if (route.getName() != null
+					&& named.put(route.getName(), route) != null) {
+				throw new IllegalArgumentException(String.format(
+						"There is more than one route called %s.",
+						route.getName()));
+			}
+			max = Math.max(max, pattern.getParameterCount());
+		}
+		this.root = rootBuilder.build();
+		this.maxParameters = max;
+	}
+
+	/**
+	 * @param path
+	 *            to resolve, undecoded and without a query string, e.g.
+	 *            Reference.getRemainingPart(false, false).
+	 * @return the route path matches, and its parameters, or null if it
+	 *         matches none.
+	 */
+	public RouteMatch<T> resolve(String path) {
+		int start = path.startsWith("/") ? 1 : 0;
+		int[] bounds = maxParameters == 0 ? NO_BOUNDS
+				: new int[2 * maxParameters];
+		Route<T> route = match(root, path, start, bounds);
+		return route == null ? null : new RouteMatch<T>(route, path, bounds);
+	}
+
+	/**
+	 * @return the path (with a leading slash) of the route called name, with
+	 *         values as its parameters, in order (see UrlPattern.format).
+	 * @throws IllegalArgumentException
+	 *             if there is no route called name, or values do not fit its
+	 *             parameters.
+	 */
+	public String reverse(String name, Object... values) {
+		Route<T> route = named.get(name);
+		if (route == null) {
+			throw new IllegalArgumentException("There is no route called "
+					+ name + ".");
+		}
+		return route.getPattern().format(values);
+	}
+
+	/**
+	 * @return the route called name, or null if there is none.
+	 */
+	public Route<T> getRoute(String name) {
+		return named.get(name);
+	}
+
+	private static <T> Route<T> match(Node<T> node, String path, int i,
+			int[] bounds) {
+		int length = path.length();
+		// Follow literal edges without recursing, until a node where the path
+		// could also continue with a parameter.
+		while (node.parameters == null) {
+			if (i == length) {
+				return node.route;
+			}
+			node = node.child(path.charAt(i++));
+			if (node == null) {
+				return null;
+			}
+		}
+		if (i == length) {
+			return node.route;
+		}
+		Node<T> next = node.child(path.charAt(i));
+		if (next != null) {
+			Route<T> route = match(next, path, i + 1, bounds);
+			if (route != null) {
+				return route;
+			}
+		}
+		for (Parameter<T> parameter : node.parameters) {
+			PathConverter converter = parameter.converter;
+			for (int end = converter.scan(path, i); end > i; end = converter
+					.shorten(path, i, end)) {
+				bounds[2 * parameter.index] = i;
+				bounds[2 * parameter.index + 1] = end;
+				Route<T> route = match(parameter.node, path, end, bounds);
+				if (route != null) {
+					return route;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * A node of the compiled trie. Its literal edges are sorted by character
+	 * and searched by bisection.
+	 */
+	private static final class Node<T> {
+		final char[] keys;
+		final Node<T>[] children;
+		// null if no pattern has a parameter here.
+		final Parameter<T>[] parameters;
+		// The route whose pattern ends here, or null.
+		final Route<T> route;
+
+		Node(char[] keys, Node<T>[] children, Parameter<T>[] parameters,
+				Route<T> route) {
+			this.keys = keys;
+			this.children = children;
+			this.parameters = parameters;
+			this.route = route;
+		}
+
+		Node<T> child(char c) {
+			int low = 0;
+			int high = keys.length - 1;
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				char key = keys[middle];
+				if (key < c) {
+					low = middle + 1;
+				} else if (key > c) {
+					high = middle - 1;
+				} else {
+					return children[middle];
+				}
+			}
+			return null;
+		}
+	}
+
+	private static final class Parameter<T> {
+		final PathConverter converter;
+		// The parameter's position in its patterns, and so in the bounds.
+		final int index;
+		final Node<T> node;
+
+		Parameter(PathConverter converter, int index, Node<T> node) {
+			this.converter = converter;
+			this.index = index;
+			this.node = node;
+		}
+	}
+
+	/**
+	 * A node of the trie while routes are being added to it.
+	 */
+	private static final class NodeBuilder<T> {
+		final TreeMap<Character, NodeBuilder<T>> children = new TreeMap<Character, NodeBuilder<T>>();
+		final TreeMap<PathConverter, NodeBuilder<T>> parameters = new TreeMap<PathConverter, NodeBuilder<T>>();
+		int index;
+		Route<T> route;
+
+		NodeBuilder<T> literal(String literal) {
+			NodeBuilder<T> node = this;
+			for (int i = 0; i < literal.length(); i++) {
+				NodeBuilder<T> child = node.children.get(literal.charAt(i));
+				if (child == null) {
+					child = new NodeBuilder<T>();
+					node.children.put(literal.charAt(i), child);
+				}
+				node = child;
+			}
+			return node;
+		}
+
+		NodeBuilder<T> parameter(PathConverter converter, int index) {
+			NodeBuilder<T> child = parameters.get(converter);
+			if (child == null) {
+				child = new NodeBuilder<T>();
+				parameters.put(converter, child);
+			}
+			// Every pattern through this node has had the same parameters.
+			this.index = index;
+			return child;
+		}
+
+		@SuppressWarnings("unchecked")
+		Node<T> build() {
+			char[] keys = new char[children.size()];
+			Node<T>[] built = new Node[children.size()];
+			int i = 0;
+			for (Map.Entry<Character, NodeBuilder<T>> child : children
+					.entrySet()) {
+				keys[i] = child.getKey();
+				built[i++] = child.getValue().build();
+			}
+			Parameter<T>[] edges = null;
+			if (!parameters.isEmpty()) {
+				List<Parameter<T>> list = new ArrayList<Parameter<T>>();
+				for (Map.Entry<PathConverter, NodeBuilder<T>> parameter : parameters
+						.entrySet()) {
+					list.add(new Parameter<T>(parameter.getKey(), index,
+							parameter.getValue().build()));
+				}
+				edges = list.toArray(new Parameter[list.size()]);
+			}
+			return new Node<T>(keys, built, edges, route);
+		}
+	}
+}
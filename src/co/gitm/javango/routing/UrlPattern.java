@@ -0,0 +1,205 @@
+package co.gitm.javango.routing;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Django-style URL pattern: literal text, with path parameters written as
+ * &lt;converter:name&gt; (see PathConverter), or just &lt;name&gt; for a str,
+ * e.g.
+ *
+ * <pre>
+ * books/&lt;int:id&gt;/reviews/&lt;slug:reviewer&gt;
+ * </pre>
+ *
+ * Patterns are relative to the application's root, so a leading slash is
+ * ignored. Two parameters may not be next to each other, since where one ends
+ * and the next begins would be ambiguous. Nor may a parameter be followed by a
+ * character it could take (e.g. &lt;str:name&gt;.json, or
+ * &lt;path:file&gt;.txt), since parameters do not give characters back (see
+ * PathConverter), so the pattern could never match.
+ *
+ * A pattern is held as its literals with its parameters between them, i.e.
+ * getLiteral(0), getConverter(0), getLiteral(1), ... ,
+ * getLiteral(getParameterCount()).
+ *
+ */
+public final class UrlPattern {
+	private final String pattern;
+	private final String[] literals;
+	private final PathConverter[] converters;
+	private final String[] names;
+
+	private UrlPattern(String pattern, String[] literals,
+			PathConverter[] converters, String[] names) {
+		this.pattern = pattern;
+		this.literals = literals;
+		this.converters = converters;
+		this.names = names;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if pattern has an unclosed parameter, an unknown converter,
+	 *             a parameter without a name, two parameters with the same
+	 *             name, two parameters next to each other, or a parameter
+	 *             followed by a character it could take.
+	 */
+	public static UrlPattern parse(String pattern) {
+		String text = pattern.startsWith("/") ? pattern.substring(1) : pattern;
+		List<String> literals = new ArrayList<String>();
+		List<PathConverter> converters = new ArrayList<PathConverter>();
+		List<String> names = new ArrayList<String>();
+		int from = 0;
+		while (true) {
+			int open = text.indexOf('<', from);
+			if (open < 0) {
+				literals.add(text.substring(from));
+				break;
+			}
+			if (open == from && !converters.isEmpty()) {
+				throw new IllegalArgumentException(String.format(
+						"Parameters must be separated in URL pattern %s.",
+						pattern));
+			}
+			int close = text.indexOf('>', open);
+			if (close < 0) {
+				throw new IllegalArgumentException(String.format(
+						"Unclosed parameter in URL pattern %s.", pattern));
+			}
+			literals.add(text.substring(from, open));
+			String parameter = text.substring(open + 1, close);
+			int colon = parameter.indexOf(':');
+			String name = parameter.substring(colon + 1);
+			if (name.length() == 0 || names.contains(name)) {
+				throw new IllegalArgumentException(String.format(
+						"Missing or repeated parameter name in URL pattern %s.",
+						pattern));
+			}
+			converters.add(colon < 0 ? PathConverter.STR : PathConverter
+					.forName(parameter.substring(0, colon)));
+			names.add(name);
+			from = close + 1;
+		}
+		for (int i = 0; i < converters.size(); i++) {
+			String next = literals.get(i + 1);
+			if (next.length() > 0
+					&& !converters.get(i).canPrecede(next.charAt(0))) {
+				throw new IllegalArgumentException(String.format(
+						"Parameter %s cannot be followed by %s in URL pattern %s.",
+						names.get(i), next, pattern));
+			}
+		}
+		return new UrlPattern(pattern,
+				literals.toArray(new String[literals.size()]),
+				converters.toArray(new PathConverter[converters.size()]),
+				names.toArray(new String[names.size()]));
+	}
+
+	public int getParameterCount() {
+		return converters.length;
+	}
+
+	public String getLiteral(int index) {
+		return literals[index];
+	}
+
+	public PathConverter getConverter(int index) {
+		return converters[index];
+	}
+
+	public String getName(int index) {
+		return names[index];
+	}
+
+	/**
+	 * @return the index of the parameter called name, or -1 if there is none.
+	 */
+	public int indexOf(String name) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param values
+	 *            of the pattern's parameters, in order. Each is converted to
+	 *            a string with toString, and percent-encoded.
+	 * @return the path (with a leading slash) which the pattern matches with
+	 *         values as its parameters.
+	 * @throws IllegalArgumentException
+	 *             if the wrong number of values is given, or a value is not
+	 *             of its parameter's type.
+	 */
+	public String format(Object... values) {
+		if (values.length != converters.length) {
+			throw new IllegalArgumentException(String.format(
+					"URL pattern %s takes %d parameters, not %d.", pattern,
+					converters.length, values.length));
+		}
+		StringBuilder path = new StringBuilder("/").append(literals[0]);
+		for (int i = 0; i < converters.length; i++) {
+			String value = encode(String.valueOf(values[i]),
+					converters[i] == PathConverter.PATH);
+			if (!converters[i].fits(value)) {
+				throw new IllegalArgumentException(String.format(
+						"%s is not a valid %s for parameter %s of URL pattern %s.",
+						values[i], converters[i].getName(), names[i], pattern));
+			}
+			path.append(value).append(literals[i + 1]);
+		}
+		return path.toString();
+	}
+
+	/**
+	 * @return value with every character which is not unreserved in a URI
+	 *         (or a slash, if keepSlashes) percent-encoded as UTF-8.
+	 */
+	private static String encode(String value, boolean keepSlashes) {
+		StringBuilder encoded = null;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			boolean unreserved = (c >= '0' && c <= '9')
+					|| (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+					|| c == '-' || c == '_' || c == '.' || c == '~'
+					|| (c == '/' && keepSlashes);
+			if (unreserved) {
+				if (encoded != null) {
+					encoded.append(c);
+				}
+				continue;
+			}
+			if (encoded == null) {
+				encoded = new StringBuilder(value.length() + 16);
+				encoded.append(value, 0, i);
+			}
+			// Surrogate pairs are encoded together.
+			int end = Character.isHighSurrogate(c) && i + 1 < value.length() ? i + 2
+					: i + 1;
+			byte[] bytes;
+			try {
+				bytes = value.substring(i, end).getBytes("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+			for (byte b : bytes) {
+				encoded.append('%').append(
+						Character.toUpperCase(Character.forDigit((b >> 4) & 0xf,
+								16)));
+				encoded.append(Character.toUpperCase(Character.forDigit(
+						b & 0xf, 16)));
+			}
+			i = end - 1;
+		}
+		return encoded == null ? value : encoded.toString();
+	}
+
+	@Override
+	public String toString() {
+		return pattern;
+	}
+}
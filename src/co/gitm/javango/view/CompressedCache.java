@@ -0,0 +1,190 @@
+package co.gitm.javango.view;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.restlet.data.CharacterSet;
+import org.restlet.data.MediaType;
+
+import co.gitm.javango.config.Config;
+import co.gitm.javango.config.Settings;
+import co.gitm.javango.metrics.MetricsCollector;
+import co.gitm.javango.metrics.MetricsRegistry;
+import co.gitm.javango.metrics.PrometheusWriter;
+
+/**
+ * Keeps the compressed bytes of responses which carry a strong ETag (see
+ * View.getTag), so that clients asking for the same unchanged results get them
+ * without the datasource being queried or the results being compressed again.
+ * Entries are keyed by route, ETag and coding; the ETag changes whenever the
+ * model is written to, so entries never need to be invalidated, they just stop
+ * being asked for and are evicted.
+ *
+ * The cache is bounded by the compression cachesize setting (in bytes),
+ * evicting the least recently used responses first, and only holds responses of
+ * up to cacheentrysize bytes. Its statistics are added to the application's
+ * metrics.
+ *
+ */
+public final class CompressedCache {
+	/**
+	 * A cached response.
+	 */
+	public static final class Entry {
+		private final byte[] bytes;
+		private final MediaType mediaType;
+		private final CharacterSet characterSet;
+
+		Entry(byte[] bytes, MediaType mediaType, CharacterSet characterSet) {
+			this.bytes = bytes;
+			this.mediaType = mediaType;
+			this.characterSet = characterSet;
+		}
+
+		/**
+		 * @return the compressed bytes, which must not be modified.
+		 */
+		public byte[] getBytes() {
+			return bytes;
+		}
+
+		public MediaType getMediaType() {
+			return mediaType;
+		}
+
+		public CharacterSet getCharacterSet() {
+			return characterSet;
+		}
+	}
+
+	// Access ordered, so that the eldest entry is the least recently used.
+	// Guarded by itself.
+	private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(
+			16, 0.75f, true);
+	// Bytes held by entries, guarded by entries.
+	private static long size = 0;
+
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+	private static final AtomicLong evictions = new AtomicLong();
+
+	static {
+		MetricsRegistry.addCollector(new MetricsCollector() {
+			@Override
+			public void collect(PrometheusWriter out) {
+				out.gauge("javango_compressed_cache_bytes",
+						"Bytes of compressed responses cached.",
+						CompressedCache.getSize());
+				out.gauge("javango_compressed_cache_entries",
+						"Compressed responses cached.",
+						CompressedCache.getEntryCount());
+				out.counter("javango_compressed_cache_hits_total",
+						"Responses found in the cache.", hits.get());
+				out.counter("javango_compressed_cache_misses_total",
+						"Responses not found in the cache.", misses.get());
+				out.counter("javango_compressed_cache_evictions_total",
+						"Responses dropped to keep the cache within its size.",
+						evictions.get());
+			}
+		});
+	}
+
+	private CompressedCache() {
+	}
+
+	/**
+	 * @return the key of a response.
+	 */
+	public static String key(String route, String tag, String coding) {
+		return route + '\u0000' + tag + '\u0000' + coding;
+	}
+
+	/**
+	 * @return the cached response with the given key (see key), or null.
+	 */
+	public static Entry get(String key) {
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return entry;
+	}
+
+	/**
+	 * @return whether a compressed response of size bytes may be cached.
+	 */
+	public static boolean fits(long bytes) {
+		Settings.Compression settings = Config.get().getCompression();
+		return bytes <= settings.getCacheEntrySize()
+				&& bytes <= settings.getCacheSize();
+	}
+
+	/**
+	 * Caches a compressed response (if it fits), evicting the least recently
+	 * used ones to make room.
+	 */
+	public static void put(String key, byte[] bytes, MediaType mediaType,
+			CharacterSet characterSet) {
+		if (!fits(bytes.length)) {
+			return;
+		}
+		long maxSize = Config.get().getCompression().getCacheSize();
+		synchronized (entries) {
+			Entry previous = entries.put(key, new Entry(bytes, mediaType,
+					characterSet));
+			size += bytes.length;
+			if (previous != null) {
+				size -= previous.bytes.length;
+			}
+			Iterator<Entry> itr = entries.values().iterator();
+			while (size > maxSize && itr.hasNext()) {
+				size -= itr.next().bytes.length;
+				itr.remove();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Drops every cached response.
+	 */
+	public static void clear() {
+		synchronized (entries) {
+			entries.clear();
+			size = 0;
+		}
+	}
+
+	/**
+	 * @return bytes held by cached responses.
+	 */
+	public static long getSize() {
+		synchronized (entries) {
+			return size;
+		}
+	}
+
+	public static int getEntryCount() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public static long getHitCount() {
+		return hits.get();
+	}
+
+	public static long getMissCount() {
+		return misses.get();
+	}
+
+	public static long getEvictionCount() {
+		return evictions.get();
+	}
+}
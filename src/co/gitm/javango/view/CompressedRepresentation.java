@@ -0,0 +1,238 @@
+package co.gitm.javango.view;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.restlet.data.Encoding;
+import org.restlet.data.Tag;
+import org.restlet.representation.OutputRepresentation;
+import org.restlet.representation.Representation;
+
+import co.gitm.javango.metrics.CompressionMetrics;
+
+/**
+ * Compresses another representation with gzip or deflate (zlib) as it is
+ * written, so that large (e.g. streamed) results are never held in memory
+ * uncompressed. Its ETag (if it has one) is suffixed with the coding, since a
+ * strong ETag must differ between codings of the same results.
+ *
+ * The bytes in and out and the CPU time spent compressing are recorded in the
+ * route's CompressionMetrics. If a cache key is given, the compressed bytes are
+ * also kept in the CompressedCache once the whole representation has been
+ * written, unless they turn out to be too large for it.
+ *
+ * Get instances from View.compress.
+ *
+ */
+public class CompressedRepresentation extends OutputRepresentation {
+	private static final ThreadMXBean threads = ManagementFactory
+			.getThreadMXBean();
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Representation source;
+	private final Encoding encoding;
+	private final int level;
+	private final CompressionMetrics metrics;
+	// Key to cache the compressed bytes under, or null not to cache them.
+	private final String cacheKey;
+
+	/**
+	 * @param encoding
+	 *            Encoding.GZIP or Encoding.DEFLATE.
+	 * @param level
+	 *            Deflater level, from 0 to 9.
+	 */
+	public CompressedRepresentation(Representation source, Encoding encoding,
+			int level, CompressionMetrics metrics, String cacheKey) {
+		super(source.getMediaType());
+		this.source = source;
+		this.encoding = encoding;
+		this.level = level;
+		this.metrics = metrics;
+		this.cacheKey = cacheKey;
+		this.setCharacterSet(source.getCharacterSet());
+		this.getEncodings().add(encoding);
+		this.setTag(tagFor(source.getTag(), encoding));
+		this.setTransient(source.isTransient());
+	}
+
+	/**
+	 * @return tag, suffixed with encoding (or null if tag is null).
+	 */
+	static Tag tagFor(Tag tag, Encoding encoding) {
+		if (tag == null) {
+			return null;
+		}
+		return new Tag(tag.getName() + "-" + encoding.getName(), tag.isWeak());
+	}
+
+	@Override
+	public void write(OutputStream outputStream) throws IOException {
+		CompressingStream compressing = new CompressingStream(outputStream);
+		try {
+			source.write(compressing);
+			compressing.finish();
+		} finally {
+			compressing.end();
+		}
+		metrics.recordCompressed(compressing.bytesIn, compressing.bytesOut,
+				compressing.cpuNanos);
+		if (cacheKey != null && compressing.captured != null) {
+			CompressedCache.put(cacheKey, compressing.captured.toByteArray(),
+					this.getMediaType(), this.getCharacterSet());
+		}
+	}
+
+	@Override
+	public void release() {
+		source.release();
+		super.release();
+	}
+
+	/**
+	 * @return CPU time of the current thread, or the elapsed time if the JVM
+	 *         cannot measure it.
+	 */
+	private static long now() {
+		if (threads.isCurrentThreadCpuTimeSupported()) {
+			long nanos = threads.getCurrentThreadCpuTime();
+			if (nanos >= 0) {
+				return nanos;
+			}
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * Compresses what is written to it into out. The compressor writes into a
+	 * buffer, which is only copied to out (and to the capture for the cache)
+	 * after each write, so that the time spent compressing is measured
+	 * without the time spent sending.
+	 */
+	private final class CompressingStream extends OutputStream {
+		private final OutputStream out;
+		// The deflater given to a deflate compressor, or null for gzip, whose
+		// compressor makes its own.
+		private final Deflater deflater;
+		private final DeflaterOutputStream compressor;
+		private final ByteArrayOutputStream pending = new ByteArrayOutputStream(
+				BUFFER_SIZE);
+		// Compressed bytes so far, or null once they are too large to cache.
+		ByteArrayOutputStream captured;
+		long bytesIn = 0;
+		long bytesOut = 0;
+		long cpuNanos = 0;
+
+		CompressingStream(OutputStream out) throws IOException {
+			this.out = out;
+			this.captured = cacheKey == null ? null
+					: new ByteArrayOutputStream(BUFFER_SIZE);
+			long start = now();
+			if (Encoding.GZIP.equals(encoding)) {
+				deflater = null;
+				compressor = new GzipStream(pending, level);
+			} else {
+				deflater = new Deflater(level);
+				compressor = new DeflaterOutputStream(pending, deflater,
+						BUFFER_SIZE);
+			}
+			cpuNanos += now() - start;
+			this.send();
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			long start = now();
+			compressor.write(b, off, len);
+			cpuNanos += now() - start;
+			bytesIn += len;
+			this.send();
+		}
+
+		/**
+		 * Sends what has been compressed so far, without flushing the
+		 * compressor (which would make the output larger).
+		 */
+		@Override
+		public void flush() throws IOException {
+			this.send();
+			out.flush();
+		}
+
+		/**
+		 * Leaves out open, see finish.
+		 */
+		@Override
+		public void close() throws IOException {
+			this.flush();
+		}
+
+		/**
+		 * Compresses and sends the rest of the input.
+		 */
+		void finish() throws IOException {
+			long start = now();
+			compressor.finish();
+			cpuNanos += now() - start;
+			this.send();
+			out.flush();
+		}
+
+		/**
+		 * Frees the deflater's native memory.
+		 */
+		void end() {
+			if (deflater == null) {
+				((GzipStream) compressor).end();
+			} else {
+				deflater.end();
+			}
+		}
+
+		private void send() throws IOException {
+			int size = pending.size();
+			if (size == 0) {
+				return;
+			}
+			pending.writeTo(out);
+			if (captured != null) {
+				if (CompressedCache.fits(captured.size() + size)) {
+					pending.writeTo(captured);
+				} else {
+					captured = null;
+				}
+			}
+			bytesOut += size;
+			pending.reset();
+		}
+	}
+
+	/**
+	 * A GZIPOutputStream which compresses at a given level, rather than the
+	 * default one, and whose deflater can be freed without finishing the
+	 * stream (as close would).
+	 */
+	private static final class GzipStream extends GZIPOutputStream {
+		GzipStream(OutputStream out, int level) throws IOException {
+			super(out, BUFFER_SIZE);
+			// Nothing has been deflated yet (the header is written
+			// directly), so the new level applies to the whole stream.
+			def.setLevel(level);
+		}
+
+		void end() {
+			def.end();
+		}
+	}
+}
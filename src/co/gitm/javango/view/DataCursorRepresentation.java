@@ -0,0 +1,97 @@
+package co.gitm.javango.view;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.restlet.data.CharacterSet;
+import org.restlet.data.MediaType;
+import org.restlet.representation.OutputRepresentation;
+
+import co.gitm.javango.data.DataCursor;
+import co.gitm.javango.data.DataObject;
+import co.gitm.javango.data.Query;
+import co.gitm.javango.data.exceptions.DataCursorException;
+import co.gitm.javango.json.JsonWriter;
+
+/**
+ * Writes the objects of a DataCursor to the response as a JSON array, one
+ * object at a time as they are read from the DataSource. Only one object is
+ * held in memory at any point, whatever the size of the result set, and objects
+ * are encoded (see JsonWriter) straight into the response's OutputStream. The
+ * cursor is closed once it has been written (or when the representation is
+ * released without being written).
+ *
+ * If the cursor holds a page of results (i.e. its Query has a limit), the array
+ * is wrapped in {"results": [...], "next": token}, where token points just past
+ * the last object written (see PageToken), or is null if the page was not full
+ * (so there are no more results).
+ *
+ */
+public class DataCursorRepresentation extends OutputRepresentation {
+	private final DataCursor cursor;
+	// Query which produced the cursor if it holds a page, otherwise null.
+	private final Query page;
+
+	public DataCursorRepresentation(DataCursor cursor, MediaType mediaType) {
+		this(cursor, mediaType, null);
+	}
+
+	public DataCursorRepresentation(DataCursor cursor, MediaType mediaType,
+			Query query) {
+		super(mediaType);
+		this.cursor = cursor;
+		this.page = query != null && query.getLimit() != null ? query : null;
+		this.setCharacterSet(CharacterSet.UTF_8);
+		// The cursor can only be read once.
+		this.setTransient(true);
+	}
+
+	@Override
+	public void write(OutputStream outputStream) throws IOException {
+		JsonWriter json = new JsonWriter(outputStream);
+		try {
+			if (page != null) {
+				json.beginObject().name("results");
+			}
+			json.beginArray();
+			int count = 0;
+			DataObject last = null;
+			while (cursor.hasNext()) {
+				last = cursor.next();
+				count++;
+				json.value(last);
+			}
+			json.endArray();
+			if (page != null) {
+				json.name("next");
+				// A full page means there may be more results.
+				if (last != null && count >= page.getLimit()) {
+					Object orderValue = page.getOrder() == null ? null : last
+							.get(page.getOrder());
+					Object keyValue = page.getKeyField() == null ? null : last
+							.get(page.getKeyField());
+					json.value(PageToken.encode(orderValue, keyValue));
+				} else {
+					json.value((Object) null);
+				}
+				json.endObject();
+			}
+		} catch (DataCursorException e) {
+			// Headers have already been sent, so all that can be done is to
+			// cut the response short.
+			throw new IOException(e.getMessage(), e);
+		} finally {
+			try {
+				json.close();
+			} finally {
+				cursor.close();
+			}
+		}
+	}
+
+	@Override
+	public void release() {
+		cursor.close();
+		super.release();
+	}
+}
@@ -0,0 +1,106 @@
+package co.gitm.javango.view;
+
+import java.util.List;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.restlet.data.Status;
+import org.restlet.representation.Representation;
+import org.restlet.resource.Get;
+import org.restlet.resource.ResourceException;
+
+import co.gitm.javango.metrics.QueryDiagnostics;
+import co.gitm.javango.metrics.QueryMetrics;
+import co.gitm.javango.metrics.QueryPlan;
+import co.gitm.javango.metrics.SlowQuery;
+
+/**
+ * Lists the application's query shapes as JSON, ranked by the total time spent
+ * running them, with each shape's call count, latency, plan (see
+ * QueryPlanAnalyzer) and latest slow calls, e.g.
+ *
+ * <pre>
+ * {"shapes": [{"operation": "select", "model": "books_books",
+ * "shape": "SELECT ...", "calls": 120, "totalMillis": 5400.2, ...,
+ * "plan": {"fullScan": true, "filesort": false, ...}}, ...],
+ * "slowQueries": [...]}
+ * </pre>
+ *
+ * The limit parameter sets how many shapes are listed (50 by default).
+ * Applications mount it on a route of their own, e.g.
+ * router.attach("/diagnostics", DiagnosticsView.class). Slow calls include the
+ * values bound to them, so the route should not be reachable from outside the
+ * deployment.
+ *
+ */
+public class DiagnosticsView extends View {
+	private static final int DEFAULT_LIMIT = 50;
+
+	@Get("json")
+	@SuppressWarnings("unchecked")
+	public Representation getDiagnostics() {
+		int limit = DEFAULT_LIMIT;
+		String limitValue = this.getQueryValue(LIMIT_PARAMETER);
+		if (limitValue != null) {
+			try {
+				limit = Integer.parseInt(limitValue);
+			} catch (NumberFormatException e) {
+				throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST,
+						"limit must be a number.");
+			}
+		}
+		JSONArray shapes = new JSONArray();
+		List<QueryMetrics> ranked = QueryDiagnostics.rankByTotalTime();
+		for (QueryMetrics query : ranked.subList(0,
+				Math.max(0, Math.min(limit, ranked.size())))) {
+			shapes.add(describe(query));
+		}
+		JSONArray slowQueries = new JSONArray();
+		for (SlowQuery slow : QueryDiagnostics.getSlowQueries()) {
+			slowQueries.add(describe(slow));
+		}
+		JSONObject diagnostics = new JSONObject();
+		diagnostics.put("shapes", shapes);
+		diagnostics.put("slowQueries", slowQueries);
+		return this.compress(this.writeAsJson(diagnostics));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static JSONObject describe(QueryMetrics query) {
+		JSONObject shape = new JSONObject();
+		shape.put("operation", query.getOperation());
+		shape.put("model", query.getModel());
+		shape.put("shape", query.getShape());
+		shape.put("calls", query.getCallCount());
+		shape.put("errors", query.getErrorCount());
+		shape.put("rows", query.getRowCount());
+		shape.put("totalMillis", query.getLatency().getSum() / 1e6);
+		shape.put("p50Millis", query.getLatency().getPercentile(0.5) / 1e6);
+		shape.put("p99Millis", query.getLatency().getPercentile(0.99) / 1e6);
+		shape.put("maxMillis", query.getLatency().getMax() / 1e6);
+		QueryPlan plan = QueryDiagnostics.getPlan(query.getShape());
+		if (plan != null) {
+			JSONObject planJson = new JSONObject();
+			planJson.put("fullScan", plan.isFullScan());
+			planJson.put("filesort", plan.isFilesort());
+			planJson.put("temporary", plan.isTemporary());
+			planJson.put("estimatedRows", plan.getEstimatedRows());
+			planJson.put("keys", plan.getKeys());
+			planJson.put("error", plan.getError());
+			shape.put("plan", planJson);
+		}
+		return shape;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static JSONObject describe(SlowQuery slow) {
+		JSONObject query = new JSONObject();
+		query.put("operation", slow.getOperation());
+		query.put("model", slow.getModel());
+		query.put("shape", slow.getShape());
+		query.put("parameters", slow.getParameters());
+		query.put("millis", slow.getNanos() / 1e6);
+		query.put("at", slow.getAt());
+		return query;
+	}
+}
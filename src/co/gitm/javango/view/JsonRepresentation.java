@@ -0,0 +1,37 @@
+package co.gitm.javango.view;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.restlet.data.CharacterSet;
+import org.restlet.data.MediaType;
+import org.restlet.representation.OutputRepresentation;
+
+import co.gitm.javango.json.JsonWriter;
+
+/**
+ * Writes a value which is already in memory (e.g. a DataObject, a
+ * DataObjectArray or a JSONArray) to the response as JSON, encoding it straight
+ * into the response's OutputStream (see JsonWriter) rather than building the
+ * whole document as a String first.
+ *
+ */
+public class JsonRepresentation extends OutputRepresentation {
+	private final Object value;
+
+	public JsonRepresentation(Object value) {
+		super(MediaType.APPLICATION_JSON);
+		this.value = value;
+		this.setCharacterSet(CharacterSet.UTF_8);
+	}
+
+	@Override
+	public void write(OutputStream outputStream) throws IOException {
+		JsonWriter json = new JsonWriter(outputStream);
+		try {
+			json.value(value);
+		} finally {
+			json.close();
+		}
+	}
+}
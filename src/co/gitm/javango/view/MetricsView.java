@@ -0,0 +1,35 @@
+package co.gitm.javango.view;
+
+import org.restlet.data.CharacterSet;
+import org.restlet.data.MediaType;
+import org.restlet.representation.Representation;
+import org.restlet.representation.StringRepresentation;
+import org.restlet.resource.Get;
+
+import co.gitm.javango.metrics.MetricsRegistry;
+import co.gitm.javango.metrics.PrometheusWriter;
+
+/**
+ * Sends the application's metrics (see MetricsRegistry) in the Prometheus text
+ * format, so that they can be scraped by Prometheus (or read by hand).
+ * Applications mount it on a route of their own, e.g. router.attach("/metrics",
+ * MetricsView.class).
+ *
+ * The page includes the SQL text (with ? placeholders, never values) of every
+ * query shape, so the route should not be reachable from outside the
+ * deployment.
+ *
+ */
+public class MetricsView extends View {
+	// text/plain with the format's version, which Prometheus checks.
+	private static final MediaType PROMETHEUS_TEXT = MediaType
+			.valueOf(PrometheusWriter.CONTENT_TYPE);
+
+	@Get("txt")
+	public Representation getMetrics() {
+		StringRepresentation page = new StringRepresentation(
+				MetricsRegistry.toPrometheus(), PROMETHEUS_TEXT);
+		page.setCharacterSet(CharacterSet.UTF_8);
+		return this.compress(page);
+	}
+}
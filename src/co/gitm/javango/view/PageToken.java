@@ -0,0 +1,80 @@
+package co.gitm.javango.view;
+
+import java.io.UnsupportedEncodingException;
+
+import org.json.simple.JSONArray;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Encodes the position of the last object on a page of results into an opaque
+ * token, which the user sends back (as the "after" query parameter) to get the
+ * next page. The token holds the object's order field and key field values, so
+ * the next page can be found with an index seek (see Query.setSeekAfter) rather
+ * than an offset.
+ *
+ * Tokens are hex encoded JSON, so they are safe to use in URLs as is.
+ *
+ */
+public final class PageToken {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private PageToken() {
+	}
+
+	/**
+	 * @return a token for the position after an object with these order and
+	 *         key values (either may be null).
+	 */
+	public static String encode(Object orderValue, Object keyValue) {
+		JSONArray position = new JSONArray();
+		// Values are kept as strings, MySQL converts them back when comparing.
+		position.add(orderValue == null ? null : orderValue.toString());
+		position.add(keyValue == null ? null : keyValue.toString());
+		byte[] bytes;
+		try {
+			bytes = position.toJSONString().getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		char[] token = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			token[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+			token[2 * i + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(token);
+	}
+
+	/**
+	 * @return the order value and key value held by token, in that order.
+	 * @throws IllegalArgumentException
+	 *             if token was not produced by encode.
+	 */
+	public static Object[] decode(String token) {
+		if (token.length() % 2 != 0) {
+			throw new IllegalArgumentException("Invalid page token.");
+		}
+		byte[] bytes = new byte[token.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			int high = Character.digit(token.charAt(2 * i), 16);
+			int low = Character.digit(token.charAt(2 * i + 1), 16);
+			if (high < 0 || low < 0) {
+				throw new IllegalArgumentException("Invalid page token.");
+			}
+			bytes[i] = (byte) ((high << 4) | low);
+		}
+		try {
+			Object position = new JSONParser().parse(new String(bytes,
+					"UTF-8"));
+			if (!(position instanceof JSONArray)
+					|| ((JSONArray) position).size() != 2) {
+				throw new IllegalArgumentException("Invalid page token.");
+			}
+			return ((JSONArray) position).toArray();
+		} catch (ParseException e) {
+			throw new IllegalArgumentException("Invalid page token.");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
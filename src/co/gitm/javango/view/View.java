@@ -1,12 +1,47 @@
 package co.gitm.javango.view;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.restlet.Response;
+import org.restlet.data.Dimension;
+import org.restlet.data.Encoding;
+import org.restlet.data.MediaType;
 import org.restlet.data.Parameter;
+import org.restlet.data.Preference;
+import org.restlet.data.Status;
+import org.restlet.data.Tag;
+import org.restlet.representation.EmptyRepresentation;
+import org.restlet.representation.OutputRepresentation;
+import org.restlet.representation.Representation;
+import org.restlet.resource.ResourceException;
 import org.restlet.resource.ServerResource;
 
-import co.gitm.javango.data.DataObject;
+import co.gitm.javango.application.JavangoApplication;
+import co.gitm.javango.application.ViewRouter;
+import co.gitm.javango.config.Config;
+import co.gitm.javango.config.Settings;
+import co.gitm.javango.data.DataCursor;
+import co.gitm.javango.data.Query;
+import co.gitm.javango.data.exceptions.MalformedDataException;
+import co.gitm.javango.data.exceptions.UnindexedFilterException;
+import co.gitm.javango.json.JsonReader;
+import co.gitm.javango.metrics.CompressionMetrics;
+import co.gitm.javango.metrics.MetricsRegistry;
+import co.gitm.javango.model.Model;
+import co.gitm.javango.model.VersionStore;
+import co.gitm.javango.routing.RouteMatch;
 
 /**
  * @author Alex McLeod
@@ -18,8 +53,315 @@ import co.gitm.javango.data.DataObject;
  *         This class basically just inherits all its functionality from the
  *         Restlet ServerResource class.
  * 
+ *         The URL pattern which sent a request to a view, and the path
+ *         parameters it matched, are given by getRouteMatch, e.g.
+ *         getRouteMatch().getInt("id") for books/&lt;int:id&gt;.
+ * 
+ *         Views which answer the same query over and over (e.g. clients
+ *         polling for changes) can tag their results with getTag, and answer
+ *         requests whose If-None-Match holds the tag with notModified, before
+ *         the model's datasource is queried.
+ * 
+ *         Large responses should be passed through compress, which
+ *         compresses them with the best coding the client accepts. Tagged
+ *         responses are then also kept compressed, so that getCompressed can
+ *         send them again without querying or compressing.
+ * 
  */
 public class View extends ServerResource {
+	/**
+	 * Query string parameters which control paging, rather than filtering.
+	 * limit is the page size, offset skips a number of objects, order names
+	 * the field to sort by (prefixed with '-' to sort in descending order) and
+	 * after holds the token of the previous page (see PageToken).
+	 */
+	public static final String LIMIT_PARAMETER = "limit";
+	public static final String OFFSET_PARAMETER = "offset";
+	public static final String ORDER_PARAMETER = "order";
+	public static final String AFTER_PARAMETER = "after";
+	/**
+	 * Query string parameter holding a comma separated list of the only fields
+	 * to return (e.g. ?fields=id,title).
+	 */
+	public static final String FIELDS_PARAMETER = "fields";
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	// How long a rate-limited client is asked to wait (see refused).
+	private static final long RETRY_AFTER_MILLIS = 1000;
+
+	private static final Set<String> RESERVED_PARAMETERS = new HashSet<String>(
+			Arrays.asList(LIMIT_PARAMETER, OFFSET_PARAMETER, ORDER_PARAMETER,
+					AFTER_PARAMETER, FIELDS_PARAMETER));
+
+	/**
+	 * @return the instance of modelClass registered with the application
+	 *         (see JavangoApplication.createModels). Views should use this
+	 *         rather than building their own models.
+	 * @throws IllegalStateException
+	 *             if the application is not a JavangoApplication, or has no
+	 *             such model.
+	 */
+	protected <T extends Model> T getModel(Class<T> modelClass) {
+		if (!(this.getApplication() instanceof JavangoApplication)) {
+			throw new IllegalStateException(
+					"Views must belong to a JavangoApplication to use getModel.");
+		}
+		return ((JavangoApplication) this.getApplication())
+				.getModel(modelClass);
+	}
+
+	/**
+	 * @return the URL route the request matched, and its path parameters, or
+	 *         null if the request was not routed by a ViewRouter.
+	 */
+	protected RouteMatch<?> getRouteMatch() {
+		return (RouteMatch<?>) this.getRequest().getAttributes()
+				.get(ViewRouter.MATCH_ATTRIBUTE);
+	}
+
+	/**
+	 * @return the path of the application's URL called name, with values as
+	 *         its parameters (see JavangoApplication.reverse).
+	 * @throws IllegalStateException
+	 *             if the application is not a JavangoApplication.
+	 */
+	protected String reverse(String name, Object... values) {
+		if (!(this.getApplication() instanceof JavangoApplication)) {
+			throw new IllegalStateException(
+					"Views must belong to a JavangoApplication to use reverse.");
+		}
+		return ((JavangoApplication) this.getApplication()).reverse(name,
+				values);
+	}
+
+	/**
+	 * @return the error to send the user when a model refused a filter which
+	 *         only uses unindexed fields (see UnindexedFilterPolicy):
+	 *         CLIENT_ERROR_BAD_REQUEST if the filter is never allowed, or
+	 *         SERVER_ERROR_SERVICE_UNAVAILABLE if it is being rate-limited, in
+	 *         which case the current response is told to retry after a second
+	 *         (when the model's RateLimiter gets new permits).
+	 */
+	protected static ResourceException refused(UnindexedFilterException e) {
+		if (!e.isRateLimited()) {
+			return new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST,
+					e.getMessage());
+		}
+		Response response = Response.getCurrent();
+		if (response != null) {
+			response.setRetryAfter(new Date(System.currentTimeMillis()
+					+ RETRY_AFTER_MILLIS));
+		}
+		return new ResourceException(Status.SERVER_ERROR_SERVICE_UNAVAILABLE,
+				e.getMessage());
+	}
+
+	/**
+	 * @param query
+	 *            built by model (see Model.newQuery), after its paging and
+	 *            fields have been applied.
+	 * @return a strong ETag for the results of query: the model's version
+	 *         (see Model.getVersion) and a hash of the normalized query (see
+	 *         Query.toNormalizedString), so it changes whenever the model is
+	 *         written to and differs between queries which return different
+	 *         objects. Null if the model's version is unknown, in which case
+	 *         the results should not be tagged. Must be called before the
+	 *         model is queried, and the tag set on the representation of the
+	 *         results (see Representation.setTag).
+	 */
+	protected Tag getTag(Model model, Query query) {
+		long version = model.getVersion();
+		if (version == VersionStore.UNKNOWN) {
+			return null;
+		}
+		byte[] hash;
+		try {
+			hash = MessageDigest.getInstance("SHA-1").digest(
+					query.toNormalizedString().getBytes("UTF-8"));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		// 64 bits of the hash are plenty to tell one client's queries apart.
+		StringBuilder opaque = new StringBuilder(Long.toHexString(version));
+		opaque.append('-');
+		for (int i = 0; i < 8; i++) {
+			opaque.append(HEX[(hash[i] >> 4) & 0xf]).append(HEX[hash[i] & 0xf]);
+		}
+		return new Tag(opaque.toString(), false);
+	}
+
+	/**
+	 * Answers a conditional GET, e.g.
+	 * 
+	 * <pre>
+	 * Tag tag = this.getTag(books, query);
+	 * Representation notModified = this.notModified(tag);
+	 * if (notModified != null) {
+	 * 	return notModified;
+	 * }
+	 * </pre>
+	 * 
+	 * @param tag
+	 *            of the results the request asks for (see getTag), or null.
+	 * @return null if the request's If-None-Match does not hold tag (or *),
+	 *         so the results must be sent. Otherwise, the response status is
+	 *         set to REDIRECTION_NOT_MODIFIED (304) and an empty
+	 *         representation (carrying the tag the client sent) is returned,
+	 *         which the handler should return straight away. The tags of
+	 *         compressed results (see compress) match too.
+	 */
+	protected Representation notModified(Tag tag) {
+		if (tag == null || this.getRequest().getConditions() == null) {
+			return null;
+		}
+		List<Tag> noneMatch = this.getRequest().getConditions().getNoneMatch();
+		if (noneMatch == null) {
+			return null;
+		}
+		String gzip = CompressedRepresentation.tagFor(tag, Encoding.GZIP)
+				.getName();
+		String deflate = CompressedRepresentation.tagFor(tag,
+				Encoding.DEFLATE).getName();
+		for (Tag candidate : noneMatch) {
+			// If-None-Match compares tags weakly, i.e. by their opaque part.
+			String name = candidate.getName();
+			if ("*".equals(name) || tag.getName().equals(name)
+					|| gzip.equals(name) || deflate.equals(name)) {
+				this.setStatus(Status.REDIRECTION_NOT_MODIFIED);
+				this.getResponse().getDimensions().add(Dimension.ENCODING);
+				Representation empty = new EmptyRepresentation();
+				empty.setTag("*".equals(name) ? tag : candidate);
+				return empty;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the name the compression metrics of this view's responses are
+	 *         recorded under (see MetricsRegistry.forCompression): the name of
+	 *         the URL route the request matched, or the view's class name if
+	 *         the route has no name, unless a child-class overrides this.
+	 */
+	protected String getRouteName() {
+		RouteMatch<?> match = this.getRouteMatch();
+		if (match != null && match.getRoute().getName() != null) {
+			return match.getRoute().getName();
+		}
+		return this.getClass().getSimpleName();
+	}
+
+	/**
+	 * @param representation
+	 *            to send to the user, with its tag (if any) already set.
+	 * @return representation compressed with gzip or deflate (see
+	 *         CompressedRepresentation), whichever the client prefers, or
+	 *         representation itself if the client accepts neither, or it is
+	 *         smaller than the compression minsize setting. Representations
+	 *         whose size is not known in advance are always compressed. If
+	 *         representation has a tag, the compressed bytes are cached for
+	 *         getCompressed.
+	 */
+	protected Representation compress(Representation representation) {
+		if (representation == null) {
+			return null;
+		}
+		CompressionMetrics metrics = MetricsRegistry.forCompression(this
+				.getRouteName());
+		// The response depends on the client's Accept-Encoding.
+		this.getResponse().getDimensions().add(Dimension.ENCODING);
+		Settings.Compression settings = Config.get().getCompression();
+		Encoding encoding = this.negotiateEncoding();
+		long size = representation.getSize();
+		if (encoding == null || size != Representation.UNKNOWN_SIZE
+				&& size < settings.getMinSize()) {
+			metrics.recordUncompressed();
+			return representation;
+		}
+		Tag tag = representation.getTag();
+		String cacheKey = tag == null || settings.getCacheSize() <= 0 ? null
+				: CompressedCache.key(this.getRouteName(), tag.getName(),
+						encoding.getName());
+		return new CompressedRepresentation(representation, encoding,
+				settings.getLevel(), metrics, cacheKey);
+	}
+
+	/**
+	 * @param tag
+	 *            of the results the request asks for (see getTag), or null.
+	 * @return the results, as compressed (and cached) by an earlier call to
+	 *         compress, in the coding the client prefers, or null if they
+	 *         are not cached (or the client accepts no compressed coding).
+	 *         Must be called after notModified.
+	 */
+	protected Representation getCompressed(Tag tag) {
+		if (tag == null) {
+			return null;
+		}
+		Encoding encoding = this.negotiateEncoding();
+		if (encoding == null) {
+			return null;
+		}
+		String route = this.getRouteName();
+		CompressedCache.Entry entry = CompressedCache.get(CompressedCache.key(
+				route, tag.getName(), encoding.getName()));
+		if (entry == null) {
+			return null;
+		}
+		MetricsRegistry.forCompression(route).recordCacheHit();
+		this.getResponse().getDimensions().add(Dimension.ENCODING);
+		final byte[] bytes = entry.getBytes();
+		Representation cached = new OutputRepresentation(
+				entry.getMediaType(), bytes.length) {
+			@Override
+			public void write(OutputStream outputStream) throws IOException {
+				outputStream.write(bytes);
+			}
+		};
+		cached.setCharacterSet(entry.getCharacterSet());
+		cached.getEncodings().add(encoding);
+		cached.setTag(CompressedRepresentation.tagFor(tag, encoding));
+		return cached;
+	}
+
+	/**
+	 * @return the compressed coding the client prefers (Encoding.GZIP or
+	 *         Encoding.DEFLATE, gzip if it has no preference), or null if it
+	 *         accepts neither.
+	 */
+	private Encoding negotiateEncoding() {
+		List<Preference<Encoding>> accepted = this.getRequest()
+				.getClientInfo().getAcceptedEncodings();
+		if (accepted == null) {
+			return null;
+		}
+		float gzip = -1;
+		float deflate = -1;
+		float any = -1;
+		for (Preference<Encoding> preference : accepted) {
+			String name = preference.getMetadata().getName();
+			float quality = preference.getQuality();
+			if ("gzip".equalsIgnoreCase(name)
+					|| "x-gzip".equalsIgnoreCase(name)) {
+				gzip = Math.max(gzip, quality);
+			} else if ("deflate".equalsIgnoreCase(name)) {
+				deflate = Math.max(deflate, quality);
+			} else if ("*".equals(name)) {
+				any = Math.max(any, quality);
+			}
+		}
+		// Codings which are not listed take the quality of *, if it is.
+		gzip = gzip < 0 ? any : gzip;
+		deflate = deflate < 0 ? any : deflate;
+		if (gzip <= 0 && deflate <= 0) {
+			return null;
+		}
+		return gzip >= deflate ? Encoding.GZIP : Encoding.DEFLATE;
+	}
+
 	/**
 	 * The parent class has a getQuery method which returns the key-value pairs
 	 * in the query string of the current request. However, it returns these
@@ -38,4 +380,180 @@ public class View extends ServerResource {
 		}
 		return newMap;
 	}
+
+	/**
+	 * @return the same as getQueryAsMap, minus the parameters which control
+	 *         paging (limit, offset, order and after) and projection (fields).
+	 *         This is what should be used as a Model filter.
+	 */
+	protected Map<String, String> getFilterFromQuery() {
+		Map<String, String> filter = new HashMap<String, String>();
+		for (Parameter parameter : this.getQuery()) {
+			if (!RESERVED_PARAMETERS.contains(parameter.getName())) {
+				filter.put(parameter.getName(), parameter.getValue());
+			}
+		}
+		return filter;
+	}
+
+	/**
+	 * Sets the order and page of query from the current request's limit,
+	 * offset, order and after parameters. The limit is capped at the
+	 * server.maxpagesize setting.
+	 * 
+	 * @throws ResourceException
+	 *             (400) if any of these parameters is malformed.
+	 */
+	protected void applyPaging(Query query) {
+		String order = this.getQueryValue(ORDER_PARAMETER);
+		if (order != null && order.length() > 0) {
+			if (order.startsWith("-")) {
+				query.setDescending(true);
+				order = order.substring(1);
+			}
+			query.setOrder(order);
+		}
+		try {
+			String limit = this.getQueryValue(LIMIT_PARAMETER);
+			if (limit != null) {
+				int maxPageSize = Config.get().getServer().getMaxPageSize();
+				query.setLimit(Math.min(Integer.parseInt(limit), maxPageSize));
+			}
+			String offset = this.getQueryValue(OFFSET_PARAMETER);
+			if (offset != null) {
+				query.setOffset(Integer.parseInt(offset));
+			}
+			String after = this.getQueryValue(AFTER_PARAMETER);
+			if (after != null) {
+				Object[] position = PageToken.decode(after);
+				query.setSeekAfter(position[0], position[1]);
+			}
+		} catch (IllegalArgumentException e) {
+			// Includes NumberFormatException.
+			throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST,
+					String.format(
+							"Invalid paging parameter (%s, %s, %s or %s): %s",
+							LIMIT_PARAMETER, OFFSET_PARAMETER,
+							ORDER_PARAMETER, AFTER_PARAMETER, e.getMessage()));
+		}
+	}
+
+	/**
+	 * Limits query to the fields listed in the current request's fields
+	 * parameter, if there is one. The Model checks that the fields exist.
+	 */
+	protected void applyFields(Query query) {
+		String fields = this.getQueryValue(FIELDS_PARAMETER);
+		if (fields == null || fields.trim().length() == 0) {
+			return;
+		}
+		List<String> projection = new ArrayList<String>();
+		for (String field : fields.split(",")) {
+			field = field.trim();
+			if (field.length() > 0) {
+				projection.add(field);
+			}
+		}
+		query.setFields(projection);
+	}
+
+	/**
+	 * Parses a JSON request body straight from the request stream (see
+	 * JsonReader), checking every field against model as it goes.
+	 * 
+	 * @param entity
+	 *            request body (e.g. POST data).
+	 * @param model
+	 *            which the objects in the body belong to.
+	 * @return a DataObject if the body is a JSON object, or a DataObjectArray
+	 *         if it is a JSON array of objects.
+	 * @throws ResourceException
+	 *             CLIENT_ERROR_REQUEST_ENTITY_TOO_LARGE (413) if the body is
+	 *             larger than the server.maxbodysize setting, or
+	 *             CLIENT_ERROR_NOT_ACCEPTABLE (406) if it is malformed or has
+	 *             fields which model does not have.
+	 */
+	protected Object readJson(Representation entity, Model model) {
+		Settings.Server settings = Config.get().getServer();
+		if (entity == null) {
+			throw new ResourceException(Status.CLIENT_ERROR_NOT_ACCEPTABLE,
+					"Your request has no body.");
+		}
+		// Reject bodies which say they are too large before reading them.
+		if (entity.getSize() > settings.getMaxBodySize()) {
+			throw new ResourceException(
+					Status.CLIENT_ERROR_REQUEST_ENTITY_TOO_LARGE, String.format(
+							"Request bodies may be at most %d bytes.",
+							settings.getMaxBodySize()));
+		}
+		JsonReader reader = null;
+		try {
+			reader = new JsonReader(entity.getStream(),
+					settings.getMaxBodySize(), settings.getMaxJsonDepth());
+			reader.setFields(model.getFields());
+			return reader.readObjectOrArray();
+		} catch (MalformedDataException e) {
+			switch (e.getReason()) {
+			case TOO_LARGE:
+				throw new ResourceException(
+						Status.CLIENT_ERROR_REQUEST_ENTITY_TOO_LARGE,
+						e.getMessage());
+			case UNKNOWN_FIELD:
+				throw new ResourceException(
+						Status.CLIENT_ERROR_NOT_ACCEPTABLE, String.format(
+								"The '%s' model does not have that field: %s",
+								model.getName(), e.getMessage()));
+			default:
+				throw new ResourceException(
+						Status.CLIENT_ERROR_NOT_ACCEPTABLE, String.format(
+								"Your request is malformed. Ensure your JSON is correctly formatted: %s",
+								e.getMessage()));
+			}
+		} catch (IOException e) {
+			throw new ResourceException(Status.CLIENT_ERROR_NOT_ACCEPTABLE,
+					"Your request could not be read.");
+		} finally {
+			if (reader != null) {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * @param cursor
+	 *            over the objects to return to the user (e.g. from
+	 *            Model.streamWithFilter).
+	 * @return a representation which streams the cursor's objects to the user
+	 *         as a JSON array as they are read, and then closes the cursor.
+	 */
+	protected Representation streamAsJson(DataCursor cursor) {
+		return new DataCursorRepresentation(cursor, MediaType.APPLICATION_JSON);
+	}
+
+	/**
+	 * @param cursor
+	 *            over the objects to return to the user.
+	 * @param query
+	 *            which produced the cursor.
+	 * @return the same as streamAsJson(cursor), unless query asks for a page
+	 *         of results (i.e. has a limit). In that case the objects are
+	 *         wrapped in {"results": [...], "next": token}, where token can be
+	 *         sent back as the after parameter to get the next page (and is
+	 *         null on the last page).
+	 */
+	protected Representation streamAsJson(DataCursor cursor, Query query) {
+		return new DataCursorRepresentation(cursor,
+				MediaType.APPLICATION_JSON, query);
+	}
+
+	/**
+	 * @param value
+	 *            to return to the user (e.g. a DataObject or a
+	 *            DataObjectArray from Model.getWithFilter).
+	 * @return a representation which writes value to the user as JSON,
+	 *         without building it as a String first.
+	 */
+	protected Representation writeAsJson(Object value) {
+		return new JsonRepresentation(value);
+	}
 }
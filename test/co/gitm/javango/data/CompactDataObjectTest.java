@@ -0,0 +1,188 @@
+package co.gitm.javango.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+
+import co.gitm.javango.data.RowSchema.Kind;
+import co.gitm.javango.json.JsonWriter;
+
+/**
+ * Tests that CompactDataObject behaves like the DataObject it replaces, before
+ * and after adding or removing a field turns it into an ordinary one.
+ */
+public class CompactDataObjectTest {
+	private static final RowSchema SCHEMA = new RowSchema(new String[] {
+			"id", "title", "pages", "rrp", "rating", "weight" }, new Kind[] {
+			Kind.LONG, Kind.OBJECT, Kind.INT, Kind.OBJECT, Kind.DOUBLE,
+			Kind.FLOAT });
+
+	private static CompactDataObject row() {
+		CompactDataObject row = new CompactDataObject(SCHEMA);
+		row.setValue(0, Long.valueOf(42));
+		row.setValue(1, "Nineteen \"Eighty\"-Four\n");
+		row.setValue(2, Integer.valueOf(328));
+		row.setValue(3, new BigDecimal("9.99"));
+		row.setValue(4, Double.valueOf(4.5));
+		row.setValue(5, Float.valueOf(0.25f));
+		return row;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static DataObject copy(Map<?, ?> row) {
+		DataObject copy = new DataObject();
+		copy.putAll(row);
+		return copy;
+	}
+
+	private static String write(Object value) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonWriter writer = new JsonWriter(out);
+		writer.value(value);
+		writer.close();
+		return out.toString("UTF-8");
+	}
+
+	private static Object parse(String json) throws Exception {
+		return new JSONParser().parse(json);
+	}
+
+	@Test
+	public void readsLikeAMap() {
+		CompactDataObject row = row();
+		assertEquals(6, row.size());
+		assertEquals(Long.valueOf(42), row.get("id"));
+		assertEquals(Integer.valueOf(328), row.get("pages"));
+		assertEquals(Float.valueOf(0.25f), row.get("weight"));
+		assertTrue(row.isPrimitive(0));
+		assertFalse(row.isPrimitive(1));
+		assertTrue(row.containsKey("rrp"));
+		assertFalse(row.containsKey("missing"));
+		assertTrue(row.containsValue(Double.valueOf(4.5)));
+		assertEquals(copy(row), row);
+		assertEquals(copy(row).hashCode(), row.hashCode());
+	}
+
+	@Test
+	public void setsSchemaFieldsInPlace() {
+		CompactDataObject row = row();
+		assertEquals(Integer.valueOf(328), row.put("pages", Integer.valueOf(1)));
+		assertEquals(Integer.valueOf(1), row.get("pages"));
+		// A value of another type than the column's is held as an object.
+		row.put("id", "x");
+		assertEquals("x", row.get("id"));
+		assertFalse(row.isPrimitive(0));
+		assertNotNull(row.getSchema());
+		assertNull(row.remove("missing"));
+		assertNotNull(row.getSchema());
+	}
+
+	@Test
+	public void inflatesWhenFieldsAreAddedOrRemoved() {
+		CompactDataObject row = row();
+		DataObject expected = copy(row);
+		row.put("format", "Paperback");
+		expected.put("format", "Paperback");
+		assertNull(row.getSchema());
+		assertEquals(expected, row);
+		assertEquals(7, row.size());
+
+		row = row();
+		expected = copy(row);
+		assertEquals(Integer.valueOf(328), row.remove("pages"));
+		expected.remove("pages");
+		assertNull(row.getSchema());
+		assertEquals(expected, row);
+		assertFalse(row.containsKey("pages"));
+
+		row = row();
+		row.clear();
+		assertTrue(row.isEmpty());
+	}
+
+	@Test
+	public void viewsFollowTheRowOnceItInflates() {
+		CompactDataObject row = row();
+		Set<?> keys = row.keySet();
+		Collection<?> values = row.values();
+		Set<?> entries = row.entrySet();
+		Map.Entry<?, ?> title = null;
+		for (Object entry : entries) {
+			if ("title".equals(((Map.Entry<?, ?>) entry).getKey())) {
+				title = (Map.Entry<?, ?>) entry;
+			}
+		}
+		assertEquals(6, keys.size());
+
+		row.put("format", "Paperback");
+		row.remove("rating");
+		assertEquals(6, keys.size());
+		assertEquals(6, values.size());
+		assertEquals(6, entries.size());
+		assertTrue(keys.contains("format"));
+		assertFalse(keys.contains("rating"));
+		assertTrue(values.contains("Paperback"));
+		assertEquals(row.keySet(), new HashSet<Object>(keys));
+		assertEquals(row.entrySet(), new HashSet<Object>(entries));
+
+		// Entries read and write through by name.
+		assertEquals("Nineteen \"Eighty\"-Four\n", title.getValue());
+		row.put("title", "Animal Farm");
+		assertEquals("Animal Farm", title.getValue());
+	}
+
+	@Test
+	public void iteratorsFailOnceTheRowInflates() {
+		CompactDataObject row = row();
+		Iterator<?> keys = row.keySet().iterator();
+		keys.next();
+		row.put("format", "Paperback");
+		try {
+			keys.next();
+			fail("Iterated over columns which are gone.");
+		} catch (ConcurrentModificationException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void writesTheSameJsonAsDataObject() throws Exception {
+		CompactDataObject row = row();
+		DataObject expected = copy(row);
+		assertEquals(parse(expected.toJSONString()), parse(write(row)));
+		assertEquals(parse(expected.toJSONString()), parse(row.toJSONString()));
+		assertEquals(parse(write(expected)), parse(write(row)));
+
+		row.put("format", "Paperback");
+		expected.put("format", "Paperback");
+		assertEquals(parse(expected.toJSONString()), parse(write(row)));
+		assertEquals(parse(expected.toJSONString()), parse(row.toJSONString()));
+	}
+
+	@Test
+	public void clonesKeepTheSchema() {
+		CompactDataObject row = row();
+		row.setObjectName("books_books");
+		CompactDataObject copy = (CompactDataObject) row.clone();
+		assertTrue(copy.getSchema() == SCHEMA);
+		assertEquals(row, copy);
+		assertEquals("books_books", copy.getObjectName());
+		copy.put("pages", Integer.valueOf(1));
+		assertEquals(Integer.valueOf(328), row.get("pages"));
+	}
+}
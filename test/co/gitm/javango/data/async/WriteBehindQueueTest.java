@@ -0,0 +1,229 @@
+package co.gitm.javango.data.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import co.gitm.javango.data.DataCursor;
+import co.gitm.javango.data.DataObject;
+import co.gitm.javango.data.DataObjectArray;
+import co.gitm.javango.data.DataSource;
+import co.gitm.javango.data.Query;
+import co.gitm.javango.data.exceptions.CreateException;
+
+/**
+ * Tests that WriteBehindQueue retries, bisects and dead letters failed
+ * batches, and accounts for every object it accepts when it is shut down.
+ */
+public class WriteBehindQueueTest {
+
+	/**
+	 * Writes objects to a list, failing the first failures calls and any
+	 * batch holding an object with a "bad" field.
+	 */
+	private static class FakeDataSource implements DataSource {
+		final List<DataObject> created = Collections
+				.synchronizedList(new ArrayList<DataObject>());
+		final CountDownLatch blocked;
+		int failures;
+		int calls;
+
+		FakeDataSource(int failures, CountDownLatch blocked) {
+			this.failures = failures;
+			this.blocked = blocked;
+		}
+
+		public void create(DataObject newData) throws CreateException {
+			DataObjectArray single = new DataObjectArray();
+			single.add(newData);
+			this.createAll(single);
+		}
+
+		public int createAll(DataObjectArray newData) throws CreateException {
+			synchronized (this) {
+				calls++;
+				if (failures > 0) {
+					failures--;
+					throw new CreateException("Lost the connection.");
+				}
+			}
+			if (blocked != null) {
+				try {
+					blocked.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new CreateException("Interrupted.");
+				}
+			}
+			for (int i = 0; i < newData.size(); i++) {
+				if (((DataObject) newData.get(i)).containsKey("bad")) {
+					throw new CreateException("Bad row.", i);
+				}
+			}
+			for (Object obj : newData) {
+				created.add((DataObject) obj);
+			}
+			return newData.size();
+		}
+
+		public DataObjectArray retrieve(Query query) {
+			throw new UnsupportedOperationException();
+		}
+
+		public DataCursor stream(Query query) {
+			throw new UnsupportedOperationException();
+		}
+
+		public int update(Query query, DataObject changes) {
+			throw new UnsupportedOperationException();
+		}
+
+		public int delete(Query query) {
+			throw new UnsupportedOperationException();
+		}
+
+		public void close() {
+		}
+	}
+
+	private static class Recorder implements DeadLetterHandler {
+		final List<DataObject> objects = Collections
+				.synchronizedList(new ArrayList<DataObject>());
+		final List<Integer> attempts = Collections
+				.synchronizedList(new ArrayList<Integer>());
+
+		public void deadLettered(DataObject obj, CreateException error,
+				int attempts) {
+			objects.add(obj);
+			this.attempts.add(Integer.valueOf(attempts));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static DataObject book(int id) {
+		DataObject obj = new DataObject();
+		obj.put("id", Integer.valueOf(id));
+		return obj;
+	}
+
+	@Test
+	public void retriesTransientFailures() throws Exception {
+		FakeDataSource dataSource = new FakeDataSource(2, null);
+		Recorder deadLetters = new Recorder();
+		WriteBehindQueue queue = new WriteBehindQueue("test", dataSource, 10,
+				10, 10, 100, 3, deadLetters, null);
+		for (int i = 0; i < 3; i++) {
+			queue.add(book(i));
+		}
+		assertTrue(queue.shutdown(5000));
+		assertEquals(3, dataSource.created.size());
+		assertEquals(3, queue.getWrittenCount());
+		assertEquals(2, queue.getRetriedCount());
+		assertEquals(0, queue.getDeadLetteredCount());
+		assertTrue(deadLetters.objects.isEmpty());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void bisectsBatchesToDeadLetterBadRows() throws Exception {
+		FakeDataSource dataSource = new FakeDataSource(0, null);
+		Recorder deadLetters = new Recorder();
+		// One batch of 8, which waits for all of them.
+		WriteBehindQueue queue = new WriteBehindQueue("test", dataSource, 10,
+				8, 5000, 100, 2, deadLetters, null);
+		DataObject bad = book(5);
+		bad.put("bad", Boolean.TRUE);
+		for (int i = 0; i < 8; i++) {
+			queue.add(i == 5 ? bad : book(i));
+		}
+		assertTrue(queue.shutdown(5000));
+		assertEquals(7, queue.getWrittenCount());
+		assertEquals(7, dataSource.created.size());
+		assertFalse(dataSource.created.contains(bad));
+		assertEquals(1, queue.getDeadLetteredCount());
+		assertEquals(1, deadLetters.objects.size());
+		assertTrue(deadLetters.objects.get(0) == bad);
+		assertEquals(Integer.valueOf(2), deadLetters.attempts.get(0));
+		// The whole batch, its halves, quarters, and the bad row twice.
+		assertTrue(dataSource.calls <= 2 * 8 + 2);
+	}
+
+	@Test
+	public void deadLettersAFullQueueWhenShutdownTimesOut() throws Exception {
+		CountDownLatch blocked = new CountDownLatch(1);
+		FakeDataSource dataSource = new FakeDataSource(0, blocked);
+		Recorder deadLetters = new Recorder();
+		WriteBehindQueue queue = new WriteBehindQueue("test", dataSource, 4,
+				1, 0, 10, 3, deadLetters, null);
+		int accepted = 0;
+		try {
+			for (int i = 0; i < 10; i++) {
+				queue.add(book(i));
+				accepted++;
+			}
+			fail("Accepted more than the queue holds.");
+		} catch (RejectedExecutionException e) {
+			// Expected, once the queue is full behind the blocked write.
+		}
+		assertEquals(queue.getCapacity(), queue.getDepth());
+		assertEquals(accepted, queue.getAcceptedCount());
+
+		assertFalse(queue.shutdown(200));
+		assertEquals(0, queue.getWrittenCount());
+		assertEquals(accepted, queue.getDeadLetteredCount());
+		assertEquals(accepted, deadLetters.objects.size());
+		assertEquals(0, queue.getDepth());
+		try {
+			queue.add(book(10));
+			fail("Accepted an object after shutdown.");
+		} catch (RejectedExecutionException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void accountsForObjectsAddedDuringShutdown() throws Exception {
+		for (int run = 0; run < 20; run++) {
+			FakeDataSource dataSource = new FakeDataSource(0, null);
+			Recorder deadLetters = new Recorder();
+			final WriteBehindQueue queue = new WriteBehindQueue("test",
+					dataSource, 1000, 50, 1, 10, 3, deadLetters, null);
+			final CountDownLatch started = new CountDownLatch(4);
+			List<Thread> adders = new ArrayList<Thread>();
+			for (int t = 0; t < 4; t++) {
+				Thread adder = new Thread() {
+					public void run() {
+						started.countDown();
+						try {
+							for (int i = 0; i < 100000; i++) {
+								queue.add(book(i));
+							}
+						} catch (RejectedExecutionException e) {
+							// Shut down (or full).
+						}
+					}
+				};
+				adders.add(adder);
+				adder.start();
+			}
+			started.await();
+			assertTrue(queue.shutdown(5000));
+			for (Thread adder : adders) {
+				adder.join(TimeUnit.SECONDS.toMillis(5));
+			}
+			assertEquals(queue.getAcceptedCount(), queue.getWrittenCount()
+					+ queue.getDeadLetteredCount());
+			assertEquals(queue.getWrittenCount(), dataSource.created.size());
+		}
+	}
+}
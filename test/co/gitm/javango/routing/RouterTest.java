@@ -0,0 +1,202 @@
+package co.gitm.javango.routing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests of Router.resolve and reverse, and of how RouteMatch reads parameters
+ * from the path.
+ *
+ */
+public class RouterTest {
+	private static Router<String> router(String... patterns) {
+		List<Route<String>> routes = new ArrayList<Route<String>>();
+		for (String pattern : patterns) {
+			routes.add(Route.of(pattern, pattern, pattern));
+		}
+		return new Router<String>(routes);
+	}
+
+	private static String target(Router<String> router, String path) {
+		RouteMatch<String> match = router.resolve(path);
+		return match == null ? null : match.getRoute().getTarget();
+	}
+
+	@Test
+	public void resolvesLiteralsExactly() {
+		Router<String> router = router("books", "books/new", "");
+		assertEquals("books", target(router, "/books"));
+		assertEquals("books", target(router, "books"));
+		assertEquals("books/new", target(router, "/books/new"));
+		assertEquals("", target(router, "/"));
+		assertNull(target(router, "/books/"));
+		assertNull(target(router, "/book"));
+		assertNull(target(router, "/booksx"));
+	}
+
+	@Test
+	public void prefersLiteralsToParameters() {
+		Router<String> router = router("books/<slug:title>", "books/new",
+				"books/<int:id>");
+		assertEquals("books/new", target(router, "/books/new"));
+		assertEquals("books/<int:id>", target(router, "/books/42"));
+		assertEquals("books/<slug:title>", target(router, "/books/new-ish"));
+	}
+
+	@Test
+	public void readsTypedParameters() {
+		Router<String> router = router(
+				"books/<int:id>/reviews/<reviewer>",
+				"u/<uuid:key>", "files/<path:file>/edit");
+		RouteMatch<String> match = router
+				.resolve("/books/42/reviews/al%20ex");
+		assertEquals(42, match.getInt("id"));
+		assertEquals("al ex", match.getString("reviewer"));
+		assertEquals(2, match.getCount());
+		assertEquals("reviewer", match.getName(1));
+
+		match = router.resolve("/u/075194d3-6885-417e-a8a8-6c931e272f00");
+		assertEquals("075194d3-6885-417e-a8a8-6c931e272f00",
+				match.getString("key"));
+		assertNull(router.resolve("/u/075194d3-6885-417e-a8a8-6c931e272f0"));
+
+		match = router.resolve("/files/a/b/edit/c/edit");
+		assertEquals("a/b/edit/c", match.getString("file"));
+	}
+
+	@Test
+	public void strStopsAtSlashes() {
+		Router<String> router = router("a/<str:x>", "a/<str:x>/b");
+		assertEquals("a/<str:x>", target(router, "/a/x.y"));
+		assertEquals("a/<str:x>/b", target(router, "/a/x/b"));
+		assertNull(target(router, "/a/x/c"));
+	}
+
+	@Test
+	public void refusesAmbiguousPatterns() {
+		String[] patterns = { "a/<x><y>", "a/<str:x>.json",
+				"a/<path:x>.txt", "a/<int:x>0", "a/<foo:x>", "a/<x>/<x>",
+				"a/<int:>", "a/<x" };
+		for (String pattern : patterns) {
+			try {
+				UrlPattern.parse(pattern);
+				fail("Accepted " + pattern);
+			} catch (IllegalArgumentException e) {
+				// Expected.
+			}
+		}
+		// Parameters followed by characters they do not take are fine.
+		UrlPattern.parse("a/<int:x>.json");
+		UrlPattern.parse("a/<slug:x>.json");
+	}
+
+	@Test
+	public void refusesConflictingRoutes() {
+		try {
+			new Router<String>(Arrays.asList(Route.of("a/<int:x>", "1", null),
+					Route.of("a/<int:y>", "2", null)));
+			fail("Accepted two routes with the same pattern.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		try {
+			new Router<String>(Arrays.asList(Route.of("a", "1", "a"),
+					Route.of("b", "2", "a")));
+			fail("Accepted two routes with the same name.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void reversesAndResolvesTheSamePath() {
+		Router<String> router = router("books/<int:id>/reviews/<reviewer>",
+				"files/<path:file>/edit");
+		String path = router.reverse("books/<int:id>/reviews/<reviewer>", 7,
+				"al ex/\u00e9");
+		assertEquals("/books/7/reviews/al%20ex%2F%C3%A9", path);
+		assertEquals("al ex/\u00e9", router.resolve(path).getString(
+				"reviewer"));
+		assertEquals("/files/a%20b/c/edit", router.reverse(
+				"files/<path:file>/edit", "a b/c"));
+		try {
+			router.reverse("books/<int:id>/reviews/<reviewer>", "x", "y");
+			fail("Reversed a non-numeric int.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		try {
+			router.reverse("missing");
+			fail("Reversed a missing route.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void decodesPercentEscapes() {
+		assertEquals("abc", RouteMatch.decode("xabcx", 1, 4));
+		assertEquals("a b", RouteMatch.decode("a%20b", 0, 5));
+		assertEquals("\u00e9!", RouteMatch.decode("%C3%A9!", 0, 7));
+		// Malformed or cut off escapes are kept as they are.
+		assertEquals("100%", RouteMatch.decode("100%", 0, 4));
+		assertEquals("%zz", RouteMatch.decode("%zz", 0, 3));
+		assertEquals("%2", RouteMatch.decode("%20", 0, 2));
+	}
+
+	@Test
+	public void parsesNumbersWithoutOverflowing() {
+		Router<String> router = router("<x>");
+		assertEquals(Long.MAX_VALUE, router.resolve("/9223372036854775807")
+				.getLong("x"));
+		assertEquals(Long.MIN_VALUE, router.resolve("/-9223372036854775808")
+				.getLong("x"));
+		String[] bad = { "/9223372036854775808", "/-", "/12a" };
+		for (String path : bad) {
+			try {
+				router.resolve(path).getLong("x");
+				fail("Parsed " + path);
+			} catch (NumberFormatException e) {
+				// Expected.
+			}
+		}
+		try {
+			router.resolve("/2147483648").getInt("x");
+			fail("Parsed an int which overflows.");
+		} catch (NumberFormatException e) {
+			// Expected.
+		}
+	}
+
+	@Test(timeout = 2000)
+	public void failingPathsDoNotBacktrack() {
+		Router<String> router = router("<a>/<b>/<c>/edit",
+				"<slug:a>/<slug:b>/<slug:c>/edit", "<path:a>/<path:b>/edit");
+		StringBuilder path = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			path.append("/aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+		}
+		assertNull(router.resolve(path.toString()));
+	}
+
+	@Test
+	public void resolvesAmongManyRoutes() {
+		List<Route<String>> routes = new ArrayList<Route<String>>();
+		for (int i = 0; i < 1000; i++) {
+			routes.add(Route.of("api/v1/res" + i + "/<int:id>", "r" + i,
+					"r" + i));
+		}
+		Router<String> router = new Router<String>(routes);
+		RouteMatch<String> match = router.resolve("/api/v1/res777/5");
+		assertEquals("r777", match.getRoute().getTarget());
+		assertEquals(5, match.getInt("id"));
+		assertEquals("/api/v1/res12/3", router.reverse("r12", 3));
+	}
+}